@@ -3,7 +3,10 @@ package com.example.android.inventoryapp;
 import android.app.AlertDialog;
 import android.app.LoaderManager;
 import android.widget.Button;
+import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -13,17 +16,28 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.app.NavUtils;
 import android.support.v7.app.AppCompatActivity;
+import android.text.InputType;
 import android.text.TextUtils;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.MotionEvent;
 import android.view.View;
+import android.widget.AdapterView;
+import android.widget.AutoCompleteTextView;
 import android.widget.EditText;
+import android.widget.FilterQueryProvider;
+import android.widget.SimpleCursorAdapter;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import com.example.android.inventoryapp.data.ProductContract;
+import com.example.android.inventoryapp.data.ProductContract.LocationEntry;
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.StockEntry;
+import com.example.android.inventoryapp.data.ProductContract.SupplierEntry;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Allows user to create a new product or edit an existing one.
@@ -36,6 +50,11 @@ public class EditorActivity extends AppCompatActivity implements
      */
     private static final int EXISTING_PRODUCT_LOADER = 0;
 
+    /**
+     * Identifier for the loader of the product stock at every location
+     */
+    private static final int STOCK_LOADER = 1;
+
     /**
      * Constant for the CALL_DIAL Intent
      */
@@ -70,15 +89,54 @@ public class EditorActivity extends AppCompatActivity implements
     private String quantityProductString;
 
     /**
-     * EditText field to enter the products supplier name
+     * TextView field to show the units of the product at every location
      */
-    private EditText nameSupplier_EditText;
+    private TextView stockLocations_TextView;
+
+    /**
+     * Locations holding units of the product, with their names and units, as last loaded
+     */
+    private final List<Long> stockLocationIds = new ArrayList<>();
+    private final List<String> stockLocationNames = new ArrayList<>();
+    private final List<Integer> stockQuantities = new ArrayList<>();
+
+    /**
+     * EditText field to enter the products supplier name, suggesting the known suppliers
+     */
+    private AutoCompleteTextView nameSupplier_EditText;
+
+    /**
+     * Suggestions of the supplier name field
+     */
+    private SimpleCursorAdapter supplierAdapter;
 
     /**
      * EditText field to enter the products supplier phone number
      */
     private EditText phoneNumberSupplier_EditText;
 
+    /**
+     * EditText field to enter the quantity below which the product is reordered
+     */
+    private EditText reorderPoint_EditText;
+
+    /**
+     * EditText field to enter the number of units reordered at once
+     */
+    private EditText reorderQuantity_EditText;
+
+    /**
+     * EditText field to enter the SKU or barcode of the product
+     */
+    private EditText sku_EditText;
+
+    /**
+     * Values of the fields as the product was loaded, in the form {@link #readFields} returns
+     * them, and the version of the product they were loaded at (null for a new product)
+     */
+    private ContentValues loadedValues;
+    private long loadedVersion;
+
     /**
      * Boolean flag that keeps track of whether the product has been edited (true) or not (false)
      */
@@ -126,6 +184,7 @@ public class EditorActivity extends AppCompatActivity implements
             // Initialize a loader to read the product data from the database
             // and display the current values in the editor
             getLoaderManager().initLoader(EXISTING_PRODUCT_LOADER, null, this);
+            getLoaderManager().initLoader(STOCK_LOADER, null, this);
         }
 
         // Find all relevant views that we will need to read user input from
@@ -134,6 +193,10 @@ public class EditorActivity extends AppCompatActivity implements
         quantityProduct_TextView = findViewById(R.id.quantity_product_text_view);
         nameSupplier_EditText = findViewById(R.id.name_supplier_edit_text);
         phoneNumberSupplier_EditText = findViewById(R.id.phone_number_supplier_edit_text);
+        reorderPoint_EditText = findViewById(R.id.reorder_point_edit_text);
+        reorderQuantity_EditText = findViewById(R.id.reorder_quantity_edit_text);
+        sku_EditText = findViewById(R.id.sku_edit_text);
+        stockLocations_TextView = findViewById(R.id.stock_locations_text_view);
 
         // Setup OnTouchListeners on all the input fields, so we can determine if the user
         // has touched or modified them. This will let us know if there are unsaved changes
@@ -143,6 +206,64 @@ public class EditorActivity extends AppCompatActivity implements
         quantityProduct_TextView.setOnTouchListener(TouchListener);
         nameSupplier_EditText.setOnTouchListener(TouchListener);
         phoneNumberSupplier_EditText.setOnTouchListener(TouchListener);
+        reorderPoint_EditText.setOnTouchListener(TouchListener);
+        reorderQuantity_EditText.setOnTouchListener(TouchListener);
+        sku_EditText.setOnTouchListener(TouchListener);
+
+        setupSupplierSuggestions();
+    }
+
+    @Override
+    protected void onDestroy() {
+        // Close the cursor of the last suggestions
+        supplierAdapter.changeCursor(null);
+        super.onDestroy();
+    }
+
+    /**
+     * Suggest the known suppliers whose names start with what is typed in the supplier name
+     * field, and fill in the phone number of the one picked.
+     */
+    private void setupSupplierSuggestions() {
+        final String[] projection = {
+                SupplierEntry._ID,
+                SupplierEntry.COLUMN_SUPPLIER_NAME,
+                SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER};
+        supplierAdapter = new SimpleCursorAdapter(this,
+                android.R.layout.simple_dropdown_item_1line, null,
+                new String[] { SupplierEntry.COLUMN_SUPPLIER_NAME },
+                new int[] { android.R.id.text1 }, 0);
+
+        // Runs on the filtering thread of the field, never on the main thread
+        supplierAdapter.setFilterQueryProvider(new FilterQueryProvider() {
+            @Override
+            public Cursor runQuery(CharSequence constraint) {
+                if (TextUtils.isEmpty(constraint)) {
+                    return null;
+                }
+                return getContentResolver().query(SupplierEntry.CONTENT_URI, projection,
+                        SupplierEntry.COLUMN_SUPPLIER_NAME + " LIKE ?",
+                        new String[] { constraint.toString().trim() + "%" },
+                        SupplierEntry.COLUMN_SUPPLIER_NAME);
+            }
+        });
+        supplierAdapter.setCursorToStringConverter(new SimpleCursorAdapter.CursorToStringConverter() {
+            @Override
+            public CharSequence convertToString(Cursor cursor) {
+                return cursor.getString(cursor.getColumnIndex(SupplierEntry.COLUMN_SUPPLIER_NAME));
+            }
+        });
+        nameSupplier_EditText.setAdapter(supplierAdapter);
+
+        nameSupplier_EditText.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                Cursor cursor = (Cursor) parent.getItemAtPosition(position);
+                phoneNumberSupplier_EditText.setText(cursor.getString(
+                        cursor.getColumnIndex(SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER)));
+                productHasChanged = true;
+            }
+        });
     }
 
 
@@ -158,7 +279,6 @@ public class EditorActivity extends AppCompatActivity implements
         String nameSupplierString = nameSupplier_EditText.getText().toString().trim();
         String phoneNumberSupplierString = phoneNumberSupplier_EditText.getText().toString().trim();
 
-
         // Check if this is supposed to be a new product
         // and check if all the fields in the editor are blank
         if (currentProductUri == null &&
@@ -182,55 +302,126 @@ public class EditorActivity extends AppCompatActivity implements
             return;
         }
 
-        // Create a ContentValues object where column names are the keys,
-        // and product attributes from the editor are the values.
-        ContentValues values = new ContentValues();
-        values.put(ProductEntry.COLUMN_PRODUCT_NAME, nameProductString);
-        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, priceProductString);
-        // If the quantity is not provided by the user, don't try to parse the string into an
-        // integer value. Use 0 by default.
-        int quantityProduct = 0;
-        if (!TextUtils.isEmpty(quantityProductString)) {
-            quantityProduct = Integer.parseInt(quantityProductString);
-        }
-        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantityProduct);
-        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME, nameSupplierString);
-        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, phoneNumberSupplierString);
+        ContentValues values = readFields();
+
+        // The write runs in the background and the editor is closed right away, so the toasts
+        // are shown with the application context once it is done
+        final Context appContext = getApplicationContext();
+        boolean accepted;
 
         // Determine if this is a new or existing product by checking if currentProductUri is null or not
         if (currentProductUri == null) {
             // This is a NEW product, so insert a new product into the provider,
-            // returning the content URI for the new product.
-            Uri newUri = getContentResolver().insert(ProductEntry.CONTENT_URI, values);
-
-            // Show a toast message depending on whether or not the insertion was successful.
-            if (newUri == null) {
-                // If the new content URI is null, then there was an error with insertion.
-                Toast.makeText(this, getString(R.string.editor_insert_product_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the insertion was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_insert_product_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            // receiving the content URI for the new product.
+            accepted = ProductWriter.get(this).insert(values, new ProductWriter.Callback<Uri>() {
+                @Override
+                public void onComplete(Uri newUri) {
+                    // Show a toast message depending on whether or not the insertion was successful.
+                    // If the new content URI is null, then there was an error with insertion.
+                    Toast.makeText(appContext, newUri == null
+                                    ? R.string.editor_insert_product_failed
+                                    : R.string.editor_insert_product_successful,
+                            Toast.LENGTH_SHORT).show();
+                }
+            });
         } else {
-            // Otherwise this is an EXISTING product, so update the product with content URI: currentProductUri
-            // and pass in the new ContentValues. Pass in null for the selection and selection args
-            // because currentProductUri will already identify the correct row in the database that
-            // we want to modify.
-            int rowsAffected = getContentResolver().update(currentProductUri, values, null, null);
-
-            // Show a toast message depending on whether or not the update was successful.
-            if (rowsAffected == 0) {
-                // If no rows were affected, then there was an error with the update.
-                Toast.makeText(this, getString(R.string.editor_update_product_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the update was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_update_product_successful),
-                        Toast.LENGTH_SHORT).show();
+            // Only the columns the user changed are written, and nothing at all when none was,
+            // so observers of the products are not woken for nothing. Until the product has
+            // loaded there is nothing to change.
+            if (loadedValues == null) {
+                return;
             }
+            ContentValues changes = changedValues(loadedValues, values);
+            if (changes.size() == 0) {
+                return;
+            }
+
+            // Otherwise this is an EXISTING product, so update the product with content URI:
+            // currentProductUri and pass in the changed ContentValues. The update only applies
+            // to the version that was loaded, and is merged with what changed since otherwise,
+            // so sales made while the editor was open are not overwritten.
+            accepted = ProductWriter.get(this).updateMerging(ContentUris.parseId(currentProductUri),
+                    loadedValues, changes, loadedVersion,
+                    new ProductWriter.Callback<Integer>() {
+                        @Override
+                        public void onComplete(Integer rowsAffected) {
+                            // Show a toast message depending on whether or not the update was
+                            // successful. If no rows were affected, then there was an error.
+                            Toast.makeText(appContext, rowsAffected == 0
+                                            ? R.string.editor_update_product_failed
+                                            : R.string.editor_update_product_successful,
+                                    Toast.LENGTH_SHORT).show();
+                        }
+                    });
+        }
+
+        if (!accepted) {
+            Toast.makeText(this, R.string.writes_busy, Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    /**
+     * Return the values that differ from the loaded ones. A changed supplier phone number comes
+     * with the supplier name, as the provider needs the name to know whose number it is.
+     */
+    static ContentValues changedValues(ContentValues loaded, ContentValues values) {
+        ContentValues changes = new ContentValues(values);
+        for (String column : values.keySet()) {
+            if (values.get(column).equals(loaded.get(column))) {
+                changes.remove(column);
+            }
+        }
+        if (changes.containsKey(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER)) {
+            changes.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME,
+                    values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME));
+        }
+        return changes;
+    }
+
+    /**
+     * Return whether the fields hold edits that weren't saved. Fields of a loaded product are
+     * compared with their loaded values, so touching a field without changing it doesn't count.
+     */
+    private boolean hasUnsavedChanges() {
+        if (loadedValues == null) {
+            return productHasChanged;
         }
+        return !readFields().equals(loadedValues);
+    }
+
+    /**
+     * Return the values of the input fields as the columns of a product. Fields are read the
+     * same way whether the product was just loaded or edited, so the two can be compared.
+     */
+    private ContentValues readFields() {
+        // Use trim to eliminate leading or trailing white space
+        String quantityProductString = quantityProduct_TextView.getText().toString().trim();
+        String reorderPointString = reorderPoint_EditText.getText().toString().trim();
+        String reorderQuantityString = reorderQuantity_EditText.getText().toString().trim();
+
+        // Create a ContentValues object where column names are the keys,
+        // and product attributes from the editor are the values.
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME,
+                nameProduct_EditText.getText().toString().trim());
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE,
+                priceProduct_EditText.getText().toString().trim());
+        // If the quantity is not provided by the user, don't try to parse the string into an
+        // integer value. Use 0 by default.
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY,
+                TextUtils.isEmpty(quantityProductString) ? 0 : Integer.parseInt(quantityProductString));
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME,
+                nameSupplier_EditText.getText().toString().trim());
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER,
+                phoneNumberSupplier_EditText.getText().toString().trim());
+        // A product without a reorder point is never reordered
+        values.put(ProductEntry.COLUMN_PRODUCT_REORDER_POINT,
+                TextUtils.isEmpty(reorderPointString) ? 0 : Integer.parseInt(reorderPointString));
+        values.put(ProductEntry.COLUMN_PRODUCT_REORDER_QUANTITY,
+                TextUtils.isEmpty(reorderQuantityString) ? 0 : Integer.parseInt(reorderQuantityString));
+        // A blank SKU is stored as null by the provider, so any number of products can lack one
+        values.put(ProductEntry.COLUMN_PRODUCT_SKU, sku_EditText.getText().toString().trim());
+        return values;
     }
 
     @Override
@@ -248,10 +439,11 @@ public class EditorActivity extends AppCompatActivity implements
     @Override
     public boolean onPrepareOptionsMenu(Menu menu) {
         super.onPrepareOptionsMenu(menu);
-        // If this is a new product, hide the "Delete" menu item.
+        // If this is a new product, hide the "Delete" and "Move Stock" menu items.
         if (currentProductUri == null) {
             MenuItem menuItem = menu.findItem(R.id.action_delete);
             menuItem.setVisible(false);
+            menu.findItem(R.id.action_move_stock).setVisible(false);
         }
         return true;
     }
@@ -272,11 +464,15 @@ public class EditorActivity extends AppCompatActivity implements
                 // Pop up confirmation dialog for deletion
                 showDeleteConfirmationDialog();
                 return true;
+            // Respond to a click on the "Move Stock" menu option
+            case R.id.action_move_stock:
+                pickMoveSource();
+                return true;
             // Respond to a click on the "Up" arrow button in the app bar
             case android.R.id.home:
                 // If the product hasn't changed, continue with navigating up to parent activity
                 // which is the {@link CatalogActivity}.
-                if (!productHasChanged) {
+                if (!hasUnsavedChanges()) {
                     NavUtils.navigateUpFromSameTask(EditorActivity.this);
                     return true;
                 }
@@ -306,7 +502,7 @@ public class EditorActivity extends AppCompatActivity implements
     @Override
     public void onBackPressed() {
         // If the product hasn't changed, continue with handling back button press
-        if (!productHasChanged) {
+        if (!hasUnsavedChanges()) {
             super.onBackPressed();
             return;
         }
@@ -328,6 +524,16 @@ public class EditorActivity extends AppCompatActivity implements
 
     @Override
     public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
+        if (i == STOCK_LOADER) {
+            String[] projection = {
+                    StockEntry.COLUMN_STOCK_LOCATION_ID,
+                    StockEntry.COLUMN_STOCK_LOCATION_NAME,
+                    StockEntry.COLUMN_STOCK_QUANTITY};
+            return new CursorLoader(this,
+                    StockEntry.buildProductUri(ContentUris.parseId(currentProductUri)),
+                    projection, null, null, null);
+        }
+
         // Since the editor shows all product attributes, define a projection that contains
         // all columns from the products table
         String[] projection = {
@@ -336,7 +542,11 @@ public class EditorActivity extends AppCompatActivity implements
                 ProductEntry.COLUMN_PRODUCT_PRICE,
                 ProductEntry.COLUMN_PRODUCT_QUANTITY,
                 ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME,
-                ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER};
+                ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER,
+                ProductEntry.COLUMN_PRODUCT_REORDER_POINT,
+                ProductEntry.COLUMN_PRODUCT_REORDER_QUANTITY,
+                ProductEntry.COLUMN_PRODUCT_SKU,
+                ProductEntry.COLUMN_PRODUCT_VERSION};
 
         // This loader will execute the ContentProvider's query method on a background thread
         return new CursorLoader(this,   // Parent activity context
@@ -349,11 +559,22 @@ public class EditorActivity extends AppCompatActivity implements
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+        if (loader.getId() == STOCK_LOADER) {
+            showStock(cursor);
+            return;
+        }
+
         // Bail early if the cursor is null or there is less than 1 row in the cursor
         if (cursor == null || cursor.getCount() < 1) {
             return;
         }
 
+        // The product changed, by a sale for instance, while the user is editing it. Their edits
+        // are kept along with the version they started from, and merged with the change on save.
+        if (loadedValues != null && !readFields().equals(loadedValues)) {
+            return;
+        }
+
         // Proceed with moving to the first row of the cursor and reading data from it
         // (This should be the only row in the cursor)
         if (cursor.moveToFirst()) {
@@ -363,6 +584,9 @@ public class EditorActivity extends AppCompatActivity implements
             int quantityProductColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_QUANTITY);
             int supplierNameColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME);
             int supplierPhoneNumberColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER);
+            int reorderPointColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_REORDER_POINT);
+            int reorderQuantityColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_REORDER_QUANTITY);
+            int skuColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_SKU);
 
             // Extract out the value from the Cursor for the given column index
             String nameProduct = cursor.getString(nameProductColumnIndex);
@@ -370,6 +594,9 @@ public class EditorActivity extends AppCompatActivity implements
             int quantityProduct = cursor.getInt(quantityProductColumnIndex);
             String nameSupplier = cursor.getString(supplierNameColumnIndex);
             String phoneNumberSupplier = cursor.getString(supplierPhoneNumberColumnIndex);
+            int reorderPoint = cursor.getInt(reorderPointColumnIndex);
+            int reorderQuantity = cursor.getInt(reorderQuantityColumnIndex);
+            String sku = cursor.getString(skuColumnIndex);
 
             // Update the views on the screen with the values from the database
             nameProduct_EditText.setText(nameProduct);
@@ -377,19 +604,195 @@ public class EditorActivity extends AppCompatActivity implements
             quantityProduct_TextView.setText(Integer.toString(quantityProduct));
             nameSupplier_EditText.setText(nameSupplier);
             phoneNumberSupplier_EditText.setText(phoneNumberSupplier);
+            reorderPoint_EditText.setText(Integer.toString(reorderPoint));
+            reorderQuantity_EditText.setText(Integer.toString(reorderQuantity));
+            sku_EditText.setText(sku);
 
+            loadedValues = readFields();
+            loadedVersion = cursor.getLong(
+                    cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_VERSION));
         }
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
+        if (loader.getId() == STOCK_LOADER) {
+            showStock(null);
+            return;
+        }
+
         // If the loader is invalidated, clear out all the data from the input fields.
+        loadedValues = null;
         nameProduct_EditText.setText("");
         priceProduct_EditText.setText("");
         quantityProduct_TextView.setText("");
         nameSupplier_EditText.setText("");
         phoneNumberSupplier_EditText.setText("");
+        reorderPoint_EditText.setText("");
+        reorderQuantity_EditText.setText("");
+        sku_EditText.setText("");
+
+    }
+
+    /**
+     * Keep the locations holding units of the product and list them under the quantity. Nothing
+     * is listed when all units are at the sales location.
+     */
+    private void showStock(Cursor cursor) {
+        stockLocationIds.clear();
+        stockLocationNames.clear();
+        stockQuantities.clear();
+        StringBuilder text = new StringBuilder();
+        boolean elsewhere = false;
+        if (cursor != null && cursor.moveToFirst()) {
+            do {
+                long locationId = cursor.getLong(0);
+                int quantity = cursor.getInt(2);
+                if (quantity == 0) {
+                    continue;
+                }
+                stockLocationIds.add(locationId);
+                stockLocationNames.add(cursor.getString(1));
+                stockQuantities.add(quantity);
+                elsewhere |= locationId != LocationEntry.SALES_LOCATION_ID;
+                if (text.length() > 0) {
+                    text.append('\n');
+                }
+                text.append(getString(R.string.stock_at_location, cursor.getString(1), quantity));
+            } while (cursor.moveToNext());
+        }
+        stockLocations_TextView.setText(text);
+        stockLocations_TextView.setVisibility(elsewhere ? View.VISIBLE : View.GONE);
+    }
 
+    /**
+     * Let the user pick the location units of the product are moved from.
+     */
+    private void pickMoveSource() {
+        if (stockLocationIds.isEmpty()) {
+            Toast.makeText(this, R.string.move_stock_nothing, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        String[] items = new String[stockLocationIds.size()];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = getString(R.string.stock_at_location,
+                    stockLocationNames.get(i), stockQuantities.get(i));
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.move_stock_from)
+                .setItems(items, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        pickMoveDestination(stockLocationIds.get(which), stockQuantities.get(which));
+                    }
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .create().show();
+    }
+
+    /**
+     * Read the locations on a background thread, and let the user pick the one units are moved
+     * to.
+     */
+    private void pickMoveDestination(final long fromLocationId, final int available) {
+        final ContentResolver resolver = getContentResolver();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final List<Long> ids = new ArrayList<>();
+                final List<String> names = new ArrayList<>();
+                Cursor cursor = resolver.query(LocationEntry.CONTENT_URI,
+                        new String[] { LocationEntry._ID, LocationEntry.COLUMN_LOCATION_NAME },
+                        null, null, LocationEntry.COLUMN_LOCATION_NAME);
+                if (cursor != null) {
+                    try {
+                        while (cursor.moveToNext()) {
+                            if (cursor.getLong(0) != fromLocationId) {
+                                ids.add(cursor.getLong(0));
+                                names.add(cursor.getString(1));
+                            }
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                }
+
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isFinishing()) {
+                            return;
+                        }
+                        new AlertDialog.Builder(EditorActivity.this)
+                                .setTitle(R.string.move_stock_to)
+                                .setItems(names.toArray(new String[names.size()]),
+                                        new DialogInterface.OnClickListener() {
+                                            @Override
+                                            public void onClick(DialogInterface dialog, int which) {
+                                                askMoveAmount(fromLocationId, ids.get(which),
+                                                        available);
+                                            }
+                                        })
+                                .setNegativeButton(R.string.cancel, null)
+                                .create().show();
+                    }
+                });
+            }
+        }, "LocationPicker").start();
+    }
+
+    /**
+     * Ask how many units to move, then move them in the background.
+     */
+    private void askMoveAmount(final long fromLocationId, final long toLocationId,
+                               int available) {
+        final EditText amountEditText = new EditText(this);
+        amountEditText.setInputType(InputType.TYPE_CLASS_NUMBER);
+        amountEditText.setHint(R.string.hint_move_amount);
+        amountEditText.setText(String.valueOf(available));
+        amountEditText.selectAll();
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_move_stock)
+                .setView(amountEditText)
+                .setPositiveButton(R.string.move_stock_confirm,
+                        new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                String amountString = amountEditText.getText().toString().trim();
+                                int amount = TextUtils.isEmpty(amountString)
+                                        ? 0 : Integer.parseInt(amountString);
+                                if (amount > 0) {
+                                    moveStock(fromLocationId, toLocationId, amount);
+                                }
+                            }
+                        })
+                .setNegativeButton(R.string.cancel, null)
+                .create().show();
+    }
+
+    /**
+     * Move units of the product between two locations in the background. The stock loader
+     * shows the new breakdown once it is written; the total quantity does not change.
+     */
+    private void moveStock(long fromLocationId, long toLocationId, int amount) {
+        final Context appContext = getApplicationContext();
+        boolean accepted = ProductWriter.get(this).transfer(
+                ContentUris.parseId(currentProductUri), fromLocationId, toLocationId, amount,
+                new ProductWriter.Callback<Bundle>() {
+                    @Override
+                    public void onComplete(Bundle result) {
+                        if (result == null) {
+                            Toast.makeText(appContext, R.string.move_stock_failed,
+                                    Toast.LENGTH_SHORT).show();
+                        } else if (result.getBoolean(StockEntry.EXTRA_SHORT)) {
+                            Toast.makeText(appContext, R.string.move_stock_short,
+                                    Toast.LENGTH_SHORT).show();
+                        }
+                    }
+                });
+        if (!accepted) {
+            Toast.makeText(this, R.string.writes_busy, Toast.LENGTH_SHORT).show();
+        }
     }
 
     /**
@@ -456,20 +859,23 @@ public class EditorActivity extends AppCompatActivity implements
     private void deleteProduct() {
         // Only perform the delete if this is an existing product.
         if (currentProductUri != null) {
-            // Call the ContentResolver to delete the product at the given content URI.
-            // Pass in null for the selection and selection args because the currentProductUri
-            // content URI already identifies the product that we want.
-            int rowsDeleted = getContentResolver().delete(currentProductUri, null, null);
-
-            // Show a toast message depending on whether or not the delete was successful.
-            if (rowsDeleted == 0) {
-                // If no rows were deleted, then there was an error with the delete.
-                Toast.makeText(this, getString(R.string.editor_delete_product_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the delete was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_delete_product_successful),
-                        Toast.LENGTH_SHORT).show();
+            // Delete the product at the given content URI in the background. The
+            // currentProductUri content URI already identifies the product that we want.
+            final Context appContext = getApplicationContext();
+            boolean accepted = ProductWriter.get(this).delete(currentProductUri,
+                    new ProductWriter.Callback<Integer>() {
+                        @Override
+                        public void onComplete(Integer rowsDeleted) {
+                            // Show a toast message depending on whether or not the delete was
+                            // successful. If no rows were deleted, then there was an error.
+                            Toast.makeText(appContext, rowsDeleted == 0
+                                            ? R.string.editor_delete_product_failed
+                                            : R.string.editor_delete_product_successful,
+                                    Toast.LENGTH_SHORT).show();
+                        }
+                    });
+            if (!accepted) {
+                Toast.makeText(this, R.string.writes_busy, Toast.LENGTH_SHORT).show();
             }
         }
 
@@ -1,24 +1,44 @@
 package com.example.android.inventoryapp;
 
+import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
 import android.support.design.widget.FloatingActionButton;
+import android.support.v4.view.ViewCompat;
 import android.net.Uri;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.SearchView;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.os.Bundle;
+import android.text.InputType;
 import android.util.Log;
+import android.view.KeyEvent;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.view.ViewTreeObserver;
+import android.widget.EditText;
+import android.widget.TextView;
+import android.widget.Toast;
 
+import com.example.android.inventoryapp.data.ProductContract.LocationEntry;
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.SummaryEntry;
+import com.example.android.inventoryapp.data.ProductContract.SupplierEntry;
+import com.example.android.inventoryapp.data.ProductCsvImporter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 
 /**
@@ -27,20 +47,91 @@ import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
 public class MainActivity extends AppCompatActivity implements
         LoaderManager.LoaderCallbacks<Cursor> {
 
+    private static final String LOG_TAG = MainActivity.class.getSimpleName();
+
+    /** Request code of the file picker for the catalog to import */
+    private static final int REQUEST_IMPORT_CATALOG = 1;
+
+    /**
+     * Identifier for the summary data loader
+     */
+    private static final int SUMMARY_LOADER = 0;
+
+    /** Sorts of the list, in the order of the sort_options array */
+    private static final String[] SORTS = {
+            ProductEntry.SORT_NAME,
+            ProductEntry.SORT_QUANTITY,
+            ProductEntry.SORT_PRICE,
+            ProductEntry.SORT_SUPPLIER,
+            ProductEntry.SORT_RECENT};
+
+    /**
+     * Filters of the list, in the order of the filter_options array. The last option picks a
+     * supplier instead.
+     */
+    private static final String[] FILTERS = {
+            null,
+            ProductEntry.FILTER_IN_STOCK,
+            ProductEntry.FILTER_LOW_STOCK};
+
+    /** Keys of the saved instance state */
+    private static final String STATE_SORT = "sort";
+    private static final String STATE_FILTER = "filter";
+    private static final String STATE_SUPPLIER_ID = "supplier_id";
+    private static final String STATE_SCANNING = "scanning";
+
+    /**
+     * Adapter for the RecyclerView
+     */
+    ProductListAdapter listAdapter;
+
+    /**
+     * Product data shown in the RecyclerView, read one page at a time
+     */
+    private ProductPagedList pagedList;
+
+    /** Sort, filter and supplier the list is shown with */
+    private String sort = ProductEntry.SORT_NAME;
+    private String filter;
+    private long supplierId;
+
+    /** Search text typed last, null when there is none */
+    private String searchText;
+
+    /**
+     * View shown instead of the list while it is empty
+     */
+    private View emptyView;
+
+    /**
+     * Figures over all products, shown above the list
+     */
+    private TextView summaryTextView;
+
+    /**
+     * Draft purchase orders of the products below their reorder point, kept up to date as
+     * products are sold
+     */
+    private ReorderEngine reorderEngine;
+
+    /** Sells the products whose barcodes are scanned, null while not scanning to sell */
+    private ScanSeller scanSeller;
+
     /**
-     * Identifier for the product data loader
+     * Result of the last scan, shown while scanning to sell
      */
-    private static final int PRODUCT_LOADER = 0;
+    private TextView scanStatusTextView;
 
     /**
-     * Adapter for the ListView
+     * Progress of the catalog import, shown while importing
      */
-    ProductCursorAdapter cursorAdapter;
+    private TextView importStatusTextView;
 
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        StartupTrace.beginSection("MainActivity.onCreate");
         setContentView(R.layout.activity_main);
 
         // Setup FAB to open EditorActivity
@@ -53,22 +144,19 @@ public class MainActivity extends AppCompatActivity implements
             }
         });
 
-        // Find the ListView which will be populated with the product data
-        ListView itemListView = findViewById(R.id.list);
-
-        // Find and set empty view on the ListView, so that it only shows when the list has 0 items.
-        View emptyView = findViewById(R.id.empty_view);
-        itemListView.setEmptyView(emptyView);
+        // Find the RecyclerView which will be populated with the product data
+        final RecyclerView itemRecyclerView = findViewById(R.id.list);
+        itemRecyclerView.setLayoutManager(new LinearLayoutManager(this));
+        itemRecyclerView.setHasFixedSize(true);
 
-        // Setup an Adapter to create a list item for each row of product data in the Cursor.
-        // There is no product data yet (until the loader finishes) so pass in null for the Cursor.
-        cursorAdapter = new ProductCursorAdapter(this, null);
-        itemListView.setAdapter(cursorAdapter);
+        // Find the empty view, so that it only shows when the list has 0 items.
+        emptyView = findViewById(R.id.empty_view);
 
-        // Setup the item click listener
-        itemListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Setup an Adapter to create a list item for each row of product data,
+        // opening the product in the editor when its row is clicked
+        listAdapter = new ProductListAdapter(this, new ProductListAdapter.OnProductClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
+            public void onProductClick(long id) {
                 // Create new intent to go to {@link EditorActivity}
                 Intent intent = new Intent(MainActivity.this, EditorActivity.class);
 
@@ -86,9 +174,380 @@ public class MainActivity extends AppCompatActivity implements
                 startActivity(intent);
             }
         });
+        listAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+        });
+        itemRecyclerView.setAdapter(listAdapter);
 
-        // Kick off the loader
-        getLoaderManager().initLoader(PRODUCT_LOADER, null, this);
+        // The start of the app is over once the first page of the list is drawn, or the empty
+        // view when the catalog has no products. An empty page changes no view, so frames are
+        // drawn until it is read.
+        itemRecyclerView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                if (pagedList.isFirstPageRead()) {
+                    itemRecyclerView.getViewTreeObserver().removeOnPreDrawListener(this);
+                    StartupTrace.report(StartupTrace.FIRST_LIST_FRAME);
+                } else {
+                    ViewCompat.postInvalidateOnAnimation(itemRecyclerView);
+                }
+                return true;
+            }
+        });
+
+        // Start reading the first page of products, ordered by name unless another order was
+        // picked before the activity was recreated
+        if (savedInstanceState != null) {
+            sort = savedInstanceState.getString(STATE_SORT, ProductEntry.SORT_NAME);
+            filter = savedInstanceState.getString(STATE_FILTER);
+            supplierId = savedInstanceState.getLong(STATE_SUPPLIER_ID);
+        }
+        showList();
+
+        // Read the summary, which the loader reads again whenever the products change
+        summaryTextView = findViewById(R.id.summary_text);
+        getLoaderManager().initLoader(SUMMARY_LOADER, null, this);
+
+        scanStatusTextView = findViewById(R.id.scan_status_text);
+        importStatusTextView = findViewById(R.id.import_status_text);
+        if (savedInstanceState != null && savedInstanceState.getBoolean(STATE_SCANNING)) {
+            startScanning();
+        }
+
+        // Keep the purchase orders ready, showing their number in the menu
+        reorderEngine = new ReorderEngine(getContentResolver(), new ReorderEngine.Listener() {
+            @Override
+            public void onOrdersChanged(List<ReorderEngine.PurchaseOrder> orders) {
+                supportInvalidateOptionsMenu();
+            }
+        });
+
+        StartupTrace.endSection();
+        StartupTrace.mark(StartupTrace.ACTIVITY_CREATED);
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_SORT, sort);
+        outState.putString(STATE_FILTER, filter);
+        outState.putLong(STATE_SUPPLIER_ID, supplierId);
+        outState.putBoolean(STATE_SCANNING, scanSeller != null);
+    }
+
+    /**
+     * Start selling a unit of every product whose barcode is scanned, showing the result of
+     * every scan above the list.
+     */
+    private void startScanning() {
+        scanSeller = new ScanSeller(ProductWriter.get(this), new ScanSeller.Listener() {
+            @Override
+            public void onScanSold(String sku, Bundle result, int pending) {
+                scanStatusTextView.setText(describeScan(sku, result, pending));
+            }
+        });
+        scanStatusTextView.setText(R.string.scan_ready);
+        scanStatusTextView.setVisibility(View.VISIBLE);
+    }
+
+    /**
+     * Stop selling scanned products. Scans not sold yet are forgotten.
+     */
+    private void stopScanning() {
+        scanSeller.close();
+        scanSeller = null;
+        scanStatusTextView.setVisibility(View.GONE);
+    }
+
+    /**
+     * Return the status text for the result of a scan.
+     */
+    private String describeScan(String sku, Bundle result, int pending) {
+        if (result == null) {
+            return getString(R.string.scan_failed, sku, pending);
+        }
+        String name = result.getString(ProductEntry.EXTRA_NAME);
+        if (name == null) {
+            return getString(R.string.scan_unknown, sku, pending);
+        }
+        if (result.getBoolean(ProductEntry.EXTRA_SOLD_OUT)) {
+            return getString(R.string.scan_sold_out, name, pending);
+        }
+        return getString(R.string.scan_sold, name, result.getInt(ProductEntry.EXTRA_QUANTITY),
+                pending);
+    }
+
+    /**
+     * While scanning to sell, the key events of the scanner are taken before any view sees
+     * them, so codes are read wherever the focus is.
+     */
+    @Override
+    public boolean dispatchKeyEvent(KeyEvent event) {
+        if (scanSeller != null && scanSeller.onKeyEvent(event)) {
+            return true;
+        }
+        return super.dispatchKeyEvent(event);
+    }
+
+    /**
+     * Show the list with the current sort and filter, in place of the one shown before. Every
+     * sort and filter is read from an index by the provider, so the first page comes back
+     * quickly however large the catalog is.
+     */
+    private void showList() {
+        if (pagedList != null) {
+            pagedList.close();
+        }
+        pagedList = new ProductPagedList(getContentResolver(), sort, filter, supplierId, listAdapter);
+        listAdapter.setPagedList(pagedList);
+        if (searchText != null) {
+            pagedList.search(searchText);
+        }
+    }
+
+    /**
+     * Let the user pick the order of the list.
+     */
+    private void showSortOptions() {
+        int checked = 0;
+        for (int i = 0; i < SORTS.length; i++) {
+            if (SORTS[i].equals(sort)) {
+                checked = i;
+            }
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.sort_title)
+                .setSingleChoiceItems(R.array.sort_options, checked, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        dialog.dismiss();
+                        if (!SORTS[which].equals(sort)) {
+                            sort = SORTS[which];
+                            showList();
+                        }
+                    }
+                })
+                .create().show();
+    }
+
+    /**
+     * Let the user pick which products the list shows.
+     */
+    private void showFilterOptions() {
+        int checked = supplierId != 0 ? FILTERS.length : 0;
+        for (int i = 1; i < FILTERS.length && supplierId == 0; i++) {
+            if (FILTERS[i].equals(filter)) {
+                checked = i;
+            }
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.filter_title)
+                .setSingleChoiceItems(R.array.filter_options, checked, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        dialog.dismiss();
+                        if (which == FILTERS.length) {
+                            pickSupplier();
+                            return;
+                        }
+                        filter = FILTERS[which];
+                        supplierId = 0;
+                        showList();
+                    }
+                })
+                .create().show();
+    }
+
+    /**
+     * Read the suppliers on a background thread, and let the user pick the one whose products
+     * the list shows.
+     */
+    private void pickSupplier() {
+        final ContentResolver resolver = getContentResolver();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final List<Long> ids = new ArrayList<>();
+                final List<String> names = new ArrayList<>();
+                Cursor cursor = resolver.query(SupplierEntry.CONTENT_URI,
+                        new String[] { SupplierEntry._ID, SupplierEntry.COLUMN_SUPPLIER_NAME },
+                        null, null, SupplierEntry.COLUMN_SUPPLIER_NAME);
+                if (cursor != null) {
+                    try {
+                        while (cursor.moveToNext()) {
+                            ids.add(cursor.getLong(0));
+                            names.add(cursor.getString(1));
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                }
+
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isFinishing()) {
+                            return;
+                        }
+                        new AlertDialog.Builder(MainActivity.this)
+                                .setTitle(R.string.filter_supplier_title)
+                                .setItems(names.toArray(new String[names.size()]),
+                                        new DialogInterface.OnClickListener() {
+                                            @Override
+                                            public void onClick(DialogInterface dialog, int which) {
+                                                filter = null;
+                                                supplierId = ids.get(which);
+                                                showList();
+                                            }
+                                        })
+                                .setNegativeButton(R.string.cancel, null)
+                                .create().show();
+                    }
+                });
+            }
+        }, "SupplierPicker").start();
+    }
+
+    /**
+     * Read the stock locations on a background thread and list them, offering to add one.
+     */
+    private void showLocations() {
+        final ContentResolver resolver = getContentResolver();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final List<String> names = new ArrayList<>();
+                Cursor cursor = resolver.query(LocationEntry.CONTENT_URI,
+                        new String[] { LocationEntry.COLUMN_LOCATION_NAME },
+                        null, null, LocationEntry.COLUMN_LOCATION_NAME);
+                if (cursor != null) {
+                    try {
+                        while (cursor.moveToNext()) {
+                            names.add(cursor.getString(0));
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                }
+
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isFinishing()) {
+                            return;
+                        }
+                        new AlertDialog.Builder(MainActivity.this)
+                                .setTitle(R.string.action_locations)
+                                .setItems(names.toArray(new String[names.size()]), null)
+                                .setPositiveButton(R.string.location_add,
+                                        new DialogInterface.OnClickListener() {
+                                            @Override
+                                            public void onClick(DialogInterface dialog, int which) {
+                                                askLocationName();
+                                            }
+                                        })
+                                .setNegativeButton(R.string.cancel, null)
+                                .create().show();
+                    }
+                });
+            }
+        }, "LocationLister").start();
+    }
+
+    /**
+     * Ask for the name of a new stock location, then add it in the background.
+     */
+    private void askLocationName() {
+        final EditText nameEditText = new EditText(this);
+        nameEditText.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_FLAG_CAP_WORDS);
+        nameEditText.setHint(R.string.hint_location_name);
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.location_add)
+                .setView(nameEditText)
+                .setPositiveButton(R.string.location_add, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        String name = nameEditText.getText().toString().trim();
+                        if (name.isEmpty()) {
+                            return;
+                        }
+                        final Context appContext = getApplicationContext();
+                        boolean accepted = ProductWriter.get(MainActivity.this).insertLocation(
+                                name, new ProductWriter.Callback<Uri>() {
+                                    @Override
+                                    public void onComplete(Uri uri) {
+                                        if (uri == null) {
+                                            Toast.makeText(appContext,
+                                                    R.string.location_add_failed,
+                                                    Toast.LENGTH_SHORT).show();
+                                        }
+                                    }
+                                });
+                        if (!accepted) {
+                            Toast.makeText(MainActivity.this, R.string.writes_busy,
+                                    Toast.LENGTH_SHORT).show();
+                        }
+                    }
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .create().show();
+    }
+
+    @Override
+    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
+        String[] projection = {
+                SummaryEntry.COLUMN_SUMMARY_TOTAL_UNITS,
+                SummaryEntry.COLUMN_SUMMARY_TOTAL_VALUE,
+                SummaryEntry.COLUMN_SUMMARY_LOW_STOCK_COUNT};
+
+        // The summary is a single row kept up to date by the database, so this is cheap
+        // whatever the number of products
+        return new CursorLoader(this, SummaryEntry.CONTENT_URI, projection, null, null, null);
+    }
+
+    @Override
+    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+        if (cursor == null || !cursor.moveToFirst()) {
+            summaryTextView.setText(null);
+            return;
+        }
+        summaryTextView.setText(getString(R.string.summary_text,
+                cursor.getLong(0), cursor.getLong(1), cursor.getLong(2)));
+    }
+
+    @Override
+    public void onLoaderReset(Loader<Cursor> loader) {
+        summaryTextView.setText(null);
+    }
+
+    /**
+     * Show the empty view only when the list has 0 items.
+     */
+    private void updateEmptyView() {
+        emptyView.setVisibility(listAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        pagedList.close();
+        reorderEngine.close();
+        if (scanSeller != null) {
+            scanSeller.close();
+        }
     }
 
     /**
@@ -103,19 +562,147 @@ public class MainActivity extends AppCompatActivity implements
         values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME, "Udacity");
         values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, "0633744021");
 
-        // Insert a new row for Toto into the provider using the ContentResolver.
-        // Use the {@link ProductEntry#CONTENT_URI} to indicate that we want to insert
-        // into the products database table.
-        // Receive the new content URI that will allow us to access Toto's data in the future.
-        Uri newUri = getContentResolver().insert(ProductEntry.CONTENT_URI, values);
+        // Insert a new row into the provider in the background, through the ProductWriter.
+        ProductWriter.get(this).insert(values, null);
     }
 
     /**
      * Helper method to delete all products in the database.
      */
     private void deleteAllProducts() {
-        int rowsDeleted = getContentResolver().delete(ProductEntry.CONTENT_URI, null, null);
-        Log.v("MainActivity", rowsDeleted + " rows deleted from inventory database");
+        ProductWriter.get(this).delete(ProductEntry.CONTENT_URI, new ProductWriter.Callback<Integer>() {
+            @Override
+            public void onComplete(Integer rowsDeleted) {
+                Log.v("MainActivity", rowsDeleted + " rows deleted from inventory database");
+            }
+        });
+    }
+
+    /**
+     * Let the user pick a CSV file to import the products from.
+     */
+    private void pickCatalog() {
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+        intent.setType("text/*");
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        startActivityForResult(intent, REQUEST_IMPORT_CATALOG);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == REQUEST_IMPORT_CATALOG && resultCode == RESULT_OK && data != null
+                && data.getData() != null) {
+            importCatalog(data.getData());
+        }
+    }
+
+    /**
+     * Import the products of a CSV file on a background thread, showing its progress above the
+     * list, and tell the user how it went.
+     */
+    private void importCatalog(final Uri uri) {
+        final ContentResolver resolver = getContentResolver();
+        final Context appContext = getApplicationContext();
+        importStatusTextView.setText(R.string.import_started);
+        importStatusTextView.setVisibility(View.VISIBLE);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                String message;
+                try {
+                    ProductCsvImporter.Result result = new ProductCsvImporter(resolver).importCsv(
+                            resolver.openInputStream(uri), new ProductCsvImporter.Listener() {
+                                @Override
+                                public void onProgress(int rowsRead, int rowsImported) {
+                                    final String status = appContext.getString(
+                                            R.string.import_progress, rowsRead, rowsImported);
+                                    runOnUiThread(new Runnable() {
+                                        @Override
+                                        public void run() {
+                                            importStatusTextView.setText(status);
+                                        }
+                                    });
+                                }
+
+                                @Override
+                                public void onRowError(int lineNumber, String error) {
+                                    Log.w(LOG_TAG, "Skipped line " + lineNumber + ": " + error);
+                                }
+                            });
+                    message = appContext.getString(R.string.import_finished, result.rowsImported,
+                            result.rowsFailed);
+                } catch (IOException | RuntimeException e) {
+                    Log.e(LOG_TAG, "Import of " + uri + " failed", e);
+                    message = appContext.getString(R.string.import_failed);
+                }
+
+                final String toast = message;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        importStatusTextView.setVisibility(View.GONE);
+                        Toast.makeText(appContext, toast, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        }, "CatalogImport").start();
+    }
+
+    /**
+     * Share the whole catalog as a CSV file, streamed by the provider as the receiving app reads it.
+     */
+    private void exportCatalog() {
+        Intent intent = new Intent(Intent.ACTION_SEND);
+        intent.setType(ProductEntry.CSV_TYPE);
+        intent.putExtra(Intent.EXTRA_STREAM, ProductEntry.EXPORT_URI);
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        startActivity(Intent.createChooser(intent, getString(R.string.action_export_catalog)));
+    }
+
+    /**
+     * Show the draft purchase orders, one per supplier, and send the one the user picks.
+     */
+    private void showPurchaseOrders() {
+        final List<ReorderEngine.PurchaseOrder> orders = reorderEngine.getOrders();
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.purchase_orders_title);
+        if (orders.isEmpty()) {
+            builder.setMessage(R.string.purchase_orders_empty);
+        } else {
+            String[] items = new String[orders.size()];
+            for (int i = 0; i < items.length; i++) {
+                ReorderEngine.PurchaseOrder order = orders.get(i);
+                items[i] = getString(R.string.purchase_order_item, order.supplierName,
+                        order.getLines().size(), order.getTotalUnits());
+            }
+            builder.setItems(items, new DialogInterface.OnClickListener() {
+                @Override
+                public void onClick(DialogInterface dialog, int which) {
+                    sendPurchaseOrder(orders.get(which));
+                }
+            });
+        }
+        builder.setNegativeButton(R.string.cancel, null);
+        builder.create().show();
+    }
+
+    /**
+     * Share a purchase order as text, one line per product, so it can be sent to the supplier.
+     */
+    private void sendPurchaseOrder(ReorderEngine.PurchaseOrder order) {
+        StringBuilder text = new StringBuilder();
+        for (ReorderEngine.Line line : order.getLines()) {
+            text.append(getString(R.string.purchase_order_line, line.orderQuantity,
+                    line.productName)).append('\n');
+        }
+
+        String subject = getString(R.string.purchase_order_subject, order.supplierName);
+        Intent intent = new Intent(Intent.ACTION_SEND);
+        intent.setType("text/plain");
+        intent.putExtra(Intent.EXTRA_SUBJECT, subject);
+        intent.putExtra(Intent.EXTRA_TEXT, text.toString());
+        startActivity(Intent.createChooser(intent, subject));
     }
 
     @Override
@@ -123,6 +710,37 @@ public class MainActivity extends AppCompatActivity implements
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_main, menu);
+
+        // Search as the user types. The paged list waits for a pause in the typing and cancels
+        // the searches that are no longer wanted, so every keystroke can be passed on.
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                searchText = query;
+                pagedList.search(query);
+                return false;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                searchText = newText;
+                pagedList.search(newText);
+                return true;
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        super.onPrepareOptionsMenu(menu);
+        int orders = reorderEngine.getOrders().size();
+        menu.findItem(R.id.action_purchase_orders).setTitle(orders == 0
+                ? getString(R.string.action_purchase_orders)
+                : getString(R.string.action_purchase_orders_count, orders));
+        menu.findItem(R.id.action_scan_to_sell).setChecked(scanSeller != null);
         return true;
     }
 
@@ -130,6 +748,39 @@ public class MainActivity extends AppCompatActivity implements
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
         switch (item.getItemId()) {
+            // Respond to a click on the "Sort" menu option
+            case R.id.action_sort:
+                showSortOptions();
+                return true;
+            // Respond to a click on the "Filter" menu option
+            case R.id.action_filter:
+                showFilterOptions();
+                return true;
+            // Respond to a click on the "Scan to sell" menu option
+            case R.id.action_scan_to_sell:
+                if (scanSeller == null) {
+                    startScanning();
+                } else {
+                    stopScanning();
+                }
+                supportInvalidateOptionsMenu();
+                return true;
+            // Respond to a click on the "Purchase orders" menu option
+            case R.id.action_purchase_orders:
+                showPurchaseOrders();
+                return true;
+            // Respond to a click on the "Locations" menu option
+            case R.id.action_locations:
+                showLocations();
+                return true;
+            // Respond to a click on the "Import catalog" menu option
+            case R.id.action_import_catalog:
+                pickCatalog();
+                return true;
+            // Respond to a click on the "Export catalog" menu option
+            case R.id.action_export_catalog:
+                exportCatalog();
+                return true;
             // Respond to a click on the "Insert dummy data" menu option
             case R.id.action_insert_dummy_data:
                 insertProduct();
@@ -142,34 +793,4 @@ public class MainActivity extends AppCompatActivity implements
         return super.onOptionsItemSelected(item);
     }
 
-    @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // Define a projection that specifies the columns from the table we care about.
-        String[] projection = {
-                ProductEntry._ID,
-                ProductEntry.COLUMN_PRODUCT_NAME,
-                ProductEntry.COLUMN_PRODUCT_QUANTITY,
-                ProductEntry.COLUMN_PRODUCT_PRICE};
-
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
-                ProductEntry.CONTENT_URI,   // Provider content URI to query
-                projection,             // Columns to include in the resulting Cursor
-                null,                   // No selection clause
-                null,                   // No selection arguments
-                null);                  // Default sort order
-    }
-
-    @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        // Update {@link ProductCursorAdapter} with this new cursor containing updated product data
-        cursorAdapter.swapCursor(data);
-    }
-
-    @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        // Callback called when the data needs to be deleted
-        cursorAdapter.swapCursor(null);
-    }
-
-}
\ No newline at end of file
+}
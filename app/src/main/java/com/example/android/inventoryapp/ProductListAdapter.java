@@ -0,0 +1,191 @@
+
+package com.example.android.inventoryapp;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.support.v7.util.ListUpdateCallback;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.TextView;
+import android.widget.Toast;
+
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+/**
+ * {@link ProductListAdapter} is a {@link RecyclerView} adapter that uses a {@link ProductPagedList}
+ * of product data as its data source. This adapter knows how to create list items for each row
+ * of product data, asks the paged list to read the pages around the rows that are shown, and
+ * forwards the row by row updates of the paged list to the {@link RecyclerView}, so only changed
+ * rows are bound again. Rows have no stable IDs, as a row whose page isn't loaded has no ID yet;
+ * the updates tell the {@link RecyclerView} which rows moved instead.
+ */
+public class ProductListAdapter extends RecyclerView.Adapter<ProductListAdapter.ViewHolder>
+        implements ListUpdateCallback {
+
+    private static final String LOG_TAG = ProductListAdapter.class.getSimpleName();
+
+    /**
+     * Listener for clicks on a product of the list.
+     */
+    public interface OnProductClickListener {
+
+        /** Called when the row of the product with the given ID is clicked */
+        void onProductClick(long id);
+    }
+
+    /**
+     * Caches the views of a list item, and the ID of the product bound to it for its click
+     * listeners, which are created once per item instead of once per bind.
+     */
+    class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+        final TextView nameProductTextView;
+        final TextView priceProductTextView;
+        final TextView quantityProductTextView;
+        final Button saleButton;
+
+        /** ID of the product shown, or -1 while the row is not in memory */
+        long idProduct = -1;
+
+        ViewHolder(View view) {
+            super(view);
+            nameProductTextView = view.findViewById(R.id.list_name_product_text_view);
+            priceProductTextView = view.findViewById(R.id.list_price_product_text_view);
+            quantityProductTextView = view.findViewById(R.id.list_quantity_product_text_view);
+            saleButton = view.findViewById(R.id.sale_button);
+
+            view.setOnClickListener(this);
+            saleButton.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View v) {
+            if (idProduct < 0) {
+                return;
+            }
+            if (v == saleButton) {
+                sellProduct(idProduct);
+            } else {
+                clickListener.onProductClick(idProduct);
+            }
+        }
+    }
+
+    private final Context context;
+    private final LayoutInflater inflater;
+    private final OnProductClickListener clickListener;
+
+    /** Price unit followed by a space, read once from the resources */
+    private final String pricePrefix;
+
+    /** Source of the rows, set once the owner has created it */
+    private ProductPagedList pagedList;
+
+    /**
+     * Tells the user when a sale was refused. Sales of the same product tapped in a row are
+     * merged by the writer, which calls this once for all of them.
+     */
+    private final ProductWriter.Callback<Bundle> saleCallback = new ProductWriter.Callback<Bundle>() {
+        @Override
+        public void onComplete(Bundle result) {
+            if (result == null || result.getBoolean(ProductEntry.EXTRA_SOLD_OUT)) {
+                Toast.makeText(context, context.getString(R.string.product_sold_out), Toast.LENGTH_SHORT).show();
+            }
+        }
+    };
+
+    /**
+     * Constructs a new {@link ProductListAdapter}.
+     *
+     * @param context       The context
+     * @param clickListener notified when a product is clicked
+     */
+    public ProductListAdapter(Context context, OnProductClickListener clickListener) {
+        this.context = context;
+        this.inflater = LayoutInflater.from(context);
+        this.clickListener = clickListener;
+        this.pricePrefix = context.getString(R.string.unit_product_price) + " ";
+    }
+
+    /**
+     * Set the paged list the rows are read from, or null to show an empty list.
+     */
+    public void setPagedList(ProductPagedList pagedList) {
+        this.pagedList = pagedList;
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public int getItemCount() {
+        return pagedList == null ? 0 : pagedList.size();
+    }
+
+    /**
+     * Makes a new blank list item view. No data is set (or bound) to the views yet.
+     */
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        // Inflate a list item view using the layout specified in list_item.xml
+        return new ViewHolder(inflater.inflate(R.layout.list_item, parent, false));
+    }
+
+    /**
+     * This method binds the product data of the given row to the list item. Rows whose page is
+     * still being read show as blank.
+     */
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        pagedList.loadAround(position);
+        if (!pagedList.moveToPosition(position)) {
+            holder.idProduct = -1;
+            holder.nameProductTextView.setText(null);
+            holder.priceProductTextView.setText(null);
+            holder.quantityProductTextView.setText(null);
+            holder.saleButton.setEnabled(false);
+            return;
+        }
+
+        // Update the TextViews with the attributes for the current product
+        holder.idProduct = pagedList.getId();
+        holder.nameProductTextView.setText(pagedList.getName());
+        holder.priceProductTextView.setText(pricePrefix + pagedList.getPrice());
+        holder.quantityProductTextView.setText(String.valueOf(pagedList.getQuantity()));
+        holder.saleButton.setEnabled(true);
+    }
+
+    /**
+     * Sell 1 unit of the given product through the {@link ProductWriter}, off the main thread.
+     * The provider refuses the sale if the product is sold out, and the list is refreshed by the
+     * change notification.
+     */
+    private void sellProduct(long idProduct) {
+        if (!ProductWriter.get(context).sell(idProduct, 1, saleCallback)) {
+            Log.w(LOG_TAG, "Sale of product " + idProduct + " refused, too many pending writes");
+            Toast.makeText(context, context.getString(R.string.writes_busy), Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    @Override
+    public void onInserted(int position, int count) {
+        notifyItemRangeInserted(position, count);
+    }
+
+    @Override
+    public void onRemoved(int position, int count) {
+        notifyItemRangeRemoved(position, count);
+    }
+
+    @Override
+    public void onMoved(int fromPosition, int toPosition) {
+        notifyItemMoved(fromPosition, toPosition);
+    }
+
+    @Override
+    public void onChanged(int position, int count, Object payload) {
+        notifyItemRangeChanged(position, count, payload);
+    }
+}
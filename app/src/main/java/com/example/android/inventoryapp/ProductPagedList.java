@@ -0,0 +1,1090 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.content.ContentResolverCompat;
+import android.support.v4.os.CancellationSignal;
+import android.support.v4.os.OperationCanceledException;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.SummaryEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link ProductPagedList} holds the product list in memory one page at a time. Pages are read
+ * from the provider with keyset paging (the sort key plus _id of the last row of the previous page),
+ * loaded on a background thread as the list scrolls near them and dropped again once they are far
+ * from the rows on screen. Only the (key, ID) boundary and the row count of a dropped page are
+ * kept, so it can be read again when the user scrolls back.
+ *
+ * Changes are reported position by position to a {@link ListUpdateCallback}. When the provider
+ * notifies that single rows changed, only these rows are read again and patched into the pages in
+ * memory. Any other change reloads the rows around the viewport, which are diffed against their
+ * new version on the background thread, so only the rows that really changed are reported.
+ *
+ * The list may be narrowed down by one of the ProductEntry FILTER_ values and to a single
+ * supplier. Rows that stop matching them when they change are removed, and rows that start
+ * matching are inserted.
+ *
+ * While a search is set, the list holds the best matches of the full-text search instead, in a
+ * single page that is read again on any change. The search covers all products.
+ *
+ * All methods must be called on the main thread.
+ */
+public class ProductPagedList {
+
+    /** Number of rows read from the provider at once */
+    static final int PAGE_SIZE = ProductEntry.LIST_PAGE_SIZE;
+
+    /** Number of pages kept in memory on each side of the page being looked at */
+    private static final int RESIDENT_PAGES = 3;
+
+    /** Delay used to fold a burst of change notifications into a single reload */
+    private static final long INVALIDATE_DELAY_MS = 100;
+
+    /** Delay used to read the rows of a burst of row change notifications in one query */
+    private static final long ROW_CHANGES_DELAY_MS = 50;
+
+    /** Largest number of changed rows that are patched one by one instead of reloading */
+    private static final int MAX_ROW_CHANGES = 100;
+
+    /** Delay used to run a single search for keystrokes typed in a row */
+    private static final long SEARCH_DELAY_MS = 150;
+
+    /** Largest number of rows a search shows */
+    static final int MAX_SEARCH_RESULTS = 200;
+
+    private static final int ID_COLUMN = 0;
+    private static final int NAME_COLUMN = 1;
+    private static final int QUANTITY_COLUMN = 2;
+    private static final int PRICE_COLUMN = 3;
+
+    /** Column of the sort key, which depends on the sort */
+    private static final int KEY_COLUMN = 4;
+
+    /**
+     * Rows of one page, stored column by column.
+     */
+    private static final class Rows {
+        final int count;
+        final long[] ids;
+        final String[] names;
+        final int[] quantities;
+        final int[] prices;
+
+        /** Sort keys, as passed back to the provider */
+        final String[] keys;
+
+        Rows(int count) {
+            this.count = count;
+            ids = new long[count];
+            names = new String[count];
+            quantities = new int[count];
+            prices = new int[count];
+            keys = new String[count];
+        }
+
+        /**
+         * Return a copy of the given pages as one list of rows. A missing page is filled with
+         * rows of ID -1, which never match a real row.
+         */
+        static Rows concat(List<Rows> pages, int[] counts) {
+            int total = 0;
+            for (int count : counts) {
+                total += count;
+            }
+            Rows all = new Rows(total);
+            int offset = 0;
+            for (int i = 0; i < counts.length; i++) {
+                Rows rows = pages.get(i);
+                if (rows == null) {
+                    Arrays.fill(all.ids, offset, offset + counts[i], -1);
+                } else {
+                    copy(rows, 0, all, offset, rows.count);
+                }
+                offset += counts[i];
+            }
+            return all;
+        }
+
+        /**
+         * Return a copy of these rows where removeCount rows at the given index are replaced by
+         * one row of another {@link Rows}, or by nothing when source is null. Rows are never
+         * changed in place, since a snapshot of them may be diffed on the background thread.
+         */
+        Rows splice(int index, int removeCount, Rows source, int sourceRow) {
+            int insertCount = source == null ? 0 : 1;
+            Rows result = new Rows(count - removeCount + insertCount);
+            copy(this, 0, result, 0, index);
+            if (source != null) {
+                copy(source, sourceRow, result, index, 1);
+            }
+            copy(this, index + removeCount, result, index + insertCount, count - index - removeCount);
+            return result;
+        }
+
+        /**
+         * Return the index of the row of the given product, or -1 if it is not one of these rows.
+         */
+        int indexOf(long id) {
+            for (int i = 0; i < count; i++) {
+                if (ids[i] == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private static void copy(Rows from, int fromIndex, Rows to, int toIndex, int length) {
+            System.arraycopy(from.ids, fromIndex, to.ids, toIndex, length);
+            System.arraycopy(from.names, fromIndex, to.names, toIndex, length);
+            System.arraycopy(from.quantities, fromIndex, to.quantities, toIndex, length);
+            System.arraycopy(from.prices, fromIndex, to.prices, toIndex, length);
+            System.arraycopy(from.keys, fromIndex, to.keys, toIndex, length);
+        }
+    }
+
+    /**
+     * Compares two versions of the same rows: rows are the same product if their IDs match,
+     * and need to be bound again if any of the shown columns differs.
+     */
+    private static final class RowsDiff extends DiffUtil.Callback {
+        private final Rows oldRows;
+        private final Rows newRows;
+
+        RowsDiff(Rows oldRows, Rows newRows) {
+            this.oldRows = oldRows;
+            this.newRows = newRows;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldRows.count;
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newRows.count;
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            long id = oldRows.ids[oldItemPosition];
+            return id != -1 && id == newRows.ids[newItemPosition];
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldRows.quantities[oldItemPosition] == newRows.quantities[newItemPosition]
+                    && oldRows.prices[oldItemPosition] == newRows.prices[newItemPosition]
+                    && oldRows.names[oldItemPosition].equals(newRows.names[newItemPosition]);
+        }
+    }
+
+    /**
+     * Forwards updates of a part of the list, shifted to where that part starts.
+     */
+    private static final class OffsetCallback implements ListUpdateCallback {
+        private final ListUpdateCallback callback;
+        private final int offset;
+
+        OffsetCallback(ListUpdateCallback callback, int offset) {
+            this.callback = callback;
+            this.offset = offset;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            callback.onInserted(position + offset, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            callback.onRemoved(position + offset, count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            callback.onMoved(fromPosition + offset, toPosition + offset);
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            callback.onChanged(position + offset, count, payload);
+        }
+    }
+
+    /**
+     * A page of the list. The boundary and count survive when the rows are dropped.
+     */
+    private static final class Page {
+        /** Sort key and ID of the last row before this page, null key for the first page */
+        final String afterKey;
+        final long afterId;
+
+        /** Number of rows in the page */
+        int count;
+
+        /** Rows of the page, null while they are not in memory */
+        Rows rows;
+
+        /** Whether the rows are being read again */
+        boolean loading;
+
+        Page(String afterKey, long afterId, Rows rows) {
+            this.afterKey = afterKey;
+            this.afterId = afterId;
+            this.rows = rows;
+            this.count = rows.count;
+        }
+    }
+
+    private final ContentResolver resolver;
+    private final String sort;
+    private final String filter;
+    private final long supplierId;
+
+    /** Columns read for every row, in the order of the *_COLUMN constants */
+    private final String[] projection;
+    private final ListUpdateCallback callback;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    /** Pages in list order */
+    private final List<Page> pages = new ArrayList<>();
+
+    /** Position of the first row of every page, valid while pageStartsValid is true */
+    private int[] pageStarts = new int[0];
+    private boolean pageStartsValid;
+    private int size;
+
+    /** Range of pages that may currently hold rows */
+    private int residentFrom;
+    private int residentTo = -1;
+
+    /** Whether the last page has been read */
+    private boolean endReached;
+
+    /** Whether a first page has been read, even an empty one */
+    private boolean firstPageRead;
+    private boolean loadingNext;
+    private boolean reloading;
+
+    /** Bumped when the list is reloaded, so reads started before are thrown away */
+    private int generation;
+
+    /** Whether a reload has been scheduled */
+    private boolean invalidatePending;
+
+    /** Rows notified as changed and not read yet, with whether they were deleted */
+    private final Map<Long, Boolean> pendingRowChanges = new LinkedHashMap<>();
+
+    /** Search text the rows match, null while the whole list is shown */
+    private String query;
+
+    /** Search text typed last, applied once the typing pauses */
+    private String pendingQuery;
+
+    /** Cancels the search being read, null when none is running */
+    private CancellationSignal searchSignal;
+
+    /** Row the getters below read from, set by moveToPosition */
+    private Rows currentRows;
+    private int currentRow;
+
+    private final Runnable invalidateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            reload();
+        }
+    };
+
+    private final Runnable rowChangesRunnable = new Runnable() {
+        @Override
+        public void run() {
+            readChangedRows();
+        }
+    };
+
+    private final Runnable searchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            applySearch();
+        }
+    };
+
+    private final ContentObserver observer;
+
+    /**
+     * Constructs a new {@link ProductPagedList} and starts loading its first page.
+     *
+     * @param resolver   to read the products with
+     * @param sort       one of the ProductEntry SORT_ values
+     * @param filter     one of the ProductEntry FILTER_ values, or null for all products
+     * @param supplierId ID of the supplier whose products to show, or 0 for all suppliers
+     * @param callback   notified of every row that is inserted, removed, moved or changed
+     */
+    public ProductPagedList(ContentResolver resolver, String sort, String filter, long supplierId,
+                            ListUpdateCallback callback) {
+        this.resolver = resolver;
+        this.sort = sort;
+        this.filter = filter;
+        this.supplierId = supplierId;
+        this.callback = callback;
+        projection = ProductEntry.buildListProjection(sort);
+
+        observer = new ContentObserver(mainHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                // Before Jelly Bean observers are not told which URI changed
+                invalidate();
+            }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                onRowChanged(uri);
+            }
+        };
+        resolver.registerContentObserver(ProductEntry.CONTENT_URI, true, observer);
+
+        loadNextPage();
+    }
+
+    /**
+     * Stop watching the provider and release the background thread.
+     */
+    public void close() {
+        resolver.unregisterContentObserver(observer);
+        mainHandler.removeCallbacks(invalidateRunnable);
+        mainHandler.removeCallbacks(rowChangesRunnable);
+        mainHandler.removeCallbacks(searchRunnable);
+        cancelSearch();
+        generation++;
+        executor.shutdown();
+    }
+
+    /**
+     * Return whether the first page has been read, which may have had no rows.
+     */
+    public boolean isFirstPageRead() {
+        return firstPageRead;
+    }
+
+    /**
+     * Return the number of rows known so far. It grows as more pages are read.
+     */
+    public int size() {
+        computePageStarts();
+        return size;
+    }
+
+    /**
+     * Point the getters at the given row. Return false if that row is not in memory right now,
+     * in which case {@link #loadAround} will read it.
+     */
+    public boolean moveToPosition(int position) {
+        int pageIndex = pageIndexOf(position);
+        if (pageIndex < 0) {
+            return false;
+        }
+        Rows rows = pages.get(pageIndex).rows;
+        int row = position - pageStarts[pageIndex];
+        if (rows == null || row >= rows.count) {
+            return false;
+        }
+        currentRows = rows;
+        currentRow = row;
+        return true;
+    }
+
+    public long getId() {
+        return currentRows.ids[currentRow];
+    }
+
+    public String getName() {
+        return currentRows.names[currentRow];
+    }
+
+    public int getQuantity() {
+        return currentRows.quantities[currentRow];
+    }
+
+    public int getPrice() {
+        return currentRows.prices[currentRow];
+    }
+
+    /**
+     * Make sure the pages around the given position are in memory, drop the ones that are too
+     * far from it, and read the next page when the position is on the last one.
+     */
+    public void loadAround(int position) {
+        int pageIndex = pageIndexOf(position);
+        if (pageIndex < 0 || reloading) {
+            return;
+        }
+
+        int from = Math.max(0, pageIndex - RESIDENT_PAGES);
+        int to = Math.min(pages.size() - 1, pageIndex + RESIDENT_PAGES);
+
+        // Drop the pages that left the resident range
+        for (int i = residentFrom; i <= residentTo && i < pages.size(); i++) {
+            if (i < from || i > to) {
+                pages.get(i).rows = null;
+            }
+        }
+        residentFrom = from;
+        residentTo = to;
+
+        // Read back the ones that entered it
+        for (int i = from; i <= to; i++) {
+            Page page = pages.get(i);
+            if (page.rows == null && !page.loading) {
+                loadPage(page);
+            }
+        }
+
+        if (pageIndex == pages.size() - 1 && !endReached) {
+            loadNextPage();
+        }
+    }
+
+    /**
+     * Reload the rows in memory after the data changed. Notifications that arrive in a burst
+     * only cause one reload.
+     */
+    public void invalidate() {
+        // A reload makes the pending row changes moot
+        pendingRowChanges.clear();
+        mainHandler.removeCallbacks(rowChangesRunnable);
+
+        invalidatePending = true;
+        mainHandler.removeCallbacks(invalidateRunnable);
+        mainHandler.postDelayed(invalidateRunnable, INVALIDATE_DELAY_MS);
+    }
+
+    /**
+     * Show only the products matching the given search text, best matches first, or the whole
+     * list again when the text is empty. The search runs once the typing pauses, and cancels the
+     * previous search if that one is still being read.
+     */
+    public void search(String text) {
+        String newQuery = text == null || text.trim().isEmpty() ? null : text.trim();
+        mainHandler.removeCallbacks(searchRunnable);
+        if (newQuery == null ? query == null : newQuery.equals(query)) {
+            // Typed back to the search already shown or being read
+            return;
+        }
+
+        pendingQuery = newQuery;
+        mainHandler.postDelayed(searchRunnable, SEARCH_DELAY_MS);
+    }
+
+    /**
+     * Switch to the search text typed last.
+     */
+    private void applySearch() {
+        query = pendingQuery;
+        if (query != null) {
+            loadSearch();
+            return;
+        }
+
+        // Back to the whole list, read again from its first page
+        generation++;
+        cancelSearch();
+        invalidatePending = false;
+        mainHandler.removeCallbacks(invalidateRunnable);
+        pendingRowChanges.clear();
+        mainHandler.removeCallbacks(rowChangesRunnable);
+        reloading = false;
+        loadingNext = false;
+        endReached = false;
+        replaceRows(null);
+        loadNextPage();
+    }
+
+    /**
+     * Read the matches of the current search on the background thread, and show them in place of
+     * the rows in memory. Loads are held back until then, and row changes cause a new search.
+     */
+    private void loadSearch() {
+        final int gen = ++generation;
+        invalidatePending = false;
+        loadingNext = false;
+        reloading = true;
+        pendingRowChanges.clear();
+        mainHandler.removeCallbacks(rowChangesRunnable);
+
+        cancelSearch();
+        final CancellationSignal signal = new CancellationSignal();
+        searchSignal = signal;
+        final String text = query;
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Rows rows;
+                try {
+                    rows = readSearch(text, signal);
+                } catch (OperationCanceledException e) {
+                    // A newer search or the whole list replaces it
+                    return;
+                }
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (gen != generation) {
+                            return;
+                        }
+                        searchSignal = null;
+                        reloading = false;
+                        endReached = true;
+                        replaceRows(rows);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Cancel the search being read, if any. Its rows would be thrown away by the generation
+     * check anyway, this stops the query in the database so the next one doesn't wait for it.
+     */
+    private void cancelSearch() {
+        if (searchSignal != null) {
+            searchSignal.cancel();
+            searchSignal = null;
+        }
+    }
+
+    /**
+     * Replace every page with a single page of the given rows, or with nothing when they are null.
+     */
+    private void replaceRows(Rows rows) {
+        int oldSize = size();
+        pages.clear();
+        if (rows != null && rows.count > 0) {
+            pages.add(new Page(null, 0, rows));
+        }
+        residentFrom = 0;
+        residentTo = pages.size() - 1;
+        pageStartsValid = false;
+
+        if (oldSize > 0) {
+            callback.onRemoved(0, oldSize);
+        }
+        if (size() > 0) {
+            callback.onInserted(0, size);
+        }
+    }
+
+    /**
+     * Handle a change notification. Changes of a single row, as notified by the provider with a
+     * {@link ProductEntry#PARAM_CHANGE} parameter, are collected and patched into the rows in
+     * memory; anything else reloads the list.
+     */
+    private void onRowChanged(Uri uri) {
+        if (SummaryEntry.CONTENT_URI.equals(uri)) {
+            // Notified next to the rows whose change moved the summary
+            return;
+        }
+
+        String change = uri == null ? null : uri.getQueryParameter(ProductEntry.PARAM_CHANGE);
+        if (change == null || query != null || invalidatePending
+                || pendingRowChanges.size() >= MAX_ROW_CHANGES) {
+            invalidate();
+            return;
+        }
+
+        long id = ContentUris.parseId(uri);
+        pendingRowChanges.put(id, ProductEntry.CHANGE_DELETE.equals(change));
+        mainHandler.removeCallbacks(rowChangesRunnable);
+        mainHandler.postDelayed(rowChangesRunnable, ROW_CHANGES_DELAY_MS);
+    }
+
+    /**
+     * Read the current version of the changed rows in one query on the background thread, and
+     * patch them into the pages in memory.
+     */
+    private void readChangedRows() {
+        if (reloading) {
+            // The running reload may have read the rows before they changed
+            invalidate();
+            return;
+        }
+
+        final Map<Long, Boolean> changes = new LinkedHashMap<>(pendingRowChanges);
+        pendingRowChanges.clear();
+        final List<String> ids = new ArrayList<>();
+        for (Map.Entry<Long, Boolean> change : changes.entrySet()) {
+            if (!change.getValue()) {
+                ids.add(String.valueOf(change.getKey()));
+            }
+        }
+
+        final int gen = generation;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Rows rows = ids.isEmpty() ? new Rows(0) : readRows(ids);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (gen != generation) {
+                            // Reloaded in the meantime, which read the changes already
+                            return;
+                        }
+                        if (reloading) {
+                            invalidate();
+                            return;
+                        }
+                        for (Long id : changes.keySet()) {
+                            int row = rows.indexOf(id);
+                            if (!applyRowChange(id, row < 0 ? null : rows, row)) {
+                                invalidate();
+                                return;
+                            }
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Patch the new version of a row into the pages in memory: change it where it is, or move it
+     * to where its sort key now puts it, or remove it when source is null (it was deleted).
+     * Return false if this can't be done without reading the pages again.
+     */
+    private boolean applyRowChange(long id, Rows source, int sourceRow) {
+        computePageStarts();
+        for (int pageIndex = residentFrom; pageIndex <= residentTo && pageIndex < pages.size(); pageIndex++) {
+            Page page = pages.get(pageIndex);
+            int row = page.rows == null ? -1 : page.rows.indexOf(id);
+            if (row < 0) {
+                continue;
+            }
+
+            int position = pageStarts[pageIndex] + row;
+            if (source != null && fitsAt(pageIndex, row, source, sourceRow)) {
+                page.rows = page.rows.splice(row, 1, source, sourceRow);
+                callback.onChanged(position, 1, null);
+                return true;
+            }
+
+            // The last row of a page is the boundary the next page is read from, so it can't
+            // move, and a page is never left empty
+            boolean lastOfPage = row == page.rows.count - 1
+                    && !(pageIndex == pages.size() - 1 && endReached);
+            if ((source != null && lastOfPage) || page.count == 1) {
+                return false;
+            }
+
+            page.rows = page.rows.splice(row, 1, null, 0);
+            page.count--;
+            pageStartsValid = false;
+            callback.onRemoved(position, 1);
+            break;
+        }
+
+        return source == null || insertInRange(source, sourceRow);
+    }
+
+    /**
+     * Return whether the new version of a row still sorts between its neighbours.
+     */
+    private boolean fitsAt(int pageIndex, int row, Rows source, int sourceRow) {
+        Page page = pages.get(pageIndex);
+        String key = sortKey(source, sourceRow);
+        long id = source.ids[sourceRow];
+
+        // It must stay after the row before it...
+        if (row > 0) {
+            if (compareKeys(sortKey(page.rows, row - 1), page.rows.ids[row - 1], key, id) >= 0) {
+                return false;
+            }
+        } else if (page.afterKey != null && compareKeys(key, id, page.afterKey, page.afterId) <= 0) {
+            return false;
+        }
+
+        // ...and before the row after it. The last row of a page is the boundary the next
+        // page is read from, so its key must not change at all.
+        if (row < page.rows.count - 1) {
+            return compareKeys(sortKey(page.rows, row + 1), page.rows.ids[row + 1], key, id) > 0;
+        }
+        return (pageIndex == pages.size() - 1 && endReached) || key.equals(sortKey(page.rows, row));
+    }
+
+    /**
+     * Insert a new or moved row where its sort key puts it, if that is inside the pages in
+     * memory. Rows that sort into pages that are not in memory are read with those pages.
+     * Return false if this can't be done without reading the pages again.
+     */
+    private boolean insertInRange(Rows source, int sourceRow) {
+        if (residentTo < residentFrom || residentTo >= pages.size()) {
+            return true;
+        }
+
+        String key = sortKey(source, sourceRow);
+        long id = source.ids[sourceRow];
+        Page first = pages.get(residentFrom);
+        if (first.afterKey != null && compareKeys(key, id, first.afterKey, first.afterId) <= 0) {
+            return true;
+        }
+
+        computePageStarts();
+        for (int pageIndex = residentFrom; pageIndex <= residentTo; pageIndex++) {
+            Page page = pages.get(pageIndex);
+            if (page.rows == null) {
+                return false;
+            }
+            for (int row = 0; row < page.rows.count; row++) {
+                if (compareKeys(sortKey(page.rows, row), page.rows.ids[row], key, id) > 0) {
+                    insertAt(pageIndex, row, source, sourceRow);
+                    return true;
+                }
+            }
+        }
+
+        // It sorts after every row in memory, which is only the end of the list if the
+        // last page is in memory
+        if (residentTo == pages.size() - 1 && endReached) {
+            insertAt(residentTo, pages.get(residentTo).count, source, sourceRow);
+        }
+        return true;
+    }
+
+    private void insertAt(int pageIndex, int row, Rows source, int sourceRow) {
+        Page page = pages.get(pageIndex);
+        int position = pageStarts[pageIndex] + row;
+        page.rows = page.rows.splice(row, 0, source, sourceRow);
+        page.count++;
+        pageStartsValid = false;
+        callback.onInserted(position, 1);
+    }
+
+    /**
+     * Compare two (sort key, ID) pairs the way the provider orders them.
+     */
+    private int compareKeys(String keyA, long idA, String keyB, long idB) {
+        int result;
+        switch (sort) {
+            case ProductEntry.SORT_QUANTITY:
+            case ProductEntry.SORT_PRICE:
+                result = compareLongs(Long.parseLong(keyA), Long.parseLong(keyB));
+                break;
+            case ProductEntry.SORT_RECENT:
+                // Most recent first, and the higher ID first among equal times
+                result = compareLongs(Long.parseLong(keyB), Long.parseLong(keyA));
+                return result != 0 ? result : compareLongs(idB, idA);
+            default:
+                // By code point, as SQLite compares text
+                result = ProductEntry.compareTextKeys(keyA, keyB);
+                break;
+        }
+        return result != 0 ? result : compareLongs(idA, idB);
+    }
+
+    private static int compareLongs(long a, long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    /**
+     * Read the resident pages again in one background pass, each one starting after the last
+     * row of the previous one, so rows that moved between pages are neither lost nor repeated.
+     * The new rows are diffed against the old ones on the background thread as well. Pages after
+     * the resident ones are forgotten and read again on demand; pages before them keep their
+     * boundaries and are refreshed when the user scrolls back.
+     */
+    private void reload() {
+        if (query != null) {
+            // Matches are ranked, not sorted by key, so the search is simply run again
+            loadSearch();
+            return;
+        }
+
+        final int gen = ++generation;
+        invalidatePending = false;
+        loadingNext = false;
+
+        if (pages.isEmpty()) {
+            endReached = false;
+            loadNextPage();
+            return;
+        }
+
+        reloading = true;
+        final int from = Math.min(residentFrom, pages.size() - 1);
+        final int to = Math.max(from, Math.min(residentTo, pages.size() - 1));
+        final int count = to - from + 1;
+        final Page first = pages.get(from);
+
+        // Take a snapshot of the rows that will be diffed. Nothing else changes the pages
+        // until the reload is applied, since loads are held back while reloading is set.
+        computePageStarts();
+        final int start = pageStarts[from];
+        final int tailStart = to + 1 < pages.size() ? pageStarts[to + 1] : size;
+        final int tailCount = size - tailStart;
+        List<Rows> oldPages = new ArrayList<>();
+        int[] oldCounts = new int[count];
+        for (int i = from; i <= to; i++) {
+            oldPages.add(pages.get(i).rows);
+            oldCounts[i - from] = pages.get(i).count;
+        }
+        final Rows oldRows = Rows.concat(oldPages, oldCounts);
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<Page> reloaded = new ArrayList<>();
+                List<Rows> newPages = new ArrayList<>();
+                String afterKey = first.afterKey;
+                long afterId = first.afterId;
+                for (int i = 0; i < count; i++) {
+                    Rows rows = readPage(afterKey, afterId);
+                    if (rows.count == 0) {
+                        break;
+                    }
+                    reloaded.add(new Page(afterKey, afterId, rows));
+                    newPages.add(rows);
+                    afterKey = sortKey(rows, rows.count - 1);
+                    afterId = rows.ids[rows.count - 1];
+                    if (rows.count < PAGE_SIZE) {
+                        break;
+                    }
+                }
+
+                int[] newCounts = new int[newPages.size()];
+                for (int i = 0; i < newCounts.length; i++) {
+                    newCounts[i] = newPages.get(i).count;
+                }
+                final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(
+                        new RowsDiff(oldRows, Rows.concat(newPages, newCounts)), true);
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (gen != generation) {
+                            return;
+                        }
+                        reloading = false;
+                        pages.subList(from, pages.size()).clear();
+                        pages.addAll(reloaded);
+                        endReached = reloaded.size() < count
+                                || reloaded.get(reloaded.size() - 1).count < PAGE_SIZE;
+                        residentFrom = Math.min(from, Math.max(0, pages.size() - 1));
+                        residentTo = pages.size() - 1;
+                        pageStartsValid = false;
+
+                        // First drop the forgotten tail, then patch the resident rows
+                        if (tailCount > 0) {
+                            callback.onRemoved(tailStart, tailCount);
+                        }
+                        diff.dispatchUpdatesTo(new OffsetCallback(callback, start));
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Read the rows of a dropped page again from its boundary.
+     */
+    private void loadPage(final Page page) {
+        final int gen = generation;
+        page.loading = true;
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Rows rows = readPage(page.afterKey, page.afterId);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (gen != generation) {
+                            return;
+                        }
+                        page.loading = false;
+                        int pageIndex = pages.indexOf(page);
+                        if (pageIndex < residentFrom || pageIndex > residentTo) {
+                            // Scrolled away while it was being read
+                            return;
+                        }
+                        computePageStarts();
+                        int start = pageStarts[pageIndex];
+                        int oldCount = page.count;
+                        page.rows = rows;
+                        page.count = rows.count;
+                        pageStartsValid = false;
+
+                        if (Math.min(oldCount, rows.count) > 0) {
+                            callback.onChanged(start, Math.min(oldCount, rows.count), null);
+                        }
+                        if (rows.count > oldCount) {
+                            callback.onInserted(start + oldCount, rows.count - oldCount);
+                        } else if (rows.count < oldCount) {
+                            callback.onRemoved(start + rows.count, oldCount - rows.count);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Read the page that follows the last one.
+     */
+    private void loadNextPage() {
+        if (loadingNext || endReached) {
+            return;
+        }
+
+        final String afterKey;
+        final long afterId;
+        if (pages.isEmpty()) {
+            afterKey = null;
+            afterId = 0;
+        } else {
+            Rows last = pages.get(pages.size() - 1).rows;
+            if (last == null) {
+                return;
+            }
+            afterKey = sortKey(last, last.count - 1);
+            afterId = last.ids[last.count - 1];
+        }
+
+        final int gen = generation;
+        loadingNext = true;
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Rows rows = readPage(afterKey, afterId);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        firstPageRead = true;
+                        if (gen != generation) {
+                            return;
+                        }
+                        loadingNext = false;
+                        endReached = rows.count < PAGE_SIZE;
+                        if (rows.count > 0) {
+                            int start = size();
+                            pages.add(new Page(afterKey, afterId, rows));
+                            residentTo = pages.size() - 1;
+                            pageStartsValid = false;
+                            callback.onInserted(start, rows.count);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Read one page from the provider. Called on the background thread.
+     */
+    private Rows readPage(String afterKey, long afterId) {
+        Uri uri = ProductEntry.buildPageUri(sort, filter, supplierId, PAGE_SIZE, afterKey, afterId);
+        Rows rows = copyRows(resolver.query(uri, projection, null, null, null));
+        StartupTrace.mark(StartupTrace.FIRST_PAGE_READ);
+        return rows;
+    }
+
+    /**
+     * Read the best matches of a search from the provider. Called on the background thread.
+     * Throws {@link OperationCanceledException} once the signal is cancelled.
+     */
+    private Rows readSearch(String text, CancellationSignal signal) {
+        Uri uri = ProductEntry.buildSearchUri(text, MAX_SEARCH_RESULTS);
+        return copyRows(ContentResolverCompat.query(resolver, uri, projection, null, null, null,
+                signal));
+    }
+
+    /**
+     * Read the rows of the given products that match the filter, in no particular order. Called
+     * on the background thread.
+     */
+    private Rows readRows(List<String> ids) {
+        StringBuilder selection = new StringBuilder(ProductEntry._ID).append(" IN (");
+        for (int i = 0; i < ids.size(); i++) {
+            selection.append(i == 0 ? "?" : ", ?");
+        }
+        selection.append(')');
+        return copyRows(resolver.query(ProductEntry.buildFilterUri(filter, supplierId), projection,
+                selection.toString(),
+                ids.toArray(new String[ids.size()]), null));
+    }
+
+    /**
+     * Copy the rows of a cursor with the list projection, and close it.
+     */
+    private static Rows copyRows(Cursor cursor) {
+        if (cursor == null) {
+            return new Rows(0);
+        }
+        try {
+            Rows rows = new Rows(cursor.getCount());
+            for (int i = 0; cursor.moveToNext(); i++) {
+                rows.ids[i] = cursor.getLong(ID_COLUMN);
+                rows.names[i] = cursor.getString(NAME_COLUMN);
+                rows.quantities[i] = cursor.getInt(QUANTITY_COLUMN);
+                rows.prices[i] = cursor.getInt(PRICE_COLUMN);
+                rows.keys[i] = cursor.getString(KEY_COLUMN);
+            }
+            return rows;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Return the value of the sort key of a row, as passed back to the provider.
+     */
+    private static String sortKey(Rows rows, int row) {
+        return rows.keys[row];
+    }
+
+    /**
+     * Return the index of the page holding the given position, or -1 if it is out of range.
+     */
+    private int pageIndexOf(int position) {
+        computePageStarts();
+        if (position < 0 || position >= size) {
+            return -1;
+        }
+        int index = Arrays.binarySearch(pageStarts, 0, pages.size(), position);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    private void computePageStarts() {
+        if (pageStartsValid) {
+            return;
+        }
+        if (pageStarts.length < pages.size()) {
+            pageStarts = new int[Math.max(pages.size(), pageStarts.length * 2)];
+        }
+        int start = 0;
+        for (int i = 0; i < pages.size(); i++) {
+            pageStarts[i] = start;
+            start += pages.get(i).count;
+        }
+        size = start;
+        pageStartsValid = true;
+    }
+}
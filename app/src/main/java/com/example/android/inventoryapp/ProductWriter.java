@@ -0,0 +1,519 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.LocationEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.StockEntry;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ProductWriter} runs every write to the products on a single background thread, so the UI
+ * thread never waits for the database, and writes still reach it in the order they were made.
+ *
+ * Sales of the same product made within {@link #COALESCE_WINDOW_MS} of the first sale waiting to
+ * be written are merged into a single sale of all their units. The queue is bounded: a write
+ * made while it is full is refused, which the caller learns from the return value. Results are
+ * delivered to callbacks on the main thread.
+ *
+ * All methods must be called on the main thread.
+ */
+public class ProductWriter {
+
+    private static final String LOG_TAG = ProductWriter.class.getSimpleName();
+
+    /** Time a sale waits for more sales of the same product before it is written */
+    static final long COALESCE_WINDOW_MS = 300;
+
+    /** Most writes waiting for the background thread */
+    static final int QUEUE_CAPACITY = 64;
+
+    /** Most times a merging update is tried on a product that keeps changing before it gives up */
+    private static final int MAX_MERGE_ATTEMPTS = 3;
+
+    /**
+     * Receives the result of a write on the main thread.
+     *
+     * @param <T> the type of the result
+     */
+    public interface Callback<T> {
+
+        /** Called once the write is done, with its result */
+        void onComplete(T result);
+    }
+
+    /** Sales of a product made during the coalescing window */
+    private static final class PendingSale {
+        final long id;
+        int amount;
+        final List<Integer> amounts = new ArrayList<>();
+        final List<Callback<Bundle>> callbacks = new ArrayList<>();
+
+        PendingSale(long id) {
+            this.id = id;
+        }
+    }
+
+    /** Keys of the {@link #getStats} bundle. Type: int */
+    public static final String STAT_DEPTH = "depth";
+    public static final String STAT_MAX_DEPTH = "max_depth";
+    public static final String STAT_COALESCED = "coalesced";
+    public static final String STAT_REJECTED = "rejected";
+    public static final String STAT_COMPLETED = "completed";
+
+    private static ProductWriter instance;
+
+    private final ContentResolver resolver;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0,
+            TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY));
+
+    /** Sales waiting for the coalescing window to close, by product ID */
+    private final Map<Long, PendingSale> pendingSales = new LinkedHashMap<>();
+
+    /** Counters for {@link #getStats} */
+    private int maxDepth;
+    private int coalesced;
+    private int rejected;
+    private int completed;
+
+    private final Runnable flushSalesRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flushSales();
+        }
+    };
+
+    /**
+     * Return the writer of the app, creating it on first use.
+     */
+    public static ProductWriter get(Context context) {
+        if (instance == null) {
+            instance = new ProductWriter(context.getApplicationContext().getContentResolver());
+        }
+        return instance;
+    }
+
+    ProductWriter(ContentResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    /**
+     * Sell units of a product. Sales of the same product made shortly after each other are
+     * written as one. Return false if the queue is full and the sale was refused.
+     *
+     * @param callback receives the result of the provider sell method, or null if the sale
+     *                 failed; called once per merged sale even if passed several times
+     */
+    public boolean sell(long id, int amount, Callback<Bundle> callback) {
+        PendingSale sale = pendingSales.get(id);
+        if (sale == null) {
+            if (isSaturated()) {
+                rejected++;
+                return false;
+            }
+            // The window opens with the first pending sale and is not pushed back by later
+            // ones, so a steady stream of sales of different products is still written
+            if (pendingSales.isEmpty()) {
+                mainHandler.postDelayed(flushSalesRunnable, COALESCE_WINDOW_MS);
+            }
+            sale = new PendingSale(id);
+            pendingSales.put(id, sale);
+        } else {
+            coalesced++;
+        }
+
+        sale.amount += amount;
+        sale.amounts.add(amount);
+        if (callback != null && !sale.callbacks.contains(callback)) {
+            sale.callbacks.add(callback);
+        }
+        updateMaxDepth();
+        return true;
+    }
+
+    /**
+     * Sell a unit of the product with a SKU, as read by a barcode scanner. Scans are not merged,
+     * since every one of them is reported to the user. Return false if the queue is full and the
+     * sale was refused.
+     *
+     * @param callback receives the result of the provider sell_sku method, or null if the sale
+     *                 failed
+     */
+    public boolean sellSku(final String sku, Callback<Bundle> callback) {
+        return submit(new Write<Bundle>(callback) {
+            @Override
+            Bundle write() {
+                return resolver.call(ProductEntry.CONTENT_URI, ProductEntry.METHOD_SELL_SKU, sku,
+                        null);
+            }
+        });
+    }
+
+    /**
+     * Move units of a product from one location to another. Return false if the queue is full
+     * and the transfer was refused.
+     *
+     * @param callback receives the result of the provider transfer method, or null if the
+     *                 transfer failed
+     */
+    public boolean transfer(final long id, long fromLocationId, long toLocationId, int amount,
+                            Callback<Bundle> callback) {
+        final Bundle extras = new Bundle();
+        extras.putLong(StockEntry.EXTRA_FROM_LOCATION_ID, fromLocationId);
+        extras.putLong(StockEntry.EXTRA_TO_LOCATION_ID, toLocationId);
+        extras.putInt(StockEntry.EXTRA_AMOUNT, amount);
+        return submit(new Write<Bundle>(callback) {
+            @Override
+            Bundle write() {
+                return resolver.call(StockEntry.CONTENT_URI, StockEntry.METHOD_TRANSFER,
+                        String.valueOf(id), extras);
+            }
+        });
+    }
+
+    /**
+     * Add a stock location. Return false if the queue is full and the insert was refused.
+     *
+     * @param callback receives the URI of the new location, or null if the insert failed
+     */
+    public boolean insertLocation(String name, Callback<Uri> callback) {
+        final ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_NAME, name);
+        return submit(new Write<Uri>(callback) {
+            @Override
+            Uri write() {
+                return resolver.insert(LocationEntry.CONTENT_URI, values);
+            }
+        });
+    }
+
+    /**
+     * Insert a product. Return false if the queue is full and the insert was refused.
+     *
+     * @param callback receives the URI of the new product, or null if the insert failed
+     */
+    public boolean insert(final ContentValues values, Callback<Uri> callback) {
+        return submit(new Write<Uri>(callback) {
+            @Override
+            Uri write() {
+                return resolver.insert(ProductEntry.CONTENT_URI, values);
+            }
+        });
+    }
+
+    /**
+     * Update the products matching the URI. Return false if the queue is full and the update
+     * was refused.
+     *
+     * @param callback receives the number of rows updated, 0 if the update failed
+     */
+    public boolean update(final Uri uri, final ContentValues values, Callback<Integer> callback) {
+        return submit(new Write<Integer>(callback) {
+            @Override
+            Integer write() {
+                return resolver.update(uri, values, null, null);
+            }
+
+            @Override
+            Integer failed() {
+                return 0;
+            }
+        });
+    }
+
+    /**
+     * Update a single product with values edited from the ones read at a version, without
+     * overwriting what changed in the product since, such as sales made meanwhile. The update is
+     * conditional on the version. If the product changed in between, the provider reports the
+     * conflict with the current row, and the edit is merged into it: columns the edit left alone
+     * take their current values, columns it changed keep the edited values, and a changed
+     * quantity is applied as a difference, so units sold or received since are kept. Return
+     * false if the queue is full and the update was refused.
+     *
+     * @param original values as they were read, with the same columns and in the same form as
+     *                 the edited values
+     * @param edited   values to write
+     * @param version  {@link ProductEntry#COLUMN_PRODUCT_VERSION} of the product when it was read
+     * @param callback receives the number of rows updated, 0 if the product was deleted, kept
+     *                 changing or the update failed
+     */
+    public boolean updateMerging(final long id, final ContentValues original,
+                                 final ContentValues edited, final long version,
+                                 Callback<Integer> callback) {
+        return submit(new Write<Integer>(callback) {
+            @Override
+            Integer write() {
+                ContentValues values = edited;
+                long expectedVersion = version;
+                for (int attempt = 0; attempt < MAX_MERGE_ATTEMPTS; attempt++) {
+                    Bundle extras = new Bundle();
+                    extras.putParcelable(ProductEntry.EXTRA_VALUES, values);
+                    extras.putLong(ProductEntry.EXTRA_EXPECTED_VERSION, expectedVersion);
+                    Bundle result = resolver.call(ProductEntry.CONTENT_URI,
+                            ProductEntry.METHOD_UPDATE_VERSIONED, String.valueOf(id), extras);
+                    if (result == null) {
+                        return 0;
+                    }
+                    if (!result.getBoolean(ProductEntry.EXTRA_CONFLICT)) {
+                        // Updated, or deleted since it was read
+                        return result.getInt(ProductEntry.EXTRA_UPDATED);
+                    }
+
+                    expectedVersion = result.getLong(ProductEntry.EXTRA_VERSION);
+                    ContentValues current = result.getParcelable(ProductEntry.EXTRA_CURRENT);
+                    values = merge(original, edited, current);
+                    Log.i(LOG_TAG, "Product " + id + " changed while edited, merging at version "
+                            + expectedVersion);
+                }
+                return 0;
+            }
+
+            @Override
+            Integer failed() {
+                return 0;
+            }
+        });
+    }
+
+    /**
+     * Return the edited values merged into the current row of a product, as described in
+     * {@link #updateMerging}. A quantity the edit left alone is left out, so the current one
+     * stays without an adjustment being recorded. Columns missing from the edit stay as they are.
+     */
+    static ContentValues merge(ContentValues original, ContentValues edited,
+                               ContentValues current) {
+        // A changed phone number belongs to the supplier named in the edit, whatever the
+        // current supplier of the product is
+        String phoneColumn = ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER;
+        boolean phoneChanged = edited.containsKey(phoneColumn) && !TextUtils.equals(
+                edited.getAsString(phoneColumn), original.getAsString(phoneColumn));
+
+        ContentValues merged = new ContentValues();
+        for (String column : edited.keySet()) {
+            String value = edited.getAsString(column);
+            boolean changed = !TextUtils.equals(value, original.getAsString(column))
+                    || (phoneChanged && column.equals(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME));
+            if (column.equals(ProductEntry.COLUMN_PRODUCT_QUANTITY)) {
+                if (changed) {
+                    int quantity = current.getAsInteger(column)
+                            + edited.getAsInteger(column) - original.getAsInteger(column);
+                    merged.put(column, Math.max(quantity, 0));
+                }
+            } else if (changed) {
+                merged.put(column, value);
+            } else {
+                merged.put(column, current.getAsString(column));
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Delete the products matching the URI. Return false if the queue is full and the delete
+     * was refused.
+     *
+     * @param callback receives the number of rows deleted, 0 if the delete failed
+     */
+    public boolean delete(final Uri uri, Callback<Integer> callback) {
+        return submit(new Write<Integer>(callback) {
+            @Override
+            Integer write() {
+                return resolver.delete(uri, null, null);
+            }
+
+            @Override
+            Integer failed() {
+                return 0;
+            }
+        });
+    }
+
+    /**
+     * Return whether the queue is full, in which case new writes are refused until it drains.
+     */
+    public boolean isSaturated() {
+        return getQueueDepth() >= QUEUE_CAPACITY;
+    }
+
+    /**
+     * Return the number of writes waiting, counting merged sales as one.
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size() + pendingSales.size();
+    }
+
+    /**
+     * Return the counters of the writer: current and highest queue depth, and the number of
+     * sales merged into another one, writes refused and writes completed.
+     */
+    public Bundle getStats() {
+        Bundle stats = new Bundle();
+        stats.putInt(STAT_DEPTH, getQueueDepth());
+        stats.putInt(STAT_MAX_DEPTH, maxDepth);
+        stats.putInt(STAT_COALESCED, coalesced);
+        stats.putInt(STAT_REJECTED, rejected);
+        stats.putInt(STAT_COMPLETED, completed);
+        return stats;
+    }
+
+    /**
+     * A write run on the background thread, whose result is posted to its callback.
+     */
+    private abstract class Write<T> implements Runnable {
+        private final Callback<T> callback;
+
+        Write(Callback<T> callback) {
+            this.callback = callback;
+        }
+
+        /** Called on the background thread */
+        abstract T write();
+
+        /** Result delivered when the write throws */
+        T failed() {
+            return null;
+        }
+
+        @Override
+        public void run() {
+            T result;
+            try {
+                result = write();
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, "Write failed", e);
+                result = failed();
+            }
+            final T delivered = result;
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    completed++;
+                    if (callback != null) {
+                        callback.onComplete(delivered);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Queue a write behind the pending sales, so writes of a product keep their order. Pending
+     * sales count against the capacity, so the write is refused before they are queued rather
+     * than leaving one of them without room.
+     */
+    private <T> boolean submit(Write<T> write) {
+        if (isSaturated()) {
+            rejected++;
+            Log.w(LOG_TAG, "Write refused, " + getQueueDepth() + " writes are waiting");
+            return false;
+        }
+        flushSales();
+        try {
+            executor.execute(write);
+        } catch (RejectedExecutionException e) {
+            rejected++;
+            Log.w(LOG_TAG, "Write refused, " + getQueueDepth() + " writes are waiting");
+            return false;
+        }
+        updateMaxDepth();
+        return true;
+    }
+
+    /**
+     * Queue the sales whose coalescing window is over, one write per product.
+     */
+    private void flushSales() {
+        mainHandler.removeCallbacks(flushSalesRunnable);
+        List<PendingSale> sales = new ArrayList<>(pendingSales.values());
+        pendingSales.clear();
+        for (final PendingSale sale : sales) {
+            final List<Callback<Bundle>> callbacks = sale.callbacks;
+            Write<Bundle> write = new Write<Bundle>(new Callback<Bundle>() {
+                @Override
+                public void onComplete(Bundle result) {
+                    for (Callback<Bundle> callback : callbacks) {
+                        callback.onComplete(result);
+                    }
+                }
+            }) {
+                @Override
+                Bundle write() {
+                    return sellMerged(sale);
+                }
+            };
+            try {
+                executor.execute(write);
+            } catch (RejectedExecutionException e) {
+                // Sales hold their place in the queue from when they were made, so this can't
+                // happen; should it anyway, the taps are still told they failed
+                rejected++;
+                Log.w(LOG_TAG, "Sale of product " + sale.id + " refused, queue is full");
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (Callback<Bundle> callback : callbacks) {
+                            callback.onComplete(null);
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Sell all units of a merged sale in one call. If there isn't enough stock for all of them,
+     * sell them one by one instead, so every tap that stock allows still succeeds, as it would
+     * have without merging. Called on the background thread.
+     */
+    private Bundle sellMerged(PendingSale sale) {
+        Bundle result = sell(sale.id, sale.amount);
+        if (sale.amounts.size() == 1 || result == null
+                || !result.getBoolean(ProductEntry.EXTRA_SOLD_OUT)) {
+            return result;
+        }
+
+        Bundle sold = null;
+        for (int amount : sale.amounts) {
+            Bundle single = sell(sale.id, amount);
+            if (single == null || single.getBoolean(ProductEntry.EXTRA_SOLD_OUT)) {
+                if (sold == null) {
+                    return result;
+                }
+                // Tell the callbacks that not every unit could be sold
+                sold.putBoolean(ProductEntry.EXTRA_SOLD_OUT, true);
+                return sold;
+            }
+            sold = single;
+        }
+        // Stock came in since the merged sale, and every unit sold after all
+        return sold;
+    }
+
+    private Bundle sell(long id, int amount) {
+        Bundle extras = new Bundle();
+        extras.putInt(ProductEntry.EXTRA_AMOUNT, amount);
+        return resolver.call(ProductEntry.CONTENT_URI, ProductEntry.METHOD_SELL,
+                String.valueOf(id), extras);
+    }
+
+    private void updateMaxDepth() {
+        maxDepth = Math.max(maxDepth, getQueueDepth());
+    }
+}
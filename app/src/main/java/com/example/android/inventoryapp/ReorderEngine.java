@@ -0,0 +1,367 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.ReorderEntry;
+import com.example.android.inventoryapp.data.ProductContract.SummaryEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link ReorderEngine} keeps a draft purchase order for every supplier of the products below
+ * their reorder point. The orders are read once from {@link ReorderEntry#CONTENT_URI}, whose rows
+ * come ordered by supplier, so they are grouped in a single pass.
+ *
+ * After that, when the provider notifies that single products changed, as it does for every
+ * sale, only these products are read again and moved into, within or out of the orders. Any other
+ * change reads all orders again. Reads run on a background thread and the {@link Listener} is
+ * told about every change on the main thread.
+ *
+ * All methods must be called on the main thread.
+ */
+public class ReorderEngine {
+
+    /** Delay used to read the products of a burst of row change notifications in one query */
+    private static final long ROW_CHANGES_DELAY_MS = 100;
+
+    /** Largest number of changed products that are read one by one instead of reloading */
+    private static final int MAX_ROW_CHANGES = 100;
+
+    /** Columns of the lines, in the order {@link #readLines} reads them */
+    private static final String[] PROJECTION = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_REORDER_POINT,
+            ReorderEntry.COLUMN_REORDER_ORDER_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER};
+
+    /**
+     * Told about the orders on the main thread.
+     */
+    public interface Listener {
+
+        /** Called once the orders have been read, and after every change */
+        void onOrdersChanged(List<PurchaseOrder> orders);
+    }
+
+    /**
+     * A product to order.
+     */
+    public static final class Line {
+        public final long productId;
+        public final String productName;
+
+        /** Units left */
+        public final int quantity;
+
+        /** Reorder point the quantity is below */
+        public final int reorderPoint;
+
+        /** Units to order */
+        public final int orderQuantity;
+
+        final String supplierName;
+        final String supplierPhone;
+
+        Line(Cursor cursor) {
+            productId = cursor.getLong(0);
+            productName = cursor.getString(1);
+            quantity = cursor.getInt(2);
+            reorderPoint = cursor.getInt(3);
+            orderQuantity = cursor.getInt(4);
+            supplierName = cursor.getString(5);
+            supplierPhone = cursor.getString(6);
+        }
+    }
+
+    /** Orders lines by product name, then by ID */
+    private static final Comparator<Line> LINE_ORDER = new Comparator<Line>() {
+        @Override
+        public int compare(Line a, Line b) {
+            int byName = a.productName.compareTo(b.productName);
+            if (byName != 0) {
+                return byName;
+            }
+            return a.productId < b.productId ? -1 : (a.productId == b.productId ? 0 : 1);
+        }
+    };
+
+    /**
+     * The draft purchase order of a supplier: its products to reorder, ordered by name.
+     */
+    public static final class PurchaseOrder {
+        public final String supplierName;
+        private final List<Line> lines = new ArrayList<>();
+
+        PurchaseOrder(String supplierName) {
+            this.supplierName = supplierName;
+        }
+
+        /** Return the products to order, ordered by name */
+        public List<Line> getLines() {
+            return Collections.unmodifiableList(lines);
+        }
+
+        /** Return the phone number of the supplier, as given by the first product that has one */
+        public String getSupplierPhone() {
+            for (Line line : lines) {
+                if (!TextUtils.isEmpty(line.supplierPhone)) {
+                    return line.supplierPhone;
+                }
+            }
+            return null;
+        }
+
+        /** Return the number of units to order over all products */
+        public int getTotalUnits() {
+            int units = 0;
+            for (Line line : lines) {
+                units += line.orderQuantity;
+            }
+            return units;
+        }
+
+        private void add(Line line) {
+            int index = Collections.binarySearch(lines, line, LINE_ORDER);
+            lines.add(index < 0 ? -index - 1 : index, line);
+        }
+    }
+
+    private final ContentResolver resolver;
+    private final Listener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    /** Orders by supplier name */
+    private final Map<String, PurchaseOrder> orders = new TreeMap<>();
+
+    /** Line of every product to reorder, by product ID */
+    private final Map<Long, Line> lines = new HashMap<>();
+
+    /** Products notified as changed and not read yet */
+    private final Set<Long> pendingRowChanges = new LinkedHashSet<>();
+
+    /** Bumped when all orders are read again, so row reads started before are thrown away */
+    private int generation;
+
+    private final Runnable rowChangesRunnable = new Runnable() {
+        @Override
+        public void run() {
+            readChangedRows();
+        }
+    };
+
+    private final ContentObserver observer;
+
+    /**
+     * Constructs a new {@link ReorderEngine} and starts reading the orders.
+     *
+     * @param resolver to read the products with
+     * @param listener told about the orders
+     */
+    public ReorderEngine(ContentResolver resolver, Listener listener) {
+        this.resolver = resolver;
+        this.listener = listener;
+
+        observer = new ContentObserver(mainHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                // Before Jelly Bean observers are not told which URI changed
+                reload();
+            }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                onRowChanged(uri);
+            }
+        };
+        resolver.registerContentObserver(ProductEntry.CONTENT_URI, true, observer);
+
+        reload();
+    }
+
+    /**
+     * Stop watching the provider and release the background thread.
+     */
+    public void close() {
+        resolver.unregisterContentObserver(observer);
+        mainHandler.removeCallbacks(rowChangesRunnable);
+        generation++;
+        executor.shutdown();
+    }
+
+    /**
+     * Return the current orders, ordered by supplier name.
+     */
+    public List<PurchaseOrder> getOrders() {
+        return new ArrayList<>(orders.values());
+    }
+
+    /**
+     * Handle a change notification. Changes of a single product are collected and read in one
+     * query; anything else reads all orders again.
+     */
+    private void onRowChanged(Uri uri) {
+        if (SummaryEntry.CONTENT_URI.equals(uri)) {
+            // Notified next to the rows whose change moved the summary
+            return;
+        }
+
+        String change = uri == null ? null : uri.getQueryParameter(ProductEntry.PARAM_CHANGE);
+        if (change == null || pendingRowChanges.size() >= MAX_ROW_CHANGES) {
+            reload();
+            return;
+        }
+
+        pendingRowChanges.add(ContentUris.parseId(uri));
+        mainHandler.removeCallbacks(rowChangesRunnable);
+        mainHandler.postDelayed(rowChangesRunnable, ROW_CHANGES_DELAY_MS);
+    }
+
+    /**
+     * Read all orders on the background thread, grouping the lines by supplier as they come.
+     */
+    private void reload() {
+        mainHandler.removeCallbacks(rowChangesRunnable);
+        pendingRowChanges.clear();
+        final int gen = ++generation;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<Line> read = readLines(null, null);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (gen != generation) {
+                            return;
+                        }
+                        orders.clear();
+                        lines.clear();
+
+                        // Lines come ordered by supplier and then by name, so every order is
+                        // built in one go and its lines need no sorting
+                        PurchaseOrder order = null;
+                        for (Line line : read) {
+                            if (order == null || !order.supplierName.equals(line.supplierName)) {
+                                order = new PurchaseOrder(line.supplierName);
+                                orders.put(order.supplierName, order);
+                            }
+                            order.lines.add(line);
+                            lines.put(line.productId, line);
+                        }
+                        listener.onOrdersChanged(getOrders());
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Read the lines of the changed products on the background thread, and move them into,
+     * within or out of the orders.
+     */
+    private void readChangedRows() {
+        final List<Long> ids = new ArrayList<>(pendingRowChanges);
+        pendingRowChanges.clear();
+
+        final int gen = generation;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                String[] args = new String[ids.size()];
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = String.valueOf(ids.get(i));
+                }
+                final List<Line> read = readLines(ProductEntry._ID + " IN ("
+                        + TextUtils.join(", ", Collections.nCopies(args.length, "?")) + ")", args);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (gen != generation) {
+                            // Reloaded in the meantime, which read the changes already
+                            return;
+                        }
+                        boolean changed = false;
+                        for (Long id : ids) {
+                            changed |= removeLine(id);
+                        }
+                        for (Line line : read) {
+                            addLine(line);
+                            changed = true;
+                        }
+                        if (changed) {
+                            listener.onOrdersChanged(getOrders());
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Remove the line of a product from its order, dropping the order once it is empty.
+     * Return false if the product had no line.
+     */
+    private boolean removeLine(long id) {
+        Line line = lines.remove(id);
+        if (line == null) {
+            return false;
+        }
+        PurchaseOrder order = orders.get(line.supplierName);
+        order.lines.remove(line);
+        if (order.lines.isEmpty()) {
+            orders.remove(line.supplierName);
+        }
+        return true;
+    }
+
+    private void addLine(Line line) {
+        PurchaseOrder order = orders.get(line.supplierName);
+        if (order == null) {
+            order = new PurchaseOrder(line.supplierName);
+            orders.put(order.supplierName, order);
+        }
+        order.add(line);
+        lines.put(line.productId, line);
+    }
+
+    /**
+     * Read the products to reorder matching a selection. Called on the background thread.
+     */
+    private List<Line> readLines(String selection, String[] selectionArgs) {
+        List<Line> read = new ArrayList<>();
+        Cursor cursor = resolver.query(ReorderEntry.CONTENT_URI, PROJECTION, selection,
+                selectionArgs, null);
+        if (cursor == null) {
+            return read;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                read.add(new Line(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        return read;
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.android.inventoryapp;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.KeyEvent;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * {@link ScanSeller} sells a unit of every product whose barcode is scanned. Scanners that act
+ * as a keyboard type the code as key events followed by Enter, which the activity passes to
+ * {@link #onKeyEvent}. Nothing is done on the main thread but collecting characters: complete
+ * codes are queued and sold one at a time through the {@link ProductWriter}, so a fast burst of
+ * scans waits in the queue instead of hitching the UI or filling the writer. When the writer
+ * refuses a sale, it is tried again shortly after, so no scan is ever dropped.
+ *
+ * All methods must be called on the main thread.
+ */
+public class ScanSeller {
+
+    /** Delay before a sale refused by a full writer is tried again */
+    private static final long RETRY_DELAY_MS = 100;
+
+    /** Longest code kept; longer input is not a barcode and is cut */
+    private static final int MAX_CODE_LENGTH = 64;
+
+    /**
+     * Told about every scan on the main thread.
+     */
+    public interface Listener {
+
+        /**
+         * Called once the sale of a scanned code is done.
+         *
+         * @param sku     the code scanned
+         * @param result  the result of the provider sell_sku method, or null if the sale failed
+         * @param pending number of scans still waiting to be sold
+         */
+        void onScanSold(String sku, Bundle result, int pending);
+    }
+
+    private final ProductWriter writer;
+    private final Listener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /** Characters of the code being scanned */
+    private final StringBuilder code = new StringBuilder();
+
+    /** Codes scanned and not sold yet, the first one being sold when {@link #selling} */
+    private final Queue<String> pending = new ArrayDeque<>();
+
+    private boolean selling;
+    private boolean closed;
+
+    private final Runnable sellNextRunnable = new Runnable() {
+        @Override
+        public void run() {
+            sellNext();
+        }
+    };
+
+    public ScanSeller(ProductWriter writer, Listener listener) {
+        this.writer = writer;
+        this.listener = listener;
+    }
+
+    /**
+     * Take a key event typed by the scanner. Return true if it was used, false if it is not
+     * part of a code and should be handled as usual.
+     */
+    public boolean onKeyEvent(KeyEvent event) {
+        int keyCode = event.getKeyCode();
+        if (keyCode == KeyEvent.KEYCODE_ENTER || keyCode == KeyEvent.KEYCODE_NUMPAD_ENTER) {
+            if (event.getAction() == KeyEvent.ACTION_DOWN) {
+                endCode();
+            }
+            return true;
+        }
+
+        // Some scanners send a whole code as a single event
+        if (event.getAction() == KeyEvent.ACTION_MULTIPLE
+                && keyCode == KeyEvent.KEYCODE_UNKNOWN && event.getCharacters() != null) {
+            append(event.getCharacters());
+            return true;
+        }
+
+        int c = event.getUnicodeChar();
+        if (c == 0 || Character.isISOControl(c)) {
+            return false;
+        }
+        if (event.getAction() == KeyEvent.ACTION_DOWN) {
+            append(String.valueOf((char) c));
+        }
+        return true;
+    }
+
+    /** Return the number of scans waiting to be sold */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Stop selling. Scans not sold yet are forgotten, and the sale being written is no longer
+     * reported.
+     */
+    public void close() {
+        closed = true;
+        mainHandler.removeCallbacks(sellNextRunnable);
+        pending.clear();
+        code.setLength(0);
+    }
+
+    private void append(String characters) {
+        int room = MAX_CODE_LENGTH - code.length();
+        code.append(characters, 0, Math.min(room, characters.length()));
+    }
+
+    /** Queue the code scanned so far, if any */
+    private void endCode() {
+        String sku = code.toString().trim();
+        code.setLength(0);
+        if (sku.isEmpty() || closed) {
+            return;
+        }
+        pending.add(sku);
+        if (!selling) {
+            sellNext();
+        }
+    }
+
+    /** Sell the first queued code, unless one is being sold */
+    private void sellNext() {
+        final String sku = pending.peek();
+        if (sku == null || closed) {
+            selling = false;
+            return;
+        }
+        selling = true;
+        boolean queued = writer.sellSku(sku, new ProductWriter.Callback<Bundle>() {
+            @Override
+            public void onComplete(Bundle result) {
+                if (closed) {
+                    return;
+                }
+                pending.poll();
+                listener.onScanSold(sku, result, pending.size());
+                sellNext();
+            }
+        });
+        if (!queued) {
+            mainHandler.postDelayed(sellNextRunnable, RETRY_DELAY_MS);
+        }
+    }
+}
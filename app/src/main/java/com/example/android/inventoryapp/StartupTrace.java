@@ -0,0 +1,91 @@
+package com.example.android.inventoryapp;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.v4.os.TraceCompat;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link StartupTrace} follows a cold start of the app, from the start of the process to the first
+ * frame of the product list. Every step marks the time it happened, and once the first frame is
+ * drawn they are logged in one line, each one as the time since the process started. Steps that
+ * take a while are also systrace sections, so they show up in a trace of the launch.
+ *
+ * Only the first time of each step is kept, and nothing is recorded after the report, so steps can
+ * be marked from code that runs again later in the life of the process.
+ */
+public final class StartupTrace {
+
+    private static final String LOG_TAG = StartupTrace.class.getSimpleName();
+
+    /** Steps of a cold start, in the order they usually happen */
+    public static final String PROVIDER_CREATED = "provider_created";
+    public static final String DATABASE_OPENED = "database_opened";
+    public static final String DATABASE_WARMED = "database_warmed";
+    public static final String ACTIVITY_CREATED = "activity_created";
+    public static final String FIRST_PAGE_READ = "first_page_read";
+    public static final String FIRST_LIST_FRAME = "first_list_frame";
+
+    /**
+     * Time the process started. Before Nougat it isn't known, and the first use of this class,
+     * from the creation of the provider, is the closest time there is.
+     */
+    private static final long PROCESS_START = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+            ? Process.getStartElapsedRealtime() : SystemClock.elapsedRealtime();
+
+    private static final List<String> steps = new ArrayList<>();
+    private static final List<Long> times = new ArrayList<>();
+    private static boolean reported;
+
+    // To prevent someone from accidentally instantiating this class,
+    // give it an empty constructor.
+    private StartupTrace() {}
+
+    /**
+     * Record that a step happened now, unless it happened before or the start was reported.
+     */
+    public static synchronized void mark(String step) {
+        if (reported || steps.contains(step)) {
+            return;
+        }
+        steps.add(step);
+        times.add(SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Start a systrace section, which must be ended on the same thread.
+     */
+    public static void beginSection(String name) {
+        TraceCompat.beginSection(name);
+    }
+
+    /**
+     * End the last systrace section started on this thread.
+     */
+    public static void endSection() {
+        TraceCompat.endSection();
+    }
+
+    /**
+     * Mark the last step and log the time of every step since the process started. Only the
+     * first call does anything.
+     */
+    public static synchronized void report(String lastStep) {
+        if (reported) {
+            return;
+        }
+        mark(lastStep);
+        reported = true;
+
+        StringBuilder line = new StringBuilder("Cold start:");
+        for (int i = 0; i < steps.size(); i++) {
+            line.append(i == 0 ? " " : ", ").append(steps.get(i)).append(" +")
+                    .append(times.get(i) - PROCESS_START).append(" ms");
+        }
+        Log.i(LOG_TAG, line.toString());
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.SyncEntry;
+import com.example.android.inventoryapp.data.SyncBatch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link SyncEngine} keeps the catalog of this device in sync with a {@link SyncServer}, sending
+ * and receiving only the products changed since the last sync. A sync first pushes the local
+ * changes, read from {@link SyncEntry#CHANGES_URI} in version order a batch at a time and marked
+ * as sent once the server has them. It then pulls the changes of the other devices from the
+ * cursor stored with the catalog, a batch at a time, and applies each batch through the provider
+ * in chunks, one transaction per chunk.
+ *
+ * Every step can fail and be run again: a batch the server got but that wasn't marked as sent is
+ * pushed again, and a batch applied halfway is applied again from its start, which changes
+ * nothing more. The last change to reach the server wins, except that a product changed here
+ * while a sync runs keeps its change until the next sync sends it. Quantities don't overwrite
+ * each other: each device sends the stock it added and sold, and takes on top of it what the
+ * other devices did, so concurrent sales all count.
+ *
+ * Syncing blocks, so it must not run on the main thread.
+ */
+public class SyncEngine {
+
+    private static final String LOG_TAG = SyncEngine.class.getSimpleName();
+
+    /** Local changes read and sent per batch */
+    static final int PUSH_BATCH_SIZE = 500;
+
+    /** Server changes asked for per batch */
+    static final int PULL_BATCH_SIZE = 500;
+
+    /** Server changes applied per provider transaction, short enough not to hold up other writes */
+    static final int APPLY_CHUNK_SIZE = 100;
+
+    /**
+     * What a sync did.
+     */
+    public static final class Result {
+
+        /** Number of changes sent */
+        public final int pushed;
+
+        /** Number of products inserted, updated or deleted by changes received */
+        public final int pulled;
+
+        Result(int pushed, int pulled) {
+            this.pushed = pushed;
+            this.pulled = pulled;
+        }
+    }
+
+    private final ContentResolver resolver;
+    private final SyncServer server;
+
+    public SyncEngine(ContentResolver resolver, SyncServer server) {
+        this.resolver = resolver;
+        this.server = server;
+    }
+
+    /**
+     * Send the local changes, then receive the changes of the other devices. Only one sync runs
+     * at a time. Throws an {@link IOException} if the server can't be reached, in which case
+     * the next sync picks up from where this one stopped.
+     */
+    public synchronized Result sync() throws IOException {
+        Bundle state = resolver.call(SyncEntry.CONTENT_URI, SyncEntry.METHOD_STATE, null, null);
+        if (state == null) {
+            throw new IllegalStateException("Sync state can't be read");
+        }
+        String deviceId = state.getString(SyncEntry.EXTRA_DEVICE_ID);
+
+        int pushed = push(deviceId);
+        int pulled = pull(deviceId, state.getLong(SyncEntry.EXTRA_CURSOR));
+        Log.i(LOG_TAG, "Synced " + pushed + " changes out, " + pulled + " in");
+        return new Result(pushed, pulled);
+    }
+
+    /** Send the local changes a batch at a time. Return the number of changes sent. */
+    private int push(String deviceId) throws IOException {
+        Uri uri = SyncEntry.CHANGES_URI.buildUpon()
+                .appendQueryParameter(SyncEntry.PARAM_LIMIT, String.valueOf(PUSH_BATCH_SIZE))
+                .build();
+        int pushed = 0;
+        while (true) {
+            List<ContentValues> changes = new ArrayList<>();
+            long lastVersion = 0;
+            Cursor cursor = resolver.query(uri, null, null, null, null);
+            if (cursor == null) {
+                throw new IllegalStateException("Changes can't be read");
+            }
+            try {
+                int versionColumn = cursor.getColumnIndexOrThrow(SyncEntry.COLUMN_VERSION);
+                while (cursor.moveToNext()) {
+                    changes.add(readChange(cursor));
+                    lastVersion = cursor.getLong(versionColumn);
+                }
+            } finally {
+                cursor.close();
+            }
+            if (changes.isEmpty()) {
+                return pushed;
+            }
+
+            server.push(deviceId, new SyncBatch(changes, 0, false).encode());
+            Bundle extras = new Bundle();
+            extras.putLong(SyncEntry.EXTRA_VERSION, lastVersion);
+            resolver.call(SyncEntry.CONTENT_URI, SyncEntry.METHOD_ACK, null, extras);
+            pushed += changes.size();
+
+            if (changes.size() < PUSH_BATCH_SIZE) {
+                return pushed;
+            }
+        }
+    }
+
+    /**
+     * Receive the changes after the cursor a batch at a time, and apply them. Every chunk of a
+     * batch but the last stores the cursor the batch started from, so a sync stopped halfway
+     * asks for the whole batch again. Return the number of products changed.
+     */
+    private int pull(String deviceId, long cursor) throws IOException {
+        int pulled = 0;
+        while (true) {
+            SyncBatch batch = SyncBatch.decode(server.pull(deviceId, cursor, PULL_BATCH_SIZE));
+            List<ContentValues> changes = batch.getChanges();
+            if (changes.isEmpty() && batch.getCursor() == cursor) {
+                return pulled;
+            }
+
+            int start = 0;
+            do {
+                int end = Math.min(start + APPLY_CHUNK_SIZE, changes.size());
+                Bundle extras = new Bundle();
+                extras.putParcelableArrayList(SyncEntry.EXTRA_CHANGES,
+                        new ArrayList<>(changes.subList(start, end)));
+                extras.putLong(SyncEntry.EXTRA_CURSOR,
+                        end == changes.size() ? batch.getCursor() : cursor);
+                Bundle result = resolver.call(SyncEntry.CONTENT_URI, SyncEntry.METHOD_APPLY,
+                        null, extras);
+                if (result != null) {
+                    pulled += result.getInt(SyncEntry.EXTRA_APPLIED);
+                }
+                start = end;
+            } while (start < changes.size());
+
+            cursor = batch.getCursor();
+            if (!batch.hasMore()) {
+                return pulled;
+            }
+        }
+    }
+
+    /** Return the current row of the changes as content values, keeping the column types */
+    private static ContentValues readChange(Cursor cursor) {
+        ContentValues change = new ContentValues();
+        for (int i = 0; i < cursor.getColumnCount(); i++) {
+            String column = cursor.getColumnName(i);
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    change.putNull(column);
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    change.put(column, cursor.getLong(i));
+                    break;
+                default:
+                    change.put(column, cursor.getString(i));
+                    break;
+            }
+        }
+        return change;
+    }
+}
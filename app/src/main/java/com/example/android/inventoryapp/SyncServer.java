@@ -0,0 +1,36 @@
+package com.example.android.inventoryapp;
+
+import com.example.android.inventoryapp.data.SyncBatch;
+
+import java.io.IOException;
+
+/**
+ * The server the {@link SyncEngine} exchanges product changes with. It keeps the latest change
+ * of every product in the order the changes arrived, so each device only asks for what arrived
+ * after its cursor. The quantity is not a plain field: every device sends the stock it added and
+ * sold for the product, which the server keeps per device, so sales made on several devices at
+ * once all count. Batches go both ways as the bytes of {@link SyncBatch#encode}, so a transport
+ * only moves bytes.
+ */
+public interface SyncServer {
+
+    /**
+     * Store a batch of changes sent by a device. The last change of a product to arrive wins,
+     * except for the quantity, which replaces the one the same device sent before.
+     *
+     * @param deviceId ID of the device sending them
+     * @param batch    the changes, encoded with a cursor of 0
+     */
+    void push(String deviceId, byte[] batch) throws IOException;
+
+    /**
+     * Return the changes that arrived after the cursor, leaving out the ones only the device
+     * itself sent, encoded with the position of the last change read and whether more follow.
+     * The quantity of every change is the stock of all the other devices added up.
+     *
+     * @param deviceId ID of the device asking
+     * @param cursor   position of the last change the device received, 0 for all of them
+     * @param limit    most changes to read
+     */
+    byte[] pull(String deviceId, long cursor, int limit) throws IOException;
+}
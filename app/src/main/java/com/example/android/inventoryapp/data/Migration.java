@@ -0,0 +1,35 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * A single step of the database schema, taking it from {@link #startVersion} to
+ * {@link #endVersion}. {@link ProductDbHelper} runs the steps in order both when the database is
+ * created and when it is upgraded, so every install ends up with the same schema and each step can
+ * be tested on its own against a database at its start version.
+ */
+public abstract class Migration {
+
+    /** Schema version this migration upgrades from */
+    public final int startVersion;
+
+    /** Schema version the database is at once this migration has run */
+    public final int endVersion;
+
+    /**
+     * Constructs a new {@link Migration}.
+     *
+     * @param startVersion the version the database must be at
+     * @param endVersion   the version the database is at after {@link #migrate}
+     */
+    public Migration(int startVersion, int endVersion) {
+        this.startVersion = startVersion;
+        this.endVersion = endVersion;
+    }
+
+    /**
+     * Apply the schema changes of this step. This is called inside the transaction of
+     * {@link android.database.sqlite.SQLiteOpenHelper}, so it must not manage transactions itself.
+     */
+    public abstract void migrate(SQLiteDatabase db);
+}
@@ -1,6 +1,7 @@
 package com.example.android.inventoryapp.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
@@ -32,6 +33,39 @@ public final class ProductContract {
      */
     public static final String PATH_PRODUCTS = "products";
 
+    /** Path appended to the products path for full-text searches */
+    public static final String PATH_SEARCH = "search";
+
+    /** Path appended to the products path for the CSV export of the catalog */
+    public static final String PATH_EXPORT = "export";
+
+    /** Path appended to the products path for the inventory summary */
+    public static final String PATH_SUMMARY = "summary";
+
+    /** Path appended to the products path for the products to reorder */
+    public static final String PATH_REORDER = "reorder";
+
+    /** Path appended to the products path, followed by a SKU, to look a product up by SKU */
+    public static final String PATH_SKU = "sku";
+
+    /** Path of the suppliers of the products */
+    public static final String PATH_SUPPLIERS = "suppliers";
+
+    /** Path of the stock movements of every product */
+    public static final String PATH_MOVEMENTS = "movements";
+
+    /** Path appended to base content URI for the stock locations */
+    public static final String PATH_LOCATIONS = "locations";
+
+    /** Path appended to base content URI for the stock of the products at every location */
+    public static final String PATH_STOCK = "stock";
+
+    /** Path appended to base content URI for the synchronization of the catalog */
+    public static final String PATH_SYNC = "sync";
+
+    /** Path appended to the sync path for the local changes not sent yet */
+    public static final String PATH_CHANGES = "changes";
+
     /**
      * Inner class that defines constant values for the products database table.
      * Each entry in the table represents a single product.
@@ -56,6 +90,13 @@ public final class ProductContract {
         /** Name of database table for products */
         public final static String TABLE_NAME = "products";
 
+        /**
+         * Name of the database view that joins every product with its supplier, which all
+         * product queries read. Selections of updates and deletes apply to the table itself, so
+         * they name suppliers by {@link #COLUMN_PRODUCT_SUPPLIER_ID}.
+         */
+        public final static String VIEW_NAME = "products_view";
+
         /**
          * Unique ID number for the product (only for use in the database table).
          *
@@ -78,26 +119,995 @@ public final class ProductContract {
         public final static String COLUMN_PRODUCT_PRICE = "price";
 
         /**
-         * Quantity of the product.
+         * Quantity of the product over all locations. It is the sum of the {@link StockEntry}
+         * rows of the product, kept up to date by triggers, so it is read without adding them up.
+         * Setting it changes the stock at {@link LocationEntry#SALES_LOCATION_ID}.
          *
          * Type: INTEGER
          */
         public final static String COLUMN_PRODUCT_QUANTITY = "quantity";
 
         /**
-         * Name of the supplier.
+         * ID of the supplier of the product in the {@link SupplierEntry} table.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_SUPPLIER_ID = "supplier_id";
+
+        /**
+         * Name of the supplier, read from its {@link SupplierEntry} row. A product written with a
+         * supplier name instead of {@link #COLUMN_PRODUCT_SUPPLIER_ID} gets the supplier of that
+         * name, which is created if there is none.
          *
          * Type: TEXT
          */
         public final static String COLUMN_PRODUCT_SUPPLIER_NAME ="supplier_name";
 
         /**
-         * Phone number of the supplier.
+         * Phone number of the supplier, read from its {@link SupplierEntry} row. Written together
+         * with {@link #COLUMN_PRODUCT_SUPPLIER_NAME}, it becomes the phone number of that supplier.
          *
          * Type: TEXT
          */
         public final static String COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER ="supplier_phone_number";
 
+        /**
+         * Quantity below which the product has to be ordered again, 0 to never reorder it.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_REORDER_POINT = "reorder_point";
+
+        /**
+         * Number of units ordered at once when the product is reordered.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_REORDER_QUANTITY = "reorder_quantity";
+
+        /**
+         * Time of the last change of the product, in milliseconds since the epoch. Set by the
+         * provider on every write; values given by callers are ignored.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_UPDATED_AT = "updated_at";
+
+        /**
+         * Barcode or stock keeping unit of the product, unique among the products. Optional;
+         * blank values are stored as null.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_PRODUCT_SKU = "sku";
+
+        /**
+         * ID of the product shared by every device it is synced to, unlike {@link #_ID} which is
+         * only valid on one device. Set by the database when the product is created.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_PRODUCT_SYNC_ID = "sync_id";
+
+        /**
+         * Version of the product, raised by the database on every change of a synced column.
+         * Versions come from a single sequence, so they also order the changes of all products.
+         * A writer that read the version can make its update conditional on it with
+         * {@link #METHOD_UPDATE_VERSIONED}.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_VERSION = "version";
+
+        /**
+         * {@link #COLUMN_PRODUCT_VERSION} at which the product was last sent to or received from
+         * the sync server. A product whose version differs has changes to send.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_SYNCED_VERSION = "synced_version";
+
+        /**
+         * Part of {@link #COLUMN_PRODUCT_QUANTITY} added and sold by the other devices, as last
+         * received from the sync server. The rest of the quantity is what this device added and
+         * sold, which is what it sends, so the server can add up the stock changes of every
+         * device instead of keeping the last quantity sent.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_RECEIVED_QUANTITY = "received_quantity";
+
+        /**
+         * Build the URI of the product with the given SKU, which reads as a single product.
+         */
+        public static Uri buildSkuUri(String sku) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_SKU).appendPath(sku).build();
+        }
+
+        /**
+         * Query parameter that turns a {@link #CONTENT_URI} query into a page of at most this many
+         * rows, ordered by the {@link #PARAM_SORT} key and then by {@link #_ID}.
+         * Use {@link #buildPageUri} to build paged URIs.
+         */
+        public static final String PARAM_PAGE_SIZE = "limit";
+
+        /**
+         * Query parameter with the sort key of a paged query, one of the SORT_ values. Other
+         * product queries take a SORT_ value as their sort order, and refuse any other order.
+         */
+        public static final String PARAM_SORT = "sort";
+
+        /** Query parameter with the sort key value of the last row of the previous page */
+        public static final String PARAM_AFTER_KEY = "after_key";
+
+        /** Query parameter with the ID of the last row of the previous page */
+        public static final String PARAM_AFTER_ID = "after_id";
+
+        /** Sort paged queries by product name */
+        public static final String SORT_NAME = "name";
+
+        /** Sort paged queries by quantity, lowest first */
+        public static final String SORT_QUANTITY = "quantity";
+
+        /** Sort paged queries by price, lowest first */
+        public static final String SORT_PRICE = "price";
+
+        /** Sort paged queries by supplier name */
+        public static final String SORT_SUPPLIER = "supplier";
+
+        /** Sort paged queries by the time of the last change, most recent first */
+        public static final String SORT_RECENT = "recent";
+
+        /** Number of rows of a page of the product list */
+        public static final int LIST_PAGE_SIZE = 50;
+
+        /**
+         * Return the column a paged query returns the sort key of the given SORT_ value in.
+         */
+        public static String getSortKeyColumn(String sort) {
+            switch (sort) {
+                case SORT_QUANTITY:
+                    return COLUMN_PRODUCT_QUANTITY;
+                case SORT_PRICE:
+                    return COLUMN_PRODUCT_PRICE;
+                case SORT_SUPPLIER:
+                    return COLUMN_PRODUCT_SUPPLIER_NAME;
+                case SORT_RECENT:
+                    return COLUMN_PRODUCT_UPDATED_AT;
+                default:
+                    return COLUMN_PRODUCT_NAME;
+            }
+        }
+
+        /**
+         * Return the columns the product list reads for every row when sorted by the given SORT_
+         * value: ID, name, quantity, price, and the sort key. The provider reads the first page
+         * with the same query while the app starts, so its statement is compiled ahead of time.
+         */
+        public static String[] buildListProjection(String sort) {
+            return new String[] {
+                    _ID,
+                    COLUMN_PRODUCT_NAME,
+                    COLUMN_PRODUCT_QUANTITY,
+                    COLUMN_PRODUCT_PRICE,
+                    getSortKeyColumn(sort)};
+        }
+
+        /**
+         * Compare text sort keys in the order paged queries return them. SQLite sorts text by its
+         * UTF-8 bytes, which is the order of the code points. Plain String order differs for the
+         * characters above the surrogates, which it puts after the characters outside the Basic
+         * Multilingual Plane rather than before them.
+         */
+        public static int compareTextKeys(String a, String b) {
+            int length = Math.min(a.length(), b.length());
+            for (int i = 0; i < length; i++) {
+                char x = a.charAt(i);
+                char y = b.charAt(i);
+                if (x != y) {
+                    if (x >= 0xD800 && y >= 0xD800) {
+                        // Move the surrogates after every other character
+                        x += x >= 0xE000 ? -0x800 : 0x2000;
+                        y += y >= 0xE000 ? -0x800 : 0x2000;
+                    }
+                    return x - y;
+                }
+            }
+            return a.length() - b.length();
+        }
+
+        /**
+         * Query parameter restricting a {@link #CONTENT_URI} query to the products matching one
+         * of the FILTER_ values. Paged queries take no selection, only this filter and
+         * {@link #PARAM_SUPPLIER_ID}. Use {@link #buildFilterUri} to build filtered URIs.
+         */
+        public static final String PARAM_FILTER = "filter";
+
+        /** Query parameter restricting a {@link #CONTENT_URI} query to the products of a supplier */
+        public static final String PARAM_SUPPLIER_ID = "supplier_id";
+
+        /** Only the products with units left */
+        public static final String FILTER_IN_STOCK = "in_stock";
+
+        /** Only the products with at most {@link SummaryEntry#LOW_STOCK_THRESHOLD} units left */
+        public static final String FILTER_LOW_STOCK = "low_stock";
+
+        /**
+         * Build the URI of the products matching a filter.
+         *
+         * @param filter     one of the FILTER_ values, or null for all products
+         * @param supplierId ID of the supplier whose products to read, or 0 for all suppliers
+         */
+        public static Uri buildFilterUri(String filter, long supplierId) {
+            return appendFilter(CONTENT_URI.buildUpon(), filter, supplierId).build();
+        }
+
+        /**
+         * Build the URI of a page of products.
+         *
+         * @param sort     one of the SORT_ values
+         * @param pageSize maximum number of rows in the page
+         * @param afterKey sort key value of the last row of the previous page, null for the first page
+         * @param afterId  ID of the last row of the previous page, ignored for the first page
+         */
+        public static Uri buildPageUri(String sort, int pageSize, String afterKey, long afterId) {
+            return buildPageUri(sort, null, 0, pageSize, afterKey, afterId);
+        }
+
+        /**
+         * Build the URI of a page of the products matching a filter.
+         *
+         * @param sort       one of the SORT_ values
+         * @param filter     one of the FILTER_ values, or null for all products
+         * @param supplierId ID of the supplier whose products to read, or 0 for all suppliers
+         * @param pageSize   maximum number of rows in the page
+         * @param afterKey   sort key value of the last row of the previous page, null for the first page
+         * @param afterId    ID of the last row of the previous page, ignored for the first page
+         */
+        public static Uri buildPageUri(String sort, String filter, long supplierId, int pageSize,
+                                       String afterKey, long afterId) {
+            Uri.Builder builder = appendFilter(CONTENT_URI.buildUpon(), filter, supplierId)
+                    .appendQueryParameter(PARAM_SORT, sort)
+                    .appendQueryParameter(PARAM_PAGE_SIZE, String.valueOf(pageSize));
+            if (afterKey != null) {
+                builder.appendQueryParameter(PARAM_AFTER_KEY, afterKey)
+                        .appendQueryParameter(PARAM_AFTER_ID, String.valueOf(afterId));
+            }
+            return builder.build();
+        }
+
+        private static Uri.Builder appendFilter(Uri.Builder builder, String filter, long supplierId) {
+            if (filter != null) {
+                builder.appendQueryParameter(PARAM_FILTER, filter);
+            }
+            if (supplierId != 0) {
+                builder.appendQueryParameter(PARAM_SUPPLIER_ID, String.valueOf(supplierId));
+            }
+            return builder;
+        }
+
+        /**
+         * Query parameter of the URIs the provider notifies when rows change, telling observers
+         * how the row at the end of the URI changed: one of the CHANGE_ values. Changes that touch
+         * too many rows are notified on {@link #CONTENT_URI} itself, without the parameter.
+         */
+        public static final String PARAM_CHANGE = "change";
+
+        /** The row was inserted */
+        public static final String CHANGE_INSERT = "insert";
+
+        /** The row was updated */
+        public static final String CHANGE_UPDATE = "update";
+
+        /** The row was deleted */
+        public static final String CHANGE_DELETE = "delete";
+
+        /**
+         * Build the URI notified when a single product changes.
+         *
+         * @param change one of the CHANGE_ values
+         * @param id     ID of the product
+         */
+        public static Uri buildChangeUri(String change, long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendQueryParameter(PARAM_CHANGE, change)
+                    .build();
+        }
+
+        /**
+         * Name of the provider method that updates a single product only while it is still at
+         * the {@link #COLUMN_PRODUCT_VERSION} its writer read, passed to
+         * {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} together with
+         * {@link #CONTENT_URI}. The arg is the product ID and the extras carry
+         * {@link #EXTRA_VALUES} and {@link #EXTRA_EXPECTED_VERSION}. The result carries
+         * {@link #EXTRA_UPDATED}. If the product changed since, nothing is written and the result
+         * also carries {@link #EXTRA_CONFLICT}, {@link #EXTRA_VERSION} and {@link #EXTRA_CURRENT},
+         * so the writer can merge its change into the current row and try again. A missing
+         * product is not a conflict.
+         */
+        public static final String METHOD_UPDATE_VERSIONED = "update_versioned";
+
+        /** Values to update the product with, as for an update. Type: ContentValues */
+        public static final String EXTRA_VALUES = "values";
+
+        /** Version the product must still be at. Type: long */
+        public static final String EXTRA_EXPECTED_VERSION = "expected_version";
+
+        /** Number of products updated, 1 or 0. Type: int */
+        public static final String EXTRA_UPDATED = "updated";
+
+        /** Whether the product is at another version than expected. Type: boolean */
+        public static final String EXTRA_CONFLICT = "conflict";
+
+        /** Current version of the product after a conflict. Type: long */
+        public static final String EXTRA_VERSION = "version";
+
+        /**
+         * Current row of the product after a conflict, with the columns of a single product
+         * query. Type: ContentValues
+         */
+        public static final String EXTRA_CURRENT = "current";
+
+        /**
+         * Name of the provider method that sells units of a single product, passed to
+         * {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} together with
+         * {@link #CONTENT_URI}. The arg is the product ID and the extras may carry
+         * {@link #EXTRA_AMOUNT} (1 by default). Units are taken from the stock at
+         * {@link LocationEntry#SALES_LOCATION_ID}, so the product is sold out when that runs out
+         * even if other locations still hold some.
+         */
+        public static final String METHOD_SELL = "sell";
+
+        /** Number of units to sell. Type: int */
+        public static final String EXTRA_AMOUNT = "amount";
+
+        /** Quantity of the product left after a successful sale. Type: int */
+        public static final String EXTRA_QUANTITY = "quantity";
+
+        /** Whether the sale was refused because there was not enough stock. Type: boolean */
+        public static final String EXTRA_SOLD_OUT = "sold_out";
+
+        /**
+         * Name of the provider method that sells units of the product with a SKU, as read by a
+         * barcode scanner, passed to
+         * {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} together with
+         * {@link #CONTENT_URI}. The arg is the SKU and the extras may carry {@link #EXTRA_AMOUNT}
+         * (1 by default). The result carries {@link #EXTRA_ID} and {@link #EXTRA_NAME} of the
+         * product, which are missing if no product has the SKU, and then the same extras as
+         * {@link #METHOD_SELL}.
+         */
+        public static final String METHOD_SELL_SKU = "sell_sku";
+
+        /** ID of the product sold. Type: long */
+        public static final String EXTRA_ID = "id";
+
+        /** Name of the product sold. Type: String */
+        public static final String EXTRA_NAME = "name";
+
+        /**
+         * Name of the provider method that inserts a batch of products as
+         * {@link ContentResolver#bulkInsert} does, passed to
+         * {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} together with
+         * {@link #CONTENT_URI}, for callers that report the rows skipped. The extras carry the rows
+         * in {@link #EXTRA_ROWS}. The result carries {@link #EXTRA_INSERTED} and
+         * {@link #EXTRA_SKIPPED}.
+         */
+        public static final String METHOD_BULK_INSERT = "bulk_insert";
+
+        /** Products to insert. Type: ArrayList of ContentValues */
+        public static final String EXTRA_ROWS = "rows";
+
+        /** Number of products inserted. Type: int */
+        public static final String EXTRA_INSERTED = "inserted";
+
+        /**
+         * Positions in {@link #EXTRA_ROWS} of the rows skipped because their SKU is already used,
+         * by another product or an earlier row. Type: int[]
+         */
+        public static final String EXTRA_SKIPPED = "skipped";
+
+        /**
+         * Name of the provider method that reports how well single-product lookups are served
+         * by the row cache of the provider. The result carries {@link #EXTRA_CACHE_HITS},
+         * {@link #EXTRA_CACHE_MISSES} and {@link #EXTRA_CACHE_BYTES}.
+         */
+        public static final String METHOD_CACHE_STATS = "cache_stats";
+
+        /** Number of single-product queries answered from the cache. Type: int */
+        public static final String EXTRA_CACHE_HITS = "cache_hits";
+
+        /** Number of single-product queries that read the database. Type: int */
+        public static final String EXTRA_CACHE_MISSES = "cache_misses";
+
+        /** Estimated memory taken by the cached rows, in bytes. Type: int */
+        public static final String EXTRA_CACHE_BYTES = "cache_bytes";
+
+        /**
+         * Name of the provider method that reports what the provider measured since it was
+         * created. The result carries {@link #EXTRA_METRIC_OPERATIONS} and
+         * {@link #EXTRA_METRIC_TRANSACTIONS}, along with the bucket bounds of their histograms.
+         * The same figures are printed by dumpsys activity provider.
+         */
+        public static final String METHOD_METRICS = "metrics";
+
+        /**
+         * Figures of every operation, keyed by the operation and the kind of URI it was called
+         * with, such as "query products" or "update product_id". Type: Bundle of Bundles
+         */
+        public static final String EXTRA_METRIC_OPERATIONS = "operations";
+
+        /**
+         * Figures of the write transactions, keyed by the write: insert, bulk_insert, update,
+         * delete, sell or compact. Only their count and latencies are kept.
+         * Type: Bundle of Bundles
+         */
+        public static final String EXTRA_METRIC_TRANSACTIONS = "transactions";
+
+        /** Number of calls. Type: long */
+        public static final String EXTRA_METRIC_COUNT = "count";
+
+        /** Number of calls that threw. Type: long */
+        public static final String EXTRA_METRIC_ERRORS = "errors";
+
+        /** Rows returned by the queries or affected by the writes, over all calls. Type: long */
+        public static final String EXTRA_METRIC_ROWS = "rows";
+
+        /** Time taken by all calls, in microseconds. Type: long */
+        public static final String EXTRA_METRIC_TOTAL_MICROS = "total_us";
+
+        /** Time taken by the slowest call, in microseconds. Type: long */
+        public static final String EXTRA_METRIC_MAX_MICROS = "max_us";
+
+        /**
+         * Number of calls per latency bucket, one more than there are
+         * {@link #EXTRA_METRIC_LATENCY_BOUNDS}. Type: long[]
+         */
+        public static final String EXTRA_METRIC_LATENCY = "latency";
+
+        /**
+         * Change notifications sent by the writes, over all calls. Type: long
+         */
+        public static final String EXTRA_METRIC_NOTIFIED = "notified";
+
+        /**
+         * Number of calls per number of change notifications sent, one more than there are
+         * {@link #EXTRA_METRIC_FAN_OUT_BOUNDS}. Type: long[]
+         */
+        public static final String EXTRA_METRIC_FAN_OUT = "fan_out";
+
+        /**
+         * Inclusive upper bounds of the latency buckets in milliseconds; the last bucket holds
+         * everything slower. Type: long[]
+         */
+        public static final String EXTRA_METRIC_LATENCY_BOUNDS = "latency_bounds_ms";
+
+        /**
+         * Inclusive upper bounds of the fan-out buckets in notifications; the last bucket holds
+         * everything larger. Type: long[]
+         */
+        public static final String EXTRA_METRIC_FAN_OUT_BOUNDS = "fan_out_bounds";
+
+        /**
+         * The content URI of the whole catalog as a CSV file in the {@link ProductCsv} format,
+         * streamed as it is read through {@link ContentResolver#openInputStream}.
+         */
+        public static final Uri EXPORT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_EXPORT);
+
+        /** The MIME type of the {@link #EXPORT_URI} */
+        public static final String CSV_TYPE = "text/csv";
+
+        /** File name the {@link #EXPORT_URI} is offered under */
+        public static final String EXPORT_FILE_NAME = "products.csv";
+
+        /** The content URI to search the products by name and supplier name */
+        public static final Uri SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+
+        /** Query parameter with the search text of a {@link #SEARCH_URI} query */
+        public static final String PARAM_QUERY = "q";
+
+        /**
+         * Build the URI of a search. Every word of the text matches the words starting with it,
+         * and the best matches come first.
+         *
+         * @param query      search text, as typed by the user
+         * @param maxResults maximum number of rows returned
+         */
+        public static Uri buildSearchUri(String query, int maxResults) {
+            return SEARCH_URI.buildUpon()
+                    .appendQueryParameter(PARAM_QUERY, query)
+                    .appendQueryParameter(PARAM_PAGE_SIZE, String.valueOf(maxResults))
+                    .build();
+        }
+
     }
 
-}
\ No newline at end of file
+    /**
+     * Inner class that defines constant values for the suppliers database table. Each entry
+     * represents a single supplier, referenced by its products, so changing a supplier writes a
+     * single row however many products it has.
+     */
+    public static final class SupplierEntry implements BaseColumns {
+
+        /** The content URI to access the supplier data in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SUPPLIERS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of suppliers.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUPPLIERS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single supplier.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUPPLIERS;
+
+        /** Name of database table for suppliers */
+        public final static String TABLE_NAME = "suppliers";
+
+        /**
+         * Unique ID number for the supplier (only for use in the database table).
+         *
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * Name of the supplier, unique.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_SUPPLIER_NAME = "name";
+
+        /**
+         * Phone number of the supplier.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_SUPPLIER_PHONE_NUMBER = "phone_number";
+
+        /**
+         * Build the URI of the products of a supplier, read through the index on their supplier
+         * ID and ordered by name by default.
+         *
+         * @param supplierId ID of the supplier
+         */
+        public static Uri buildProductsUri(long supplierId) {
+            return ContentUris.withAppendedId(CONTENT_URI, supplierId).buildUpon()
+                    .appendPath(PATH_PRODUCTS)
+                    .build();
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the inventory summary. The summary table holds
+     * a single row of figures over all products, kept up to date by triggers on every insert,
+     * update and delete of a product, so reading it costs the same whatever the catalog size.
+     */
+    public static final class SummaryEntry implements BaseColumns {
+
+        /** The content URI to read the summary, which is read only */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(ProductEntry.CONTENT_URI, PATH_SUMMARY);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI}, a single row.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUMMARY;
+
+        /** Name of database table for the summary */
+        public final static String TABLE_NAME = "product_summary";
+
+        /**
+         * Number of products.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SUMMARY_PRODUCT_COUNT = "product_count";
+
+        /**
+         * Sum of the quantities of all products.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SUMMARY_TOTAL_UNITS = "total_units";
+
+        /**
+         * Sum of price * quantity over all products.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SUMMARY_TOTAL_VALUE = "total_value";
+
+        /**
+         * Number of products with at most {@link #LOW_STOCK_THRESHOLD} units left.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SUMMARY_LOW_STOCK_COUNT = "low_stock_count";
+
+        /** Quantity at or below which a product counts as low on stock */
+        public static final int LOW_STOCK_THRESHOLD = 5;
+    }
+
+    /**
+     * Inner class that defines constant values for the products to reorder. The reorder_lines
+     * table holds the ID of every product whose quantity is below its reorder point, kept up to
+     * date by triggers that only fire when a product crosses its reorder point, so finding the
+     * products to reorder never scans the catalog. Its rows are read joined with their products,
+     * ordered by supplier name and then product name, so a single pass over them yields the
+     * purchase order of every supplier.
+     */
+    public static final class ReorderEntry implements BaseColumns {
+
+        /** The content URI to read the products to reorder, which are read only */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(ProductEntry.CONTENT_URI, PATH_REORDER);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of products to reorder.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_REORDER;
+
+        /** Name of database table for the products to reorder */
+        public final static String TABLE_NAME = "reorder_lines";
+
+        /**
+         * ID of the product to reorder, the only column of the table. Rows read through the
+         * {@link #CONTENT_URI} carry the product columns instead, with the product ID as
+         * {@link #_ID}.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_REORDER_PRODUCT_ID = "product_id";
+
+        /**
+         * Number of units to order: the reorder quantity of the product, or more if that is not
+         * enough to get back to the reorder point. Only read through the {@link #CONTENT_URI}.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_REORDER_ORDER_QUANTITY = "order_quantity";
+    }
+
+    /**
+     * Inner class that defines constant values for the stock movements table. Each entry records
+     * one change of the stock of a product, and rows are only ever appended, so the quantity of a
+     * product is always the sum of the deltas of its movements. Old movements are periodically
+     * folded into a single {@link #REASON_SNAPSHOT} movement per product.
+     */
+    public static final class MovementEntry implements BaseColumns {
+
+        /** The content URI to read the stock movements, which are read only */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_MOVEMENTS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of movements.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_MOVEMENTS;
+
+        /** Name of database table for stock movements */
+        public final static String TABLE_NAME = "stock_movements";
+
+        /**
+         * Unique ID number for the movement (only for use in the database table).
+         *
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * ID of the product whose stock moved.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_MOVEMENT_PRODUCT_ID = "product_id";
+
+        /**
+         * Change of the quantity, negative when stock leaves.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_MOVEMENT_DELTA = "delta";
+
+        /**
+         * Why the stock moved, one of the REASON_ values.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_MOVEMENT_REASON = "reason";
+
+        /**
+         * When the stock moved, in milliseconds since the epoch.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_MOVEMENT_TIMESTAMP = "timestamp";
+
+        /** Stock the product was created with */
+        public static final String REASON_INITIAL = "initial";
+
+        /** Units sold */
+        public static final String REASON_SALE = "sale";
+
+        /** Quantity set by hand, for example in the editor */
+        public static final String REASON_ADJUSTMENT = "adjustment";
+
+        /** Quantity set by another device, received through sync */
+        public static final String REASON_SYNC = "sync";
+
+        /** Sum of the movements folded by a compaction, dated at the compaction cutoff */
+        public static final String REASON_SNAPSHOT = "snapshot";
+
+        /**
+         * Name of the provider method that folds the movements older than the retention period
+         * into snapshots right away, passed to
+         * {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} together with
+         * {@link #CONTENT_URI}. The provider also does this on its own as movements pile up.
+         */
+        public static final String METHOD_COMPACT = "compact";
+
+        /** Number of movements removed by a compaction. Type: int */
+        public static final String EXTRA_FOLDED = "folded";
+    }
+
+
+    /**
+     * Inner class that defines constant values for the stock locations table, such as the shop
+     * floor, a back room or a warehouse.
+     */
+    public static final class LocationEntry implements BaseColumns {
+
+        /** The content URI to access the locations in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_LOCATIONS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of locations.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_LOCATIONS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single location.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_LOCATIONS;
+
+        /** Name of database table for locations */
+        public final static String TABLE_NAME = "locations";
+
+        /**
+         * Unique ID number for the location (only for use in the database table).
+         *
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * Name of the location, unique.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_LOCATION_NAME = "name";
+
+        /**
+         * ID of the shop floor, which exists from the start and can't be deleted. New products
+         * are stocked there, sales take units from there and quantities set by hand change the
+         * stock there.
+         */
+        public static final long SALES_LOCATION_ID = 1;
+    }
+
+    /**
+     * Inner class that defines constant values for the stock table, which holds the quantity of
+     * every product at every location where it has been stocked. Every product has a row for
+     * {@link LocationEntry#SALES_LOCATION_ID}. Stock only moves between locations through
+     * {@link #METHOD_TRANSFER}; the rows are read only otherwise.
+     */
+    public static final class StockEntry {
+
+        /** The content URI to read the stock at every location, which is read only */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_STOCK);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of stock rows.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STOCK;
+
+        /** Name of database table for the stock */
+        public final static String TABLE_NAME = "stock";
+
+        /**
+         * ID of the product.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_STOCK_PRODUCT_ID = "product_id";
+
+        /**
+         * ID of the location.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_STOCK_LOCATION_ID = "location_id";
+
+        /**
+         * Units of the product at the location.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_STOCK_QUANTITY = "quantity";
+
+        /**
+         * Name of the location, only read through the provider.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_STOCK_LOCATION_NAME = "location_name";
+
+        /**
+         * Build the URI of the stock of a single product, one row per location ordered by
+         * location ID.
+         *
+         * @param productId ID of the product
+         */
+        public static Uri buildProductUri(long productId) {
+            return ContentUris.withAppendedId(CONTENT_URI, productId);
+        }
+
+        /**
+         * Name of the provider method that moves units of a product from one location to
+         * another in a single transaction, passed to
+         * {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} together with
+         * {@link #CONTENT_URI}. The arg is the product ID and the extras carry
+         * {@link #EXTRA_FROM_LOCATION_ID}, {@link #EXTRA_TO_LOCATION_ID} and {@link #EXTRA_AMOUNT}.
+         * The total of the product doesn't change. The result carries {@link #EXTRA_SHORT} if the
+         * first location doesn't hold enough units, in which case nothing moved.
+         */
+        public static final String METHOD_TRANSFER = "transfer";
+
+        /** ID of the location the units leave. Type: long */
+        public static final String EXTRA_FROM_LOCATION_ID = "from_location_id";
+
+        /** ID of the location the units arrive at. Type: long */
+        public static final String EXTRA_TO_LOCATION_ID = "to_location_id";
+
+        /** Number of units to move. Type: int */
+        public static final String EXTRA_AMOUNT = "amount";
+
+        /** Whether the transfer was refused for lack of stock. Type: boolean */
+        public static final String EXTRA_SHORT = "short";
+    }
+
+    /**
+     * Inner class that defines constant values for the synchronization of the catalog between
+     * devices. Every change of a product raises its version, and every deleted product leaves a
+     * tombstone with the version of the delete, so the changes not sent yet are read in version
+     * order from {@link #CHANGES_URI}, a batch at a time. Changes received from the server are
+     * applied through {@link #METHOD_APPLY}.
+     */
+    public static final class SyncEntry {
+
+        /** The content URI the sync methods are called on */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SYNC);
+
+        /**
+         * The content URI to read the changes not sent yet, products and tombstones together in
+         * version order, which is read only. The number of rows is given with
+         * {@link #PARAM_LIMIT}.
+         */
+        public static final Uri CHANGES_URI = Uri.withAppendedPath(CONTENT_URI, PATH_CHANGES);
+
+        /**
+         * The MIME type of the {@link #CHANGES_URI} for a list of changes.
+         */
+        public static final String CONTENT_CHANGES_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY + "/" + PATH_SYNC + "/" + PATH_CHANGES;
+
+        /** Name of database table for the tombstones of deleted products */
+        public final static String TOMBSTONES_TABLE_NAME = "product_tombstones";
+
+        /** Name of database table for the single row of sync state */
+        public final static String STATE_TABLE_NAME = "sync_state";
+
+        /**
+         * Sync ID of the product changed, as {@link ProductEntry#COLUMN_PRODUCT_SYNC_ID}.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_SYNC_ID = "sync_id";
+
+        /**
+         * Version of the change, as {@link ProductEntry#COLUMN_PRODUCT_VERSION}.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_VERSION = "version";
+
+        /**
+         * Whether the product was deleted, in which case only the sync ID and version are set.
+         *
+         * Type: INTEGER (0 or 1)
+         */
+        public final static String COLUMN_DELETED = "deleted";
+
+        /**
+         * Last version handed out, in the sync state.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_CHANGE_SEQ = "change_seq";
+
+        /**
+         * Last version sent to the server, in the sync state. Changes up to it are not read
+         * from {@link #CHANGES_URI} again.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PUSH_SEQ = "push_seq";
+
+        /**
+         * Position of the server changes received so far, in the sync state.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PULL_CURSOR = "pull_cursor";
+
+        /**
+         * ID of this device, which the server uses to leave out the changes it sent, in the
+         * sync state.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_DEVICE_ID = "device_id";
+
+        /** Query parameter of {@link #CHANGES_URI} with the most changes to read */
+        public static final String PARAM_LIMIT = "limit";
+
+        /**
+         * Name of the provider method that reads the sync state, passed to
+         * {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} together with
+         * {@link #CONTENT_URI}. The result carries {@link #EXTRA_DEVICE_ID} and
+         * {@link #EXTRA_CURSOR}.
+         */
+        public static final String METHOD_STATE = "sync_state";
+
+        /**
+         * Name of the provider method that marks the changes read from {@link #CHANGES_URI} as
+         * sent, up to the version in {@link #EXTRA_VERSION}. Products changed again since they
+         * were read stay to be sent, and the tombstones sent are dropped.
+         */
+        public static final String METHOD_ACK = "sync_ack";
+
+        /**
+         * Name of the provider method that applies a chunk of changes received from the server in
+         * a single transaction. The extras carry the changes in {@link #EXTRA_CHANGES} and the
+         * server position after them in {@link #EXTRA_CURSOR}, which is stored in the same
+         * transaction. Products changed here since they were last sent keep their changes, but
+         * their quantity still takes the stock changes of the other devices. The result carries
+         * the number of products changed in {@link #EXTRA_APPLIED}.
+         */
+        public static final String METHOD_APPLY = "sync_apply";
+
+        /** ID of this device. Type: String */
+        public static final String EXTRA_DEVICE_ID = "device_id";
+
+        /** Position of the server changes received so far. Type: long */
+        public static final String EXTRA_CURSOR = "cursor";
+
+        /** Last version of the changes sent. Type: long */
+        public static final String EXTRA_VERSION = "version";
+
+        /**
+         * Changes received, with the {@link #COLUMN_SYNC_ID} and {@link #COLUMN_DELETED} columns
+         * and the product columns. Type: ArrayList of ContentValues
+         */
+        public static final String EXTRA_CHANGES = "changes";
+
+        /** Number of products inserted, updated or deleted. Type: int */
+        public static final String EXTRA_APPLIED = "applied";
+    }
+}
@@ -0,0 +1,246 @@
+package com.example.android.inventoryapp.data;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * CSV format of the product catalog, as read by {@link ProductCsvImporter} and written by the
+ * export of {@link ProductProvider}: a header line naming the columns, then one product per line.
+ * Fields follow RFC 4180, so they may be quoted, and quoted fields may contain commas, doubled
+ * quotes and line breaks. Records are read and written one at a time and fields and records are
+ * bounded by {@link #MAX_FIELD_LENGTH} and {@link #MAX_RECORD_LENGTH}, so files of any size go
+ * through a fixed amount of memory. A malformed record is reported and skipped up to the next
+ * line, so it doesn't keep the rest of the file from being read.
+ */
+public final class ProductCsv {
+
+    // To prevent someone from accidentally instantiating this class,
+    // give it an empty constructor.
+    private ProductCsv() {}
+
+    /** Columns of an exported catalog, in order. An imported catalog may order them freely. */
+    public static final List<String> COLUMNS = Arrays.asList(
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER,
+            ProductEntry.COLUMN_PRODUCT_REORDER_POINT,
+            ProductEntry.COLUMN_PRODUCT_REORDER_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_SKU);
+
+    /** Longest field read, in characters */
+    public static final int MAX_FIELD_LENGTH = 4096;
+
+    /** Longest record read, in characters including its separators and line breaks */
+    public static final int MAX_RECORD_LENGTH = 16384;
+
+    /**
+     * Thrown for a record that can't be read: a quoted field that is never closed, or a field or
+     * record longer than its limit. The {@link RecordReader} has skipped to the line after the
+     * one the record started on, so reading can go on.
+     */
+    public static final class MalformedRecordException extends IOException {
+        private final int lineNumber;
+
+        MalformedRecordException(String message, int lineNumber) {
+            super(message);
+            this.lineNumber = lineNumber;
+        }
+
+        /** Return the line the record started on */
+        public int getLineNumber() {
+            return lineNumber;
+        }
+    }
+
+    /**
+     * Reads the records of a CSV stream one at a time.
+     */
+    public static final class RecordReader {
+        private final Reader reader;
+        private final List<String> fields = new ArrayList<>();
+        private final StringBuilder field = new StringBuilder();
+
+        /** Characters of the current record read so far, to read them again after an error */
+        private final StringBuilder raw = new StringBuilder();
+
+        /** Characters to read again before the stream, from position {@link #pendingPosition} */
+        private String pending = "";
+        private int pendingPosition;
+
+        /** Character read ahead, or -2 when none */
+        private int peeked = -2;
+
+        /** Line the last record started on, counting from 1 */
+        private int lineNumber;
+        private int currentLine = 1;
+
+        /**
+         * @param reader the stream, which should be buffered
+         */
+        public RecordReader(Reader reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * Return the fields of the next record, or null at the end of the stream. The list is
+         * reused by the next call. Blank lines are skipped. Throws a
+         * {@link MalformedRecordException} for a record that can't be read, after which the
+         * next call returns the record on the following line.
+         */
+        public List<String> next() throws IOException {
+            fields.clear();
+            int c;
+            do {
+                raw.setLength(0);
+                c = read();
+            } while (c == '\r' || c == '\n');
+            if (c == -1) {
+                return null;
+            }
+            lineNumber = currentLine;
+
+            field.setLength(0);
+            boolean quoted = false;
+            boolean afterQuote = false;
+            while (true) {
+                if (quoted) {
+                    if (c == -1) {
+                        throw malformed("Unterminated quoted field");
+                    } else if (c == '"') {
+                        if (peek() == '"') {
+                            read();
+                            field.append('"');
+                        } else {
+                            quoted = false;
+                            afterQuote = true;
+                        }
+                    } else {
+                        field.append((char) c);
+                    }
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                    afterQuote = false;
+                } else if (c == '\r' || c == '\n' || c == -1) {
+                    if (c == '\r' && peek() == '\n') {
+                        read();
+                    }
+                    fields.add(field.toString());
+                    return fields;
+                } else if (c == '"' && field.length() == 0 && !afterQuote) {
+                    quoted = true;
+                } else {
+                    field.append((char) c);
+                }
+
+                if (field.length() > MAX_FIELD_LENGTH) {
+                    throw malformed("Field longer than " + MAX_FIELD_LENGTH + " characters");
+                }
+                if (raw.length() > MAX_RECORD_LENGTH) {
+                    throw malformed("Record longer than " + MAX_RECORD_LENGTH + " characters");
+                }
+                c = read();
+            }
+        }
+
+        /** Return the line the last record returned by {@link #next} started on */
+        public int getLineNumber() {
+            return lineNumber;
+        }
+
+        /**
+         * Skip to the line after the one the current record started on, and return the error
+         * for the record. What was read past that line is read again.
+         */
+        private MalformedRecordException malformed(String message) throws IOException {
+            int lineEnd = raw.indexOf("\n");
+            if (lineEnd >= 0) {
+                StringBuilder again = new StringBuilder(raw.substring(lineEnd + 1));
+                for (int i = 0; i < again.length(); i++) {
+                    if (again.charAt(i) == '\n') {
+                        currentLine--;
+                    }
+                }
+                if (peeked >= 0) {
+                    again.append((char) peeked);
+                }
+                again.append(pending, pendingPosition, pending.length());
+                peeked = -2;
+                pending = again.toString();
+                pendingPosition = 0;
+            } else {
+                int c;
+                do {
+                    raw.setLength(0);
+                    c = read();
+                } while (c != '\n' && c != -1);
+            }
+            raw.setLength(0);
+            return new MalformedRecordException(message, lineNumber);
+        }
+
+        private int read() throws IOException {
+            int c;
+            if (peeked != -2) {
+                c = peeked;
+                peeked = -2;
+            } else {
+                c = readSource();
+            }
+            if (c == '\n') {
+                currentLine++;
+            }
+            if (c != -1) {
+                raw.append((char) c);
+            }
+            return c;
+        }
+
+        private int peek() throws IOException {
+            if (peeked == -2) {
+                peeked = readSource();
+            }
+            return peeked;
+        }
+
+        private int readSource() throws IOException {
+            if (pendingPosition < pending.length()) {
+                return pending.charAt(pendingPosition++);
+            }
+            return reader.read();
+        }
+    }
+
+    /**
+     * Write one record, quoting the fields that need it, followed by a line break.
+     * Null fields are written empty.
+     */
+    public static void writeRecord(Writer writer, String... fields) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            String value = fields[i];
+            if (value == null) {
+                continue;
+            }
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0
+                    && value.indexOf('\r') < 0) {
+                writer.write(value);
+            } else {
+                writer.write('"');
+                writer.write(value.replace("\"", "\"\""));
+                writer.write('"');
+            }
+        }
+        writer.write("\r\n");
+    }
+}
@@ -0,0 +1,242 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.Bundle;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link ProductCsvImporter} loads a product catalog in the {@link ProductCsv} format into
+ * {@link ProductProvider}. The file is parsed one record at a time and written in chunks of
+ * {@link #CHUNK_SIZE} rows, each one a single bulk insert transaction, so neither the file nor its
+ * rows are ever held in memory as a whole.
+ *
+ * Rows that can't be imported, including malformed records and rows whose SKU is already used,
+ * are reported to the {@link Listener} and skipped; the import goes on with the next row. The
+ * import runs on the calling thread, which must not be the main thread.
+ */
+public class ProductCsvImporter {
+
+    /** Rows written per transaction */
+    public static final int CHUNK_SIZE = 500;
+
+    /** Most row errors kept in the {@link Result}, the listener still gets all of them */
+    private static final int MAX_KEPT_ERRORS = 100;
+
+    /**
+     * Told about the progress of an import, on the importing thread.
+     */
+    public interface Listener {
+
+        /** Called after every chunk is written */
+        void onProgress(int rowsRead, int rowsImported);
+
+        /** Called for every row that is skipped */
+        void onRowError(int lineNumber, String message);
+    }
+
+    /**
+     * Outcome of an import.
+     */
+    public static final class Result {
+
+        /** Number of product rows read from the file, not counting the header */
+        public final int rowsRead;
+
+        /** Number of products inserted */
+        public final int rowsImported;
+
+        /** Number of rows skipped because of an error */
+        public final int rowsFailed;
+
+        /** Messages of the first row errors, prefixed by their line numbers */
+        public final List<String> errors;
+
+        Result(int rowsRead, int rowsImported, int rowsFailed, List<String> errors) {
+            this.rowsRead = rowsRead;
+            this.rowsImported = rowsImported;
+            this.rowsFailed = rowsFailed;
+            this.errors = errors;
+        }
+    }
+
+    private final ContentResolver resolver;
+
+    /**
+     * Constructs a new {@link ProductCsvImporter}.
+     *
+     * @param resolver to insert the products with
+     */
+    public ProductCsvImporter(ContentResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    /**
+     * Import the catalog from a UTF-8 stream, which is closed afterwards. Throws an
+     * {@link IOException} if the stream can't be read or has no usable header; the chunks
+     * written before that stay imported.
+     *
+     * @param listener told about the progress and errors, may be null
+     */
+    public Result importCsv(InputStream in, Listener listener) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            return importRecords(new ProductCsv.RecordReader(reader), listener);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private Result importRecords(ProductCsv.RecordReader records, Listener listener)
+            throws IOException {
+        List<String> header = records.next();
+        if (header == null) {
+            throw new IOException("The file is empty");
+        }
+
+        // Position of every known column in the records, -1 when it is missing
+        int[] positions = new int[ProductCsv.COLUMNS.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = indexOfIgnoreCase(header, ProductCsv.COLUMNS.get(i));
+        }
+        int namePosition = positions[ProductCsv.COLUMNS.indexOf(ProductEntry.COLUMN_PRODUCT_NAME)];
+        if (namePosition < 0) {
+            throw new IOException("The header has no " + ProductEntry.COLUMN_PRODUCT_NAME + " column");
+        }
+
+        ArrayList<ContentValues> chunk = new ArrayList<>(CHUNK_SIZE);
+        int[] chunkLines = new int[CHUNK_SIZE];
+        int rowsRead = 0;
+        int rowsImported = 0;
+        int rowsFailed = 0;
+        List<String> errors = new ArrayList<>();
+
+        boolean done = false;
+        while (!done) {
+            List<String> record;
+            try {
+                record = records.next();
+            } catch (ProductCsv.MalformedRecordException e) {
+                rowsRead++;
+                rowsFailed++;
+                reportError(errors, listener, e.getLineNumber(), e.getMessage());
+                continue;
+            }
+            done = record == null;
+            if (!done) {
+                rowsRead++;
+                ContentValues values = new ContentValues();
+                String error = readRow(record, positions, values);
+                if (error != null) {
+                    rowsFailed++;
+                    reportError(errors, listener, records.getLineNumber(), error);
+                    continue;
+                }
+                chunkLines[chunk.size()] = records.getLineNumber();
+                chunk.add(values);
+                if (chunk.size() < CHUNK_SIZE) {
+                    continue;
+                }
+            }
+
+            // Write the full chunk, or what is left of the last one
+            if (!chunk.isEmpty()) {
+                Bundle extras = new Bundle();
+                extras.putParcelableArrayList(ProductEntry.EXTRA_ROWS, chunk);
+                Bundle result = resolver.call(ProductEntry.CONTENT_URI,
+                        ProductEntry.METHOD_BULK_INSERT, null, extras);
+                if (result == null) {
+                    throw new IllegalStateException("Products can't be inserted");
+                }
+                rowsImported += result.getInt(ProductEntry.EXTRA_INSERTED);
+                int[] skipped = result.getIntArray(ProductEntry.EXTRA_SKIPPED);
+                if (skipped != null) {
+                    for (int position : skipped) {
+                        rowsFailed++;
+                        reportError(errors, listener, chunkLines[position], "SKU "
+                                + chunk.get(position).getAsString(ProductEntry.COLUMN_PRODUCT_SKU)
+                                + " is already used");
+                    }
+                }
+                chunk = new ArrayList<>(CHUNK_SIZE);
+            }
+            if (listener != null) {
+                listener.onProgress(rowsRead, rowsImported);
+            }
+        }
+
+        return new Result(rowsRead, rowsImported, rowsFailed, errors);
+    }
+
+    /**
+     * Fill the values of a product from a record. Apply the same checks as the provider, so a
+     * chunk is never refused as a whole. Return the error message if the row is invalid.
+     */
+    private static String readRow(List<String> record, int[] positions, ContentValues values) {
+        for (int i = 0; i < positions.length; i++) {
+            String column = ProductCsv.COLUMNS.get(i);
+            String value = positions[i] < 0 || positions[i] >= record.size()
+                    ? null : record.get(positions[i]).trim();
+            if (value == null || value.isEmpty()) {
+                continue;
+            }
+
+            if (column.equals(ProductEntry.COLUMN_PRODUCT_PRICE)
+                    || column.equals(ProductEntry.COLUMN_PRODUCT_QUANTITY)
+                    || column.equals(ProductEntry.COLUMN_PRODUCT_REORDER_POINT)
+                    || column.equals(ProductEntry.COLUMN_PRODUCT_REORDER_QUANTITY)) {
+                int number;
+                try {
+                    number = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    return "Invalid " + column + " \"" + value + "\"";
+                }
+                if (number < 0) {
+                    return "Negative " + column + " " + number;
+                }
+                values.put(column, number);
+            } else {
+                values.put(column, value);
+            }
+        }
+
+        if (!values.containsKey(ProductEntry.COLUMN_PRODUCT_NAME)) {
+            return "Missing " + ProductEntry.COLUMN_PRODUCT_NAME;
+        }
+        if (!values.containsKey(ProductEntry.COLUMN_PRODUCT_PRICE)) {
+            return "Missing " + ProductEntry.COLUMN_PRODUCT_PRICE;
+        }
+        if (!values.containsKey(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME)) {
+            return "Missing " + ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME;
+        }
+        return null;
+    }
+
+    /** Keep the error of a skipped row while there is room for it, and tell the listener */
+    private static void reportError(List<String> errors, Listener listener, int line,
+                                    String error) {
+        if (errors.size() < MAX_KEPT_ERRORS) {
+            errors.add("Line " + line + ": " + error);
+        }
+        if (listener != null) {
+            listener.onRowError(line, error);
+        }
+    }
+
+    private static int indexOfIgnoreCase(List<String> header, String column) {
+        for (int i = 0; i < header.size(); i++) {
+            if (header.get(i).trim().equalsIgnoreCase(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
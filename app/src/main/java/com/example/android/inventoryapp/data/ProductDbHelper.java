@@ -1,8 +1,11 @@
 package com.example.android.inventoryapp.data;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.util.Log;
 
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
 
@@ -20,17 +23,130 @@ public class ProductDbHelper extends SQLiteOpenHelper {
     private static final String DATABASE_NAME = "inventory.db";
 
     /**
-     * Database version. If you change the database schema, you must increment the database version.
+     * Database version. If you change the database schema, you must add a {@link Migration} to
+     * {@link ProductMigrations} and increment the database version.
      */
-    private static final int DATABASE_VERSION = 1;
+    static final int DATABASE_VERSION = 14;
+
+    /** PRAGMA synchronous level OFF: never fsync, a power loss can corrupt the database */
+    public static final int SYNCHRONOUS_OFF = 0;
 
     /**
-     * Constructs a new instance of {@link ProductDbHelper}.
+     * PRAGMA synchronous level NORMAL: with WAL only checkpoints fsync, commits survive app crashes
+     * but the last transactions may be rolled back after a power loss
+     */
+    public static final int SYNCHRONOUS_NORMAL = 1;
+
+    /** PRAGMA synchronous level FULL: every commit is fsynced */
+    public static final int SYNCHRONOUS_FULL = 2;
+
+    /**
+     * Tuning options for the connections opened by {@link ProductDbHelper}.
+     */
+    public static final class Options {
+
+        /**
+         * Options used by the app: write-ahead logging so readers never block the writer,
+         * NORMAL sync since the WAL already protects against app crashes, and a WAL that is
+         * checkpointed every 1000 pages and truncated back to 1 MB afterwards.
+         */
+        public static final Options DEFAULT = new Options(true, SYNCHRONOUS_NORMAL, 1000,
+                1024 * 1024, 50);
+
+        /** Whether to open the database in write-ahead logging mode */
+        public final boolean writeAheadLogging;
+
+        /** One of {@link #SYNCHRONOUS_OFF}, {@link #SYNCHRONOUS_NORMAL} or {@link #SYNCHRONOUS_FULL} */
+        public final int synchronous;
+
+        /** Number of WAL pages after which a commit runs an automatic checkpoint, 0 to disable */
+        public final int autoCheckpointPages;
+
+        /** Size in bytes the WAL file is truncated to after a checkpoint, -1 for no limit */
+        public final long journalSizeLimit;
+
+        /** Number of prepared statements each connection keeps compiled, at most 100 */
+        public final int statementCacheSize;
+
+        public Options(boolean writeAheadLogging, int synchronous, int autoCheckpointPages,
+                       long journalSizeLimit, int statementCacheSize) {
+            if (synchronous < SYNCHRONOUS_OFF || synchronous > SYNCHRONOUS_FULL) {
+                throw new IllegalArgumentException("Unknown synchronous level " + synchronous);
+            }
+            if (statementCacheSize < 0 || statementCacheSize > SQLiteDatabase.MAX_SQL_CACHE_SIZE) {
+                throw new IllegalArgumentException("Statement cache size must be between 0 and "
+                        + SQLiteDatabase.MAX_SQL_CACHE_SIZE);
+            }
+            this.writeAheadLogging = writeAheadLogging;
+            this.synchronous = synchronous;
+            this.autoCheckpointPages = autoCheckpointPages;
+            this.journalSizeLimit = journalSizeLimit;
+            this.statementCacheSize = statementCacheSize;
+        }
+    }
+
+    /** Options the connections are configured with */
+    private final Options options;
+
+    /**
+     * Constructs a new instance of {@link ProductDbHelper} with the {@link Options#DEFAULT} options.
      *
      * @param context of the app
      */
     public ProductDbHelper(Context context) {
+        this(context, Options.DEFAULT);
+    }
+
+    /**
+     * Constructs a new instance of {@link ProductDbHelper}.
+     *
+     * @param context of the app
+     * @param options tuning options for the database connections
+     */
+    public ProductDbHelper(Context context, Options options) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this.options = options;
+
+        // From Jelly Bean on, the framework opens the database in WAL mode and keeps a pool of
+        // read connections next to the primary one, so queries run while a write is in progress
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(options.writeAheadLogging);
+        }
+    }
+
+    /**
+     * This is called every time the database is opened, after it has been created or upgraded.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly()) {
+            return;
+        }
+
+        // Before Jelly Bean WAL has to be turned on once the database is open
+        if (options.writeAheadLogging && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            db.enableWriteAheadLogging();
+        }
+
+        db.setMaxSqlCacheSize(options.statementCacheSize);
+        pragma(db, "PRAGMA foreign_keys = ON");
+        pragma(db, "PRAGMA synchronous = " + options.synchronous);
+        pragma(db, "PRAGMA wal_autocheckpoint = " + options.autoCheckpointPages);
+        pragma(db, "PRAGMA journal_size_limit = " + options.journalSizeLimit);
+    }
+
+    /**
+     * Run a PRAGMA statement. Some of them return their new value as a row, which execSQL
+     * refuses, so they are always run as a query and the result is discarded.
+     */
+    private static void pragma(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     /**
@@ -49,6 +165,10 @@ public class ProductDbHelper extends SQLiteOpenHelper {
 
         // Execute the SQL statement
         db.execSQL(SQL_CREATE_PRODUCTS_TABLE);
+
+        // The statement above creates the version 1 schema, bring it up to date the same way
+        // existing databases are upgraded
+        migrate(db, 1, DATABASE_VERSION);
     }
 
     /**
@@ -56,6 +176,27 @@ public class ProductDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to do be done here.
+        migrate(db, oldVersion, newVersion);
+    }
+
+    /**
+     * Run the {@link ProductMigrations} that take the database from one version to another, in
+     * order. Throws an {@link IllegalStateException} if there is no complete path between them.
+     */
+    static void migrate(SQLiteDatabase db, int fromVersion, int toVersion) {
+        int version = fromVersion;
+        for (Migration migration : ProductMigrations.ALL) {
+            if (migration.startVersion == version && migration.endVersion <= toVersion) {
+                Log.i(LOG_TAG, "Migrating database from version " + migration.startVersion
+                        + " to " + migration.endVersion);
+                migration.migrate(db);
+                version = migration.endVersion;
+            }
+        }
+
+        if (version != toVersion) {
+            throw new IllegalStateException("No migration path from version " + fromVersion
+                    + " to " + toVersion + ", stopped at " + version);
+        }
     }
 }
\ No newline at end of file
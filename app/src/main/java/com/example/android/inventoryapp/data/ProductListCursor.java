@@ -0,0 +1,115 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.AbstractCursor;
+
+/**
+ * {@link ProductListCursor} holds a page of the product list read from the
+ * {@link ProductListModel}, one array per column: numbers are kept as longs and text as string
+ * references, so filling it copies no characters and needs no CursorWindow. None of its values
+ * are null.
+ */
+final class ProductListCursor extends AbstractCursor {
+
+    private final String[] columns;
+
+    /** Values of every number column by row, null for the text columns */
+    private final long[][] numbers;
+
+    /** Values of every text column by row, null for the number columns */
+    private final String[][] texts;
+
+    private int count;
+
+    /**
+     * Constructs a new, empty {@link ProductListCursor}.
+     *
+     * @param columns  names of the columns
+     * @param text     whether every column holds text rather than numbers
+     * @param capacity most rows the cursor will hold
+     */
+    ProductListCursor(String[] columns, boolean[] text, int capacity) {
+        this.columns = columns;
+        numbers = new long[columns.length][];
+        texts = new String[columns.length][];
+        for (int i = 0; i < columns.length; i++) {
+            if (text[i]) {
+                texts[i] = new String[capacity];
+            } else {
+                numbers[i] = new long[capacity];
+            }
+        }
+    }
+
+    /** Add a row and return its index, to fill with {@link #set} */
+    int addRow() {
+        return count++;
+    }
+
+    void set(int row, int column, long value) {
+        numbers[column][row] = value;
+    }
+
+    void set(int row, int column, String value) {
+        texts[column][row] = value;
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return columns;
+    }
+
+    @Override
+    public int getType(int column) {
+        return texts[column] != null ? FIELD_TYPE_STRING : FIELD_TYPE_INTEGER;
+    }
+
+    @Override
+    public String getString(int column) {
+        String[] text = texts[column];
+        return text != null ? text[getPosition()] : Long.toString(numbers[column][getPosition()]);
+    }
+
+    @Override
+    public long getLong(int column) {
+        String[] text = texts[column];
+        if (text == null) {
+            return numbers[column][getPosition()];
+        }
+        // Like SQLite, text that isn't a number reads as 0
+        try {
+            return Long.parseLong(text[getPosition()]);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return getLong(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return getLong(column);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return false;
+    }
+}
@@ -0,0 +1,636 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.SummaryEntry;
+import com.example.android.inventoryapp.data.ProductContract.SupplierEntry;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@link ProductListModel} keeps the columns the product list reads of every product in memory,
+ * in parallel arrays of numbers ordered by product ID, with one shared instance of every name, so
+ * {@link ProductProvider} serves the pages of the list without going to SQLite. Pages are returned
+ * as {@link ProductListCursor}s, in the same keyset order as the paged queries of the database.
+ *
+ * The rows are read in the background the first time a page is asked for, and pages are read
+ * from the database until then. After that every write of the provider reads the rows it changed
+ * again, in the order the writes are committed. A write whose rows are not known drops all rows,
+ * which are read again with the next page. Catalogs of more than {@link #MAX_ROWS} products are
+ * always paged from the database.
+ *
+ * This class is thread-safe.
+ */
+final class ProductListModel {
+
+    private static final String LOG_TAG = ProductListModel.class.getSimpleName();
+
+    /** Largest number of products kept in memory */
+    static final int MAX_ROWS = 100000;
+
+    /** Most products read again per query, within the SQLite limit on query arguments */
+    private static final int MAX_REFRESH_IDS = 500;
+
+    /** Columns a page can be served with, in the order of the COLUMN_ indexes below */
+    private static final List<String> COLUMNS = Arrays.asList(
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME,
+            ProductEntry.COLUMN_PRODUCT_UPDATED_AT);
+
+    private static final int COLUMN_ID = 0;
+    private static final int COLUMN_NAME = 1;
+    private static final int COLUMN_QUANTITY = 2;
+    private static final int COLUMN_PRICE = 3;
+    private static final int COLUMN_SUPPLIER_ID = 4;
+    private static final int COLUMN_SUPPLIER_NAME = 5;
+    private static final int COLUMN_UPDATED_AT = 6;
+
+    /** Reads the rows, in the order {@link Rows#read} expects their columns */
+    private static final String SQL_ROWS = "SELECT " + ProductEntry._ID + ", "
+            + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", "
+            + ProductEntry.COLUMN_PRODUCT_PRICE + ", " + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID
+            + ", " + ProductEntry.COLUMN_PRODUCT_UPDATED_AT + " FROM " + ProductEntry.TABLE_NAME;
+
+    private static final String SQL_SUPPLIERS = "SELECT " + SupplierEntry._ID + ", "
+            + SupplierEntry.COLUMN_SUPPLIER_NAME + " FROM " + SupplierEntry.TABLE_NAME;
+
+    private static final String SQL_SUPPLIER_NAME = "SELECT " + SupplierEntry.COLUMN_SUPPLIER_NAME
+            + " FROM " + SupplierEntry.TABLE_NAME + " WHERE " + SupplierEntry._ID + " = ?";
+
+    /**
+     * The rows of all products, in ID order.
+     */
+    private static final class Rows {
+        int size;
+        long[] ids;
+        String[] names;
+        int[] quantities;
+        int[] prices;
+        long[] supplierIds;
+        String[] supplierNames;
+        long[] updatedAts;
+
+        /** Names of the suppliers by ID */
+        final Map<Long, String> suppliers = new HashMap<>();
+
+        /** The instance kept of every name, so equal names share their characters */
+        final Map<String, String> pool = new HashMap<>();
+
+        Rows(int capacity) {
+            ids = new long[capacity];
+            names = new String[capacity];
+            quantities = new int[capacity];
+            prices = new int[capacity];
+            supplierIds = new long[capacity];
+            supplierNames = new String[capacity];
+            updatedAts = new long[capacity];
+        }
+
+        /** Return the slot of a product, or -(insertion point) - 1 if there is none */
+        int slotOf(long id) {
+            return Arrays.binarySearch(ids, 0, size, id);
+        }
+
+        /** Open an empty slot at the given position, moving the slots after it */
+        void insertSlot(int slot) {
+            if (size == ids.length) {
+                int capacity = Math.max(16, size + (size >> 1));
+                ids = Arrays.copyOf(ids, capacity);
+                names = Arrays.copyOf(names, capacity);
+                quantities = Arrays.copyOf(quantities, capacity);
+                prices = Arrays.copyOf(prices, capacity);
+                supplierIds = Arrays.copyOf(supplierIds, capacity);
+                supplierNames = Arrays.copyOf(supplierNames, capacity);
+                updatedAts = Arrays.copyOf(updatedAts, capacity);
+            }
+            int moved = size - slot;
+            System.arraycopy(ids, slot, ids, slot + 1, moved);
+            System.arraycopy(names, slot, names, slot + 1, moved);
+            System.arraycopy(quantities, slot, quantities, slot + 1, moved);
+            System.arraycopy(prices, slot, prices, slot + 1, moved);
+            System.arraycopy(supplierIds, slot, supplierIds, slot + 1, moved);
+            System.arraycopy(supplierNames, slot, supplierNames, slot + 1, moved);
+            System.arraycopy(updatedAts, slot, updatedAts, slot + 1, moved);
+            size++;
+        }
+
+        /** Remove a slot, moving the slots after it */
+        void removeSlot(int slot) {
+            int moved = size - slot - 1;
+            System.arraycopy(ids, slot + 1, ids, slot, moved);
+            System.arraycopy(names, slot + 1, names, slot, moved);
+            System.arraycopy(quantities, slot + 1, quantities, slot, moved);
+            System.arraycopy(prices, slot + 1, prices, slot, moved);
+            System.arraycopy(supplierIds, slot + 1, supplierIds, slot, moved);
+            System.arraycopy(supplierNames, slot + 1, supplierNames, slot, moved);
+            System.arraycopy(updatedAts, slot + 1, updatedAts, slot, moved);
+            size--;
+            names[size] = null;
+            supplierNames[size] = null;
+        }
+
+        /** Fill a slot from the current row of a cursor over {@link #SQL_ROWS} */
+        void read(SQLiteDatabase database, int slot, Cursor cursor) {
+            ids[slot] = cursor.getLong(0);
+            names[slot] = intern(cursor.getString(1));
+            quantities[slot] = cursor.getInt(2);
+            prices[slot] = cursor.getInt(3);
+            supplierIds[slot] = cursor.getLong(4);
+            supplierNames[slot] = supplierName(database, supplierIds[slot]);
+            updatedAts[slot] = cursor.getLong(5);
+        }
+
+        String intern(String name) {
+            String interned = pool.get(name);
+            if (interned == null) {
+                pool.put(name, name);
+                interned = name;
+            }
+            return interned;
+        }
+
+        /** Return the name of a supplier, reading it if the supplier was created since */
+        String supplierName(SQLiteDatabase database, long id) {
+            String name = suppliers.get(id);
+            if (name == null) {
+                name = intern(DatabaseUtils.stringForQuery(database, SQL_SUPPLIER_NAME,
+                        new String[] { String.valueOf(id) }));
+                suppliers.put(id, name);
+            }
+            return name;
+        }
+    }
+
+    /**
+     * The product IDs in the order of a SORT_ value.
+     */
+    private static final class Order {
+        long[] ids;
+        int size;
+
+        Order(long[] ids) {
+            this.ids = ids;
+            size = ids.length;
+        }
+
+        void insert(int position, long id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, Math.max(16, size + (size >> 1)));
+            }
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            ids[position] = id;
+            size++;
+        }
+
+        void remove(int position) {
+            System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+            size--;
+        }
+    }
+
+    private final ProductDbHelper dbHelper;
+    private final ExecutorService builder = Executors.newSingleThreadExecutor();
+
+    /** Whether a build is queued or running */
+    private final AtomicBoolean building = new AtomicBoolean();
+
+    private final Runnable build = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                build();
+            } catch (RuntimeException e) {
+                Log.w(LOG_TAG, "Loading the product list failed", e);
+            } finally {
+                building.set(false);
+            }
+        }
+    };
+
+    /** The rows, or null while they are not loaded. Guarded by this, like the fields below. */
+    private Rows rows;
+
+    /** Orders of the SORT_ values read so far, sorted on first use */
+    private final Map<String, Order> orders = new HashMap<>();
+
+    /** Bumped by every write, so a build that read the rows before it can tell */
+    private long changes;
+
+    /** Value of {@link #changes} when the catalog was found too big; no build is tried until it moves */
+    private long tooLargeAt = -1;
+
+    /**
+     * Constructs a new {@link ProductListModel}, whose rows are not loaded yet.
+     *
+     * @param dbHelper opens the database the rows are read from
+     */
+    ProductListModel(ProductDbHelper dbHelper) {
+        this.dbHelper = dbHelper;
+    }
+
+    /**
+     * Read all rows from the database and keep them, unless a write happened in the meantime or
+     * there are more than {@link #MAX_ROWS} products. Return whether the rows are loaded.
+     */
+    boolean build() {
+        long token;
+        synchronized (this) {
+            if (rows != null) {
+                return true;
+            }
+            token = changes;
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        SQLiteDatabase database = dbHelper.getReadableDatabase();
+        long count = DatabaseUtils.queryNumEntries(database, ProductEntry.TABLE_NAME);
+        if (count > MAX_ROWS) {
+            synchronized (this) {
+                tooLargeAt = token;
+            }
+            return false;
+        }
+
+        Rows read = new Rows((int) count);
+        Cursor cursor = database.rawQuery(SQL_SUPPLIERS, null);
+        try {
+            while (cursor.moveToNext()) {
+                read.suppliers.put(cursor.getLong(0), read.intern(cursor.getString(1)));
+            }
+        } finally {
+            cursor.close();
+        }
+        cursor = database.rawQuery(SQL_ROWS + " ORDER BY " + ProductEntry._ID, null);
+        try {
+            while (cursor.moveToNext() && read.size <= MAX_ROWS) {
+                read.insertSlot(read.size);
+                read.read(database, read.size - 1, cursor);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        synchronized (this) {
+            if (read.size > MAX_ROWS) {
+                tooLargeAt = token;
+                return false;
+            }
+            if (rows != null) {
+                // Loaded by another build in the meantime
+                return true;
+            }
+            if (changes != token) {
+                // A write may have been missed, the next page will try again
+                return false;
+            }
+            rows = read;
+            orders.clear();
+        }
+        Log.i(LOG_TAG, "Loaded " + read.size + " products in "
+                + (SystemClock.elapsedRealtime() - start) + " ms");
+        return true;
+    }
+
+    /**
+     * Bring the rows up to date once a write committed changes to the given products, which are
+     * read again, or drop all rows if ids is null.
+     */
+    synchronized void onRowsChanged(List<Long> ids) {
+        changes++;
+        if (rows == null) {
+            return;
+        }
+        if (ids != null) {
+            try {
+                refresh(ids);
+                if (rows.size <= MAX_ROWS) {
+                    return;
+                }
+                tooLargeAt = changes;
+            } catch (RuntimeException e) {
+                Log.w(LOG_TAG, "Reading changed products failed", e);
+            }
+        }
+        rows = null;
+        orders.clear();
+    }
+
+    /**
+     * Return a page of products as asked for by a paged {@link ProductEntry#CONTENT_URI} query,
+     * or null if it can't be served from memory: the rows are not loaded, or the query asks for
+     * a column that isn't kept or has parameters the database must check. Starts loading the
+     * rows if they are not loaded.
+     */
+    synchronized Cursor queryPage(Uri uri, String[] projection) {
+        if (rows == null) {
+            if (tooLargeAt != changes && building.compareAndSet(false, true)) {
+                builder.execute(build);
+            }
+            return null;
+        }
+        if (projection == null) {
+            return null;
+        }
+
+        int[] sources = new int[projection.length];
+        boolean[] text = new boolean[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            sources[i] = COLUMNS.indexOf(projection[i]);
+            if (sources[i] < 0) {
+                return null;
+            }
+            text[i] = sources[i] == COLUMN_NAME || sources[i] == COLUMN_SUPPLIER_NAME;
+        }
+
+        String sort = uri.getQueryParameter(ProductEntry.PARAM_SORT);
+        if (sort == null) {
+            sort = ProductEntry.SORT_NAME;
+        }
+        String filter = uri.getQueryParameter(ProductEntry.PARAM_FILTER);
+        if (!isSort(sort) || (filter != null && !ProductEntry.FILTER_IN_STOCK.equals(filter)
+                && !ProductEntry.FILTER_LOW_STOCK.equals(filter))) {
+            return null;
+        }
+
+        int pageSize;
+        long supplierId = 0;
+        String textKey = null;
+        long numberKey = 0;
+        long afterId = 0;
+        String afterKey = uri.getQueryParameter(ProductEntry.PARAM_AFTER_KEY);
+        String afterIdParameter = uri.getQueryParameter(ProductEntry.PARAM_AFTER_ID);
+        boolean after = afterKey != null && afterIdParameter != null;
+        String supplierIdParameter = uri.getQueryParameter(ProductEntry.PARAM_SUPPLIER_ID);
+        try {
+            pageSize = Integer.parseInt(uri.getQueryParameter(ProductEntry.PARAM_PAGE_SIZE));
+            if (supplierIdParameter != null) {
+                supplierId = Long.parseLong(supplierIdParameter);
+            }
+            if (after) {
+                afterId = Long.parseLong(afterIdParameter);
+                if (isText(sort)) {
+                    textKey = afterKey;
+                } else {
+                    numberKey = Long.parseLong(afterKey);
+                }
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (pageSize <= 0) {
+            return null;
+        }
+
+        Order order = order(sort);
+        int position = after ? search(sort, order, textKey, numberKey, afterId, false) : 0;
+        ProductListCursor cursor = new ProductListCursor(projection, text,
+                Math.min(pageSize, order.size - position));
+        for (; position < order.size && cursor.getCount() < pageSize; position++) {
+            int slot = rows.slotOf(order.ids[position]);
+            if (!matches(slot, filter, supplierIdParameter != null, supplierId)) {
+                continue;
+            }
+            int row = cursor.addRow();
+            for (int i = 0; i < sources.length; i++) {
+                switch (sources[i]) {
+                    case COLUMN_ID:
+                        cursor.set(row, i, rows.ids[slot]);
+                        break;
+                    case COLUMN_NAME:
+                        cursor.set(row, i, rows.names[slot]);
+                        break;
+                    case COLUMN_QUANTITY:
+                        cursor.set(row, i, rows.quantities[slot]);
+                        break;
+                    case COLUMN_PRICE:
+                        cursor.set(row, i, rows.prices[slot]);
+                        break;
+                    case COLUMN_SUPPLIER_ID:
+                        cursor.set(row, i, rows.supplierIds[slot]);
+                        break;
+                    case COLUMN_SUPPLIER_NAME:
+                        cursor.set(row, i, rows.supplierNames[slot]);
+                        break;
+                    case COLUMN_UPDATED_AT:
+                        cursor.set(row, i, rows.updatedAts[slot]);
+                        break;
+                }
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Read the given products again and move them into, within or out of the rows and orders.
+     */
+    private void refresh(List<Long> ids) {
+        for (int start = 0; start < ids.size(); start += MAX_REFRESH_IDS) {
+            refreshChunk(ids.subList(start, Math.min(start + MAX_REFRESH_IDS, ids.size())));
+        }
+    }
+
+    private void refreshChunk(List<Long> ids) {
+        String[] args = new String[ids.size()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = String.valueOf(ids.get(i));
+        }
+
+        SQLiteDatabase database = dbHelper.getReadableDatabase();
+        Cursor cursor = database.rawQuery(SQL_ROWS + " WHERE " + ProductEntry._ID + " IN ("
+                + TextUtils.join(", ", Collections.nCopies(args.length, "?")) + ")", args);
+        boolean[] found = new boolean[args.length];
+        try {
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(0);
+                found[ids.indexOf(id)] = true;
+
+                int slot = rows.slotOf(id);
+                if (slot >= 0) {
+                    removeFromOrders(slot);
+                } else {
+                    slot = -slot - 1;
+                    rows.insertSlot(slot);
+                }
+                rows.read(database, slot, cursor);
+                addToOrders(slot);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // Products that are not found anymore were deleted
+        for (int i = 0; i < found.length; i++) {
+            int slot = rows.slotOf(ids.get(i));
+            if (!found[i] && slot >= 0) {
+                removeFromOrders(slot);
+                rows.removeSlot(slot);
+            }
+        }
+    }
+
+    /** Return the order of a SORT_ value, sorting the rows the first time */
+    private Order order(String sort) {
+        Order order = orders.get(sort);
+        if (order == null) {
+            int[] slots = new int[rows.size];
+            for (int i = 0; i < slots.length; i++) {
+                slots[i] = i;
+            }
+            slots = sort(sort, slots);
+            long[] ids = new long[rows.size];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = rows.ids[slots[i]];
+            }
+            order = new Order(ids);
+            orders.put(sort, order);
+        }
+        return order;
+    }
+
+    private void removeFromOrders(int slot) {
+        for (Map.Entry<String, Order> entry : orders.entrySet()) {
+            String sort = entry.getKey();
+            Order order = entry.getValue();
+            order.remove(search(sort, order, textKey(sort, slot), numberKey(sort, slot),
+                    rows.ids[slot], true));
+        }
+    }
+
+    private void addToOrders(int slot) {
+        for (Map.Entry<String, Order> entry : orders.entrySet()) {
+            String sort = entry.getKey();
+            Order order = entry.getValue();
+            order.insert(search(sort, order, textKey(sort, slot), numberKey(sort, slot),
+                    rows.ids[slot], false), rows.ids[slot]);
+        }
+    }
+
+    /**
+     * Return the position of the first product of an order that comes after the given sort key
+     * and ID, or with inclusive, the first one that doesn't come before them.
+     */
+    private int search(String sort, Order order, String textKey, long numberKey, long id,
+                       boolean inclusive) {
+        int low = 0;
+        int high = order.size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compare(sort, rows.slotOf(order.ids[middle]), textKey, numberKey, id);
+            if (comparison < 0 || (comparison == 0 && !inclusive)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Sort slots in the order of a SORT_ value, with a bottom-up merge sort that needs no boxing.
+     * Return the sorted slots, which may be a new array.
+     */
+    private int[] sort(String sort, int[] slots) {
+        int[] from = slots;
+        int[] to = new int[slots.length];
+        for (int width = 1; width < from.length; width <<= 1) {
+            for (int low = 0; low < from.length; low += width << 1) {
+                int middle = Math.min(low + width, from.length);
+                int high = Math.min(low + (width << 1), from.length);
+                int i = low;
+                int j = middle;
+                int k = low;
+                while (i < middle && j < high) {
+                    to[k++] = compare(sort, from[j], textKey(sort, from[i]), numberKey(sort, from[i]),
+                            rows.ids[from[i]]) < 0 ? from[j++] : from[i++];
+                }
+                while (i < middle) {
+                    to[k++] = from[i++];
+                }
+                while (j < high) {
+                    to[k++] = from[j++];
+                }
+            }
+            int[] swap = from;
+            from = to;
+            to = swap;
+        }
+        return from;
+    }
+
+    /**
+     * Compare the product in a slot with a sort key and ID, in the order of a SORT_ value:
+     * negative if the product comes first.
+     */
+    private int compare(String sort, int slot, String textKey, long numberKey, long id) {
+        int comparison = isText(sort)
+                ? ProductEntry.compareTextKeys(textKey(sort, slot), textKey)
+                : compareLongs(numberKey(sort, slot), numberKey);
+        if (comparison == 0) {
+            comparison = compareLongs(rows.ids[slot], id);
+        }
+        // The most recent products come first
+        return ProductEntry.SORT_RECENT.equals(sort) ? -comparison : comparison;
+    }
+
+    private String textKey(String sort, int slot) {
+        return ProductEntry.SORT_SUPPLIER.equals(sort) ? rows.supplierNames[slot] : rows.names[slot];
+    }
+
+    private long numberKey(String sort, int slot) {
+        switch (sort) {
+            case ProductEntry.SORT_QUANTITY:
+                return rows.quantities[slot];
+            case ProductEntry.SORT_PRICE:
+                return rows.prices[slot];
+            case ProductEntry.SORT_RECENT:
+                return rows.updatedAts[slot];
+            default:
+                return 0;
+        }
+    }
+
+    /** Return whether the product in a slot matches the filter and supplier of a page */
+    private boolean matches(int slot, String filter, boolean bySupplier, long supplierId) {
+        if (bySupplier && rows.supplierIds[slot] != supplierId) {
+            return false;
+        }
+        if (ProductEntry.FILTER_IN_STOCK.equals(filter)) {
+            return rows.quantities[slot] > 0;
+        }
+        if (ProductEntry.FILTER_LOW_STOCK.equals(filter)) {
+            return rows.quantities[slot] <= SummaryEntry.LOW_STOCK_THRESHOLD;
+        }
+        return true;
+    }
+
+    private static boolean isSort(String sort) {
+        return isText(sort) || ProductEntry.SORT_QUANTITY.equals(sort)
+                || ProductEntry.SORT_PRICE.equals(sort) || ProductEntry.SORT_RECENT.equals(sort);
+    }
+
+    private static boolean isText(String sort) {
+        return ProductEntry.SORT_NAME.equals(sort) || ProductEntry.SORT_SUPPLIER.equals(sort);
+    }
+
+    private static int compareLongs(long a, long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+}
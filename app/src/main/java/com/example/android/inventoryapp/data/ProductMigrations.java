@@ -0,0 +1,660 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+import com.example.android.inventoryapp.data.ProductContract.LocationEntry;
+import com.example.android.inventoryapp.data.ProductContract.MovementEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.ReorderEntry;
+import com.example.android.inventoryapp.data.ProductContract.StockEntry;
+import com.example.android.inventoryapp.data.ProductContract.SummaryEntry;
+import com.example.android.inventoryapp.data.ProductContract.SupplierEntry;
+import com.example.android.inventoryapp.data.ProductContract.SyncEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ordered list of the {@link Migration} steps of the inventory database. To change the schema,
+ * add a new step at the end of {@link #ALL} and bump {@link ProductDbHelper#DATABASE_VERSION}.
+ * Existing steps must never be edited, since databases in the field have already run them.
+ */
+final class ProductMigrations {
+
+    // To prevent someone from accidentally instantiating this class,
+    // give it an empty constructor.
+    private ProductMigrations() {}
+
+    /**
+     * Adds secondary indexes, so lookups by supplier, low-stock queries and the list in
+     * MainActivity no longer scan the whole products table. The list index covers the list
+     * projection (_id is the rowid, which every index carries), and because it starts with the
+     * name it also serves name lookups, so there is no separate index on the name alone.
+     */
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            db.execSQL("CREATE INDEX products_list_idx ON " + ProductEntry.TABLE_NAME + " ("
+                    + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                    + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", "
+                    + ProductEntry.COLUMN_PRODUCT_PRICE + ");");
+            db.execSQL("CREATE INDEX products_supplier_name_idx ON " + ProductEntry.TABLE_NAME + " ("
+                    + ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME + ");");
+            db.execSQL("CREATE INDEX products_quantity_idx ON " + ProductEntry.TABLE_NAME + " ("
+                    + ProductEntry.COLUMN_PRODUCT_QUANTITY + ");");
+        }
+    };
+
+    /**
+     * Reorders the list index as (name, _id, ...) so pages ordered by name and then ID, as read by
+     * the keyset-paged list, come straight off the index without sorting equal names, and adds an
+     * index for paging by price. Paging by quantity uses the quantity index, which ends in the rowid.
+     */
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            db.execSQL("DROP INDEX products_list_idx;");
+            db.execSQL("CREATE INDEX products_list_idx ON " + ProductEntry.TABLE_NAME + " ("
+                    + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                    + ProductEntry._ID + ", "
+                    + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", "
+                    + ProductEntry.COLUMN_PRODUCT_PRICE + ");");
+            db.execSQL("CREATE INDEX products_price_idx ON " + ProductEntry.TABLE_NAME + " ("
+                    + ProductEntry.COLUMN_PRODUCT_PRICE + ");");
+        }
+    };
+
+    /**
+     * Adds products_fts, a full-text index of the name and supplier name of every product whose
+     * docid is the product ID, kept in sync with the products table by triggers. The update
+     * trigger only fires when one of the indexed columns is written, so sales and stock changes
+     * never touch the index. From Jelly Bean on, SQLite also indexes the first 2 and 3 characters
+     * of every word, so the short prefixes typed at the start of a search don't scan every term.
+     */
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            String prefixes = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+                    ? ", prefix=\"2,3\"" : "";
+            db.execSQL("CREATE VIRTUAL TABLE products_fts USING fts4("
+                    + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                    + ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME + prefixes + ");");
+            db.execSQL("INSERT INTO products_fts (docid, "
+                    + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                    + ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME + ") SELECT "
+                    + ProductEntry._ID + ", "
+                    + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                    + ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME + " FROM "
+                    + ProductEntry.TABLE_NAME + ";");
+
+            db.execSQL("CREATE TRIGGER products_fts_insert AFTER INSERT ON "
+                    + ProductEntry.TABLE_NAME + " BEGIN"
+                    + " INSERT INTO products_fts (docid, "
+                    + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                    + ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME + ") VALUES (new."
+                    + ProductEntry._ID + ", new."
+                    + ProductEntry.COLUMN_PRODUCT_NAME + ", new."
+                    + ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME + "); END;");
+            db.execSQL("CREATE TRIGGER products_fts_update AFTER UPDATE OF "
+                    + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                    + ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME + " ON "
+                    + ProductEntry.TABLE_NAME + " BEGIN"
+                    + " UPDATE products_fts SET "
+                    + ProductEntry.COLUMN_PRODUCT_NAME + " = new."
+                    + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                    + ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME + " = new."
+                    + ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME
+                    + " WHERE docid = old." + ProductEntry._ID + "; END;");
+            db.execSQL("CREATE TRIGGER products_fts_delete AFTER DELETE ON "
+                    + ProductEntry.TABLE_NAME + " BEGIN"
+                    + " DELETE FROM products_fts WHERE docid = old." + ProductEntry._ID + "; END;");
+        }
+    };
+
+    /**
+     * Adds the append-only stock_movements ledger. Every product starts with a snapshot movement
+     * of its current quantity, so the quantity column always equals the sum of the deltas of the
+     * product. Movements are read by product in order and compacted by age, hence the indexes.
+     * A trigger drops the movements of deleted products.
+     */
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + MovementEntry.TABLE_NAME + " ("
+                    + MovementEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + MovementEntry.COLUMN_MOVEMENT_PRODUCT_ID + " INTEGER NOT NULL, "
+                    + MovementEntry.COLUMN_MOVEMENT_DELTA + " INTEGER NOT NULL, "
+                    + MovementEntry.COLUMN_MOVEMENT_REASON + " TEXT NOT NULL, "
+                    + MovementEntry.COLUMN_MOVEMENT_TIMESTAMP + " INTEGER NOT NULL);");
+            db.execSQL("CREATE INDEX stock_movements_product_idx ON " + MovementEntry.TABLE_NAME
+                    + " (" + MovementEntry.COLUMN_MOVEMENT_PRODUCT_ID + ", "
+                    + MovementEntry._ID + ");");
+            db.execSQL("CREATE INDEX stock_movements_timestamp_idx ON " + MovementEntry.TABLE_NAME
+                    + " (" + MovementEntry.COLUMN_MOVEMENT_TIMESTAMP + ");");
+
+            db.execSQL("INSERT INTO " + MovementEntry.TABLE_NAME + " ("
+                    + MovementEntry.COLUMN_MOVEMENT_PRODUCT_ID + ", "
+                    + MovementEntry.COLUMN_MOVEMENT_DELTA + ", "
+                    + MovementEntry.COLUMN_MOVEMENT_REASON + ", "
+                    + MovementEntry.COLUMN_MOVEMENT_TIMESTAMP + ") SELECT "
+                    + ProductEntry._ID + ", "
+                    + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", '"
+                    + MovementEntry.REASON_SNAPSHOT + "', "
+                    + System.currentTimeMillis() + " FROM " + ProductEntry.TABLE_NAME
+                    + " WHERE " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " != 0;");
+
+            db.execSQL("CREATE TRIGGER stock_movements_delete AFTER DELETE ON "
+                    + ProductEntry.TABLE_NAME + " BEGIN"
+                    + " DELETE FROM " + MovementEntry.TABLE_NAME + " WHERE "
+                    + MovementEntry.COLUMN_MOVEMENT_PRODUCT_ID + " = old." + ProductEntry._ID
+                    + "; END;");
+        }
+    };
+
+    /**
+     * Adds the single-row product_summary table, filled from the current products and then kept
+     * up to date by triggers that apply the difference each written product makes. The update
+     * trigger only fires when the price or quantity is written.
+     */
+    static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            String quantity = ProductEntry.COLUMN_PRODUCT_QUANTITY;
+            String price = ProductEntry.COLUMN_PRODUCT_PRICE;
+            String productCount = SummaryEntry.COLUMN_SUMMARY_PRODUCT_COUNT;
+            String totalUnits = SummaryEntry.COLUMN_SUMMARY_TOTAL_UNITS;
+            String totalValue = SummaryEntry.COLUMN_SUMMARY_TOTAL_VALUE;
+            String lowStockCount = SummaryEntry.COLUMN_SUMMARY_LOW_STOCK_COUNT;
+            String lowStock = " <= " + SummaryEntry.LOW_STOCK_THRESHOLD + ")";
+
+            db.execSQL("CREATE TABLE " + SummaryEntry.TABLE_NAME + " ("
+                    + SummaryEntry._ID + " INTEGER PRIMARY KEY CHECK (" + SummaryEntry._ID + " = 1), "
+                    + productCount + " INTEGER NOT NULL, "
+                    + totalUnits + " INTEGER NOT NULL, "
+                    + totalValue + " INTEGER NOT NULL, "
+                    + lowStockCount + " INTEGER NOT NULL);");
+            db.execSQL("INSERT INTO " + SummaryEntry.TABLE_NAME + " SELECT 1, COUNT(*), "
+                    + "IFNULL(SUM(" + quantity + "), 0), "
+                    + "IFNULL(SUM(" + price + " * " + quantity + "), 0), "
+                    + "IFNULL(SUM(" + quantity + lowStock + ", 0) FROM " + ProductEntry.TABLE_NAME + ";");
+
+            db.execSQL("CREATE TRIGGER product_summary_insert AFTER INSERT ON "
+                    + ProductEntry.TABLE_NAME + " BEGIN UPDATE " + SummaryEntry.TABLE_NAME + " SET "
+                    + productCount + " = " + productCount + " + 1, "
+                    + totalUnits + " = " + totalUnits + " + new." + quantity + ", "
+                    + totalValue + " = " + totalValue + " + new." + price + " * new." + quantity + ", "
+                    + lowStockCount + " = " + lowStockCount + " + (new." + quantity + lowStock
+                    + "; END;");
+            db.execSQL("CREATE TRIGGER product_summary_update AFTER UPDATE OF "
+                    + price + ", " + quantity + " ON " + ProductEntry.TABLE_NAME
+                    + " BEGIN UPDATE " + SummaryEntry.TABLE_NAME + " SET "
+                    + totalUnits + " = " + totalUnits + " + new." + quantity + " - old." + quantity + ", "
+                    + totalValue + " = " + totalValue + " + new." + price + " * new." + quantity
+                    + " - old." + price + " * old." + quantity + ", "
+                    + lowStockCount + " = " + lowStockCount + " + (new." + quantity + lowStock
+                    + " - (old." + quantity + lowStock + "; END;");
+            db.execSQL("CREATE TRIGGER product_summary_delete AFTER DELETE ON "
+                    + ProductEntry.TABLE_NAME + " BEGIN UPDATE " + SummaryEntry.TABLE_NAME + " SET "
+                    + productCount + " = " + productCount + " - 1, "
+                    + totalUnits + " = " + totalUnits + " - old." + quantity + ", "
+                    + totalValue + " = " + totalValue + " - old." + price + " * old." + quantity + ", "
+                    + lowStockCount + " = " + lowStockCount + " - (old." + quantity + lowStock
+                    + "; END;");
+        }
+    };
+
+    /**
+     * Adds the reorder point and reorder quantity of every product, both 0 so nothing is
+     * reordered until they are set, and the reorder_lines table of the products below their
+     * reorder point. Its triggers only fire when a product crosses its reorder point, so the
+     * sales in between never write to it.
+     */
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            String quantity = ProductEntry.COLUMN_PRODUCT_QUANTITY;
+            String reorderPoint = ProductEntry.COLUMN_PRODUCT_REORDER_POINT;
+            String productId = ReorderEntry.COLUMN_REORDER_PRODUCT_ID;
+
+            db.execSQL("ALTER TABLE " + ProductEntry.TABLE_NAME + " ADD COLUMN "
+                    + reorderPoint + " INTEGER NOT NULL DEFAULT 0;");
+            db.execSQL("ALTER TABLE " + ProductEntry.TABLE_NAME + " ADD COLUMN "
+                    + ProductEntry.COLUMN_PRODUCT_REORDER_QUANTITY + " INTEGER NOT NULL DEFAULT 0;");
+            db.execSQL("CREATE TABLE " + ReorderEntry.TABLE_NAME + " ("
+                    + productId + " INTEGER PRIMARY KEY);");
+
+            db.execSQL("CREATE TRIGGER reorder_lines_insert AFTER INSERT ON "
+                    + ProductEntry.TABLE_NAME + " WHEN new." + quantity + " < new." + reorderPoint
+                    + " BEGIN INSERT INTO " + ReorderEntry.TABLE_NAME + " (" + productId
+                    + ") VALUES (new." + ProductEntry._ID + "); END;");
+            db.execSQL("CREATE TRIGGER reorder_lines_update AFTER UPDATE OF "
+                    + quantity + ", " + reorderPoint + " ON " + ProductEntry.TABLE_NAME
+                    + " WHEN (new." + quantity + " < new." + reorderPoint + ") != (old."
+                    + quantity + " < old." + reorderPoint + ") BEGIN"
+                    + " DELETE FROM " + ReorderEntry.TABLE_NAME + " WHERE " + productId
+                    + " = old." + ProductEntry._ID + ";"
+                    + " INSERT INTO " + ReorderEntry.TABLE_NAME + " (" + productId + ") SELECT new."
+                    + ProductEntry._ID + " WHERE new." + quantity + " < new." + reorderPoint
+                    + "; END;");
+            db.execSQL("CREATE TRIGGER reorder_lines_delete AFTER DELETE ON "
+                    + ProductEntry.TABLE_NAME + " WHEN old." + quantity + " < old." + reorderPoint
+                    + " BEGIN DELETE FROM " + ReorderEntry.TABLE_NAME + " WHERE " + productId
+                    + " = old." + ProductEntry._ID + "; END;");
+        }
+    };
+
+    /**
+     * Moves the suppliers into their own table, one row per distinct supplier name with the phone
+     * number of one of its products, and replaces the supplier columns of the products by a
+     * supplier_id foreign key. SQLite can't drop columns, so the products table is rebuilt, keeping
+     * the product IDs and the AUTOINCREMENT sequence, and the indexes and triggers of the old table
+     * are recreated from their stored SQL. The ones that read the supplier columns are replaced:
+     * the supplier index by an index on (supplier_id, name), and the full-text triggers by ones
+     * reading the supplier name from its table, plus a trigger that follows supplier renames.
+     * Product queries read the products_view join, which still has the supplier name and phone
+     * number columns.
+     */
+    static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            String products = ProductEntry.TABLE_NAME;
+            String id = ProductEntry._ID;
+            String name = ProductEntry.COLUMN_PRODUCT_NAME;
+            String supplierId = ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID;
+            String supplierName = ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME;
+            String supplierPhone = ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER;
+            String suppliers = SupplierEntry.TABLE_NAME;
+
+            db.execSQL("CREATE TABLE " + suppliers + " ("
+                    + SupplierEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + SupplierEntry.COLUMN_SUPPLIER_NAME + " TEXT NOT NULL UNIQUE, "
+                    + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER + " TEXT);");
+            db.execSQL("INSERT INTO " + suppliers + " (" + SupplierEntry.COLUMN_SUPPLIER_NAME + ", "
+                    + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER + ") SELECT " + supplierName
+                    + ", MAX(" + supplierPhone + ") FROM " + products + " GROUP BY " + supplierName + ";");
+
+            // Indexes and triggers to recreate on the new table, all but the ones replaced below
+            List<String> schema = new ArrayList<>();
+            Cursor cursor = db.rawQuery("SELECT sql FROM sqlite_master WHERE tbl_name = ?"
+                    + " AND type IN ('index', 'trigger') AND sql IS NOT NULL AND name NOT IN"
+                    + " ('products_supplier_name_idx', 'products_fts_insert', 'products_fts_update')",
+                    new String[] { products });
+            try {
+                while (cursor.moveToNext()) {
+                    schema.add(cursor.getString(0));
+                }
+            } finally {
+                cursor.close();
+            }
+            long sequence = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(seq), 0)"
+                    + " FROM sqlite_sequence WHERE name = ?", new String[] { products });
+
+            db.execSQL("CREATE TABLE products_new ("
+                    + id + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + name + " TEXT NOT NULL, "
+                    + ProductEntry.COLUMN_PRODUCT_PRICE + " INTEGER NOT NULL, "
+                    + ProductEntry.COLUMN_PRODUCT_QUANTITY + " INTEGER NOT NULL DEFAULT 0, "
+                    + supplierId + " INTEGER NOT NULL REFERENCES " + suppliers + " ("
+                    + SupplierEntry._ID + "), "
+                    + ProductEntry.COLUMN_PRODUCT_REORDER_POINT + " INTEGER NOT NULL DEFAULT 0, "
+                    + ProductEntry.COLUMN_PRODUCT_REORDER_QUANTITY + " INTEGER NOT NULL DEFAULT 0);");
+            String copied = id + ", " + name + ", " + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+                    + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", "
+                    + ProductEntry.COLUMN_PRODUCT_REORDER_POINT + ", "
+                    + ProductEntry.COLUMN_PRODUCT_REORDER_QUANTITY;
+            db.execSQL("INSERT INTO products_new (" + copied + ", " + supplierId + ") SELECT p."
+                    + copied.replace(", ", ", p.") + ", s." + SupplierEntry._ID + " FROM "
+                    + products + " p JOIN " + suppliers + " s ON s." + SupplierEntry.COLUMN_SUPPLIER_NAME
+                    + " = p." + supplierName + ";");
+            db.execSQL("DROP TABLE " + products + ";");
+            db.execSQL("ALTER TABLE products_new RENAME TO " + products + ";");
+
+            // IDs of deleted products are never handed out again, as before
+            if (sequence > 0) {
+                db.execSQL("DELETE FROM sqlite_sequence WHERE name = '" + products + "';");
+                db.execSQL("INSERT INTO sqlite_sequence (name, seq) VALUES ('" + products + "', "
+                        + sequence + ");");
+            }
+
+            for (String sql : schema) {
+                db.execSQL(sql);
+            }
+            db.execSQL("CREATE INDEX products_supplier_idx ON " + products + " ("
+                    + supplierId + ", " + name + ");");
+
+            String supplierOf = "(SELECT " + SupplierEntry.COLUMN_SUPPLIER_NAME + " FROM "
+                    + suppliers + " WHERE " + SupplierEntry._ID + " = new." + supplierId + ")";
+            db.execSQL("CREATE TRIGGER products_fts_insert AFTER INSERT ON " + products + " BEGIN"
+                    + " INSERT INTO products_fts (docid, " + name + ", " + supplierName
+                    + ") VALUES (new." + id + ", new." + name + ", " + supplierOf + "); END;");
+            db.execSQL("CREATE TRIGGER products_fts_update AFTER UPDATE OF " + name + ", "
+                    + supplierId + " ON " + products + " BEGIN"
+                    + " UPDATE products_fts SET " + name + " = new." + name + ", "
+                    + supplierName + " = " + supplierOf + " WHERE docid = old." + id + "; END;");
+            db.execSQL("CREATE TRIGGER products_fts_supplier_update AFTER UPDATE OF "
+                    + SupplierEntry.COLUMN_SUPPLIER_NAME + " ON " + suppliers + " BEGIN"
+                    + " UPDATE products_fts SET " + supplierName + " = new."
+                    + SupplierEntry.COLUMN_SUPPLIER_NAME + " WHERE docid IN (SELECT " + id
+                    + " FROM " + products + " WHERE " + supplierId + " = new." + SupplierEntry._ID
+                    + "); END;");
+
+            // A LEFT JOIN keeps the products as the outer loop, so queries on the view use the
+            // indexes of the products table and look each supplier up by its primary key
+            db.execSQL("CREATE VIEW " + ProductEntry.VIEW_NAME + " AS SELECT p." + id + " AS " + id
+                    + ", p." + name + " AS " + name
+                    + ", p." + ProductEntry.COLUMN_PRODUCT_PRICE + " AS " + ProductEntry.COLUMN_PRODUCT_PRICE
+                    + ", p." + ProductEntry.COLUMN_PRODUCT_QUANTITY + " AS " + ProductEntry.COLUMN_PRODUCT_QUANTITY
+                    + ", p." + supplierId + " AS " + supplierId
+                    + ", s." + SupplierEntry.COLUMN_SUPPLIER_NAME + " AS " + supplierName
+                    + ", s." + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER + " AS " + supplierPhone
+                    + ", p." + ProductEntry.COLUMN_PRODUCT_REORDER_POINT + " AS "
+                    + ProductEntry.COLUMN_PRODUCT_REORDER_POINT
+                    + ", p." + ProductEntry.COLUMN_PRODUCT_REORDER_QUANTITY + " AS "
+                    + ProductEntry.COLUMN_PRODUCT_REORDER_QUANTITY
+                    + " FROM " + products + " p LEFT JOIN " + suppliers + " s ON s."
+                    + SupplierEntry._ID + " = p." + supplierId + ";");
+        }
+    };
+
+    /**
+     * Adds the time of the last change of every product, and the indexes the sort modes and
+     * filters of the list read their pages from: one on the change time for the most recent
+     * first order, read backwards, and one on the supplier ID alone, whose entries end in the
+     * rowid, so the products of each supplier come in ID order when the list is sorted by
+     * supplier. The other sorts and the stock filters use the existing name, quantity and price
+     * indexes, and the supplier filter the (supplier_id, name) one. The view is created again
+     * with the new column.
+     */
+    static final Migration MIGRATION_8_9 = new Migration(8, 9) {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            String products = ProductEntry.TABLE_NAME;
+            String updatedAt = ProductEntry.COLUMN_PRODUCT_UPDATED_AT;
+
+            db.execSQL("ALTER TABLE " + products + " ADD COLUMN " + updatedAt
+                    + " INTEGER NOT NULL DEFAULT 0;");
+            db.execSQL("CREATE INDEX products_updated_idx ON " + products + " (" + updatedAt + ");");
+            db.execSQL("CREATE INDEX products_supplier_id_idx ON " + products + " ("
+                    + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + ");");
+
+            String[] productColumns = {
+                    ProductEntry._ID,
+                    ProductEntry.COLUMN_PRODUCT_NAME,
+                    ProductEntry.COLUMN_PRODUCT_PRICE,
+                    ProductEntry.COLUMN_PRODUCT_QUANTITY,
+                    ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID,
+                    ProductEntry.COLUMN_PRODUCT_REORDER_POINT,
+                    ProductEntry.COLUMN_PRODUCT_REORDER_QUANTITY,
+                    updatedAt};
+            StringBuilder view = new StringBuilder("CREATE VIEW ").append(ProductEntry.VIEW_NAME)
+                    .append(" AS SELECT ");
+            for (String column : productColumns) {
+                view.append("p.").append(column).append(" AS ").append(column).append(", ");
+            }
+            view.append("s.").append(SupplierEntry.COLUMN_SUPPLIER_NAME).append(" AS ")
+                    .append(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME)
+                    .append(", s.").append(SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER).append(" AS ")
+                    .append(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER)
+                    .append(" FROM ").append(products).append(" p LEFT JOIN ")
+                    .append(SupplierEntry.TABLE_NAME).append(" s ON s.").append(SupplierEntry._ID)
+                    .append(" = p.").append(ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID).append(';');
+            db.execSQL("DROP VIEW " + ProductEntry.VIEW_NAME + ";");
+            db.execSQL(view.toString());
+        }
+    };
+
+    /**
+     * Adds the SKU of the products with a unique index, which serves lookups by a scanned barcode
+     * and keeps two products from sharing a SKU. SQLite treats nulls as distinct, so products
+     * without a SKU don't collide. The view is rebuilt to carry the new column.
+     */
+    static final Migration MIGRATION_9_10 = new Migration(9, 10) {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            String products = ProductEntry.TABLE_NAME;
+            String sku = ProductEntry.COLUMN_PRODUCT_SKU;
+
+            db.execSQL("ALTER TABLE " + products + " ADD COLUMN " + sku + " TEXT;");
+            db.execSQL("CREATE UNIQUE INDEX products_sku_idx ON " + products + " (" + sku + ");");
+
+            String[] productColumns = {
+                    ProductEntry._ID,
+                    ProductEntry.COLUMN_PRODUCT_NAME,
+                    ProductEntry.COLUMN_PRODUCT_PRICE,
+                    ProductEntry.COLUMN_PRODUCT_QUANTITY,
+                    ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID,
+                    ProductEntry.COLUMN_PRODUCT_REORDER_POINT,
+                    ProductEntry.COLUMN_PRODUCT_REORDER_QUANTITY,
+                    ProductEntry.COLUMN_PRODUCT_UPDATED_AT,
+                    sku};
+            StringBuilder view = new StringBuilder("CREATE VIEW ").append(ProductEntry.VIEW_NAME)
+                    .append(" AS SELECT ");
+            for (String column : productColumns) {
+                view.append("p.").append(column).append(" AS ").append(column).append(", ");
+            }
+            view.append("s.").append(SupplierEntry.COLUMN_SUPPLIER_NAME).append(" AS ")
+                    .append(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME)
+                    .append(", s.").append(SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER).append(" AS ")
+                    .append(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER)
+                    .append(" FROM ").append(products).append(" p LEFT JOIN ")
+                    .append(SupplierEntry.TABLE_NAME).append(" s ON s.").append(SupplierEntry._ID)
+                    .append(" = p.").append(ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID).append(';');
+            db.execSQL("DROP VIEW " + ProductEntry.VIEW_NAME + ";");
+            db.execSQL(view.toString());
+        }
+    };
+
+    /**
+     * Adds the stock locations, starting with the shop floor, and the stock of every product at
+     * every location. All current stock is put on the shop floor. The quantity of the products
+     * becomes the total over the locations, kept up to date by triggers on the stock, so the
+     * list and the sales still read a single column. Stock rows only change the total when their
+     * quantity changes: a new product gets its shop floor row with its initial quantity, which
+     * the total already holds, and rows at other locations are created empty and then filled.
+     * Rows are read by product through the primary key and by location through the index.
+     */
+    static final Migration MIGRATION_10_11 = new Migration(10, 11) {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            String products = ProductEntry.TABLE_NAME;
+            String quantity = ProductEntry.COLUMN_PRODUCT_QUANTITY;
+            String stock = StockEntry.TABLE_NAME;
+            String productId = StockEntry.COLUMN_STOCK_PRODUCT_ID;
+            String locationId = StockEntry.COLUMN_STOCK_LOCATION_ID;
+            String stockQuantity = StockEntry.COLUMN_STOCK_QUANTITY;
+
+            db.execSQL("CREATE TABLE " + LocationEntry.TABLE_NAME + " ("
+                    + LocationEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + LocationEntry.COLUMN_LOCATION_NAME + " TEXT NOT NULL UNIQUE);");
+            db.execSQL("INSERT INTO " + LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + ", "
+                    + LocationEntry.COLUMN_LOCATION_NAME + ") VALUES ("
+                    + LocationEntry.SALES_LOCATION_ID + ", 'Shop floor');");
+
+            db.execSQL("CREATE TABLE " + stock + " ("
+                    + productId + " INTEGER NOT NULL, "
+                    + locationId + " INTEGER NOT NULL REFERENCES " + LocationEntry.TABLE_NAME
+                    + " (" + LocationEntry._ID + "), "
+                    + stockQuantity + " INTEGER NOT NULL DEFAULT 0, "
+                    + "PRIMARY KEY (" + productId + ", " + locationId + "));");
+            db.execSQL("CREATE INDEX stock_location_idx ON " + stock + " (" + locationId + ");");
+            db.execSQL("INSERT INTO " + stock + " (" + productId + ", " + locationId + ", "
+                    + stockQuantity + ") SELECT " + ProductEntry._ID + ", "
+                    + LocationEntry.SALES_LOCATION_ID + ", " + quantity + " FROM " + products + ";");
+
+            db.execSQL("CREATE TRIGGER stock_product_insert AFTER INSERT ON " + products + " BEGIN"
+                    + " INSERT INTO " + stock + " (" + productId + ", " + locationId + ", "
+                    + stockQuantity + ") VALUES (new." + ProductEntry._ID + ", "
+                    + LocationEntry.SALES_LOCATION_ID + ", new." + quantity + "); END;");
+            db.execSQL("CREATE TRIGGER stock_product_delete AFTER DELETE ON " + products + " BEGIN"
+                    + " DELETE FROM " + stock + " WHERE " + productId + " = old."
+                    + ProductEntry._ID + "; END;");
+            db.execSQL("CREATE TRIGGER stock_total_update AFTER UPDATE OF " + stockQuantity
+                    + " ON " + stock + " WHEN new." + stockQuantity + " != old." + stockQuantity
+                    + " BEGIN UPDATE " + products + " SET " + quantity + " = " + quantity
+                    + " + new." + stockQuantity + " - old." + stockQuantity + " WHERE "
+                    + ProductEntry._ID + " = new." + productId + "; END;");
+            db.execSQL("CREATE TRIGGER stock_total_delete AFTER DELETE ON " + stock
+                    + " WHEN old." + stockQuantity + " != 0 BEGIN UPDATE " + products + " SET "
+                    + quantity + " = " + quantity + " - old." + stockQuantity + " WHERE "
+                    + ProductEntry._ID + " = old." + productId + "; END;");
+        }
+    };
+
+    /**
+     * Adds what the sync of the catalog between devices needs: a sync ID shared by all devices,
+     * and a version taken from a single sequence in the sync state on every change of a column
+     * that is synced, including the name and phone number of the supplier. The versions order
+     * all changes, so the ones not sent yet are read from the version index past the last one
+     * sent. Deleted products leave a tombstone with the version of the delete. Writes that set
+     * the version themselves, as applying changes received does, are not counted as changes.
+     * Existing products get their ID as version, so they are all sent on the first sync.
+     */
+    static final Migration MIGRATION_11_12 = new Migration(11, 12) {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            String products = ProductEntry.TABLE_NAME;
+            String syncId = ProductEntry.COLUMN_PRODUCT_SYNC_ID;
+            String version = ProductEntry.COLUMN_PRODUCT_VERSION;
+            String state = SyncEntry.STATE_TABLE_NAME;
+            String changeSeq = SyncEntry.COLUMN_CHANGE_SEQ;
+            String tombstones = SyncEntry.TOMBSTONES_TABLE_NAME;
+            String randomId = "lower(hex(randomblob(16)))";
+            String nextVersion = " UPDATE " + state + " SET " + changeSeq + " = " + changeSeq
+                    + " + 1;";
+            String lastVersion = "(SELECT " + changeSeq + " FROM " + state + ")";
+
+            db.execSQL("ALTER TABLE " + products + " ADD COLUMN " + syncId + " TEXT;");
+            db.execSQL("ALTER TABLE " + products + " ADD COLUMN " + version
+                    + " INTEGER NOT NULL DEFAULT 0;");
+            db.execSQL("ALTER TABLE " + products + " ADD COLUMN "
+                    + ProductEntry.COLUMN_PRODUCT_SYNCED_VERSION + " INTEGER NOT NULL DEFAULT 0;");
+            db.execSQL("UPDATE " + products + " SET " + syncId + " = " + randomId + ", " + version
+                    + " = " + ProductEntry._ID + ";");
+            db.execSQL("CREATE UNIQUE INDEX products_sync_id_idx ON " + products + " (" + syncId
+                    + ");");
+            db.execSQL("CREATE INDEX products_version_idx ON " + products + " (" + version + ");");
+
+            db.execSQL("CREATE TABLE " + tombstones + " ("
+                    + SyncEntry.COLUMN_SYNC_ID + " TEXT PRIMARY KEY, "
+                    + SyncEntry.COLUMN_VERSION + " INTEGER NOT NULL);");
+            db.execSQL("CREATE INDEX product_tombstones_version_idx ON " + tombstones + " ("
+                    + SyncEntry.COLUMN_VERSION + ");");
+
+            db.execSQL("CREATE TABLE " + state + " ("
+                    + changeSeq + " INTEGER NOT NULL, "
+                    + SyncEntry.COLUMN_PUSH_SEQ + " INTEGER NOT NULL DEFAULT 0, "
+                    + SyncEntry.COLUMN_PULL_CURSOR + " INTEGER NOT NULL DEFAULT 0, "
+                    + SyncEntry.COLUMN_DEVICE_ID + " TEXT NOT NULL);");
+            db.execSQL("INSERT INTO " + state + " (" + changeSeq + ", " + SyncEntry.COLUMN_DEVICE_ID
+                    + ") SELECT ifnull(MAX(" + version + "), 0), " + randomId + " FROM "
+                    + products + ";");
+
+            db.execSQL("CREATE TRIGGER products_version_insert AFTER INSERT ON " + products
+                    + " WHEN new." + version + " = 0 BEGIN" + nextVersion
+                    + " UPDATE " + products + " SET " + version + " = " + lastVersion + ", "
+                    + syncId + " = ifnull(new." + syncId + ", " + randomId + ") WHERE "
+                    + ProductEntry._ID + " = new." + ProductEntry._ID + "; END;");
+            db.execSQL("CREATE TRIGGER products_version_update AFTER UPDATE OF "
+                    + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                    + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+                    + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", "
+                    + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + ", "
+                    + ProductEntry.COLUMN_PRODUCT_REORDER_POINT + ", "
+                    + ProductEntry.COLUMN_PRODUCT_REORDER_QUANTITY + ", "
+                    + ProductEntry.COLUMN_PRODUCT_SKU + " ON " + products
+                    + " WHEN new." + version + " = old." + version + " BEGIN" + nextVersion
+                    + " UPDATE " + products + " SET " + version + " = " + lastVersion + " WHERE "
+                    + ProductEntry._ID + " = new." + ProductEntry._ID + "; END;");
+            // Touching the supplier ID of every product of a changed supplier gives each its own
+            // version through the trigger above
+            db.execSQL("CREATE TRIGGER products_version_supplier AFTER UPDATE OF "
+                    + SupplierEntry.COLUMN_SUPPLIER_NAME + ", "
+                    + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER + " ON " + SupplierEntry.TABLE_NAME
+                    + " WHEN new." + SupplierEntry.COLUMN_SUPPLIER_NAME + " IS NOT old."
+                    + SupplierEntry.COLUMN_SUPPLIER_NAME + " OR new."
+                    + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER + " IS NOT old."
+                    + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER + " BEGIN UPDATE " + products
+                    + " SET " + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + " = "
+                    + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + " WHERE "
+                    + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + " = new." + SupplierEntry._ID
+                    + "; END;");
+            db.execSQL("CREATE TRIGGER products_tombstone AFTER DELETE ON " + products
+                    + " BEGIN" + nextVersion + " INSERT OR REPLACE INTO " + tombstones + " ("
+                    + SyncEntry.COLUMN_SYNC_ID + ", " + SyncEntry.COLUMN_VERSION + ") VALUES (old."
+                    + syncId + ", " + lastVersion + "); END;");
+        }
+    };
+
+    /**
+     * Adds the version of the products to the view, so a writer reads it together with the
+     * product and can make its update conditional on it.
+     */
+    static final Migration MIGRATION_12_13 = new Migration(12, 13) {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            String[] productColumns = {
+                    ProductEntry._ID,
+                    ProductEntry.COLUMN_PRODUCT_NAME,
+                    ProductEntry.COLUMN_PRODUCT_PRICE,
+                    ProductEntry.COLUMN_PRODUCT_QUANTITY,
+                    ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID,
+                    ProductEntry.COLUMN_PRODUCT_REORDER_POINT,
+                    ProductEntry.COLUMN_PRODUCT_REORDER_QUANTITY,
+                    ProductEntry.COLUMN_PRODUCT_UPDATED_AT,
+                    ProductEntry.COLUMN_PRODUCT_SKU,
+                    ProductEntry.COLUMN_PRODUCT_VERSION};
+            StringBuilder view = new StringBuilder("CREATE VIEW ").append(ProductEntry.VIEW_NAME)
+                    .append(" AS SELECT ");
+            for (String column : productColumns) {
+                view.append("p.").append(column).append(" AS ").append(column).append(", ");
+            }
+            view.append("s.").append(SupplierEntry.COLUMN_SUPPLIER_NAME).append(" AS ")
+                    .append(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME)
+                    .append(", s.").append(SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER).append(" AS ")
+                    .append(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER)
+                    .append(" FROM ").append(ProductEntry.TABLE_NAME).append(" p LEFT JOIN ")
+                    .append(SupplierEntry.TABLE_NAME).append(" s ON s.").append(SupplierEntry._ID)
+                    .append(" = p.").append(ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID).append(';');
+            db.execSQL("DROP VIEW " + ProductEntry.VIEW_NAME + ";");
+            db.execSQL(view.toString());
+        }
+    };
+
+    /**
+     * Adds the quantity received from the other devices, so sync sends the stock this device
+     * added and sold rather than the whole quantity. Products already synced take their quantity
+     * as received, since the server already has it; products never synced count as this
+     * device's own stock.
+     */
+    static final Migration MIGRATION_13_14 = new Migration(13, 14) {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            db.execSQL("ALTER TABLE " + ProductEntry.TABLE_NAME + " ADD COLUMN "
+                    + ProductEntry.COLUMN_PRODUCT_RECEIVED_QUANTITY + " INTEGER NOT NULL DEFAULT 0;");
+            db.execSQL("UPDATE " + ProductEntry.TABLE_NAME + " SET "
+                    + ProductEntry.COLUMN_PRODUCT_RECEIVED_QUANTITY + " = "
+                    + ProductEntry.COLUMN_PRODUCT_QUANTITY + " WHERE "
+                    + ProductEntry.COLUMN_PRODUCT_SYNCED_VERSION + " != 0;");
+        }
+    };
+
+    /** All migrations, in the order they have to run */
+    static final Migration[] ALL = {
+            MIGRATION_1_2,
+            MIGRATION_2_3,
+            MIGRATION_3_4,
+            MIGRATION_4_5,
+            MIGRATION_5_6,
+            MIGRATION_6_7,
+            MIGRATION_7_8,
+            MIGRATION_8_9,
+            MIGRATION_9_10,
+            MIGRATION_10_11,
+            MIGRATION_11_12,
+            MIGRATION_12_13,
+            MIGRATION_13_14
+    };
+}
@@ -1,15 +1,52 @@
 package com.example.android.inventoryapp.data;
 
+import android.annotation.TargetApi;
 import android.content.ContentProvider;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+import android.provider.OpenableColumns;
+import android.os.SystemClock;
+import android.text.TextUtils;
 import android.util.Log;
+import android.util.SparseArray;
 
+import com.example.android.inventoryapp.StartupTrace;
+import com.example.android.inventoryapp.data.ProductContract.LocationEntry;
+import com.example.android.inventoryapp.data.ProductContract.MovementEntry;
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.ReorderEntry;
+import com.example.android.inventoryapp.data.ProductContract.StockEntry;
+import com.example.android.inventoryapp.data.ProductContract.SummaryEntry;
+import com.example.android.inventoryapp.data.ProductContract.SupplierEntry;
+import com.example.android.inventoryapp.data.ProductContract.SyncEntry;
+
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 public class ProductProvider extends ContentProvider {
 
@@ -22,6 +59,48 @@ public class ProductProvider extends ContentProvider {
     /** URI matcher code for the content URI for a single product in the products table */
     private static final int PRODUCT_ID = 101;
 
+    /** URI matcher code for the content URI for a full-text search of the products */
+    private static final int PRODUCT_SEARCH = 102;
+
+    /** URI matcher code for the content URI for the CSV export of the products */
+    private static final int PRODUCT_EXPORT = 103;
+
+    /** URI matcher code for the content URI for the inventory summary */
+    private static final int PRODUCT_SUMMARY = 104;
+
+    /** URI matcher code for the content URI for the products to reorder */
+    private static final int PRODUCT_REORDER = 105;
+
+    /** URI matcher code for the content URI for a single product looked up by SKU */
+    private static final int PRODUCT_SKU = 106;
+
+    /** URI matcher code for the content URI for the stock movements table */
+    private static final int MOVEMENTS = 200;
+
+    /** URI matcher code for the content URI for the suppliers table */
+    private static final int SUPPLIERS = 300;
+
+    /** URI matcher code for the content URI for a single supplier in the suppliers table */
+    private static final int SUPPLIER_ID = 301;
+
+    /** URI matcher code for the content URI for the products of a single supplier */
+    private static final int SUPPLIER_PRODUCTS = 302;
+
+    /** URI matcher code for the content URI for the locations table */
+    private static final int LOCATIONS = 400;
+
+    /** URI matcher code for the content URI for a single location */
+    private static final int LOCATION_ID = 401;
+
+    /** URI matcher code for the content URI for the stock at every location */
+    private static final int STOCK = 500;
+
+    /** URI matcher code for the content URI for the stock of a single product */
+    private static final int STOCK_PRODUCT = 501;
+
+    /** URI matcher code for the local changes not sent to the sync server yet */
+    private static final int SYNC_CHANGES = 600;
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -48,20 +127,529 @@ public class ProductProvider extends ContentProvider {
         // For example, "content://com.example.android.inventoryapp/products/3" matches, but
         // "content://com.example.android.inventoryapp/products" (without a number at the end) doesn't match.
         sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_PRODUCTS + "/#", PRODUCT_ID);
+
+        // The content URI of the form "content://com.example.android.inventoryapp/products/search"
+        // will map to the integer code {@link #PRODUCT_SEARCH}. This URI is used to search the
+        // products by name and supplier name, with the search text in a query parameter.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_SEARCH, PRODUCT_SEARCH);
+
+        // The content URI of the form "content://com.example.android.inventoryapp/products/export"
+        // will map to the integer code {@link #PRODUCT_EXPORT}. This URI is opened as a file to
+        // read the whole catalog as CSV.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_EXPORT, PRODUCT_EXPORT);
+
+        // The content URI of the form "content://com.example.android.inventoryapp/products/summary"
+        // will map to the integer code {@link #PRODUCT_SUMMARY}. This URI is used to read the
+        // figures over all products.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_SUMMARY, PRODUCT_SUMMARY);
+
+        // The content URI of the form "content://com.example.android.inventoryapp/products/reorder"
+        // will map to the integer code {@link #PRODUCT_REORDER}. This URI is used to read the
+        // products below their reorder point, grouped by supplier.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_REORDER, PRODUCT_REORDER);
+
+        // The content URI of the form "content://com.example.android.inventoryapp/products/sku/*"
+        // will map to the integer code {@link #PRODUCT_SKU}. This URI is used to read the
+        // product with a SKU, such as a scanned barcode, through the unique SKU index.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_SKU + "/*", PRODUCT_SKU);
+
+        // The content URI of the form "content://com.example.android.inventoryapp/movements"
+        // will map to the integer code {@link #MOVEMENTS}. This URI is used to read the stock
+        // history of the products.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_MOVEMENTS, MOVEMENTS);
+
+        // The content URIs of the form "content://com.example.android.inventoryapp/suppliers",
+        // "content://com.example.android.inventoryapp/suppliers/#" and
+        // "content://com.example.android.inventoryapp/suppliers/#/products" will map to the
+        // integer codes {@link #SUPPLIERS}, {@link #SUPPLIER_ID} and {@link #SUPPLIER_PRODUCTS}.
+        // They are used to access all suppliers, a single one, and the products of a single one.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_SUPPLIERS, SUPPLIERS);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_SUPPLIERS + "/#",
+                SUPPLIER_ID);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_SUPPLIERS + "/#/"
+                + ProductContract.PATH_PRODUCTS, SUPPLIER_PRODUCTS);
+
+        // The content URIs of the form "content://com.example.android.inventoryapp/locations"
+        // and "content://com.example.android.inventoryapp/locations/#" will map to the integer
+        // codes {@link #LOCATIONS} and {@link #LOCATION_ID}. They are used to access all stock
+        // locations and a single one.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_LOCATIONS, LOCATIONS);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_LOCATIONS + "/#",
+                LOCATION_ID);
+
+        // The content URIs of the form "content://com.example.android.inventoryapp/stock" and
+        // "content://com.example.android.inventoryapp/stock/#" will map to the integer codes
+        // {@link #STOCK} and {@link #STOCK_PRODUCT}. They are used to read the stock of all
+        // products at every location, and the stock of a single product.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_STOCK, STOCK);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_STOCK + "/#",
+                STOCK_PRODUCT);
+
+        // The content URI of the form "content://com.example.android.inventoryapp/sync/changes"
+        // will map to the integer code {@link #SYNC_CHANGES}. This URI is used to read the
+        // changes to send to the sync server, a batch at a time.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_SYNC + "/" + ProductContract.PATH_CHANGES, SYNC_CHANGES);
+    }
+
+    /** Names of the URI matcher codes, as the metrics show them */
+    private static final SparseArray<String> ROUTE_NAMES = new SparseArray<>();
+
+    static {
+        ROUTE_NAMES.put(PRODUCTS, "products");
+        ROUTE_NAMES.put(PRODUCT_ID, "product_id");
+        ROUTE_NAMES.put(PRODUCT_SEARCH, "product_search");
+        ROUTE_NAMES.put(PRODUCT_EXPORT, "product_export");
+        ROUTE_NAMES.put(PRODUCT_SUMMARY, "product_summary");
+        ROUTE_NAMES.put(PRODUCT_REORDER, "product_reorder");
+        ROUTE_NAMES.put(PRODUCT_SKU, "product_sku");
+        ROUTE_NAMES.put(MOVEMENTS, "movements");
+        ROUTE_NAMES.put(SUPPLIERS, "suppliers");
+        ROUTE_NAMES.put(SUPPLIER_ID, "supplier_id");
+        ROUTE_NAMES.put(SUPPLIER_PRODUCTS, "supplier_products");
+        ROUTE_NAMES.put(LOCATIONS, "locations");
+        ROUTE_NAMES.put(LOCATION_ID, "location_id");
+        ROUTE_NAMES.put(STOCK, "stock");
+        ROUTE_NAMES.put(STOCK_PRODUCT, "stock_product");
+        ROUTE_NAMES.put(SYNC_CHANGES, "sync_changes");
+        ROUTE_NAMES.put(UriMatcher.NO_MATCH, "unknown");
+    }
+
+    /** Operations and write transactions, as the metrics name them */
+    private static final String OPERATION_QUERY = "query";
+    private static final String OPERATION_INSERT = "insert";
+    private static final String OPERATION_BULK_INSERT = "bulk_insert";
+    private static final String OPERATION_UPDATE = "update";
+    private static final String OPERATION_DELETE = "delete";
+    private static final String OPERATION_CALL = "call";
+    private static final String TRANSACTION_SELL = "sell";
+    private static final String TRANSACTION_SELL_SKU = "sell_sku";
+    private static final String TRANSACTION_TRANSFER = "transfer";
+    private static final String TRANSACTION_DELETE_LOCATIONS = "delete_locations";
+    private static final String TRANSACTION_SYNC_ACK = "sync_ack";
+    private static final String TRANSACTION_SYNC_APPLY = "sync_apply";
+
+    /**
+     * Sells units of a product from its stock at the sales location in a single statement. The
+     * WHERE clause only matches while there is enough stock there, so concurrent sales can never
+     * take the quantity below zero. A trigger takes the units off the total of the product.
+     */
+    private static final String SQL_SELL = "UPDATE " + StockEntry.TABLE_NAME
+            + " SET " + StockEntry.COLUMN_STOCK_QUANTITY + " = "
+            + StockEntry.COLUMN_STOCK_QUANTITY + " - ?"
+            + " WHERE " + StockEntry.COLUMN_STOCK_PRODUCT_ID + " = ? AND "
+            + StockEntry.COLUMN_STOCK_LOCATION_ID + " = " + LocationEntry.SALES_LOCATION_ID
+            + " AND " + StockEntry.COLUMN_STOCK_QUANTITY + " >= ?";
+
+    /** Records the time of a sale on the product inside the sale transaction. */
+    private static final String SQL_TOUCH = "UPDATE " + ProductEntry.TABLE_NAME
+            + " SET " + ProductEntry.COLUMN_PRODUCT_UPDATED_AT + " = ?"
+            + " WHERE " + ProductEntry._ID + " = ?";
+
+    /**
+     * Takes units of a product off a location, as long as it holds enough of them. Shared by the
+     * transfers with {@link #SQL_TRANSFER_IN}; the triggers keep the total of the product.
+     */
+    private static final String SQL_TRANSFER_OUT = "UPDATE " + StockEntry.TABLE_NAME
+            + " SET " + StockEntry.COLUMN_STOCK_QUANTITY + " = "
+            + StockEntry.COLUMN_STOCK_QUANTITY + " - ?"
+            + " WHERE " + StockEntry.COLUMN_STOCK_PRODUCT_ID + " = ? AND "
+            + StockEntry.COLUMN_STOCK_LOCATION_ID + " = ? AND "
+            + StockEntry.COLUMN_STOCK_QUANTITY + " >= ?";
+
+    /** Creates the empty stock row of a product at a location, if it has none yet. */
+    private static final String SQL_STOCK_ROW = "INSERT OR IGNORE INTO " + StockEntry.TABLE_NAME
+            + " (" + StockEntry.COLUMN_STOCK_PRODUCT_ID + ", " + StockEntry.COLUMN_STOCK_LOCATION_ID
+            + ") VALUES (?, ?)";
+
+    /** Adds units of a product to a location. */
+    private static final String SQL_TRANSFER_IN = "UPDATE " + StockEntry.TABLE_NAME
+            + " SET " + StockEntry.COLUMN_STOCK_QUANTITY + " = "
+            + StockEntry.COLUMN_STOCK_QUANTITY + " + ?"
+            + " WHERE " + StockEntry.COLUMN_STOCK_PRODUCT_ID + " = ? AND "
+            + StockEntry.COLUMN_STOCK_LOCATION_ID + " = ?";
+
+    /** Reads back the quantity of a single product inside the sale transaction. */
+    private static final String SQL_QUANTITY = "SELECT " + ProductEntry.COLUMN_PRODUCT_QUANTITY
+            + " FROM " + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + " = ?";
+
+    /** Finds the product with a SKU through the unique SKU index, inside the sale transaction. */
+    private static final String SQL_FIND_SKU = "SELECT " + ProductEntry._ID + ", "
+            + ProductEntry.COLUMN_PRODUCT_NAME + " FROM " + ProductEntry.TABLE_NAME
+            + " WHERE " + ProductEntry.COLUMN_PRODUCT_SKU + " = ?";
+
+    /** Reads the version of a product inside the transaction of a versioned update. */
+    private static final String SQL_VERSION = "SELECT " + ProductEntry.COLUMN_PRODUCT_VERSION
+            + " FROM " + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + " = ?";
+
+    /** Counts the products with a SKU through the unique SKU index, inside the bulk insert transaction. */
+    private static final String SQL_COUNT_SKU = "SELECT COUNT(*) FROM " + ProductEntry.TABLE_NAME
+            + " WHERE " + ProductEntry.COLUMN_PRODUCT_SKU + " = ?";
+
+    /** Finds the local row of a product received from the sync server, by its sync ID. */
+    private static final String SQL_FIND_SYNC_ID = "SELECT " + ProductEntry._ID + ", "
+            + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", " + ProductEntry.COLUMN_PRODUCT_VERSION
+            + ", " + ProductEntry.COLUMN_PRODUCT_SYNCED_VERSION + ", "
+            + ProductEntry.COLUMN_PRODUCT_RECEIVED_QUANTITY + " FROM " + ProductEntry.TABLE_NAME
+            + " WHERE " + ProductEntry.COLUMN_PRODUCT_SYNC_ID + " = ?";
+
+    /** Finds the tombstone of a product deleted here and not sent yet. */
+    private static final String SQL_FIND_TOMBSTONE = "SELECT COUNT(*) FROM "
+            + SyncEntry.TOMBSTONES_TABLE_NAME + " WHERE " + SyncEntry.COLUMN_SYNC_ID + " = ?";
+
+    /** Hands out a version for a product written by sync, read back with {@link #SQL_LAST_VERSION}. */
+    private static final String SQL_NEXT_VERSION = "UPDATE " + SyncEntry.STATE_TABLE_NAME
+            + " SET " + SyncEntry.COLUMN_CHANGE_SEQ + " = " + SyncEntry.COLUMN_CHANGE_SEQ + " + 1";
+
+    private static final String SQL_LAST_VERSION = "SELECT " + SyncEntry.COLUMN_CHANGE_SEQ
+            + " FROM " + SyncEntry.STATE_TABLE_NAME;
+
+    /** Last version sent to the sync server, as a subquery. */
+    private static final String SQL_PUSH_SEQ = "(SELECT " + SyncEntry.COLUMN_PUSH_SEQ + " FROM "
+            + SyncEntry.STATE_TABLE_NAME + ")";
+
+    /**
+     * Marks the products sent to the sync server as in sync, up to a version. Products changed
+     * again since they were read have a higher version and stay to be sent. The synced version
+     * is not a synced column, so this doesn't raise the version.
+     */
+    private static final String SQL_ACK_PRODUCTS = "UPDATE " + ProductEntry.TABLE_NAME + " SET "
+            + ProductEntry.COLUMN_PRODUCT_SYNCED_VERSION + " = " + ProductEntry.COLUMN_PRODUCT_VERSION
+            + " WHERE " + ProductEntry.COLUMN_PRODUCT_VERSION + " > " + SQL_PUSH_SEQ + " AND "
+            + ProductEntry.COLUMN_PRODUCT_VERSION + " <= ?";
+
+    /** Drops the tombstones sent to the sync server, up to a version. */
+    private static final String SQL_ACK_TOMBSTONES = "DELETE FROM " + SyncEntry.TOMBSTONES_TABLE_NAME
+            + " WHERE " + SyncEntry.COLUMN_VERSION + " <= ?";
+
+    private static final String SQL_ACK_STATE = "UPDATE " + SyncEntry.STATE_TABLE_NAME + " SET "
+            + SyncEntry.COLUMN_PUSH_SEQ + " = MAX(" + SyncEntry.COLUMN_PUSH_SEQ + ", ?)";
+
+    private static final String SQL_PULL_CURSOR = "UPDATE " + SyncEntry.STATE_TABLE_NAME + " SET "
+            + SyncEntry.COLUMN_PULL_CURSOR + " = ?";
+
+    /** Columns written by {@link #bulkInsert}, in the order they are bound to {@link #SQL_BULK_INSERT} */
+    private static final List<String> BULK_INSERT_COLUMNS = Arrays.asList(
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID,
+            ProductEntry.COLUMN_PRODUCT_REORDER_POINT,
+            ProductEntry.COLUMN_PRODUCT_REORDER_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_UPDATED_AT,
+            ProductEntry.COLUMN_PRODUCT_SKU);
+
+    /** Columns accepted by {@link #bulkInsert}: the ones written, and the supplier by name */
+    private static final List<String> BULK_INSERT_VALUES = Arrays.asList(
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER,
+            ProductEntry.COLUMN_PRODUCT_REORDER_POINT,
+            ProductEntry.COLUMN_PRODUCT_REORDER_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_SKU);
+
+    /** Compiled once per batch and reused for every row of a {@link #bulkInsert} */
+    private static final String SQL_BULK_INSERT = "INSERT INTO " + ProductEntry.TABLE_NAME
+            + " (" + TextUtils.join(", ", BULK_INSERT_COLUMNS) + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /**
+     * Columns the SORT_ values of paged queries order by, each one backed by an index: the name,
+     * quantity, price and change time indexes of the products, and for the supplier sort the
+     * unique name index of the suppliers followed by the supplier ID index of the products.
+     */
+    private static final Map<String, String> SORT_COLUMNS = new HashMap<>();
+
+    static {
+        SORT_COLUMNS.put(ProductEntry.SORT_NAME, "p." + ProductEntry.COLUMN_PRODUCT_NAME);
+        SORT_COLUMNS.put(ProductEntry.SORT_QUANTITY, "p." + ProductEntry.COLUMN_PRODUCT_QUANTITY);
+        SORT_COLUMNS.put(ProductEntry.SORT_PRICE, "p." + ProductEntry.COLUMN_PRODUCT_PRICE);
+        SORT_COLUMNS.put(ProductEntry.SORT_SUPPLIER, "s." + SupplierEntry.COLUMN_SUPPLIER_NAME);
+        SORT_COLUMNS.put(ProductEntry.SORT_RECENT, "p." + ProductEntry.COLUMN_PRODUCT_UPDATED_AT);
+    }
+
+    /**
+     * Conditions of the FILTER_ values, on the columns of the products table. Each one is a
+     * range on the quantity index, so a page sorted by quantity reads only matching entries.
+     */
+    private static final Map<String, String> FILTERS = new HashMap<>();
+
+    static {
+        FILTERS.put(ProductEntry.FILTER_IN_STOCK, ProductEntry.COLUMN_PRODUCT_QUANTITY + " > 0");
+        FILTERS.put(ProductEntry.FILTER_LOW_STOCK, ProductEntry.COLUMN_PRODUCT_QUANTITY + " <= "
+                + SummaryEntry.LOW_STOCK_THRESHOLD);
+    }
+
+    /** Columns a paged query can return, with the expressions they are read from */
+    private static final Map<String, String> PAGE_COLUMNS = new LinkedHashMap<>();
+
+    static {
+        String[] productColumns = {
+                ProductEntry._ID,
+                ProductEntry.COLUMN_PRODUCT_NAME,
+                ProductEntry.COLUMN_PRODUCT_PRICE,
+                ProductEntry.COLUMN_PRODUCT_QUANTITY,
+                ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID,
+                ProductEntry.COLUMN_PRODUCT_REORDER_POINT,
+                ProductEntry.COLUMN_PRODUCT_REORDER_QUANTITY,
+                ProductEntry.COLUMN_PRODUCT_UPDATED_AT,
+                ProductEntry.COLUMN_PRODUCT_SKU};
+        for (String column : productColumns) {
+            PAGE_COLUMNS.put(column, "p." + column);
+        }
+        PAGE_COLUMNS.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME,
+                "s." + SupplierEntry.COLUMN_SUPPLIER_NAME);
+        PAGE_COLUMNS.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER,
+                "s." + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER);
+    }
+
+    /** Tables of a paged query, with the products as the outer loop */
+    private static final String PAGE_FROM = " FROM " + ProductEntry.TABLE_NAME + " p LEFT JOIN "
+            + SupplierEntry.TABLE_NAME + " s ON s." + SupplierEntry._ID + " = p."
+            + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID;
+
+    /**
+     * Tables of a paged query sorted by supplier. CROSS JOIN keeps SQLite from swapping the loops:
+     * the suppliers are walked in name order and the products of each one read in ID order from
+     * the supplier ID index, which is the order of the page, so nothing is sorted.
+     */
+    private static final String PAGE_FROM_BY_SUPPLIER = " FROM " + SupplierEntry.TABLE_NAME
+            + " s CROSS JOIN " + ProductEntry.TABLE_NAME + " p ON p."
+            + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + " = s." + SupplierEntry._ID;
+
+    /**
+     * Largest number of rows a single write reports one by one. Writes touching more rows notify
+     * a change of the whole table instead.
+     */
+    private static final int MAX_ROW_NOTIFICATIONS = 50;
+
+    /** Most rows a search returns */
+    private static final int MAX_SEARCH_RESULTS = 200;
+
+    /** Columns a search can return */
+    private static final List<String> SEARCH_COLUMNS = Arrays.asList(
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER,
+            ProductEntry.COLUMN_PRODUCT_UPDATED_AT);
+
+    /** Columns a search returns when no projection is given */
+    private static final String[] SEARCH_PROJECTION =
+            SEARCH_COLUMNS.toArray(new String[SEARCH_COLUMNS.size()]);
+
+    /**
+     * Columns the products to reorder can return, with the expressions they are read from. The
+     * product ID is returned as _id, so a selection on it needs no table prefix.
+     */
+    private static final Map<String, String> REORDER_COLUMNS = new LinkedHashMap<>();
+
+    static {
+        String[] productColumns = {
+                ProductEntry._ID,
+                ProductEntry.COLUMN_PRODUCT_NAME,
+                ProductEntry.COLUMN_PRODUCT_QUANTITY,
+                ProductEntry.COLUMN_PRODUCT_REORDER_POINT,
+                ProductEntry.COLUMN_PRODUCT_REORDER_QUANTITY,
+                ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME,
+                ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER};
+        for (String column : productColumns) {
+            REORDER_COLUMNS.put(column, "p." + column);
+        }
+        REORDER_COLUMNS.put(ReorderEntry.COLUMN_REORDER_ORDER_QUANTITY,
+                "MAX(p." + ProductEntry.COLUMN_PRODUCT_REORDER_QUANTITY + ", p."
+                        + ProductEntry.COLUMN_PRODUCT_REORDER_POINT + " - p."
+                        + ProductEntry.COLUMN_PRODUCT_QUANTITY + ")");
+    }
+
+    /** Columns the stock can return, with the expressions they are read from */
+    private static final Map<String, String> STOCK_COLUMNS = new LinkedHashMap<>();
+
+    static {
+        STOCK_COLUMNS.put(StockEntry.COLUMN_STOCK_PRODUCT_ID, "s." + StockEntry.COLUMN_STOCK_PRODUCT_ID);
+        STOCK_COLUMNS.put(StockEntry.COLUMN_STOCK_LOCATION_ID, "s." + StockEntry.COLUMN_STOCK_LOCATION_ID);
+        STOCK_COLUMNS.put(StockEntry.COLUMN_STOCK_LOCATION_NAME, "l." + LocationEntry.COLUMN_LOCATION_NAME);
+        STOCK_COLUMNS.put(StockEntry.COLUMN_STOCK_QUANTITY, "s." + StockEntry.COLUMN_STOCK_QUANTITY);
+    }
+
+    /**
+     * Columns of the changes to send to the sync server, with the expressions they are read from
+     * for a product and for a tombstone
+     */
+    private static final Map<String, String> CHANGE_COLUMNS = new LinkedHashMap<>();
+    private static final Map<String, String> TOMBSTONE_COLUMNS = new LinkedHashMap<>();
+
+    static {
+        CHANGE_COLUMNS.put(SyncEntry.COLUMN_SYNC_ID, "p." + ProductEntry.COLUMN_PRODUCT_SYNC_ID);
+        CHANGE_COLUMNS.put(SyncEntry.COLUMN_VERSION, "p." + ProductEntry.COLUMN_PRODUCT_VERSION);
+        CHANGE_COLUMNS.put(SyncEntry.COLUMN_DELETED, "0");
+        for (String column : Arrays.asList(
+                ProductEntry.COLUMN_PRODUCT_NAME,
+                ProductEntry.COLUMN_PRODUCT_PRICE,
+                ProductEntry.COLUMN_PRODUCT_QUANTITY,
+                ProductEntry.COLUMN_PRODUCT_REORDER_POINT,
+                ProductEntry.COLUMN_PRODUCT_REORDER_QUANTITY,
+                ProductEntry.COLUMN_PRODUCT_SKU,
+                ProductEntry.COLUMN_PRODUCT_UPDATED_AT)) {
+            CHANGE_COLUMNS.put(column, "p." + column);
+        }
+        // The quantity sent is the stock this device added and sold, which the server adds up
+        CHANGE_COLUMNS.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, "p."
+                + ProductEntry.COLUMN_PRODUCT_QUANTITY + " - p."
+                + ProductEntry.COLUMN_PRODUCT_RECEIVED_QUANTITY);
+        CHANGE_COLUMNS.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME,
+                "s." + SupplierEntry.COLUMN_SUPPLIER_NAME);
+        CHANGE_COLUMNS.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER,
+                "s." + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER);
+
+        for (String column : CHANGE_COLUMNS.keySet()) {
+            TOMBSTONE_COLUMNS.put(column, "NULL");
+        }
+        TOMBSTONE_COLUMNS.put(SyncEntry.COLUMN_SYNC_ID, "t." + SyncEntry.COLUMN_SYNC_ID);
+        TOMBSTONE_COLUMNS.put(SyncEntry.COLUMN_VERSION, "t." + SyncEntry.COLUMN_VERSION);
+        TOMBSTONE_COLUMNS.put(SyncEntry.COLUMN_DELETED, "1");
     }
 
+    /** Changes read from {@link SyncEntry#CHANGES_URI} when no limit is given */
+    private static final int DEFAULT_CHANGES_LIMIT = 500;
+
+    /** Rows read per query while exporting, each batch starting after the last ID of the previous one */
+    private static final int EXPORT_BATCH_SIZE = 1000;
+
+    /** Columns read for the export, the {@link ProductCsv#COLUMNS} followed by the ID */
+    private static final String[] EXPORT_PROJECTION;
+
+    static {
+        List<String> columns = new ArrayList<>(ProductCsv.COLUMNS);
+        columns.add(ProductEntry._ID);
+        EXPORT_PROJECTION = columns.toArray(new String[columns.size()]);
+    }
+
+    /** Memory budget of the cache of single product rows, enough for a few thousand rows */
+    private static final int ROW_CACHE_BYTES = 512 * 1024;
+
     /** Database helper object */
     private ProductDbHelper dbHelper;
 
+    /** Recently read single product rows */
+    private ProductRowCache rowCache;
+
+    /** The columns of the product list for every product, which its pages are read from */
+    private ProductListModel listModel;
+
+    /** Records the stock movements and compacts them */
+    private StockLedger ledger;
+
+    /** Latencies, rows and notifications of every operation since the provider was created */
+    private final ProviderMetrics metrics = new ProviderMetrics();
+
+    /**
+     * Called on the main thread while the process starts, before any activity is created. Only
+     * cheap objects are made here; the database is opened and warmed on a background thread, so
+     * it is ready by the time the list asks for its first page.
+     */
     @Override
     public boolean onCreate() {
+        StartupTrace.beginSection("ProductProvider.onCreate");
         dbHelper = new ProductDbHelper(getContext());
+        rowCache = new ProductRowCache(ROW_CACHE_BYTES);
+        listModel = new ProductListModel(dbHelper);
+        ledger = new StockLedger(dbHelper, getContext().getContentResolver(), metrics);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                warmUp();
+            }
+        }, "DatabaseWarmUp").start();
+        StartupTrace.endSection();
+        StartupTrace.mark(StartupTrace.PROVIDER_CREATED);
         return true;
     }
 
+    /**
+     * Open the database, creating or upgrading it if needed, and compile the statements the app
+     * needs first: the query of the first page of the list, which is also read so its pages are
+     * cached, and the statements of a sale. Compiled statements stay in the statement cache of
+     * the connection that ran them, where the same SQL finds them again. Then the list model is
+     * loaded, and pages are read from memory from then on. Any error is left for the first real
+     * query to report.
+     */
+    private void warmUp() {
+        try {
+            StartupTrace.beginSection("ProductProvider.openDatabase");
+            SQLiteDatabase database;
+            try {
+                database = dbHelper.getWritableDatabase();
+            } finally {
+                StartupTrace.endSection();
+            }
+            StartupTrace.mark(StartupTrace.DATABASE_OPENED);
+
+            StartupTrace.beginSection("ProductProvider.warmStatements");
+            try {
+                Uri firstPage = ProductEntry.buildPageUri(ProductEntry.SORT_NAME,
+                        ProductEntry.LIST_PAGE_SIZE, null, 0);
+                Cursor cursor = queryPage(database, firstPage,
+                        ProductEntry.buildListProjection(ProductEntry.SORT_NAME), null);
+                try {
+                    cursor.getCount();
+                } finally {
+                    cursor.close();
+                }
+                database.compileStatement(SQL_SELL).close();
+                database.compileStatement(SQL_TOUCH).close();
+                database.compileStatement(SQL_QUANTITY).close();
+                database.compileStatement(SQL_FIND_SKU).close();
+                StockLedger.compileAppend(database).close();
+            } finally {
+                StartupTrace.endSection();
+            }
+            StartupTrace.mark(StartupTrace.DATABASE_WARMED);
+
+            StartupTrace.beginSection("ProductProvider.loadListModel");
+            try {
+                listModel.build();
+            } finally {
+                StartupTrace.endSection();
+            }
+        } catch (RuntimeException e) {
+            Log.w(LOG_TAG, "Warming up the database failed", e);
+        }
+    }
+
+    /**
+     * Every operation is measured by {@link #metrics}. The rows of a query are counted before it
+     * returns, which fills the first window of the cursor here rather than in the caller; a
+     * cursor sent to another process is counted before it is sent anyway.
+     */
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        long start = metrics.start();
+        int rows = 0;
+        boolean failed = true;
+        try {
+            Cursor cursor = queryUri(uri, projection, selection, selectionArgs, sortOrder);
+            rows = cursor.getCount();
+            failed = false;
+            return cursor;
+        } finally {
+            metrics.recordOperation(OPERATION_QUERY, routeName(uri), start, rows, failed);
+        }
+    }
+
+    private Cursor queryUri(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                            String sortOrder) {
         // Get readable database
         SQLiteDatabase database = dbHelper.getReadableDatabase();
 
@@ -72,13 +660,30 @@ public class ProductProvider extends ContentProvider {
         int match = sUriMatcher.match(uri);
         switch (match) {
             case PRODUCTS:
-                // For the products code, query the products table directly with the given
-                // projection, selection, selection arguments, and sort order. The cursor
-                // could contain multiple rows of the products table.
-                cursor = database.query(ProductEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                // A page size turns the query into a keyset-paged one, see queryPage. Pages are
+                // read from the list model when it can serve them.
+                if (uri.getQueryParameter(ProductEntry.PARAM_PAGE_SIZE) != null) {
+                    cursor = TextUtils.isEmpty(selection)
+                            ? listModel.queryPage(uri, projection) : null;
+                    if (cursor == null) {
+                        cursor = queryPage(database, uri, projection, selection);
+                    }
+                    break;
+                }
+
+                // For the products code, query the products joined with their suppliers with
+                // the given projection, selection, selection arguments, and sort order. The
+                // cursor could contain multiple rows of the products table.
+                cursor = queryProducts(database, uri, projection, selection, selectionArgs,
+                        sortOrder);
                 break;
             case PRODUCT_ID:
+                // Plain lookups of a product are answered from the row cache when possible
+                if (TextUtils.isEmpty(selection) && ProductRowCache.canServe(projection)) {
+                    cursor = queryCachedProduct(database, ContentUris.parseId(uri), projection);
+                    break;
+                }
+
                 // For the PRODUCT_ID code, extract out the ID from the URI.
                 // For an example URI such as "content://com.example.android.inventoryapp/products/3",
                 // the selection will be "_id=?" and the selection argument will be a
@@ -91,10 +696,79 @@ public class ProductProvider extends ContentProvider {
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
 
                 // This will perform a query on the products table where the _id equals 3 to return a
-                // Cursor containing that row of the table.
-                cursor = database.query(ProductEntry.TABLE_NAME, projection, selection, selectionArgs,
+                // Cursor containing that row of the table, joined with its supplier.
+                cursor = database.query(ProductEntry.VIEW_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case PRODUCT_SEARCH:
+                cursor = searchProducts(database, uri, projection, null);
+                break;
+            case PRODUCT_SKU:
+                // A single lookup of the unique SKU index
+                cursor = database.query(ProductEntry.VIEW_NAME, projection,
+                        ProductEntry.COLUMN_PRODUCT_SKU + "=?",
+                        new String[] { uri.getLastPathSegment() }, null, null, sortOrder);
+                break;
+            case PRODUCT_SUMMARY:
+                // A single row maintained by triggers, so this never scans the products
+                cursor = database.query(SummaryEntry.TABLE_NAME, projection, null, null,
+                        null, null, null);
+                break;
+            case PRODUCT_REORDER:
+                cursor = queryReorder(database, projection, selection, selectionArgs);
+                break;
+            case MOVEMENTS:
+                cursor = database.query(MovementEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder);
+                break;
+            case SUPPLIERS:
+                cursor = database.query(SupplierEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder);
+                break;
+            case SUPPLIER_ID:
+                cursor = database.query(SupplierEntry.TABLE_NAME, projection,
+                        SupplierEntry._ID + "=?", new String[] { String.valueOf(ContentUris.parseId(uri)) },
                         null, null, sortOrder);
                 break;
+            case SUPPLIER_PRODUCTS:
+                cursor = querySupplierProducts(database, uri, projection, selection, selectionArgs,
+                        sortOrder);
+                break;
+            case LOCATIONS:
+                cursor = database.query(LocationEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder);
+                break;
+            case LOCATION_ID:
+                cursor = database.query(LocationEntry.TABLE_NAME, projection,
+                        LocationEntry._ID + "=?", new String[] { String.valueOf(ContentUris.parseId(uri)) },
+                        null, null, sortOrder);
+                break;
+            case STOCK:
+                cursor = queryStock(database, -1, projection, selection, selectionArgs, sortOrder);
+                break;
+            case STOCK_PRODUCT:
+                cursor = queryStock(database, ContentUris.parseId(uri), projection, selection,
+                        selectionArgs, sortOrder);
+                break;
+            case SYNC_CHANGES:
+                cursor = queryChanges(database, uri);
+                break;
+            case PRODUCT_EXPORT:
+                // Apps the export is shared with ask for its name and size. The size is unknown
+                // until the whole catalog has been written.
+                if (projection == null) {
+                    projection = new String[] { OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE };
+                }
+                Object[] row = new Object[projection.length];
+                for (int i = 0; i < projection.length; i++) {
+                    if (OpenableColumns.DISPLAY_NAME.equals(projection[i])) {
+                        row[i] = ProductEntry.EXPORT_FILE_NAME;
+                    }
+                }
+                MatrixCursor file = new MatrixCursor(projection, 1);
+                file.addRow(row);
+                cursor = file;
+                break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
@@ -108,168 +782,1238 @@ public class ProductProvider extends ContentProvider {
         return cursor;
     }
 
-    @Override
-    public Uri insert(Uri uri, ContentValues contentValues) {
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case PRODUCTS:
-                return insertProduct(uri, contentValues);
-            default:
-                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+    /**
+     * Return the row of a single product from the row cache, reading the whole row from the
+     * database and caching it on a miss.
+     */
+    private Cursor queryCachedProduct(SQLiteDatabase database, long id, String[] projection) {
+        Cursor cursor = rowCache.query(id, projection);
+        if (cursor != null) {
+            return cursor;
         }
+
+        long token = rowCache.beginRead();
+        return rowCache.put(token, database.query(ProductEntry.VIEW_NAME,
+                ProductRowCache.PROJECTION, ProductEntry._ID + "=?",
+                new String[] { String.valueOf(id) }, null, null, null), projection);
     }
 
     /**
-     * Insert a product into the database with the given content values. Return the new content URI
-     * for that specific row in the database.
+     * From Jelly Bean on, queries can be cancelled. Only searches run long enough to be worth
+     * cancelling, every other query goes through the method above.
      */
-    private Uri insertProduct(Uri uri, ContentValues values) {
-        // Check that the name is not null
-        String nameProduct = values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME);
-        if (nameProduct == null) {
-            throw new IllegalArgumentException("Product requires a name");
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder, CancellationSignal cancellationSignal) {
+        if (cancellationSignal == null || sUriMatcher.match(uri) != PRODUCT_SEARCH) {
+            return query(uri, projection, selection, selectionArgs, sortOrder);
         }
 
-        // Check that the gender is valid
-        Integer priceProduct = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_PRICE);
-        if (priceProduct == null || priceProduct < 0) {
-            throw new IllegalArgumentException("Product requires valid price");
+        long start = metrics.start();
+        int rows = 0;
+        boolean failed = true;
+        try {
+            Cursor cursor = searchProducts(dbHelper.getReadableDatabase(), uri, projection,
+                    cancellationSignal);
+            cursor.setNotificationUri(getContext().getContentResolver(), uri);
+            rows = cursor.getCount();
+            failed = false;
+            return cursor;
+        } finally {
+            metrics.recordOperation(OPERATION_QUERY, routeName(uri), start, rows, failed);
         }
+    }
 
-
-        // Check that the supplier name is not null
-        String nameSupplier = values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME);
-        if (nameSupplier == null) {
-            throw new IllegalArgumentException("Product requires a supplier name");
+    /**
+     * Search the products whose name or supplier name contain words starting with the words of the
+     * {@link ProductEntry#PARAM_QUERY} parameter, through the products_fts full-text index. The
+     * best matches, the ones with the most matching words, come first, then ties are sorted by
+     * name. The signal may only be non-null from Jelly Bean on.
+     */
+    private Cursor searchProducts(SQLiteDatabase database, Uri uri, String[] projection,
+                                  Object cancellationSignal) {
+        if (projection == null) {
+            projection = SEARCH_PROJECTION;
         }
 
-
-        // Get writeable database
-        SQLiteDatabase database = dbHelper.getWritableDatabase();
-
-        // Insert the new product with the given values
-        long id = database.insert(ProductEntry.TABLE_NAME, null, values);
-        // If the ID is -1, then the insertion failed. Log an error and return null.
-        if (id == -1) {
-            Log.e(LOG_TAG, "Failed to insert row for " + uri);
-            return null;
+        // Turn every word of the search text into a prefix query, e.g. "red pen" into "red* pen*"
+        StringBuilder match = new StringBuilder();
+        String text = uri.getQueryParameter(ProductEntry.PARAM_QUERY);
+        if (text != null) {
+            for (String word : text.split("[^\\p{L}\\p{N}]+")) {
+                if (!word.isEmpty()) {
+                    match.append(match.length() == 0 ? "" : " ").append(word).append('*');
+                }
+            }
+        }
+        if (match.length() == 0) {
+            return new MatrixCursor(projection, 0);
         }
 
-        // Notify all listeners that the data has changed for the product content URI
-        getContext().getContentResolver().notifyChange(uri, null);
+        int limit = MAX_SEARCH_RESULTS;
+        String pageSize = uri.getQueryParameter(ProductEntry.PARAM_PAGE_SIZE);
+        if (pageSize != null) {
+            try {
+                limit = Math.min(Integer.parseInt(pageSize), MAX_SEARCH_RESULTS);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid page size for " + uri);
+            }
+        }
+        // SQLite reads a negative limit as no limit at all
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Invalid page size for " + uri);
+        }
 
-        // Return the new URI with the ID (of the newly inserted row) appended at the end
-        return ContentUris.withAppendedId(uri, id);
-    }
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for (int i = 0; i < projection.length; i++) {
+            if (!SEARCH_COLUMNS.contains(projection[i])) {
+                throw new IllegalArgumentException("Cannot search for column " + projection[i]);
+            }
+            sql.append(i == 0 ? "" : ", ").append("p.").append(projection[i])
+                    .append(" AS ").append(projection[i]);
+        }
+        sql.append(" FROM ").append(ProductEntry.VIEW_NAME).append(" p JOIN (SELECT docid,")
+                // offsets() lists 4 numbers per matching word, so its length grows with the
+                // number of matches
+                .append(" length(offsets(products_fts)) AS rank FROM products_fts")
+                .append(" WHERE products_fts MATCH ?) s ON p.").append(ProductEntry._ID)
+                .append(" = s.docid ORDER BY s.rank DESC, p.").append(ProductEntry.COLUMN_PRODUCT_NAME)
+                .append(" LIMIT ").append(limit);
 
-    @Override
-    public int update(Uri uri, ContentValues contentValues, String selection,
-                      String[] selectionArgs) {
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case PRODUCTS:
-                return updateProduct(uri, contentValues, selection, selectionArgs);
-            case PRODUCT_ID:
-                // For the PRODUCT_ID code, extract out the ID from the URI,
-                // so we know which row to update. Selection will be "_id=?" and selection
-                // arguments will be a String array containing the actual ID.
-                selection = ProductEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                return updateProduct(uri, contentValues, selection, selectionArgs);
-            default:
-                throw new IllegalArgumentException("Update is not supported for " + uri);
+        String[] args = { match.toString() };
+        if (cancellationSignal != null) {
+            return database.rawQuery(sql.toString(), args, (CancellationSignal) cancellationSignal);
         }
+        return database.rawQuery(sql.toString(), args);
     }
 
     /**
-     * Update products in the database with the given content values. Apply the changes to the rows
-     * specified in the selection and selection arguments (which could be 0 or 1 or more products).
-     * Return the number of rows that were successfully updated.
+     * Query the products below their reorder point, ordered by supplier name and then by product
+     * name. Only the rows of reorder_lines are read, each one joined with its product through the
+     * primary key, so the cost grows with the number of products to reorder, not with the catalog.
      */
-    private int updateProduct(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+    private static Cursor queryReorder(SQLiteDatabase database, String[] projection,
+                                       String selection, String[] selectionArgs) {
+        if (projection == null) {
+            projection = REORDER_COLUMNS.keySet().toArray(new String[REORDER_COLUMNS.size()]);
+        }
 
-        // If the {@link ProductEntry#COLUMN_PRODUCT_NAME} key is present,
-        // check that the name value is not null.
-        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_NAME)) {
-            String productName = values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME);
-            if (productName == null) {
-                throw new IllegalArgumentException("Product requires a name");
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for (int i = 0; i < projection.length; i++) {
+            String expression = REORDER_COLUMNS.get(projection[i]);
+            if (expression == null) {
+                throw new IllegalArgumentException("Cannot read column " + projection[i]
+                        + " of the products to reorder");
             }
+            sql.append(i == 0 ? "" : ", ").append(expression).append(" AS ").append(projection[i]);
         }
+        sql.append(" FROM ").append(ReorderEntry.TABLE_NAME).append(" r JOIN ")
+                .append(ProductEntry.VIEW_NAME).append(" p ON p.").append(ProductEntry._ID)
+                .append(" = r.").append(ReorderEntry.COLUMN_REORDER_PRODUCT_ID);
+        if (!TextUtils.isEmpty(selection)) {
+            sql.append(" WHERE ").append(selection);
+        }
+        sql.append(" ORDER BY p.").append(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME)
+                .append(", p.").append(ProductEntry.COLUMN_PRODUCT_NAME);
 
-        // If the {@link ProductEntry#COLUMN_PRODUCT_PRICE} key is present,
-        // check that the gender value is valid.
-        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_PRICE)) {
-            Integer productPrice = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_PRICE);
-            if (productPrice == null || productPrice < 0) {
-                throw new IllegalArgumentException("Product requires a valid price");
-            }
+        return database.rawQuery(sql.toString(), selectionArgs);
+    }
+
+    /**
+     * Query the stock rows joined with the names of their locations, ordered by product and
+     * then by location unless another order is given. The rows of a single product are found
+     * through the primary key of the stock.
+     *
+     * @param productId ID of the product whose stock is read, or -1 for all products
+     */
+    private static Cursor queryStock(SQLiteDatabase database, long productId, String[] projection,
+                                     String selection, String[] selectionArgs, String sortOrder) {
+        if (projection == null) {
+            projection = STOCK_COLUMNS.keySet().toArray(new String[STOCK_COLUMNS.size()]);
         }
 
-        // If the {@link ProductEntry#COLUMN_PRODUCT_SUPPLIER_NAME} key is present,
-        // check that the name value is not null.
-        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME)) {
-            String supplierName = values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME);
-            if (supplierName == null) {
-                throw new IllegalArgumentException("Product requires a supplier name");
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for (int i = 0; i < projection.length; i++) {
+            String expression = STOCK_COLUMNS.get(projection[i]);
+            if (expression == null) {
+                throw new IllegalArgumentException("Cannot read column " + projection[i]
+                        + " of the stock");
             }
+            sql.append(i == 0 ? "" : ", ").append(expression).append(" AS ").append(projection[i]);
         }
-
-        // If there are no values to update, then don't try to update the database
-        if (values.size() == 0) {
-            return 0;
+        sql.append(" FROM ").append(StockEntry.TABLE_NAME).append(" s JOIN ")
+                .append(LocationEntry.TABLE_NAME).append(" l ON l.").append(LocationEntry._ID)
+                .append(" = s.").append(StockEntry.COLUMN_STOCK_LOCATION_ID);
+        List<String> args = new ArrayList<>();
+        String where = " WHERE ";
+        if (productId != -1) {
+            sql.append(where).append("s.").append(StockEntry.COLUMN_STOCK_PRODUCT_ID).append(" = ?");
+            args.add(String.valueOf(productId));
+            where = " AND ";
         }
-
-        // Otherwise, get writeable database to update the data
-        SQLiteDatabase database = dbHelper.getWritableDatabase();
-
-        // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = database.update(ProductEntry.TABLE_NAME, values, selection, selectionArgs);
-
-        // If 1 or more rows were updated, then notify all listeners that the data at the
-        // given URI has changed
-        if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+        if (!TextUtils.isEmpty(selection)) {
+            sql.append(where).append('(').append(selection).append(')');
+            if (selectionArgs != null) {
+                args.addAll(Arrays.asList(selectionArgs));
+            }
         }
+        sql.append(" ORDER BY ").append(TextUtils.isEmpty(sortOrder)
+                ? "s." + StockEntry.COLUMN_STOCK_PRODUCT_ID + ", s." + StockEntry.COLUMN_STOCK_LOCATION_ID
+                : sortOrder);
 
-        // Return the number of rows updated
-        return rowsUpdated;
+        return database.rawQuery(sql.toString(), args.toArray(new String[args.size()]));
     }
 
-    @Override
-    public int delete(Uri uri, String selection, String[] selectionArgs) {
+    /**
+     * Query the oldest changes not sent to the sync server yet: the products whose version is
+     * past the last one sent and differs from their synced version, and the tombstones past it,
+     * merged in version order. Both are read from their version index and cut to the limit
+     * before they are merged, so a large backlog is never read at once. All the columns of
+     * {@link #CHANGE_COLUMNS} are returned.
+     */
+    private static Cursor queryChanges(SQLiteDatabase database, Uri uri) {
+        String limitParameter = uri.getQueryParameter(SyncEntry.PARAM_LIMIT);
+        int limit = limitParameter == null ? DEFAULT_CHANGES_LIMIT : Integer.parseInt(limitParameter);
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Invalid limit " + limitParameter);
+        }
+
+        String version = SyncEntry.COLUMN_VERSION;
+        StringBuilder sql = new StringBuilder("SELECT * FROM (SELECT ");
+        appendColumns(sql, CHANGE_COLUMNS);
+        sql.append(" FROM ").append(ProductEntry.TABLE_NAME).append(" p LEFT JOIN ")
+                .append(SupplierEntry.TABLE_NAME).append(" s ON s.").append(SupplierEntry._ID)
+                .append(" = p.").append(ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID)
+                .append(" WHERE p.").append(ProductEntry.COLUMN_PRODUCT_VERSION).append(" > ")
+                .append(SQL_PUSH_SEQ).append(" AND p.").append(ProductEntry.COLUMN_PRODUCT_VERSION)
+                .append(" != p.").append(ProductEntry.COLUMN_PRODUCT_SYNCED_VERSION)
+                .append(" ORDER BY p.").append(ProductEntry.COLUMN_PRODUCT_VERSION)
+                .append(" LIMIT ").append(limit).append(") UNION ALL SELECT * FROM (SELECT ");
+        appendColumns(sql, TOMBSTONE_COLUMNS);
+        sql.append(" FROM ").append(SyncEntry.TOMBSTONES_TABLE_NAME).append(" t WHERE t.")
+                .append(version).append(" > ").append(SQL_PUSH_SEQ)
+                .append(" ORDER BY t.").append(version).append(" LIMIT ").append(limit)
+                .append(") ORDER BY ").append(version).append(" LIMIT ").append(limit);
+        return database.rawQuery(sql.toString(), null);
+    }
+
+    private static void appendColumns(StringBuilder sql, Map<String, String> columns) {
+        boolean first = true;
+        for (Map.Entry<String, String> column : columns.entrySet()) {
+            sql.append(first ? "" : ", ").append(column.getValue()).append(" AS ")
+                    .append(column.getKey());
+            first = false;
+        }
+    }
+
+    /**
+     * Query the products of the supplier whose ID is in the URI, ordered by name unless another
+     * order is given. The index on (supplier_id, name) finds them, and returns them in that
+     * order, without reading the other products.
+     */
+    private static Cursor querySupplierProducts(SQLiteDatabase database, Uri uri,
+                                                String[] projection, String selection,
+                                                String[] selectionArgs, String sortOrder) {
+        StringBuilder where = new StringBuilder(ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + " = ?");
+        List<String> args = new ArrayList<>();
+        args.add(uri.getPathSegments().get(1));
+        if (!TextUtils.isEmpty(selection)) {
+            where.append(" AND (").append(selection).append(')');
+            if (selectionArgs != null) {
+                args.addAll(Arrays.asList(selectionArgs));
+            }
+        }
+        return database.query(ProductEntry.VIEW_NAME, projection, where.toString(),
+                args.toArray(new String[args.size()]), null, null,
+                TextUtils.isEmpty(sortOrder) ? ProductEntry.COLUMN_PRODUCT_NAME
+                        : parseSortOrder(sortOrder));
+    }
+
+    /**
+     * Query the products matching the selection and the filter parameters of the URI, if any.
+     */
+    private static Cursor queryProducts(SQLiteDatabase database, Uri uri, String[] projection,
+                                        String selection, String[] selectionArgs,
+                                        String sortOrder) {
+        StringBuilder where = new StringBuilder();
+        List<String> args = new ArrayList<>();
+        if (!TextUtils.isEmpty(selection)) {
+            where.append('(').append(selection).append(')');
+            if (selectionArgs != null) {
+                args.addAll(Arrays.asList(selectionArgs));
+            }
+        }
+        appendFilter(uri, "", where, args);
+        return database.query(ProductEntry.VIEW_NAME, projection,
+                where.length() == 0 ? null : where.toString(),
+                args.toArray(new String[args.size()]), null, null,
+                TextUtils.isEmpty(sortOrder) ? null : parseSortOrder(sortOrder));
+    }
+
+    /**
+     * Return the ORDER BY clause of a product query sorted by one of the SORT_ values, ordered as
+     * the paged queries are. Any other sort order is refused, since it could make SQLite sort
+     * the whole catalog without an index.
+     */
+    private static String parseSortOrder(String sort) {
+        if (!SORT_COLUMNS.containsKey(sort)) {
+            throw new IllegalArgumentException("Unknown sort order " + sort
+                    + ", products are sorted by one of the SORT_ values");
+        }
+        String direction = ProductEntry.SORT_RECENT.equals(sort) ? " DESC" : "";
+        return ProductEntry.getSortKeyColumn(sort) + direction + ", " + ProductEntry._ID
+                + direction;
+    }
+
+    /**
+     * Query one page of products. Rows are ordered by the sort key of the URI and then by ID, and
+     * the page starts right after the (key, ID) pair of the last row of the previous page, so
+     * SQLite seeks straight to it in the matching index instead of skipping over an OFFSET.
+     * The most recent first order runs the other way, reading the index backwards.
+     *
+     * Only the sorts and filters known to {@link #SORT_COLUMNS} and {@link #FILTERS} are
+     * accepted, and no selection, so every page can be read from an index.
+     */
+    private Cursor queryPage(SQLiteDatabase database, Uri uri, String[] projection,
+                             String selection) {
+        String sort = uri.getQueryParameter(ProductEntry.PARAM_SORT);
+        if (sort == null) {
+            sort = ProductEntry.SORT_NAME;
+        }
+        String sortColumn = SORT_COLUMNS.get(sort);
+        if (sortColumn == null) {
+            throw new IllegalArgumentException("Unknown sort " + sort + " for " + uri);
+        }
+        if (!TextUtils.isEmpty(selection)) {
+            throw new IllegalArgumentException("Paged queries take a filter, not a selection: " + uri);
+        }
+
+        int pageSize;
+        try {
+            pageSize = Integer.parseInt(uri.getQueryParameter(ProductEntry.PARAM_PAGE_SIZE));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid page size for " + uri);
+        }
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Invalid page size for " + uri);
+        }
+
+        if (projection == null) {
+            projection = PAGE_COLUMNS.keySet().toArray(new String[PAGE_COLUMNS.size()]);
+        }
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for (int i = 0; i < projection.length; i++) {
+            String expression = PAGE_COLUMNS.get(projection[i]);
+            if (expression == null) {
+                throw new IllegalArgumentException("Cannot page column " + projection[i]);
+            }
+            sql.append(i == 0 ? "" : ", ").append(expression).append(" AS ").append(projection[i]);
+        }
+        sql.append(ProductEntry.SORT_SUPPLIER.equals(sort) ? PAGE_FROM_BY_SUPPLIER : PAGE_FROM);
+
+        StringBuilder where = new StringBuilder();
+        List<String> args = new ArrayList<>();
+        appendFilter(uri, "p.", where, args);
+
+        boolean descending = ProductEntry.SORT_RECENT.equals(sort);
+        String after = descending ? "<" : ">";
+        String afterKey = uri.getQueryParameter(ProductEntry.PARAM_AFTER_KEY);
+        String afterId = uri.getQueryParameter(ProductEntry.PARAM_AFTER_ID);
+        if (afterKey != null && afterId != null) {
+            if (where.length() > 0) {
+                where.append(" AND ");
+            }
+            // Same as (key, _id) > (afterKey, afterId), written as a range on the sort key so
+            // the index can be used to seek to the start of the page
+            where.append(sortColumn).append(' ').append(after).append("= ? AND (")
+                    .append(sortColumn).append(' ').append(after).append(" ? OR p.")
+                    .append(ProductEntry._ID).append(' ').append(after).append(" ?)");
+            args.add(afterKey);
+            args.add(afterKey);
+            args.add(afterId);
+        }
+        if (where.length() > 0) {
+            sql.append(" WHERE ").append(where);
+        }
+
+        String direction = descending ? " DESC" : "";
+        sql.append(" ORDER BY ").append(sortColumn).append(direction).append(", p.")
+                .append(ProductEntry._ID).append(direction).append(" LIMIT ").append(pageSize);
+
+        return database.rawQuery(sql.toString(), args.toArray(new String[args.size()]));
+    }
+
+    /**
+     * Append the conditions of the {@link ProductEntry#PARAM_FILTER} and
+     * {@link ProductEntry#PARAM_SUPPLIER_ID} parameters of a URI to a WHERE clause, naming the
+     * product columns with the given prefix. Throws an {@link IllegalArgumentException} if the
+     * filter is unknown or the supplier ID is not a number.
+     */
+    private static void appendFilter(Uri uri, String prefix, StringBuilder where, List<String> args) {
+        String filter = uri.getQueryParameter(ProductEntry.PARAM_FILTER);
+        if (filter != null) {
+            String condition = FILTERS.get(filter);
+            if (condition == null) {
+                throw new IllegalArgumentException("Unknown filter " + filter + " for " + uri);
+            }
+            where.append(where.length() == 0 ? "" : " AND ").append(prefix).append(condition);
+        }
+
+        String supplierId = uri.getQueryParameter(ProductEntry.PARAM_SUPPLIER_ID);
+        if (supplierId != null) {
+            try {
+                Long.parseLong(supplierId);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid supplier ID for " + uri);
+            }
+            where.append(where.length() == 0 ? "" : " AND ").append(prefix)
+                    .append(ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID).append(" = ?");
+            args.add(supplierId);
+        }
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues contentValues) {
+        long start = metrics.start();
+        Uri inserted = null;
+        boolean failed = true;
+        try {
+            inserted = insertUri(uri, contentValues);
+            failed = false;
+            return inserted;
+        } finally {
+            metrics.recordOperation(OPERATION_INSERT, routeName(uri), start,
+                    inserted == null ? 0 : 1, failed);
+        }
+    }
+
+    private Uri insertUri(Uri uri, ContentValues contentValues) {
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            case PRODUCTS:
+                return insertProduct(uri, contentValues);
+            case SUPPLIERS:
+                return insertSupplier(uri, contentValues);
+            case LOCATIONS:
+                return insertLocation(uri, contentValues);
+            default:
+                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+    }
+
+    /**
+     * Insert a product into the database with the given content values. Return the new content URI
+     * for that specific row in the database.
+     */
+    private Uri insertProduct(Uri uri, ContentValues values) {
+        validateProduct(values);
+
+        // The supplier name is replaced by its ID, which must not show in the caller's values
+        values = new ContentValues(values);
+        values.put(ProductEntry.COLUMN_PRODUCT_UPDATED_AT, System.currentTimeMillis());
+        normalizeSku(values);
+
         // Get writeable database
         SQLiteDatabase database = dbHelper.getWritableDatabase();
 
-        // Track the number of rows that were deleted
-        int rowsDeleted;
+        // Insert the new product with the given values, and record its initial stock
+        long id;
+        Integer quantity = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+        boolean hasStock = quantity != null && quantity != 0;
+        SupplierResolver suppliers;
+        long transactionStart = System.nanoTime();
+        database.beginTransactionNonExclusive();
+        try {
+            suppliers = new SupplierResolver(database);
+            try {
+                suppliers.resolve(values);
+            } finally {
+                suppliers.close();
+            }
+            id = database.insert(ProductEntry.TABLE_NAME, null, values);
+            if (id != -1 && hasStock) {
+                StockLedger.append(database, id, quantity, MovementEntry.REASON_INITIAL);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            metrics.recordTransaction(OPERATION_INSERT, transactionStart);
+        }
+        notifySupplierChanges(suppliers);
+
+        // If the ID is -1, then the insertion failed. Log an error and return null.
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+        ledger.onAppended(hasStock ? 1 : 0);
 
+        // Missing rows are never cached, so the new row can't be cached yet. Invalidating it
+        // still keeps a lookup racing with this insert from caching anything it read before.
+        rowCache.invalidate(id);
+
+        // Notify all listeners that the new row has been inserted, along with its stock
+        notifyRowChanges(ProductEntry.CHANGE_INSERT, Collections.singletonList(id));
+        notifyChange(StockEntry.buildProductUri(id));
+
+        // Return the new URI with the ID (of the newly inserted row) appended at the end
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Check that the given content values describe a valid new product, otherwise throw an
+     * {@link IllegalArgumentException}.
+     */
+    private static void validateProduct(ContentValues values) {
+        // Check that the name is not null
+        String nameProduct = values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME);
+        if (nameProduct == null) {
+            throw new IllegalArgumentException("Product requires a name");
+        }
+
+        // Check that the price is valid
+        Integer priceProduct = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_PRICE);
+        if (priceProduct == null || priceProduct < 0) {
+            throw new IllegalArgumentException("Product requires valid price");
+        }
+
+        // Check that the supplier is given, by name or by ID
+        String nameSupplier = values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME);
+        Long supplierId = values.getAsLong(ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID);
+        if (nameSupplier == null && supplierId == null) {
+            throw new IllegalArgumentException("Product requires a supplier name");
+        }
+
+        validateReorder(values);
+    }
+
+    /**
+     * Trim the SKU of the given content values, when present, and store a blank one as null, so
+     * products without a SKU never collide in the unique SKU index.
+     */
+    private static void normalizeSku(ContentValues values) {
+        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_SKU)) {
+            String sku = normalizeSku(values.getAsString(ProductEntry.COLUMN_PRODUCT_SKU));
+            if (sku == null) {
+                values.putNull(ProductEntry.COLUMN_PRODUCT_SKU);
+            } else {
+                values.put(ProductEntry.COLUMN_PRODUCT_SKU, sku);
+            }
+        }
+    }
+
+    /** Return the SKU trimmed, or null if it is blank */
+    private static String normalizeSku(String sku) {
+        if (sku == null) {
+            return null;
+        }
+        sku = sku.trim();
+        return sku.isEmpty() ? null : sku;
+    }
+
+    /**
+     * Check that the reorder point and reorder quantity, when present, are valid, otherwise throw
+     * an {@link IllegalArgumentException}.
+     */
+    private static void validateReorder(ContentValues values) {
+        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_REORDER_POINT)) {
+            Integer reorderPoint = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_REORDER_POINT);
+            if (reorderPoint == null || reorderPoint < 0) {
+                throw new IllegalArgumentException("Product requires a valid reorder point");
+            }
+        }
+        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_REORDER_QUANTITY)) {
+            Integer reorderQuantity = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_REORDER_QUANTITY);
+            if (reorderQuantity == null || reorderQuantity < 0) {
+                throw new IllegalArgumentException("Product requires a valid reorder quantity");
+            }
+        }
+    }
+
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        long start = metrics.start();
+        int rows = 0;
+        boolean failed = true;
+        try {
+            rows = bulkInsertUri(uri, values);
+            failed = false;
+            return rows;
+        } finally {
+            metrics.recordOperation(OPERATION_BULK_INSERT, routeName(uri), start, rows, failed);
+        }
+    }
+
+    private int bulkInsertUri(Uri uri, ContentValues[] values) {
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            case PRODUCTS:
+                return bulkInsertProducts(uri, values, null);
+            default:
+                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+    }
+
+    /**
+     * Insert a batch of products. Every row is validated before the database is touched, so an
+     * invalid row rejects the batch as a whole, and then all rows are written in one transaction
+     * through a single compiled INSERT statement, followed by a single change notification.
+     * A row whose SKU is already used, by a product or an earlier row of the batch, is skipped
+     * before anything of it is written, its supplier included.
+     * Return the number of rows inserted.
+     *
+     * @param skipped receives the positions of the rows skipped, may be null
+     */
+    private int bulkInsertProducts(Uri uri, ContentValues[] values, List<Integer> skipped) {
+        for (ContentValues row : values) {
+            validateProduct(row);
+            for (String column : row.keySet()) {
+                if (!BULK_INSERT_VALUES.contains(column)) {
+                    throw new IllegalArgumentException("Bulk insertion does not support column " + column);
+                }
+            }
+        }
+
+        if (values.length == 0) {
+            return 0;
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        long now = System.currentTimeMillis();
+        List<Long> insertedIds = new ArrayList<>(values.length);
+        int rowsSkipped = 0;
+        int movementsAppended = 0;
+
+        // Get writeable database
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+
+        SupplierResolver suppliers;
+        long transactionStart = System.nanoTime();
+        database.beginTransactionNonExclusive();
+        try {
+            SQLiteStatement insert = database.compileStatement(SQL_BULK_INSERT);
+            SQLiteStatement countSku = database.compileStatement(SQL_COUNT_SKU);
+            SQLiteStatement append = StockLedger.compileAppend(database);
+            suppliers = new SupplierResolver(database);
+            try {
+                for (int i = 0; i < values.length; i++) {
+                    ContentValues row = values[i];
+                    String sku = normalizeSku(row.getAsString(ProductEntry.COLUMN_PRODUCT_SKU));
+                    if (sku != null) {
+                        countSku.bindString(1, sku);
+                        if (countSku.simpleQueryForLong() != 0) {
+                            rowsSkipped++;
+                            if (skipped != null) {
+                                skipped.add(i);
+                            }
+                            continue;
+                        }
+                    }
+
+                    insert.bindString(1, row.getAsString(ProductEntry.COLUMN_PRODUCT_NAME));
+                    insert.bindLong(2, row.getAsLong(ProductEntry.COLUMN_PRODUCT_PRICE));
+                    Long quantity = row.getAsLong(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+                    insert.bindLong(3, quantity == null ? 0 : quantity);
+                    String supplierName = row.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME);
+                    insert.bindLong(4, supplierName == null
+                            ? row.getAsLong(ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID)
+                            : suppliers.resolve(supplierName,
+                                    row.containsKey(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER),
+                                    row.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER)));
+                    Long reorderPoint = row.getAsLong(ProductEntry.COLUMN_PRODUCT_REORDER_POINT);
+                    insert.bindLong(5, reorderPoint == null ? 0 : reorderPoint);
+                    Long reorderQuantity = row.getAsLong(ProductEntry.COLUMN_PRODUCT_REORDER_QUANTITY);
+                    insert.bindLong(6, reorderQuantity == null ? 0 : reorderQuantity);
+                    insert.bindLong(7, now);
+                    if (sku == null) {
+                        insert.bindNull(8);
+                    } else {
+                        insert.bindString(8, sku);
+                    }
+                    long id = insert.executeInsert();
+                    if (id != -1) {
+                        insertedIds.add(id);
+                        if (quantity != null && quantity != 0) {
+                            StockLedger.append(append, id, quantity,
+                                    MovementEntry.REASON_INITIAL, now);
+                            movementsAppended++;
+                        }
+                    }
+                }
+            } finally {
+                insert.close();
+                countSku.close();
+                append.close();
+                suppliers.close();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            metrics.recordTransaction(OPERATION_BULK_INSERT, transactionStart);
+        }
+        notifySupplierChanges(suppliers);
+
+        int rowsInserted = insertedIds.size();
+        long elapsed = Math.max(1, SystemClock.elapsedRealtime() - start);
+        Log.i(LOG_TAG, "Bulk inserted " + rowsInserted + " products in " + elapsed + " ms ("
+                + (rowsInserted * 1000L / elapsed) + " rows/s), skipped " + rowsSkipped
+                + " with a used SKU");
+
+        ledger.onAppended(movementsAppended);
+
+        // Notify all listeners once for the whole batch, and add just the new rows to the list
+        // model rather than rebuilding it
+        if (rowsInserted != 0) {
+            notifyRowChanges(ProductEntry.CHANGE_INSERT, insertedIds);
+            notifyChange(StockEntry.CONTENT_URI);
+        }
+
+        return rowsInserted;
+    }
+
+    /**
+     * Insert a batch of products as bulkInsert does, and return the number inserted along with
+     * the positions of the rows skipped because their SKU is already used.
+     */
+    private Bundle bulkInsertRows(List<ContentValues> rows) {
+        List<Integer> skipped = new ArrayList<>();
+        int inserted = bulkInsertProducts(ProductEntry.CONTENT_URI,
+                rows.toArray(new ContentValues[rows.size()]), skipped);
+        int[] positions = new int[skipped.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = skipped.get(i);
+        }
+        Bundle result = new Bundle();
+        result.putInt(ProductEntry.EXTRA_INSERTED, inserted);
+        result.putIntArray(ProductEntry.EXTRA_SKIPPED, positions);
+        return result;
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues contentValues, String selection,
+                      String[] selectionArgs) {
+        long start = metrics.start();
+        int rows = 0;
+        boolean failed = true;
+        try {
+            rows = updateUri(uri, contentValues, selection, selectionArgs);
+            failed = false;
+            return rows;
+        } finally {
+            metrics.recordOperation(OPERATION_UPDATE, routeName(uri), start, rows, failed);
+        }
+    }
+
+    private int updateUri(Uri uri, ContentValues contentValues, String selection,
+                          String[] selectionArgs) {
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            case PRODUCTS:
+                return updateProduct(uri, contentValues, selection, selectionArgs, null);
+            case PRODUCT_ID:
+                // For the PRODUCT_ID code, extract out the ID from the URI,
+                // so we know which row to update. Selection will be "_id=?" and selection
+                // arguments will be a String array containing the actual ID.
+                selection = ProductEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                return updateProduct(uri, contentValues, selection, selectionArgs, null);
+            case SUPPLIER_ID:
+                return updateSupplier(uri, contentValues);
+            case LOCATION_ID:
+                return updateLocation(uri, contentValues);
+            default:
+                throw new IllegalArgumentException("Update is not supported for " + uri);
+        }
+    }
+
+    /**
+     * Thrown by a versioned update of a product that is at another version than expected.
+     * Nothing is written.
+     */
+    private static final class VersionConflictException extends RuntimeException {
+    }
+
+    /**
+     * Update a single product only while it is at the expected version. Return the number of
+     * rows updated, or a conflict along with the current row and its version if the product
+     * changed since the caller read it, as described in {@link ProductEntry#METHOD_UPDATE_VERSIONED}.
+     */
+    private Bundle updateVersioned(long id, ContentValues values, long expectedVersion) {
+        Bundle result = new Bundle();
+        try {
+            result.putInt(ProductEntry.EXTRA_UPDATED, updateProduct(
+                    ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id), values,
+                    ProductEntry._ID + "=?", new String[] { String.valueOf(id) }, expectedVersion));
+            return result;
+        } catch (VersionConflictException e) {
+            result.putInt(ProductEntry.EXTRA_UPDATED, 0);
+        }
+
+        // The row is read with its version in one go, so the two always match. A product deleted
+        // right after the conflict is reported as missing.
+        Cursor cursor = queryCachedProduct(dbHelper.getReadableDatabase(), id, null);
+        try {
+            if (cursor.moveToFirst()) {
+                ContentValues current = new ContentValues();
+                DatabaseUtils.cursorRowToContentValues(cursor, current);
+                result.putBoolean(ProductEntry.EXTRA_CONFLICT, true);
+                result.putLong(ProductEntry.EXTRA_VERSION,
+                        current.getAsLong(ProductEntry.COLUMN_PRODUCT_VERSION));
+                result.putParcelable(ProductEntry.EXTRA_CURRENT, current);
+            }
+        } finally {
+            cursor.close();
+        }
+        return result;
+    }
+
+    /**
+     * Update products in the database with the given content values. Apply the changes to the rows
+     * specified in the selection and selection arguments (which could be 0 or 1 or more products).
+     * Return the number of rows that were successfully updated.
+     *
+     * @param expectedVersion version the single product of the selection must still be at, or
+     *                        null to update whatever the version; a product at another version
+     *                        is left as it is and {@link VersionConflictException} is thrown
+     */
+    private int updateProduct(Uri uri, ContentValues values, String selection,
+                              String[] selectionArgs, Long expectedVersion) {
+
+        // If the {@link ProductEntry#COLUMN_PRODUCT_NAME} key is present,
+        // check that the name value is not null.
+        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_NAME)) {
+            String productName = values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME);
+            if (productName == null) {
+                throw new IllegalArgumentException("Product requires a name");
+            }
+        }
+
+        // If the {@link ProductEntry#COLUMN_PRODUCT_PRICE} key is present,
+        // check that the gender value is valid.
+        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_PRICE)) {
+            Integer productPrice = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_PRICE);
+            if (productPrice == null || productPrice < 0) {
+                throw new IllegalArgumentException("Product requires a valid price");
+            }
+        }
+
+        // If the {@link ProductEntry#COLUMN_PRODUCT_SUPPLIER_NAME} key is present,
+        // check that the name value is not null.
+        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME)) {
+            String supplierName = values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME);
+            if (supplierName == null) {
+                throw new IllegalArgumentException("Product requires a supplier name");
+            }
+        }
+
+        // If the reorder point or quantity keys are present, check that they are valid
+        validateReorder(values);
+
+        // If there are no values to update, then don't try to update the database
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        // The supplier name is replaced by its ID, which must not show in the caller's values
+        values = new ContentValues(values);
+        values.put(ProductEntry.COLUMN_PRODUCT_UPDATED_AT, System.currentTimeMillis());
+        normalizeSku(values);
+
+        // Otherwise, get writeable database to update the data
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+
+        // Perform the update on the database and get the number of rows affected, along with
+        // the IDs of the rows so observers can be told exactly which rows changed
+        int rowsUpdated;
+        int movementsAppended = 0;
+        List<Long> changedIds;
+        SupplierResolver suppliers;
+        long transactionStart = System.nanoTime();
+        database.beginTransactionNonExclusive();
+        try {
+            // Checked before anything is written, as setting the quantity below already raises
+            // the version. Within the transaction no other write can slip in after the check.
+            if (expectedVersion != null) {
+                Cursor version = database.rawQuery(SQL_VERSION, selectionArgs);
+                try {
+                    if (!version.moveToFirst()) {
+                        return 0;
+                    }
+                    if (version.getLong(0) != expectedVersion) {
+                        throw new VersionConflictException();
+                    }
+                } finally {
+                    version.close();
+                }
+            }
+
+            suppliers = new SupplierResolver(database);
+            try {
+                suppliers.resolve(values);
+            } finally {
+                suppliers.close();
+            }
+            changedIds = queryChangedIds(database, selection, selectionArgs);
+
+            // A new quantity is recorded as an adjustment of every row it changes, which has to
+            // be computed from the old quantities before they are overwritten. It is then made
+            // up by the stock at the sales location, whose trigger sets the total.
+            Long quantity = values.getAsLong(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+            if (quantity != null) {
+                movementsAppended = StockLedger.appendAdjustments(database, quantity, selection,
+                        selectionArgs);
+                setSalesStock(database, quantity, selection, selectionArgs);
+                values.remove(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+            }
+            try {
+                rowsUpdated = database.update(ProductEntry.TABLE_NAME, values, selection,
+                        selectionArgs);
+            } catch (SQLiteConstraintException e) {
+                // The only unique column a product can be updated with
+                throw new IllegalArgumentException("Product SKU "
+                        + values.getAsString(ProductEntry.COLUMN_PRODUCT_SKU) + " is already used");
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            metrics.recordTransaction(OPERATION_UPDATE, transactionStart);
+        }
+
+        ledger.onAppended(movementsAppended);
+        notifySupplierChanges(suppliers);
+
+        // If 1 or more rows were updated, then drop them from the row cache and notify all
+        // listeners that these rows changed
+        if (rowsUpdated != 0) {
+            rowCache.invalidate(changedIds);
+            notifyRowChanges(ProductEntry.CHANGE_UPDATE, changedIds);
+            if (movementsAppended != 0) {
+                notifyChange(StockEntry.CONTENT_URI);
+            }
+        }
+
+        // Return the number of rows updated
+        return rowsUpdated;
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        long start = metrics.start();
+        int rows = 0;
+        boolean failed = true;
+        try {
+            rows = deleteUri(uri, selection, selectionArgs);
+            failed = false;
+            return rows;
+        } finally {
+            metrics.recordOperation(OPERATION_DELETE, routeName(uri), start, rows, failed);
+        }
+    }
+
+    private int deleteUri(Uri uri, String selection, String[] selectionArgs) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case PRODUCTS:
                 // Delete all rows that match the selection and selection args
-                rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             case PRODUCT_ID:
                 // Delete a single row given by the ID in the URI
                 selection = ProductEntry._ID + "=?";
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
                 break;
+            case SUPPLIERS:
+                return deleteSuppliers(selection, selectionArgs);
+            case SUPPLIER_ID:
+                return deleteSuppliers(SupplierEntry._ID + "=?",
+                        new String[] { String.valueOf(ContentUris.parseId(uri)) });
+            case LOCATIONS:
+                return deleteLocations(selection, selectionArgs);
+            case LOCATION_ID:
+                return deleteLocations(LocationEntry._ID + "=?",
+                        new String[] { String.valueOf(ContentUris.parseId(uri)) });
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
         }
 
-        // If 1 or more rows were deleted, then notify all listeners that the data at the
-        // given URI has changed
+        // Get writeable database
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+
+        // Track the number of rows that were deleted, and which ones
+        int rowsDeleted;
+        List<Long> deletedIds;
+        long transactionStart = System.nanoTime();
+        database.beginTransactionNonExclusive();
+        try {
+            deletedIds = queryChangedIds(database, selection, selectionArgs);
+            rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            metrics.recordTransaction(OPERATION_DELETE, transactionStart);
+        }
+
+        // If 1 or more rows were deleted, then drop them from the row cache and notify all
+        // listeners that these rows are gone
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            rowCache.invalidate(deletedIds);
+            notifyRowChanges(ProductEntry.CHANGE_DELETE, deletedIds);
+            notifyChange(StockEntry.CONTENT_URI);
         }
 
         // Return the number of rows deleted
         return rowsDeleted;
     }
 
+    /**
+     * Return the IDs of the rows matching the selection, or null if there are more than
+     * {@link #MAX_ROW_NOTIFICATIONS} of them. Must be called in the transaction of the write.
+     */
+    private static List<Long> queryChangedIds(SQLiteDatabase database, String selection,
+                                              String[] selectionArgs) {
+        Cursor cursor = database.query(ProductEntry.TABLE_NAME, new String[] { ProductEntry._ID },
+                selection, selectionArgs, null, null, null,
+                String.valueOf(MAX_ROW_NOTIFICATIONS + 1));
+        try {
+            if (cursor.getCount() > MAX_ROW_NOTIFICATIONS) {
+                return null;
+            }
+            List<Long> ids = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Insert a supplier with the given content values. Return the content URI of the new supplier,
+     * or null if there already is one with that name.
+     */
+    private Uri insertSupplier(Uri uri, ContentValues values) {
+        if (values.getAsString(SupplierEntry.COLUMN_SUPPLIER_NAME) == null) {
+            throw new IllegalArgumentException("Supplier requires a name");
+        }
+
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        long id = database.insert(SupplierEntry.TABLE_NAME, null, values);
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+
+        notifyChange(SupplierEntry.CONTENT_URI);
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Update the supplier whose ID is in the URI. This writes a single row however many products
+     * the supplier has; they all read the new name and phone number through the products view.
+     * Return the number of suppliers updated.
+     */
+    private int updateSupplier(Uri uri, ContentValues values) {
+        if (values.containsKey(SupplierEntry.COLUMN_SUPPLIER_NAME)
+                && values.getAsString(SupplierEntry.COLUMN_SUPPLIER_NAME) == null) {
+            throw new IllegalArgumentException("Supplier requires a name");
+        }
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        int rowsUpdated = database.update(SupplierEntry.TABLE_NAME, values, SupplierEntry._ID + "=?",
+                new String[] { String.valueOf(ContentUris.parseId(uri)) });
+
+        if (rowsUpdated != 0) {
+            // The products of the supplier aren't known here, so all cached rows are dropped
+            // and the products are notified as a whole
+            rowCache.invalidate(null);
+            notifyChange(SupplierEntry.CONTENT_URI);
+            notifyRowChanges(ProductEntry.CHANGE_UPDATE, null);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Delete the suppliers matching the selection that have no products; suppliers that still
+     * have products are kept. Return the number of suppliers deleted.
+     */
+    private int deleteSuppliers(String selection, String[] selectionArgs) {
+        String unused = SupplierEntry._ID + " NOT IN (SELECT "
+                + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + " FROM " + ProductEntry.TABLE_NAME + ")";
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        int rowsDeleted = database.delete(SupplierEntry.TABLE_NAME, TextUtils.isEmpty(selection)
+                ? unused : "(" + selection + ") AND " + unused, selectionArgs);
+        if (rowsDeleted != 0) {
+            notifyChange(SupplierEntry.CONTENT_URI);
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Set the stock at the sales location of the products matching the selection so that their
+     * totals become the given quantity, keeping the stock at the other locations. Throw an
+     * {@link IllegalArgumentException} if other locations hold more units than that. Must be
+     * called in the transaction of the write.
+     */
+    private static void setSalesStock(SQLiteDatabase database, long quantity, String selection,
+                                      String[] selectionArgs) {
+        String products = "(SELECT " + ProductEntry._ID + " FROM " + ProductEntry.TABLE_NAME
+                + (TextUtils.isEmpty(selection) ? "" : " WHERE " + selection) + ")";
+        String salesStock = StockEntry.COLUMN_STOCK_LOCATION_ID + " = "
+                + LocationEntry.SALES_LOCATION_ID + " AND " + StockEntry.COLUMN_STOCK_PRODUCT_ID
+                + " IN " + products;
+        String total = "(SELECT " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " FROM "
+                + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + " = "
+                + StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_STOCK_PRODUCT_ID + ")";
+        String elsewhere = total + " - " + StockEntry.COLUMN_STOCK_QUANTITY;
+
+        // The quantity is a number, so it goes into the SQL rather than being bound as text
+        if (DatabaseUtils.longForQuery(database, "SELECT COUNT(*) FROM " + StockEntry.TABLE_NAME
+                + " WHERE " + salesStock + " AND " + elsewhere + " > " + quantity, selectionArgs) != 0) {
+            throw new IllegalArgumentException("Product holds more than " + quantity
+                    + " units at other locations");
+        }
+        database.execSQL("UPDATE " + StockEntry.TABLE_NAME + " SET "
+                + StockEntry.COLUMN_STOCK_QUANTITY + " = " + quantity + " - (" + elsewhere + ")"
+                + " WHERE " + salesStock, selectionArgs == null ? new Object[0] : selectionArgs);
+    }
+
+    /**
+     * Insert a location with the given content values. Return the content URI of the new
+     * location, or null if there already is one with that name.
+     */
+    private Uri insertLocation(Uri uri, ContentValues values) {
+        if (values.getAsString(LocationEntry.COLUMN_LOCATION_NAME) == null) {
+            throw new IllegalArgumentException("Location requires a name");
+        }
+
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        long id = database.insert(LocationEntry.TABLE_NAME, null, values);
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+
+        notifyChange(LocationEntry.CONTENT_URI);
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Rename the location whose ID is in the URI. Return the number of locations updated.
+     */
+    private int updateLocation(Uri uri, ContentValues values) {
+        if (values.containsKey(LocationEntry.COLUMN_LOCATION_NAME)
+                && values.getAsString(LocationEntry.COLUMN_LOCATION_NAME) == null) {
+            throw new IllegalArgumentException("Location requires a name");
+        }
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        int rowsUpdated;
+        try {
+            rowsUpdated = database.update(LocationEntry.TABLE_NAME, values, LocationEntry._ID + "=?",
+                    new String[] { String.valueOf(ContentUris.parseId(uri)) });
+        } catch (SQLiteConstraintException e) {
+            throw new IllegalArgumentException("Location "
+                    + values.getAsString(LocationEntry.COLUMN_LOCATION_NAME) + " already exists");
+        }
+
+        if (rowsUpdated != 0) {
+            // The stock rows are read with the names of their locations
+            notifyChange(LocationEntry.CONTENT_URI);
+            notifyChange(StockEntry.CONTENT_URI);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Delete the locations matching the selection that hold no stock, along with their empty
+     * stock rows. The sales location and locations still holding units are kept, so deleting a
+     * location never changes a total. Return the number of locations deleted.
+     */
+    private int deleteLocations(String selection, String[] selectionArgs) {
+        String empty = LocationEntry._ID + " != " + LocationEntry.SALES_LOCATION_ID + " AND "
+                + LocationEntry._ID + " NOT IN (SELECT " + StockEntry.COLUMN_STOCK_LOCATION_ID
+                + " FROM " + StockEntry.TABLE_NAME + " WHERE " + StockEntry.COLUMN_STOCK_QUANTITY
+                + " != 0)";
+        String where = TextUtils.isEmpty(selection) ? empty : "(" + selection + ") AND " + empty;
+
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        int rowsDeleted;
+        long transactionStart = System.nanoTime();
+        database.beginTransactionNonExclusive();
+        try {
+            database.delete(StockEntry.TABLE_NAME, StockEntry.COLUMN_STOCK_LOCATION_ID
+                    + " IN (SELECT " + LocationEntry._ID + " FROM " + LocationEntry.TABLE_NAME
+                    + " WHERE " + where + ")", selectionArgs);
+            rowsDeleted = database.delete(LocationEntry.TABLE_NAME, where, selectionArgs);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            metrics.recordTransaction(TRANSACTION_DELETE_LOCATIONS, transactionStart);
+        }
+
+        if (rowsDeleted != 0) {
+            notifyChange(LocationEntry.CONTENT_URI);
+            notifyChange(StockEntry.CONTENT_URI);
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Notify the changes a product write made to the suppliers. A supplier whose phone number
+     * changed changes the rows of all its products, so these are dropped from the row cache and
+     * notified as a whole.
+     */
+    private void notifySupplierChanges(SupplierResolver suppliers) {
+        if (suppliers.suppliersUpdated()) {
+            rowCache.invalidate(null);
+            notifyRowChanges(ProductEntry.CHANGE_UPDATE, null);
+        }
+        if (suppliers.suppliersInserted() || suppliers.suppliersUpdated()) {
+            notifyChange(SupplierEntry.CONTENT_URI);
+        }
+    }
+
+    /**
+     * Notify all listeners of a change of the given rows, one URI per row built with
+     * {@link ProductEntry#buildChangeUri}, so a list can patch just these rows. When the rows are
+     * not known (ids is null), or there are more than {@link #MAX_ROW_NOTIFICATIONS} of them,
+     * notify a change of the whole {@link ProductEntry#CONTENT_URI}. The summary is below that
+     * URI but not below the row URIs, so when the rows are known it is notified on its own. The
+     * list model is brought up to date first, so the pages read by the listeners already have
+     * the change.
+     */
+    private void notifyRowChanges(String change, List<Long> ids) {
+        listModel.onRowsChanged(ids);
+        if (ids == null || ids.size() > MAX_ROW_NOTIFICATIONS) {
+            notifyChange(ProductEntry.CONTENT_URI);
+            return;
+        }
+        notifyChange(SummaryEntry.CONTENT_URI);
+        for (long id : ids) {
+            notifyChange(ProductEntry.buildChangeUri(change, id));
+        }
+    }
+
+    /** Notify all listeners of a change of the URI, counting it in the fan-out of the write */
+    private void notifyChange(Uri uri) {
+        metrics.countNotification();
+        getContext().getContentResolver().notifyChange(uri, null);
+    }
+
+    /** Return the name of the URI matcher code of the URI, as the metrics show it */
+    private static String routeName(Uri uri) {
+        int match = sUriMatcher.match(uri);
+        String name = ROUTE_NAMES.get(match);
+        return name != null ? name : String.valueOf(match);
+    }
+
     @Override
     public String getType(Uri uri) {
         final int match = sUriMatcher.match(uri);
@@ -278,8 +2022,647 @@ public class ProductProvider extends ContentProvider {
                 return ProductEntry.CONTENT_LIST_TYPE;
             case PRODUCT_ID:
                 return ProductEntry.CONTENT_ITEM_TYPE;
+            case PRODUCT_SKU:
+                return ProductEntry.CONTENT_ITEM_TYPE;
+            case PRODUCT_SEARCH:
+                return ProductEntry.CONTENT_LIST_TYPE;
+            case PRODUCT_EXPORT:
+                return ProductEntry.CSV_TYPE;
+            case PRODUCT_SUMMARY:
+                return SummaryEntry.CONTENT_ITEM_TYPE;
+            case PRODUCT_REORDER:
+                return ReorderEntry.CONTENT_LIST_TYPE;
+            case MOVEMENTS:
+                return MovementEntry.CONTENT_LIST_TYPE;
+            case SUPPLIERS:
+                return SupplierEntry.CONTENT_LIST_TYPE;
+            case SUPPLIER_ID:
+                return SupplierEntry.CONTENT_ITEM_TYPE;
+            case SUPPLIER_PRODUCTS:
+                return ProductEntry.CONTENT_LIST_TYPE;
+            case LOCATIONS:
+                return LocationEntry.CONTENT_LIST_TYPE;
+            case LOCATION_ID:
+                return LocationEntry.CONTENT_ITEM_TYPE;
+            case STOCK:
+                return StockEntry.CONTENT_LIST_TYPE;
+            case STOCK_PRODUCT:
+                return StockEntry.CONTENT_LIST_TYPE;
+            case SYNC_CHANGES:
+                return SyncEntry.CONTENT_CHANGES_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Open the {@link ProductEntry#EXPORT_URI} for reading. The catalog is written to one end of
+     * a pipe by a background thread while the caller reads the other end, so it is never held in
+     * memory or written to a temporary file.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (sUriMatcher.match(uri) != PRODUCT_EXPORT || !"r".equals(mode)) {
+            throw new FileNotFoundException("Cannot open " + uri + " in mode " + mode);
+        }
+
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Cannot create a pipe for " + uri + ": " + e);
+        }
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                exportProducts(new ParcelFileDescriptor.AutoCloseOutputStream(pipe[1]));
+            }
+        }, "ProductExport").start();
+        return pipe[0];
+    }
+
+    /**
+     * Write every product as CSV, reading them in batches ordered by ID where each batch starts
+     * after the last ID of the previous one, so the cursors stay small whatever the table size.
+     */
+    void exportProducts(OutputStream out) {
+        SQLiteDatabase database = dbHelper.getReadableDatabase();
+        int idColumn = EXPORT_PROJECTION.length - 1;
+        String[] fields = new String[ProductCsv.COLUMNS.size()];
+        int rowsExported = 0;
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+            try {
+                ProductCsv.writeRecord(writer, ProductCsv.COLUMNS.toArray(fields));
+
+                long lastId = 0;
+                int batchCount;
+                do {
+                    Cursor cursor = database.query(ProductEntry.VIEW_NAME, EXPORT_PROJECTION,
+                            ProductEntry._ID + " > ?", new String[] { String.valueOf(lastId) },
+                            null, null, ProductEntry._ID, String.valueOf(EXPORT_BATCH_SIZE));
+                    try {
+                        batchCount = cursor.getCount();
+                        while (cursor.moveToNext()) {
+                            for (int i = 0; i < fields.length; i++) {
+                                fields[i] = cursor.getString(i);
+                            }
+                            ProductCsv.writeRecord(writer, fields);
+                            lastId = cursor.getLong(idColumn);
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                    rowsExported += batchCount;
+                } while (batchCount == EXPORT_BATCH_SIZE);
+            } finally {
+                writer.close();
+            }
+            Log.i(LOG_TAG, "Exported " + rowsExported + " products");
+        } catch (IOException e) {
+            // Usually the reader closed its end before the end of the catalog
+            Log.w(LOG_TAG, "Export stopped after " + rowsExported + " products", e);
+        }
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        long start = metrics.start();
+        boolean failed = true;
+        try {
+            Bundle result = callMethod(method, arg, extras);
+            failed = false;
+            return result;
+        } finally {
+            metrics.recordOperation(OPERATION_CALL, method, start, 0, failed);
+        }
+    }
+
+    private Bundle callMethod(String method, String arg, Bundle extras) {
+        switch (method) {
+            case ProductEntry.METHOD_SELL:
+                int amount = extras == null ? 1 : extras.getInt(ProductEntry.EXTRA_AMOUNT, 1);
+                return sellProduct(Long.parseLong(arg), amount);
+            case ProductEntry.METHOD_SELL_SKU:
+                int skuAmount = extras == null ? 1 : extras.getInt(ProductEntry.EXTRA_AMOUNT, 1);
+                return sellSku(arg, skuAmount);
+            case ProductEntry.METHOD_BULK_INSERT:
+                if (extras == null) {
+                    throw new IllegalArgumentException("Bulk insert requires rows");
+                }
+                List<ContentValues> rows = extras.getParcelableArrayList(ProductEntry.EXTRA_ROWS);
+                return bulkInsertRows(rows == null ? Collections.<ContentValues>emptyList() : rows);
+            case ProductEntry.METHOD_UPDATE_VERSIONED:
+                ContentValues values = extras == null
+                        ? null : (ContentValues) extras.getParcelable(ProductEntry.EXTRA_VALUES);
+                if (values == null || !extras.containsKey(ProductEntry.EXTRA_EXPECTED_VERSION)) {
+                    throw new IllegalArgumentException("Versioned update requires values and a version");
+                }
+                return updateVersioned(Long.parseLong(arg), values,
+                        extras.getLong(ProductEntry.EXTRA_EXPECTED_VERSION));
+            case ProductEntry.METHOD_CACHE_STATS:
+                Bundle stats = new Bundle();
+                stats.putInt(ProductEntry.EXTRA_CACHE_HITS, rowCache.hitCount());
+                stats.putInt(ProductEntry.EXTRA_CACHE_MISSES, rowCache.missCount());
+                stats.putInt(ProductEntry.EXTRA_CACHE_BYTES, rowCache.size());
+                return stats;
+            case ProductEntry.METHOD_METRICS:
+                return metrics.snapshot();
+            case StockEntry.METHOD_TRANSFER:
+                if (extras == null) {
+                    throw new IllegalArgumentException("Transfer requires locations and an amount");
+                }
+                return transfer(Long.parseLong(arg),
+                        extras.getLong(StockEntry.EXTRA_FROM_LOCATION_ID),
+                        extras.getLong(StockEntry.EXTRA_TO_LOCATION_ID),
+                        extras.getInt(StockEntry.EXTRA_AMOUNT));
+            case SyncEntry.METHOD_STATE:
+                return readSyncState();
+            case SyncEntry.METHOD_ACK:
+                if (extras == null) {
+                    throw new IllegalArgumentException("Sync acknowledgement requires a version");
+                }
+                acknowledgeChanges(extras.getLong(SyncEntry.EXTRA_VERSION));
+                return new Bundle();
+            case SyncEntry.METHOD_APPLY:
+                if (extras == null) {
+                    throw new IllegalArgumentException("Sync apply requires changes and a cursor");
+                }
+                List<ContentValues> changes = extras.getParcelableArrayList(SyncEntry.EXTRA_CHANGES);
+                return applyChanges(changes == null ? Collections.<ContentValues>emptyList() : changes,
+                        extras.getLong(SyncEntry.EXTRA_CURSOR));
+            case MovementEntry.METHOD_COMPACT:
+                Bundle compaction = new Bundle();
+                compaction.putInt(MovementEntry.EXTRA_FOLDED,
+                        ledger.compact(System.currentTimeMillis() - StockLedger.RETENTION_MS));
+                return compaction;
+            default:
+                return super.call(method, arg, extras);
+        }
+    }
+
+    /**
+     * Print the metrics and the row cache figures, for
+     * adb shell dumpsys activity provider com.example.android.inventoryapp/.data.ProductProvider
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("Row cache: " + rowCache.hitCount() + " hits, " + rowCache.missCount()
+                + " misses, " + rowCache.size() + " bytes");
+        metrics.dump(writer);
+    }
+
+    /**
+     * Sell the given amount of units of a product. The stock check and the decrement happen in one
+     * conditional UPDATE, so a sale that would take the quantity below zero simply matches no row
+     * and is reported as sold out without reading the row first.
+     */
+    private Bundle sellProduct(long id, int amount) {
+        // Check that the amount is valid
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Sale requires a positive amount");
+        }
+
+        Bundle result = new Bundle();
+
+        // Get writeable database
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+
+        long transactionStart = System.nanoTime();
+        database.beginTransactionNonExclusive();
+        try {
+            sell(database, id, amount, result);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            metrics.recordTransaction(TRANSACTION_SELL, transactionStart);
+        }
+
+        onSold(id, result);
+        return result;
+    }
+
+    /**
+     * Sell the given amount of units of the product with a SKU, as read by a barcode scanner. The
+     * product is found through the unique SKU index in the same transaction as the sale, so a
+     * scan costs one index lookup and the conditional UPDATE of {@link #sellProduct}.
+     */
+    private Bundle sellSku(String sku, int amount) {
+        // Check that the SKU and the amount are valid
+        sku = normalizeSku(sku);
+        if (sku == null) {
+            throw new IllegalArgumentException("Sale requires a SKU");
+        }
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Sale requires a positive amount");
+        }
+
+        Bundle result = new Bundle();
+
+        // Get writeable database
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+
+        long id = -1;
+        long transactionStart = System.nanoTime();
+        database.beginTransactionNonExclusive();
+        try {
+            Cursor product = database.rawQuery(SQL_FIND_SKU, new String[] { sku });
+            try {
+                if (product.moveToFirst()) {
+                    id = product.getLong(0);
+                    result.putLong(ProductEntry.EXTRA_ID, id);
+                    result.putString(ProductEntry.EXTRA_NAME, product.getString(1));
+                }
+            } finally {
+                product.close();
+            }
+            if (id == -1) {
+                // No product has the SKU
+                result.putBoolean(ProductEntry.EXTRA_SOLD_OUT, true);
+            } else {
+                sell(database, id, amount, result);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            metrics.recordTransaction(TRANSACTION_SELL_SKU, transactionStart);
+        }
+
+        onSold(id, result);
+        return result;
+    }
+
+    /**
+     * Sell units of a product inside the current transaction, putting the new quantity, or that
+     * the product is sold out, into the result.
+     */
+    private static void sell(SQLiteDatabase database, long id, int amount, Bundle result) {
+        SQLiteStatement sell = database.compileStatement(SQL_SELL);
+        int rowsUpdated;
+        try {
+            sell.bindLong(1, amount);
+            sell.bindLong(2, id);
+            sell.bindLong(3, amount);
+            rowsUpdated = sell.executeUpdateDelete();
+        } finally {
+            sell.close();
+        }
+
+        if (rowsUpdated == 0) {
+            // Either the product doesn't exist or there is not enough stock left
+            result.putBoolean(ProductEntry.EXTRA_SOLD_OUT, true);
+            return;
+        }
+        SQLiteStatement touch = database.compileStatement(SQL_TOUCH);
+        try {
+            touch.bindLong(1, System.currentTimeMillis());
+            touch.bindLong(2, id);
+            touch.executeUpdateDelete();
+        } finally {
+            touch.close();
+        }
+        StockLedger.append(database, id, -amount, MovementEntry.REASON_SALE);
+
+        SQLiteStatement quantity = database.compileStatement(SQL_QUANTITY);
+        try {
+            quantity.bindLong(1, id);
+            result.putInt(ProductEntry.EXTRA_QUANTITY, (int) quantity.simpleQueryForLong());
+        } finally {
+            quantity.close();
+        }
+    }
+
+    /**
+     * Drop the old quantity of a sold product from the row cache and notify all listeners that
+     * it has changed, unless nothing was sold.
+     */
+    private void onSold(long id, Bundle result) {
+        if (!result.getBoolean(ProductEntry.EXTRA_SOLD_OUT)) {
+            ledger.onAppended(1);
+            rowCache.invalidate(id);
+            notifyRowChanges(ProductEntry.CHANGE_UPDATE, Collections.singletonList(id));
+            notifyChange(StockEntry.buildProductUri(id));
+        }
+    }
+
+    /**
+     * Move units of a product from one location to another in a single transaction. The units
+     * are taken off the first location by a conditional UPDATE, like a sale, so a transfer never
+     * takes a location below zero; the total of the product, the list and the summary stay the
+     * same, so only the stock of the product is notified.
+     */
+    private Bundle transfer(long productId, long fromLocationId, long toLocationId, int amount) {
+        // Check that the locations and the amount are valid
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Transfer requires a positive amount");
+        }
+        if (fromLocationId == toLocationId) {
+            throw new IllegalArgumentException("Transfer requires two different locations");
+        }
+
+        Bundle result = new Bundle();
+
+        // Get writeable database
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+
+        long transactionStart = System.nanoTime();
+        database.beginTransactionNonExclusive();
+        try {
+            SQLiteStatement out = database.compileStatement(SQL_TRANSFER_OUT);
+            int rowsUpdated;
+            try {
+                out.bindLong(1, amount);
+                out.bindLong(2, productId);
+                out.bindLong(3, fromLocationId);
+                out.bindLong(4, amount);
+                rowsUpdated = out.executeUpdateDelete();
+            } finally {
+                out.close();
+            }
+
+            if (rowsUpdated == 0) {
+                // Either the product has no stock there or not enough of it
+                result.putBoolean(StockEntry.EXTRA_SHORT, true);
+            } else {
+                SQLiteStatement row = database.compileStatement(SQL_STOCK_ROW);
+                SQLiteStatement in = database.compileStatement(SQL_TRANSFER_IN);
+                try {
+                    row.bindLong(1, productId);
+                    row.bindLong(2, toLocationId);
+                    row.executeInsert();
+                    in.bindLong(1, amount);
+                    in.bindLong(2, productId);
+                    in.bindLong(3, toLocationId);
+                    in.executeUpdateDelete();
+                } catch (SQLiteConstraintException e) {
+                    throw new IllegalArgumentException("Unknown location " + toLocationId);
+                } finally {
+                    row.close();
+                    in.close();
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            metrics.recordTransaction(TRANSACTION_TRANSFER, transactionStart);
+        }
+
+        if (!result.getBoolean(StockEntry.EXTRA_SHORT)) {
+            notifyChange(StockEntry.buildProductUri(productId));
+        }
+        return result;
+    }
+
+    /**
+     * Return the ID of this device and the position of the server changes received so far.
+     */
+    private Bundle readSyncState() {
+        Cursor cursor = dbHelper.getReadableDatabase().query(SyncEntry.STATE_TABLE_NAME,
+                new String[] { SyncEntry.COLUMN_DEVICE_ID, SyncEntry.COLUMN_PULL_CURSOR },
+                null, null, null, null, null);
+        try {
+            Bundle state = new Bundle();
+            if (cursor.moveToFirst()) {
+                state.putString(SyncEntry.EXTRA_DEVICE_ID, cursor.getString(0));
+                state.putLong(SyncEntry.EXTRA_CURSOR, cursor.getLong(1));
+            }
+            return state;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Mark the changes read from {@link SyncEntry#CHANGES_URI} up to the given version as sent
+     * to the sync server. Nothing readers see changes, so nothing is notified.
+     */
+    private void acknowledgeChanges(long version) {
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+
+        long transactionStart = System.nanoTime();
+        database.beginTransactionNonExclusive();
+        try {
+            // The products are marked against the last version sent before it moves on
+            String[] sql = { SQL_ACK_PRODUCTS, SQL_ACK_TOMBSTONES, SQL_ACK_STATE };
+            for (String statement : sql) {
+                SQLiteStatement ack = database.compileStatement(statement);
+                try {
+                    ack.bindLong(1, version);
+                    ack.execute();
+                } finally {
+                    ack.close();
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            metrics.recordTransaction(TRANSACTION_SYNC_ACK, transactionStart);
+        }
+    }
+
+    /**
+     * Apply a chunk of changes received from the sync server in a single transaction, and store
+     * the server position after them in the same transaction, so a sync that stops halfway
+     * resumes from the last chunk applied. Products are matched by sync ID. Received products
+     * are written with a new version that is also their synced version, so they are not sent
+     * back. A product changed or deleted here since it was last sent keeps its change, which
+     * the next sync sends.
+     *
+     * The quantity received is the stock the other devices added and sold, so the local
+     * quantity moves by what that changed since it was last received, keeping the sales made
+     * here on top of it, even for a product changed here. A quantity the other locations here
+     * can't make up keeps the local quantity and the product is sent back with it. A row that
+     * isn't a valid product is skipped. Observers are notified once for the whole chunk.
+     */
+    private Bundle applyChanges(List<ContentValues> changes, long cursor) {
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+
+        long now = System.currentTimeMillis();
+        int applied = 0;
+        int movementsAppended = 0;
+        SupplierResolver suppliers;
+        long transactionStart = System.nanoTime();
+        database.beginTransactionNonExclusive();
+        try {
+            SQLiteStatement nextVersion = database.compileStatement(SQL_NEXT_VERSION);
+            SQLiteStatement lastVersion = database.compileStatement(SQL_LAST_VERSION);
+            SQLiteStatement findTombstone = database.compileStatement(SQL_FIND_TOMBSTONE);
+            SQLiteStatement append = StockLedger.compileAppend(database);
+            suppliers = new SupplierResolver(database);
+            try {
+                for (ContentValues change : changes) {
+                    String syncId = change.getAsString(SyncEntry.COLUMN_SYNC_ID);
+                    if (syncId == null) {
+                        throw new IllegalArgumentException("Change requires a sync ID");
+                    }
+
+                    long id = -1;
+                    long quantity = 0;
+                    long received = 0;
+                    boolean pending = false;
+                    Cursor local = database.rawQuery(SQL_FIND_SYNC_ID, new String[] { syncId });
+                    try {
+                        if (local.moveToFirst()) {
+                            id = local.getLong(0);
+                            quantity = local.getLong(1);
+                            pending = local.getLong(2) != local.getLong(3);
+                            received = local.getLong(4);
+                        }
+                    } finally {
+                        local.close();
+                    }
+                    findTombstone.bindString(1, syncId);
+                    if (id == -1 && findTombstone.simpleQueryForLong() != 0) {
+                        continue;
+                    }
+
+                    Integer deleted = change.getAsInteger(SyncEntry.COLUMN_DELETED);
+                    if (deleted != null && deleted != 0) {
+                        if (id != -1 && !pending) {
+                            database.delete(ProductEntry.TABLE_NAME, ProductEntry._ID + "=?",
+                                    new String[] { String.valueOf(id) });
+                            // The delete came from the server, so its tombstone has nothing to send
+                            database.delete(SyncEntry.TOMBSTONES_TABLE_NAME,
+                                    SyncEntry.COLUMN_SYNC_ID + "=?", new String[] { syncId });
+                            applied++;
+                        }
+                        continue;
+                    }
+
+                    // Only the product columns of the change are written
+                    ContentValues values = new ContentValues(change);
+                    for (String column : change.keySet()) {
+                        if (!CHANGE_COLUMNS.containsKey(column)) {
+                            values.remove(column);
+                        }
+                    }
+                    values.remove(SyncEntry.COLUMN_SYNC_ID);
+                    values.remove(SyncEntry.COLUMN_VERSION);
+                    values.remove(SyncEntry.COLUMN_DELETED);
+                    Long remoteQuantity = values.getAsLong(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+                    values.remove(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+                    if (!pending) {
+                        if (values.getAsLong(ProductEntry.COLUMN_PRODUCT_UPDATED_AT) == null) {
+                            values.put(ProductEntry.COLUMN_PRODUCT_UPDATED_AT, now);
+                        }
+                        normalizeSku(values);
+                        try {
+                            validateProduct(values);
+                            suppliers.resolve(values);
+                        } catch (IllegalArgumentException e) {
+                            Log.w(LOG_TAG, "Skipped invalid product " + syncId + " from sync", e);
+                            continue;
+                        }
+                    }
+
+                    // The quantity goes through the sales location like one set by hand, before
+                    // the version is taken, since the total raises it
+                    String[] idArgs = { String.valueOf(id) };
+                    boolean quantityKept = false;
+                    boolean quantityChanged = false;
+                    if (id != -1 && remoteQuantity != null && remoteQuantity != received) {
+                        long delta = remoteQuantity - received;
+                        try {
+                            setSalesStock(database, quantity + delta, ProductEntry._ID + "=?",
+                                    idArgs);
+                            StockLedger.append(append, id, delta, MovementEntry.REASON_SYNC, now);
+                            movementsAppended++;
+                        } catch (IllegalArgumentException e) {
+                            Log.w(LOG_TAG, "Kept the quantity of product " + syncId, e);
+                            quantityKept = true;
+                        }
+                        quantityChanged = true;
+                    }
+                    if (pending) {
+                        // The other columns changed here win, the next sync sends them
+                        if (quantityChanged) {
+                            ContentValues receivedValues = new ContentValues();
+                            receivedValues.put(ProductEntry.COLUMN_PRODUCT_RECEIVED_QUANTITY,
+                                    remoteQuantity);
+                            database.update(ProductEntry.TABLE_NAME, receivedValues,
+                                    ProductEntry._ID + "=?", idArgs);
+                            applied++;
+                        }
+                        continue;
+                    }
+                    if (remoteQuantity != null) {
+                        values.put(ProductEntry.COLUMN_PRODUCT_RECEIVED_QUANTITY, remoteQuantity);
+                    }
+
+                    if (id == -1) {
+                        long initial = remoteQuantity == null ? 0 : remoteQuantity;
+                        long version = nextVersion(nextVersion, lastVersion);
+                        values.put(ProductEntry.COLUMN_PRODUCT_SYNC_ID, syncId);
+                        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, initial);
+                        values.put(ProductEntry.COLUMN_PRODUCT_VERSION, version);
+                        values.put(ProductEntry.COLUMN_PRODUCT_SYNCED_VERSION, version);
+                        try {
+                            id = database.insertOrThrow(ProductEntry.TABLE_NAME, null, values);
+                        } catch (SQLiteConstraintException e) {
+                            // The SKU belongs to another product here
+                            Log.w(LOG_TAG, "Dropped duplicate SKU of product " + syncId);
+                            values.putNull(ProductEntry.COLUMN_PRODUCT_SKU);
+                            id = database.insertOrThrow(ProductEntry.TABLE_NAME, null, values);
+                        }
+                        if (initial != 0) {
+                            StockLedger.append(append, id, initial, MovementEntry.REASON_INITIAL, now);
+                            movementsAppended++;
+                        }
+                    } else {
+                        long version = nextVersion(nextVersion, lastVersion);
+                        values.put(ProductEntry.COLUMN_PRODUCT_VERSION, version);
+                        values.put(ProductEntry.COLUMN_PRODUCT_SYNCED_VERSION,
+                                quantityKept ? 0 : version);
+                        try {
+                            database.update(ProductEntry.TABLE_NAME, values,
+                                    ProductEntry._ID + "=?", idArgs);
+                        } catch (SQLiteConstraintException e) {
+                            Log.w(LOG_TAG, "Kept the SKU of product " + syncId);
+                            values.remove(ProductEntry.COLUMN_PRODUCT_SKU);
+                            database.update(ProductEntry.TABLE_NAME, values,
+                                    ProductEntry._ID + "=?", idArgs);
+                        }
+                    }
+                    applied++;
+                }
+
+                SQLiteStatement pullCursor = database.compileStatement(SQL_PULL_CURSOR);
+                try {
+                    pullCursor.bindLong(1, cursor);
+                    pullCursor.execute();
+                } finally {
+                    pullCursor.close();
+                }
+            } finally {
+                nextVersion.close();
+                lastVersion.close();
+                findTombstone.close();
+                append.close();
+                suppliers.close();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            metrics.recordTransaction(TRANSACTION_SYNC_APPLY, transactionStart);
+        }
+
+        ledger.onAppended(movementsAppended);
+        notifySupplierChanges(suppliers);
+        if (applied != 0) {
+            rowCache.invalidate(null);
+            notifyRowChanges(ProductEntry.CHANGE_UPDATE, null);
+            notifyChange(StockEntry.CONTENT_URI);
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(SyncEntry.EXTRA_APPLIED, applied);
+        return result;
+    }
+
+    /** Hand out the next version with the statements of {@link #applyChanges} */
+    private static long nextVersion(SQLiteStatement nextVersion, SQLiteStatement lastVersion) {
+        nextVersion.execute();
+        return lastVersion.simpleQueryForLong();
+    }
+}
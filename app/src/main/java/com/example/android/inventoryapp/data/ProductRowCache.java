@@ -0,0 +1,195 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.LruCache;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link ProductRowCache} keeps the most recently read product rows in memory, keyed by product
+ * ID, so {@link ProductProvider} can answer single-product queries without going to SQLite. The
+ * cache is bounded by an estimate of the bytes its rows take, not by a number of rows.
+ *
+ * A row read from the database is only cached if nothing was invalidated while it was being read,
+ * so a read racing with a write can never put back the version the write replaced. Writers must
+ * invalidate the rows they changed after their transaction is committed.
+ *
+ * This class is thread-safe.
+ */
+final class ProductRowCache {
+
+    /** Columns of a cached row, in the order of its values */
+    static final List<String> COLUMNS = Arrays.asList(
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER,
+            ProductEntry.COLUMN_PRODUCT_REORDER_POINT,
+            ProductEntry.COLUMN_PRODUCT_REORDER_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_UPDATED_AT,
+            ProductEntry.COLUMN_PRODUCT_SKU,
+            ProductEntry.COLUMN_PRODUCT_VERSION);
+
+    /** Columns a row is read with, and returned with when no projection is given */
+    static final String[] PROJECTION = COLUMNS.toArray(new String[COLUMNS.size()]);
+
+    /** Rough size in bytes of a cached row without its strings: entry, key, array and numbers */
+    private static final int ROW_OVERHEAD_BYTES = 160;
+
+    /** Rough size in bytes of a string without its characters */
+    private static final int STRING_OVERHEAD_BYTES = 40;
+
+    private final LruCache<Long, Object[]> rows;
+
+    /** Bumped by every invalidation, so reads that started before can tell */
+    private long invalidations;
+
+    /**
+     * Constructs a new {@link ProductRowCache}.
+     *
+     * @param maxBytes memory budget of the cached rows, in bytes
+     */
+    ProductRowCache(int maxBytes) {
+        rows = new LruCache<Long, Object[]>(maxBytes) {
+            @Override
+            protected int sizeOf(Long id, Object[] row) {
+                int size = ROW_OVERHEAD_BYTES;
+                for (Object value : row) {
+                    if (value instanceof String) {
+                        size += STRING_OVERHEAD_BYTES + 2 * ((String) value).length();
+                    }
+                }
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Return whether every column of the projection can be served from the cache.
+     */
+    static boolean canServe(String[] projection) {
+        if (projection == null) {
+            return true;
+        }
+        for (String column : projection) {
+            if (!COLUMNS.contains(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return a cursor with the cached row of the given product and the given projection, or null
+     * if the row is not cached. Counts as a hit or a miss.
+     */
+    Cursor query(long id, String[] projection) {
+        Object[] row = rows.get(id);
+        return row == null ? null : toCursor(row, projection);
+    }
+
+    /**
+     * Return a token to pass to {@link #put} with the row read right after this call.
+     */
+    synchronized long beginRead() {
+        return invalidations;
+    }
+
+    /**
+     * Read the first row of a cursor with the {@link #PROJECTION} columns, and close it. Cache the
+     * row unless something was invalidated since the token was taken. Return a cursor with the
+     * row and the given projection, which is empty if the cursor had no row.
+     */
+    Cursor put(long token, Cursor cursor, String[] projection) {
+        Object[] row;
+        try {
+            if (!cursor.moveToFirst()) {
+                return toCursor(null, projection);
+            }
+            row = new Object[COLUMNS.size()];
+            for (int i = 0; i < row.length; i++) {
+                switch (cursor.getType(i)) {
+                    case Cursor.FIELD_TYPE_NULL:
+                        break;
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        row[i] = cursor.getLong(i);
+                        break;
+                    default:
+                        row[i] = cursor.getString(i);
+                        break;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        synchronized (this) {
+            if (token == invalidations) {
+                rows.put((Long) row[0], row);
+            }
+        }
+        return toCursor(row, projection);
+    }
+
+    /**
+     * Drop the cached row of a product.
+     */
+    synchronized void invalidate(long id) {
+        invalidations++;
+        rows.remove(id);
+    }
+
+    /**
+     * Drop the cached rows of the given products, or every cached row if ids is null.
+     */
+    synchronized void invalidate(List<Long> ids) {
+        invalidations++;
+        if (ids == null) {
+            rows.evictAll();
+            return;
+        }
+        for (long id : ids) {
+            rows.remove(id);
+        }
+    }
+
+    /** Number of queries answered from the cache */
+    int hitCount() {
+        return rows.hitCount();
+    }
+
+    /** Number of queries that had to read the database */
+    int missCount() {
+        return rows.missCount();
+    }
+
+    /** Estimated size in bytes of the cached rows */
+    int size() {
+        return rows.size();
+    }
+
+    /**
+     * Return a cursor holding the given row, or no row if it is null, with the given projection.
+     */
+    private static Cursor toCursor(Object[] row, String[] projection) {
+        if (projection == null) {
+            projection = PROJECTION;
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        if (row != null) {
+            Object[] values = new Object[projection.length];
+            for (int i = 0; i < projection.length; i++) {
+                values[i] = row[COLUMNS.indexOf(projection[i])];
+            }
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+}
@@ -0,0 +1,242 @@
+package com.example.android.inventoryapp.data;
+
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * {@link ProviderMetrics} measures what {@link ProductProvider} does: the latency of every
+ * operation per kind of URI, the rows it returned or affected, the change notifications it sent,
+ * and the time spent inside every write transaction. Latencies go into histograms with fixed
+ * power of two buckets, so recording one is a few additions and memory stays the same however
+ * long the process lives.
+ *
+ * Notifications are counted on the thread of the operation that sends them, between
+ * {@link #start} and {@link #recordOperation}, which is how the fan-out of every write is known.
+ *
+ * This class is thread-safe.
+ */
+final class ProviderMetrics {
+
+    /** Inclusive upper bounds of the latency buckets, in milliseconds */
+    private static final long[] LATENCY_BOUNDS_MS =
+            {1, 2, 4, 8, 16, 32, 64, 128, 256, 512, 1024};
+
+    /** The same bounds in microseconds, the unit latencies are recorded in */
+    private static final long[] LATENCY_BOUNDS_US = new long[LATENCY_BOUNDS_MS.length];
+
+    static {
+        for (int i = 0; i < LATENCY_BOUNDS_MS.length; i++) {
+            LATENCY_BOUNDS_US[i] = LATENCY_BOUNDS_MS[i] * 1000;
+        }
+    }
+
+    /** Inclusive upper bounds of the fan-out buckets, in notifications */
+    private static final long[] FAN_OUT_BOUNDS = {0, 1, 2, 4, 8, 16, 32, 64};
+
+    /**
+     * Counts of calls per bucket of some value, along with their number, sum and largest value.
+     */
+    private static final class Histogram {
+        private final long[] bounds;
+        private final long[] buckets;
+        private long count;
+        private long total;
+        private long max;
+
+        Histogram(long[] bounds) {
+            this.bounds = bounds;
+            buckets = new long[bounds.length + 1];
+        }
+
+        void record(long value) {
+            int bucket = 0;
+            while (bucket < bounds.length && value > bounds[bucket]) {
+                bucket++;
+            }
+            buckets[bucket]++;
+            count++;
+            total += value;
+            if (value > max) {
+                max = value;
+            }
+        }
+    }
+
+    /** Figures of an operation, or of the transactions of a write */
+    private static final class Stats {
+
+        /** Latencies in microseconds, bucketed by milliseconds */
+        final Histogram latency = new Histogram(LATENCY_BOUNDS_US);
+        long errors;
+        long rows;
+
+        /** Notifications sent per call, only kept for operations */
+        final Histogram fanOut = new Histogram(FAN_OUT_BOUNDS);
+    }
+
+    /** Figures by operation and kind of URI, such as "query products" */
+    private final Map<String, Stats> operations = new TreeMap<>();
+
+    /** Figures of the write transactions by write */
+    private final Map<String, Stats> transactions = new TreeMap<>();
+
+    /** Notifications sent so far by the operation running on each thread */
+    private final ThreadLocal<int[]> notified = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    private final long createdAt = SystemClock.elapsedRealtime();
+
+    /**
+     * Start measuring an operation on the calling thread. Return the start time to pass to
+     * {@link #recordOperation}.
+     */
+    long start() {
+        notified.get()[0] = 0;
+        return System.nanoTime();
+    }
+
+    /** Count a change notification sent by the operation running on the calling thread */
+    void countNotification() {
+        notified.get()[0]++;
+    }
+
+    /**
+     * Record an operation started by {@link #start} on the calling thread.
+     *
+     * @param operation what was called, such as "query" or "update"
+     * @param route     kind of URI or name of the method it was called with
+     * @param rows      rows returned or affected
+     * @param failed    whether the operation threw
+     */
+    void recordOperation(String operation, String route, long start, int rows, boolean failed) {
+        long micros = (System.nanoTime() - start) / 1000;
+        int fanOut = notified.get()[0];
+        synchronized (this) {
+            Stats stats = stats(operations, operation + " " + route);
+            stats.latency.record(micros);
+            stats.rows += rows;
+            stats.fanOut.record(fanOut);
+            if (failed) {
+                stats.errors++;
+            }
+        }
+    }
+
+    /**
+     * Record the time a write transaction was held, from before it began to after it ended.
+     *
+     * @param write name of the write, such as "insert" or "sell"
+     * @param start {@link System#nanoTime} before the transaction began
+     */
+    void recordTransaction(String write, long start) {
+        long micros = (System.nanoTime() - start) / 1000;
+        synchronized (this) {
+            stats(transactions, write).latency.record(micros);
+        }
+    }
+
+    /**
+     * Return all figures in the format described by {@link ProductEntry#METHOD_METRICS}.
+     */
+    synchronized Bundle snapshot() {
+        Bundle snapshot = new Bundle();
+        snapshot.putBundle(ProductEntry.EXTRA_METRIC_OPERATIONS, toBundle(operations, true));
+        snapshot.putBundle(ProductEntry.EXTRA_METRIC_TRANSACTIONS, toBundle(transactions, false));
+        snapshot.putLongArray(ProductEntry.EXTRA_METRIC_LATENCY_BOUNDS, LATENCY_BOUNDS_MS.clone());
+        snapshot.putLongArray(ProductEntry.EXTRA_METRIC_FAN_OUT_BOUNDS, FAN_OUT_BOUNDS.clone());
+        return snapshot;
+    }
+
+    /**
+     * Print all figures, one line per operation or transaction followed by its latency buckets.
+     */
+    synchronized void dump(PrintWriter writer) {
+        writer.println("Metrics over the last "
+                + (SystemClock.elapsedRealtime() - createdAt) / 1000 + " s");
+        writer.println("Operations:");
+        for (Map.Entry<String, Stats> entry : operations.entrySet()) {
+            Stats stats = entry.getValue();
+            writer.print("  " + entry.getKey() + ": ");
+            printLatency(writer, stats);
+            writer.print(", " + stats.rows + " rows, " + stats.errors + " errors");
+            if (stats.fanOut.total != 0) {
+                writer.print(", " + stats.fanOut.total + " notifications (max "
+                        + stats.fanOut.max + " per call)");
+            }
+            writer.println();
+            printBuckets(writer, stats.latency, LATENCY_BOUNDS_MS, " ms");
+            if (stats.fanOut.total != 0) {
+                printBuckets(writer, stats.fanOut, FAN_OUT_BOUNDS, " uris");
+            }
+        }
+        writer.println("Transactions:");
+        for (Map.Entry<String, Stats> entry : transactions.entrySet()) {
+            writer.print("  " + entry.getKey() + ": ");
+            printLatency(writer, entry.getValue());
+            writer.println();
+            printBuckets(writer, entry.getValue().latency, LATENCY_BOUNDS_MS, " ms");
+        }
+    }
+
+    private static Stats stats(Map<String, Stats> map, String key) {
+        Stats stats = map.get(key);
+        if (stats == null) {
+            stats = new Stats();
+            map.put(key, stats);
+        }
+        return stats;
+    }
+
+    private static Bundle toBundle(Map<String, Stats> map, boolean withRows) {
+        Bundle bundle = new Bundle();
+        for (Map.Entry<String, Stats> entry : map.entrySet()) {
+            Stats stats = entry.getValue();
+            Bundle figures = new Bundle();
+            figures.putLong(ProductEntry.EXTRA_METRIC_COUNT, stats.latency.count);
+            figures.putLong(ProductEntry.EXTRA_METRIC_TOTAL_MICROS, stats.latency.total);
+            figures.putLong(ProductEntry.EXTRA_METRIC_MAX_MICROS, stats.latency.max);
+            figures.putLongArray(ProductEntry.EXTRA_METRIC_LATENCY, stats.latency.buckets.clone());
+            if (withRows) {
+                figures.putLong(ProductEntry.EXTRA_METRIC_ERRORS, stats.errors);
+                figures.putLong(ProductEntry.EXTRA_METRIC_ROWS, stats.rows);
+                figures.putLong(ProductEntry.EXTRA_METRIC_NOTIFIED, stats.fanOut.total);
+                figures.putLongArray(ProductEntry.EXTRA_METRIC_FAN_OUT, stats.fanOut.buckets.clone());
+            }
+            bundle.putBundle(entry.getKey(), figures);
+        }
+        return bundle;
+    }
+
+    private static void printLatency(PrintWriter writer, Stats stats) {
+        Histogram latency = stats.latency;
+        writer.print(latency.count + " calls, mean "
+                + String.format(Locale.US, "%.2f", latency.total / 1000.0 / latency.count)
+                + " ms, max " + String.format(Locale.US, "%.2f", latency.max / 1000.0) + " ms");
+    }
+
+    /** Print the non-empty buckets of a histogram on one line */
+    private static void printBuckets(PrintWriter writer, Histogram histogram, long[] bounds,
+                                     String unit) {
+        StringBuilder line = new StringBuilder("   ");
+        for (int i = 0; i < histogram.buckets.length; i++) {
+            if (histogram.buckets[i] == 0) {
+                continue;
+            }
+            line.append(' ')
+                    .append(i < bounds.length ? "<=" + bounds[i] : ">" + bounds[bounds.length - 1])
+                    .append(unit).append(": ").append(histogram.buckets[i]);
+        }
+        writer.println(line);
+    }
+}
@@ -0,0 +1,241 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.MovementEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link StockLedger} appends a row to the stock_movements ledger for every change of the stock
+ * of a product, and compacts the ledger. The quantity column of the products is kept as well, as
+ * the materialized sum of the movements, since the list pages, sorts and sales all read it
+ * through its indexes. The append methods must be called inside the transaction that changes the
+ * quantity, so both always agree.
+ *
+ * Compaction folds the movements older than {@link #RETENTION_MS} into one snapshot movement per
+ * product, which bounds the size of the ledger. It runs on a background thread once
+ * {@link #COMPACT_EVERY} movements have been appended since the last one.
+ */
+final class StockLedger {
+
+    private static final String LOG_TAG = StockLedger.class.getSimpleName();
+
+    /** Age after which movements are folded into the snapshot of their product */
+    static final long RETENTION_MS = TimeUnit.DAYS.toMillis(30);
+
+    /** Number of appended movements after which a compaction is started */
+    private static final int COMPACT_EVERY = 1000;
+
+    /** Name of the compaction transactions in the metrics */
+    private static final String TRANSACTION_COMPACT = "compact";
+
+    /** Appends a single movement */
+    private static final String SQL_APPEND = "INSERT INTO " + MovementEntry.TABLE_NAME + " ("
+            + MovementEntry.COLUMN_MOVEMENT_PRODUCT_ID + ", "
+            + MovementEntry.COLUMN_MOVEMENT_DELTA + ", "
+            + MovementEntry.COLUMN_MOVEMENT_REASON + ", "
+            + MovementEntry.COLUMN_MOVEMENT_TIMESTAMP + ") VALUES (?, ?, ?, ?)";
+
+    /**
+     * Appends an adjustment for every product matching a selection whose quantity is about to be
+     * set to a new value, before the UPDATE runs. Bound as (new quantity, timestamp, selection
+     * arguments..., new quantity).
+     */
+    private static final String SQL_APPEND_ADJUSTMENTS = "INSERT INTO " + MovementEntry.TABLE_NAME
+            + " (" + MovementEntry.COLUMN_MOVEMENT_PRODUCT_ID + ", "
+            + MovementEntry.COLUMN_MOVEMENT_DELTA + ", "
+            + MovementEntry.COLUMN_MOVEMENT_REASON + ", "
+            + MovementEntry.COLUMN_MOVEMENT_TIMESTAMP + ") SELECT "
+            + ProductEntry._ID + ", ? - " + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", '"
+            + MovementEntry.REASON_ADJUSTMENT + "', ? FROM " + ProductEntry.TABLE_NAME + " WHERE ";
+
+    /**
+     * Sums the movements up to a given ID and older than the cutoff into a new snapshot per
+     * product. Products with a single old movement are left alone. Bound as (cutoff, last ID,
+     * cutoff).
+     */
+    private static final String SQL_FOLD = "INSERT INTO " + MovementEntry.TABLE_NAME + " ("
+            + MovementEntry.COLUMN_MOVEMENT_PRODUCT_ID + ", "
+            + MovementEntry.COLUMN_MOVEMENT_DELTA + ", "
+            + MovementEntry.COLUMN_MOVEMENT_REASON + ", "
+            + MovementEntry.COLUMN_MOVEMENT_TIMESTAMP + ") SELECT "
+            + MovementEntry.COLUMN_MOVEMENT_PRODUCT_ID + ", SUM("
+            + MovementEntry.COLUMN_MOVEMENT_DELTA + "), '"
+            + MovementEntry.REASON_SNAPSHOT + "', ? FROM " + MovementEntry.TABLE_NAME
+            + " WHERE " + MovementEntry._ID + " <= ? AND "
+            + MovementEntry.COLUMN_MOVEMENT_TIMESTAMP + " < ? GROUP BY "
+            + MovementEntry.COLUMN_MOVEMENT_PRODUCT_ID + " HAVING COUNT(*) > 1";
+
+    /** Deletes the movements folded by {@link #SQL_FOLD}, whose snapshots all come after the last ID */
+    private static final String WHERE_FOLDED = MovementEntry._ID + " <= ? AND "
+            + MovementEntry.COLUMN_MOVEMENT_TIMESTAMP + " < ? AND "
+            + MovementEntry.COLUMN_MOVEMENT_PRODUCT_ID + " IN (SELECT "
+            + MovementEntry.COLUMN_MOVEMENT_PRODUCT_ID + " FROM " + MovementEntry.TABLE_NAME
+            + " WHERE " + MovementEntry._ID + " > ?)";
+
+    private final ProductDbHelper dbHelper;
+    private final ContentResolver resolver;
+    private final ProviderMetrics metrics;
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor();
+
+    /** Movements appended since the last compaction was started */
+    private final AtomicInteger appended = new AtomicInteger();
+
+    /** Whether a compaction is queued or running */
+    private final AtomicBoolean compacting = new AtomicBoolean();
+
+    private final Runnable compaction = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                compact(System.currentTimeMillis() - RETENTION_MS);
+            } finally {
+                compacting.set(false);
+            }
+        }
+    };
+
+    /**
+     * Constructs a new {@link StockLedger}.
+     *
+     * @param dbHelper opens the database the ledger lives in
+     * @param resolver notified when the movements change
+     * @param metrics   told about the notifications and the compaction transactions
+     */
+    StockLedger(ProductDbHelper dbHelper, ContentResolver resolver, ProviderMetrics metrics) {
+        this.dbHelper = dbHelper;
+        this.resolver = resolver;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Compile the statement that appends a single movement, to append many of them with
+     * {@link #append(SQLiteStatement, long, long, String, long)}. The caller closes it.
+     */
+    static SQLiteStatement compileAppend(SQLiteDatabase database) {
+        return database.compileStatement(SQL_APPEND);
+    }
+
+    /**
+     * Append a movement with a statement from {@link #compileAppend}.
+     */
+    static void append(SQLiteStatement append, long productId, long delta, String reason,
+                       long timestamp) {
+        append.bindLong(1, productId);
+        append.bindLong(2, delta);
+        append.bindString(3, reason);
+        append.bindLong(4, timestamp);
+        append.executeInsert();
+    }
+
+    /**
+     * Append a single movement, timestamped now.
+     */
+    static void append(SQLiteDatabase database, long productId, long delta, String reason) {
+        SQLiteStatement append = compileAppend(database);
+        try {
+            append(append, productId, delta, reason, System.currentTimeMillis());
+        } finally {
+            append.close();
+        }
+    }
+
+    /**
+     * Append an adjustment for every product matching the selection whose quantity differs from
+     * the new quantity. Must run before the UPDATE that sets it. Return the number of movements
+     * appended.
+     */
+    static int appendAdjustments(SQLiteDatabase database, long quantity, String selection,
+                                 String[] selectionArgs) {
+        StringBuilder sql = new StringBuilder(SQL_APPEND_ADJUSTMENTS);
+        if (!TextUtils.isEmpty(selection)) {
+            sql.append('(').append(selection).append(") AND ");
+        }
+        sql.append(ProductEntry.COLUMN_PRODUCT_QUANTITY).append(" != ?");
+
+        SQLiteStatement append = database.compileStatement(sql.toString());
+        try {
+            int index = 1;
+            append.bindLong(index++, quantity);
+            append.bindLong(index++, System.currentTimeMillis());
+            if (!TextUtils.isEmpty(selection) && selectionArgs != null) {
+                for (String arg : selectionArgs) {
+                    append.bindString(index++, arg);
+                }
+            }
+            append.bindLong(index, quantity);
+            return append.executeUpdateDelete();
+        } finally {
+            append.close();
+        }
+    }
+
+    /**
+     * Tell the ledger that a transaction appending the given number of movements has been
+     * committed. Starts a background compaction once enough movements piled up.
+     */
+    void onAppended(int count) {
+        if (count == 0) {
+            return;
+        }
+        metrics.countNotification();
+        resolver.notifyChange(MovementEntry.CONTENT_URI, null);
+
+        if (appended.addAndGet(count) >= COMPACT_EVERY && compacting.compareAndSet(false, true)) {
+            appended.set(0);
+            compactor.execute(compaction);
+        }
+    }
+
+    /**
+     * Fold the movements older than the cutoff into one snapshot per product, in one
+     * transaction. Return the number of movements removed.
+     */
+    int compact(long cutoff) {
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        int folded;
+        long transactionStart = System.nanoTime();
+        database.beginTransactionNonExclusive();
+        try {
+            // Snapshots inserted below get IDs after this one, which tells them apart from
+            // the movements they replace
+            long lastId = DatabaseUtils.longForQuery(database, "SELECT IFNULL(MAX("
+                    + MovementEntry._ID + "), 0) FROM " + MovementEntry.TABLE_NAME, null);
+
+            SQLiteStatement fold = database.compileStatement(SQL_FOLD);
+            try {
+                fold.bindLong(1, cutoff);
+                fold.bindLong(2, lastId);
+                fold.bindLong(3, cutoff);
+                fold.executeInsert();
+            } finally {
+                fold.close();
+            }
+            folded = database.delete(MovementEntry.TABLE_NAME, WHERE_FOLDED,
+                    new String[] { String.valueOf(lastId), String.valueOf(cutoff),
+                            String.valueOf(lastId) });
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            metrics.recordTransaction(TRANSACTION_COMPACT, transactionStart);
+        }
+
+        Log.i(LOG_TAG, "Compacted " + folded + " stock movements older than " + cutoff);
+        if (folded != 0) {
+            metrics.countNotification();
+            resolver.notifyChange(MovementEntry.CONTENT_URI, null);
+        }
+        return folded;
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.SupplierEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link SupplierResolver} turns the supplier name and phone number a product is written with
+ * into the ID of the supplier row, creating the supplier the first time its name is seen. A phone
+ * number written with the name becomes the phone number of the supplier, which is a single row
+ * however many products the supplier has. Names are remembered, so a batch of products from the
+ * same suppliers looks each one up once.
+ *
+ * A resolver belongs to the transaction of a single write and must be closed before its end.
+ */
+final class SupplierResolver {
+
+    private static final String SQL_FIND = "SELECT " + SupplierEntry._ID + " FROM "
+            + SupplierEntry.TABLE_NAME + " WHERE " + SupplierEntry.COLUMN_SUPPLIER_NAME + " = ?";
+
+    private static final String SQL_INSERT = "INSERT INTO " + SupplierEntry.TABLE_NAME + " ("
+            + SupplierEntry.COLUMN_SUPPLIER_NAME + ", " + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER
+            + ") VALUES (?, ?)";
+
+    /** Only writes the phone number when it differs, so the supplier row is left alone otherwise */
+    private static final String SQL_SET_PHONE = "UPDATE " + SupplierEntry.TABLE_NAME + " SET "
+            + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER + " = ? WHERE " + SupplierEntry._ID
+            + " = ? AND " + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER + " IS NOT ?";
+
+    private final SQLiteStatement find;
+    private final SQLiteStatement insert;
+    private final SQLiteStatement setPhone;
+
+    /** IDs of the suppliers resolved so far, by name */
+    private final Map<String, Long> ids = new HashMap<>();
+
+    /** Phone numbers written so far, by supplier ID */
+    private final Map<Long, String> phones = new HashMap<>();
+
+    private boolean suppliersInserted;
+    private boolean suppliersUpdated;
+
+    SupplierResolver(SQLiteDatabase database) {
+        find = database.compileStatement(SQL_FIND);
+        insert = database.compileStatement(SQL_INSERT);
+        setPhone = database.compileStatement(SQL_SET_PHONE);
+    }
+
+    /**
+     * Replace the supplier name and phone number of the values of a product by the ID of the
+     * supplier. Values that already name the supplier by ID, or don't name it, are left alone.
+     * Throws an {@link IllegalArgumentException} if there is a phone number without a name.
+     */
+    void resolve(ContentValues values) {
+        if (!values.containsKey(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME)) {
+            if (values.containsKey(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER)) {
+                throw new IllegalArgumentException("Supplier phone number requires a supplier name");
+            }
+            return;
+        }
+
+        String name = values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME);
+        boolean hasPhone = values.containsKey(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER);
+        String phone = values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER);
+        values.remove(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME);
+        values.remove(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER);
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID, resolve(name, hasPhone, phone));
+    }
+
+    /**
+     * Return the ID of the supplier with the given name, creating it if there is none, and set
+     * its phone number when one is given.
+     */
+    long resolve(String name, boolean hasPhone, String phone) {
+        Long id = ids.get(name);
+        if (id == null) {
+            id = find(name);
+            if (id == null) {
+                bind(insert, 1, name);
+                bind(insert, 2, phone);
+                id = insert.executeInsert();
+                suppliersInserted = true;
+                phones.put(id, phone);
+            }
+            ids.put(name, id);
+        }
+
+        if (hasPhone && (!phones.containsKey(id) || !equal(phones.get(id), phone))) {
+            bind(setPhone, 1, phone);
+            setPhone.bindLong(2, id);
+            bind(setPhone, 3, phone);
+            if (setPhone.executeUpdateDelete() != 0) {
+                suppliersUpdated = true;
+            }
+            phones.put(id, phone);
+        }
+        return id;
+    }
+
+    /** Return whether a supplier was created */
+    boolean suppliersInserted() {
+        return suppliersInserted;
+    }
+
+    /**
+     * Return whether an existing supplier was changed, which changes the rows of all its
+     * products as read through the products view.
+     */
+    boolean suppliersUpdated() {
+        return suppliersUpdated;
+    }
+
+    void close() {
+        find.close();
+        insert.close();
+        setPhone.close();
+    }
+
+    private Long find(String name) {
+        find.bindString(1, name);
+        try {
+            return find.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            // No supplier of that name
+            return null;
+        }
+    }
+
+    private static void bind(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
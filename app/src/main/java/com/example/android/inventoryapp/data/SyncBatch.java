@@ -0,0 +1,177 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.SyncEntry;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A batch of product changes exchanged with the sync server, in the compact binary format both
+ * ends read and write: the fields of every change in a fixed order, numbers as longs, the whole
+ * batch gzipped. A deleted product only carries its sync ID. The quantity of a change sent is the
+ * stock the sending device added and sold, and the quantity of a change received is that of all
+ * the other devices added up. Changes are {@link ContentValues}
+ * with the {@link SyncEntry#COLUMN_SYNC_ID} and {@link SyncEntry#COLUMN_DELETED} columns and the
+ * product columns, as read from {@link SyncEntry#CHANGES_URI} and passed to
+ * {@link SyncEntry#METHOD_APPLY}.
+ */
+public final class SyncBatch {
+
+    /**
+     * Version of the format, written first so a server can tell old clients apart. Version 1
+     * carried whole quantities rather than the stock of each device.
+     */
+    private static final int FORMAT_VERSION = 2;
+
+    private final List<ContentValues> changes;
+    private final long cursor;
+    private final boolean hasMore;
+
+    /**
+     * Constructs a new {@link SyncBatch}.
+     *
+     * @param changes the changes, in the order they are applied
+     * @param cursor  position of the server after the changes, 0 for a batch sent to the server
+     * @param hasMore whether the server has more changes after these
+     */
+    public SyncBatch(List<ContentValues> changes, long cursor, boolean hasMore) {
+        this.changes = changes;
+        this.cursor = cursor;
+        this.hasMore = hasMore;
+    }
+
+    public List<ContentValues> getChanges() {
+        return changes;
+    }
+
+    public long getCursor() {
+        return cursor;
+    }
+
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    /** Return the batch encoded and compressed */
+    public byte[] encode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes));
+        try {
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(cursor);
+            out.writeBoolean(hasMore);
+            out.writeInt(changes.size());
+            for (ContentValues change : changes) {
+                writeChange(out, change);
+            }
+        } finally {
+            out.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Return the batch encoded in the given bytes. Throws an {@link IOException} if they are not
+     * a batch in this format.
+     */
+    public static SyncBatch decode(byte[] batch) throws IOException {
+        DataInputStream in = new DataInputStream(new GZIPInputStream(
+                new ByteArrayInputStream(batch)));
+        try {
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unknown sync batch format " + version);
+            }
+            long cursor = in.readLong();
+            boolean hasMore = in.readBoolean();
+            int count = in.readInt();
+            List<ContentValues> changes = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                changes.add(readChange(in));
+            }
+            return new SyncBatch(changes, cursor, hasMore);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeChange(DataOutputStream out, ContentValues change)
+            throws IOException {
+        String syncId = change.getAsString(SyncEntry.COLUMN_SYNC_ID);
+        if (syncId == null) {
+            throw new IllegalArgumentException("Change requires a sync ID");
+        }
+        out.writeUTF(syncId);
+        Integer deleted = change.getAsInteger(SyncEntry.COLUMN_DELETED);
+        boolean isDeleted = deleted != null && deleted != 0;
+        out.writeBoolean(isDeleted);
+        if (isDeleted) {
+            return;
+        }
+
+        writeString(out, change.getAsString(ProductEntry.COLUMN_PRODUCT_NAME));
+        writeLong(out, change.getAsLong(ProductEntry.COLUMN_PRODUCT_PRICE));
+        writeLong(out, change.getAsLong(ProductEntry.COLUMN_PRODUCT_QUANTITY));
+        writeString(out, change.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME));
+        writeString(out, change.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER));
+        writeLong(out, change.getAsLong(ProductEntry.COLUMN_PRODUCT_REORDER_POINT));
+        writeLong(out, change.getAsLong(ProductEntry.COLUMN_PRODUCT_REORDER_QUANTITY));
+        writeString(out, change.getAsString(ProductEntry.COLUMN_PRODUCT_SKU));
+        writeLong(out, change.getAsLong(ProductEntry.COLUMN_PRODUCT_UPDATED_AT));
+    }
+
+    private static ContentValues readChange(DataInputStream in) throws IOException {
+        ContentValues change = new ContentValues();
+        change.put(SyncEntry.COLUMN_SYNC_ID, in.readUTF());
+        boolean deleted = in.readBoolean();
+        change.put(SyncEntry.COLUMN_DELETED, deleted ? 1 : 0);
+        if (deleted) {
+            return change;
+        }
+
+        change.put(ProductEntry.COLUMN_PRODUCT_NAME, readString(in));
+        change.put(ProductEntry.COLUMN_PRODUCT_PRICE, readLong(in));
+        change.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, readLong(in));
+        change.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME, readString(in));
+        change.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, readString(in));
+        change.put(ProductEntry.COLUMN_PRODUCT_REORDER_POINT, readLong(in));
+        change.put(ProductEntry.COLUMN_PRODUCT_REORDER_QUANTITY, readLong(in));
+        change.put(ProductEntry.COLUMN_PRODUCT_SKU, readString(in));
+        change.put(ProductEntry.COLUMN_PRODUCT_UPDATED_AT, readLong(in));
+        return change;
+    }
+
+    /** Write a string that may be null, as a presence flag followed by the string */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /** Write a number that may be null, as a presence flag followed by the number */
+    private static void writeLong(DataOutputStream out, Long value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value);
+        }
+    }
+
+    private static Long readLong(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readLong() : null;
+    }
+}
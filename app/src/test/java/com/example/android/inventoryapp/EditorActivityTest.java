@@ -0,0 +1,71 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentValues;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks which columns the editor writes when a product is saved.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class EditorActivityTest {
+
+    @Test
+    public void writesNothingWhenNothingChanged() {
+        ContentValues loaded = fields("Pencil", "2", 10, "555-0100");
+
+        assertEquals(0, EditorActivity.changedValues(loaded, fields("Pencil", "2", 10, "555-0100"))
+                .size());
+    }
+
+    @Test
+    public void writesOnlyTheChangedColumns() {
+        ContentValues loaded = fields("Pencil", "2", 10, "555-0100");
+
+        ContentValues changes = EditorActivity.changedValues(loaded,
+                fields("Pencil", "3", 8, "555-0100"));
+
+        assertEquals(new HashSet<>(Arrays.asList(ProductEntry.COLUMN_PRODUCT_PRICE,
+                ProductEntry.COLUMN_PRODUCT_QUANTITY)), changes.keySet());
+        assertEquals("3", changes.getAsString(ProductEntry.COLUMN_PRODUCT_PRICE));
+        assertEquals(8, (int) changes.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY));
+    }
+
+    @Test
+    public void writesAChangedPhoneNumberWithItsSupplier() {
+        ContentValues loaded = fields("Pencil", "2", 10, "555-0100");
+
+        ContentValues changes = EditorActivity.changedValues(loaded,
+                fields("Pencil", "2", 10, "555-0199"));
+
+        assertEquals(new HashSet<>(Arrays.asList(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME,
+                ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER)), changes.keySet());
+        assertEquals("Office Supplies",
+                changes.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME));
+    }
+
+    /** Return the values of the editor fields, typed as the editor reads them */
+    private static ContentValues fields(String name, String price, int quantity, String phone) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, price);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME, "Office Supplies");
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, phone);
+        values.put(ProductEntry.COLUMN_PRODUCT_REORDER_POINT, 0);
+        values.put(ProductEntry.COLUMN_PRODUCT_REORDER_QUANTITY, 0);
+        values.put(ProductEntry.COLUMN_PRODUCT_SKU, "");
+        return values;
+    }
+}
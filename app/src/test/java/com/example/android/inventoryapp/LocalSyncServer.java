@@ -0,0 +1,113 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentValues;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.SyncEntry;
+import com.example.android.inventoryapp.data.SyncBatch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * In-process stand-in for the sync server. It keeps the latest change of every product in
+ * memory, numbered in the order the changes arrived, together with the stock every device sent
+ * for it, and counts the bytes it receives.
+ */
+class LocalSyncServer implements SyncServer {
+
+    /**
+     * Latest change of a product, the device that sent it, or null once it holds the stock of
+     * other devices the sender may not have received, and the stock of every device
+     */
+    private static final class Entry {
+        final String deviceId;
+        final ContentValues change;
+        final Map<String, Long> stock;
+
+        Entry(String deviceId, ContentValues change, Map<String, Long> stock) {
+            this.deviceId = deviceId;
+            this.change = change;
+            this.stock = stock;
+        }
+    }
+
+    /** Latest change of every product by position, each product only at its last position */
+    private final TreeMap<Long, Entry> changes = new TreeMap<>();
+
+    /** Position of the latest change of every product, by sync ID */
+    private final Map<String, Long> positions = new HashMap<>();
+
+    private long position;
+    private long bytesReceived;
+
+    @Override
+    public synchronized void push(String deviceId, byte[] batch) throws IOException {
+        bytesReceived += batch.length;
+        for (ContentValues change : SyncBatch.decode(batch).getChanges()) {
+            String syncId = change.getAsString(SyncEntry.COLUMN_SYNC_ID);
+            Long previous = positions.put(syncId, ++position);
+            Entry before = previous == null ? null : changes.remove(previous);
+            Map<String, Long> stock = before == null ? new HashMap<String, Long>() : before.stock;
+            Long quantity = change.getAsLong(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+            if (quantity != null) {
+                stock.put(deviceId, quantity);
+            }
+            boolean mixed = before != null && !deviceId.equals(before.deviceId);
+            changes.put(position, new Entry(mixed ? null : deviceId, change, stock));
+        }
+    }
+
+    @Override
+    public synchronized byte[] pull(String deviceId, long cursor, int limit) throws IOException {
+        List<ContentValues> batch = new ArrayList<>();
+        long last = cursor;
+        boolean hasMore = false;
+        for (Map.Entry<Long, Entry> entry : changes.tailMap(cursor, false).entrySet()) {
+            if (batch.size() == limit) {
+                hasMore = true;
+                break;
+            }
+            last = entry.getKey();
+            Entry product = entry.getValue();
+            if (!deviceId.equals(product.deviceId)) {
+                batch.add(receivedBy(deviceId, product));
+            }
+        }
+        return new SyncBatch(batch, last, hasMore).encode();
+    }
+
+    /** Return the change of a product as a device receives it, with the stock of the others */
+    private static ContentValues receivedBy(String deviceId, Entry product) {
+        ContentValues change = new ContentValues(product.change);
+        if (change.containsKey(ProductEntry.COLUMN_PRODUCT_QUANTITY)) {
+            long others = 0;
+            for (Map.Entry<String, Long> stock : product.stock.entrySet()) {
+                if (!stock.getKey().equals(deviceId)) {
+                    others += stock.getValue();
+                }
+            }
+            change.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, others);
+        }
+        return change;
+    }
+
+    /** Return the latest change of a product, or null if there is none */
+    synchronized ContentValues get(String syncId) {
+        Long at = positions.get(syncId);
+        return at == null ? null : changes.get(at).change;
+    }
+
+    /** Return the number of products the server knows, deleted ones included */
+    synchronized int size() {
+        return positions.size();
+    }
+
+    synchronized long getBytesReceived() {
+        return bytesReceived;
+    }
+}
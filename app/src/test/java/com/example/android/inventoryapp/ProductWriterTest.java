@@ -0,0 +1,317 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.inventoryapp.data.ProductContract;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives {@link ProductWriter} against a provider that records the sales it is asked for, and
+ * checks how an edit made on an old read of a product is merged into its current row.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class ProductWriterTest {
+
+    /** Longest wait for the background thread */
+    private static final long TIMEOUT_MS = 5000;
+
+    private SalesProvider provider;
+    private ProductWriter writer;
+
+    /** Results delivered to the callbacks, in the order they were delivered */
+    private final List<Bundle> results = new ArrayList<>();
+
+    private final ProductWriter.Callback<Bundle> saleCallback =
+            new ProductWriter.Callback<Bundle>() {
+                @Override
+                public void onComplete(Bundle result) {
+                    results.add(result);
+                }
+            };
+
+    @Before
+    public void setUp() {
+        provider = Robolectric.setupContentProvider(SalesProvider.class,
+                ProductContract.CONTENT_AUTHORITY);
+        writer = new ProductWriter(RuntimeEnvironment.application.getContentResolver());
+    }
+
+    @Test
+    public void mergesTapsWithinTheWindowIntoOneSale() throws Exception {
+        provider.stock = 100;
+        for (int i = 0; i < 5; i++) {
+            assertTrue(writer.sell(1, 1, newCallback()));
+        }
+        assertTrue(writer.sell(2, 2, newCallback()));
+        assertTrue(writer.sell(2, 1, newCallback()));
+
+        // Nothing is written before the window closes, and each product waits as one write
+        assertEquals(0, provider.sales.size());
+        assertEquals(2, writer.getQueueDepth());
+
+        ShadowLooper.idleMainLooper(ProductWriter.COALESCE_WINDOW_MS, TimeUnit.MILLISECONDS);
+        awaitResults(7);
+
+        assertEquals(Arrays.asList("1|5", "2|3"), provider.sales);
+        for (Bundle result : results) {
+            assertFalse(result.getBoolean(ProductEntry.EXTRA_SOLD_OUT));
+        }
+        Bundle stats = writer.getStats();
+        assertEquals(5, stats.getInt(ProductWriter.STAT_COALESCED));
+        assertEquals(2, stats.getInt(ProductWriter.STAT_COMPLETED));
+        assertEquals(0, stats.getInt(ProductWriter.STAT_DEPTH));
+    }
+
+    @Test
+    public void sellsAMergedSaleUnitByUnitWhenStockRunsOut() throws Exception {
+        provider.stock = 2;
+        writer.sell(1, 1, saleCallback);
+        writer.sell(1, 1, saleCallback);
+        writer.sell(1, 1, saleCallback);
+
+        ShadowLooper.idleMainLooper(ProductWriter.COALESCE_WINDOW_MS, TimeUnit.MILLISECONDS);
+        awaitResults(1);
+
+        // The callback is called once, however many taps it was passed for
+        assertEquals(Arrays.asList("1|3", "1|1", "1|1", "1|1"), provider.sales);
+        assertTrue(results.get(0).getBoolean(ProductEntry.EXTRA_SOLD_OUT));
+        assertEquals(0, results.get(0).getInt(ProductEntry.EXTRA_QUANTITY));
+    }
+
+    @Test
+    public void reportsAMergedSaleThatSoldOnceStockCameIn() throws Exception {
+        provider.stock = 2;
+        provider.restock = 5;
+        writer.sell(1, 1, saleCallback);
+        writer.sell(1, 1, saleCallback);
+        writer.sell(1, 1, saleCallback);
+
+        ShadowLooper.idleMainLooper(ProductWriter.COALESCE_WINDOW_MS, TimeUnit.MILLISECONDS);
+        awaitResults(1);
+
+        assertEquals(Arrays.asList("1|3", "1|1", "1|1", "1|1"), provider.sales);
+        assertFalse(results.get(0).getBoolean(ProductEntry.EXTRA_SOLD_OUT));
+        assertEquals(4, results.get(0).getInt(ProductEntry.EXTRA_QUANTITY));
+    }
+
+    @Test
+    public void refusesWritesOnceTheQueueIsFull() throws Exception {
+        provider.stock = 100;
+        // The first write holds the background thread, so the ones after it wait in the queue
+        assertTrue(writer.sellSku("blocking", newCallback()));
+        assertTrue(provider.started.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        Uri uri = ProductEntry.CONTENT_URI;
+        for (int i = 0; i < ProductWriter.QUEUE_CAPACITY - 1; i++) {
+            assertTrue(writer.update(uri, new ContentValues(), newCallback()));
+        }
+        assertTrue(writer.sell(7, 1, newCallback()));
+
+        assertEquals(ProductWriter.QUEUE_CAPACITY, writer.getQueueDepth());
+        assertTrue(writer.isSaturated());
+        assertFalse(writer.update(uri, new ContentValues(), newCallback()));
+        assertFalse(writer.sell(8, 1, newCallback()));
+        // A tap on a product already waiting takes no more room
+        assertTrue(writer.sell(7, 1, newCallback()));
+
+        Bundle stats = writer.getStats();
+        assertEquals(ProductWriter.QUEUE_CAPACITY, stats.getInt(ProductWriter.STAT_DEPTH));
+        assertEquals(ProductWriter.QUEUE_CAPACITY, stats.getInt(ProductWriter.STAT_MAX_DEPTH));
+        assertEquals(2, stats.getInt(ProductWriter.STAT_REJECTED));
+        assertEquals(1, stats.getInt(ProductWriter.STAT_COALESCED));
+
+        // Every accepted write still completes once the thread is free, the pending sale too
+        provider.gate.countDown();
+        ShadowLooper.idleMainLooper(ProductWriter.COALESCE_WINDOW_MS, TimeUnit.MILLISECONDS);
+        awaitCompleted(ProductWriter.QUEUE_CAPACITY + 1);
+        assertEquals(Collections.singletonList("7|2"), provider.sales);
+        assertEquals(0, writer.getQueueDepth());
+        assertEquals(2, writer.getStats().getInt(ProductWriter.STAT_REJECTED));
+    }
+
+    @Test
+    public void keepsTheCurrentValuesOfColumnsTheEditLeftAlone() {
+        ContentValues original = product("Pencil", 2, 10, "Office Supplies", "555-0100");
+        ContentValues edited = product("Pencil", 3, 10, "Office Supplies", "555-0100");
+        ContentValues current = product("Blue pencil", 2, 10, "Office Supplies", "555-0100");
+
+        ContentValues merged = ProductWriter.merge(original, edited, current);
+
+        assertEquals("Blue pencil", merged.getAsString(ProductEntry.COLUMN_PRODUCT_NAME));
+        assertEquals("3", merged.getAsString(ProductEntry.COLUMN_PRODUCT_PRICE));
+        // The quantity the edit left alone is not written, so no adjustment is recorded
+        assertFalse(merged.containsKey(ProductEntry.COLUMN_PRODUCT_QUANTITY));
+    }
+
+    @Test
+    public void appliesAQuantityEditAsADifference() {
+        ContentValues original = product("Pencil", 2, 10, "Office Supplies", "555-0100");
+        ContentValues edited = product("Pencil", 2, 7, "Office Supplies", "555-0100");
+
+        // Two units were sold since the read, so three less leaves nine
+        ContentValues merged = ProductWriter.merge(original, edited,
+                product("Pencil", 2, 12, "Office Supplies", "555-0100"));
+        assertEquals(9, (int) merged.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY));
+
+        // Never below zero
+        merged = ProductWriter.merge(original, edited,
+                product("Pencil", 2, 1, "Office Supplies", "555-0100"));
+        assertEquals(0, (int) merged.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY));
+    }
+
+    @Test
+    public void writesAChangedPhoneNumberForTheEditedSupplier() {
+        ContentValues original = product("Pencil", 2, 10, "Office Supplies", "555-0100");
+        ContentValues edited = product("Pencil", 2, 10, "Office Supplies", "555-0199");
+        ContentValues current = product("Pencil", 2, 10, "Stationery Ltd", "555-0200");
+
+        ContentValues merged = ProductWriter.merge(original, edited, current);
+
+        assertEquals("Office Supplies",
+                merged.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME));
+        assertEquals("555-0199",
+                merged.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER));
+    }
+
+    /** Return a new callback that records its result, or an empty bundle for other types */
+    private <T> ProductWriter.Callback<T> newCallback() {
+        return new ProductWriter.Callback<T>() {
+            @Override
+            public void onComplete(T result) {
+                results.add(result instanceof Bundle ? (Bundle) result : Bundle.EMPTY);
+            }
+        };
+    }
+
+    /** Run the main looper until the callbacks received the given number of results */
+    private void awaitResults(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (results.size() < count) {
+            assertTrue("Waited too long for " + count + " results",
+                    System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+            ShadowLooper.runUiThreadTasks();
+        }
+    }
+
+    /** Run the main looper until the given number of writes completed */
+    private void awaitCompleted(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (writer.getStats().getInt(ProductWriter.STAT_COMPLETED) < count) {
+            assertTrue("Waited too long for " + count + " writes",
+                    System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+            ShadowLooper.runUiThreadTasks();
+        }
+    }
+
+    private static ContentValues product(String name, int price, int quantity, String supplier,
+                                         String phone) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, price);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME, supplier);
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, phone);
+        return values;
+    }
+
+    /**
+     * Sells from a single stock shared by all products, and records every sale asked for as
+     * "id|amount". SKU sales wait for the gate to open, to hold the background thread.
+     */
+    public static class SalesProvider extends ContentProvider {
+        final List<String> sales = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        volatile int stock;
+
+        /** Units delivered right after the first sale that found too little stock */
+        volatile int restock;
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Bundle call(String method, String arg, Bundle extras) {
+            Bundle result = new Bundle();
+            if (ProductEntry.METHOD_SELL_SKU.equals(method)) {
+                started.countDown();
+                try {
+                    gate.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                result.putBoolean(ProductEntry.EXTRA_SOLD_OUT, true);
+                return result;
+            }
+
+            int amount = extras.getInt(ProductEntry.EXTRA_AMOUNT);
+            sales.add(arg + "|" + amount);
+            synchronized (this) {
+                if (amount > stock) {
+                    stock += restock;
+                    restock = 0;
+                    result.putBoolean(ProductEntry.EXTRA_SOLD_OUT, true);
+                } else {
+                    stock -= amount;
+                    result.putInt(ProductEntry.EXTRA_QUANTITY, stock);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                            String[] selectionArgs, String sortOrder) {
+            return null;
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return null;
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            return null;
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            return 0;
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection,
+                          String[] selectionArgs) {
+            return 1;
+        }
+    }
+}
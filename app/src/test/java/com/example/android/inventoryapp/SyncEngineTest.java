@@ -0,0 +1,250 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.ContextWrapper;
+import android.database.Cursor;
+import android.database.DatabaseErrorHandler;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.inventoryapp.data.ProductContract;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.SyncEntry;
+import com.example.android.inventoryapp.data.ProductProvider;
+import com.example.android.inventoryapp.data.SyncBatch;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Syncs the catalog of {@link ProductProvider} with a {@link LocalSyncServer}, standing in for
+ * another device by pushing batches to the server directly.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class SyncEngineTest {
+
+    private static final String OTHER_DEVICE = "other-device";
+
+    private ProductProvider provider;
+    private ContentResolver resolver;
+    private LocalSyncServer server;
+    private SyncEngine engine;
+
+    @Before
+    public void setUp() {
+        provider = Robolectric.setupContentProvider(ProductProvider.class,
+                ProductContract.CONTENT_AUTHORITY);
+        resolver = RuntimeEnvironment.application.getContentResolver();
+        server = new LocalSyncServer();
+        engine = new SyncEngine(resolver, server);
+    }
+
+    @Test
+    public void pushesOnlyChangedProducts() throws Exception {
+        Uri first = insert("Pencil", 2, 10);
+        insert("Eraser", 1, 5);
+        insert("Ruler", 3, 7);
+
+        assertEquals(3, engine.sync().pushed);
+        assertEquals(3, server.size());
+        assertEquals(0, engine.sync().pushed);
+
+        ContentValues price = new ContentValues();
+        price.put(ProductEntry.COLUMN_PRODUCT_PRICE, 4);
+        resolver.update(first, price, null, null);
+        long bytesBefore = server.getBytesReceived();
+
+        assertEquals(1, engine.sync().pushed);
+        assertEquals(3, server.size());
+        assertTrue(server.getBytesReceived() > bytesBefore);
+    }
+
+    @Test
+    public void pushesDeletes() throws Exception {
+        Uri uri = insert("Pencil", 2, 10);
+        engine.sync();
+
+        resolver.delete(uri, null, null);
+
+        assertEquals(1, engine.sync().pushed);
+        assertEquals(0, engine.sync().pushed);
+    }
+
+    @Test
+    public void appliesChangesOfOtherDevices() throws Exception {
+        pushFromOtherDevice(change("remote-1", "Stapler", 12, 4));
+
+        SyncEngine.Result result = engine.sync();
+        assertEquals(1, result.pulled);
+        assertEquals(4, quantityOf("Stapler"));
+
+        pushFromOtherDevice(change("remote-1", "Stapler", 12, 9));
+        result = engine.sync();
+        assertEquals(1, result.pulled);
+        assertEquals(0, result.pushed);
+        assertEquals(9, quantityOf("Stapler"));
+
+        ContentValues deleted = new ContentValues();
+        deleted.put(SyncEntry.COLUMN_SYNC_ID, "remote-1");
+        deleted.put(SyncEntry.COLUMN_DELETED, 1);
+        pushFromOtherDevice(deleted);
+        assertEquals(1, engine.sync().pulled);
+        assertEquals(-1, quantityOf("Stapler"));
+
+        // Nothing received is sent back
+        assertEquals(0, engine.sync().pushed);
+    }
+
+    @Test
+    public void pullsInBatches() throws Exception {
+        int products = SyncEngine.PULL_BATCH_SIZE * 2 + SyncEngine.APPLY_CHUNK_SIZE / 2;
+        List<ContentValues> changes = new ArrayList<>();
+        for (int i = 0; i < products; i++) {
+            changes.add(change("remote-" + i, "Product " + i, i, i % 20));
+        }
+        server.push(OTHER_DEVICE, new SyncBatch(changes, 0, false).encode());
+
+        assertEquals(products, engine.sync().pulled);
+        assertEquals(0, engine.sync().pulled);
+
+        Cursor cursor = resolver.query(ProductEntry.CONTENT_URI,
+                new String[] { ProductEntry._ID }, null, null, null);
+        assertNotNull(cursor);
+        try {
+            assertEquals(products, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void addsUpConcurrentSales() throws Exception {
+        ProductProvider otherProvider = createDevice("other-");
+        SyncEngine otherEngine = new SyncEngine(resolver, server);
+        insert("Pencil", 2, 10);
+        engine.sync();
+        use(otherProvider);
+        otherEngine.sync();
+        assertEquals(10, quantityOf("Pencil"));
+
+        // Both devices sell before either of them syncs
+        sell("Pencil", 2);
+        use(provider);
+        sell("Pencil", 3);
+
+        engine.sync();
+        assertEquals(7, quantityOf("Pencil"));
+        use(otherProvider);
+        otherEngine.sync();
+        assertEquals(5, quantityOf("Pencil"));
+        use(provider);
+        engine.sync();
+        assertEquals(5, quantityOf("Pencil"));
+
+        // Once both agree, nothing is sent again
+        assertEquals(0, engine.sync().pushed);
+        use(otherProvider);
+        assertEquals(0, otherEngine.sync().pushed);
+        assertEquals(5, quantityOf("Pencil"));
+    }
+
+    /**
+     * Return the provider of another device, with its own database, which the resolver reaches
+     * once it is {@link #use used}
+     */
+    private static ProductProvider createDevice(final String prefix) {
+        ContextWrapper context = new ContextWrapper(RuntimeEnvironment.application) {
+            @Override
+            public SQLiteDatabase openOrCreateDatabase(String name, int mode,
+                                                       SQLiteDatabase.CursorFactory factory,
+                                                       DatabaseErrorHandler errorHandler) {
+                return super.openOrCreateDatabase(prefix + name, mode, factory, errorHandler);
+            }
+        };
+        ProductProvider device = new ProductProvider();
+        device.attachInfo(context, null);
+        return device;
+    }
+
+    /** Route the provider calls of the resolver to the given device */
+    private static void use(ProductProvider device) {
+        ShadowContentResolver.registerProviderInternal(ProductContract.CONTENT_AUTHORITY, device);
+    }
+
+    private Uri insert(String name, int price, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, price);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME, "Office Supplies");
+        return resolver.insert(ProductEntry.CONTENT_URI, values);
+    }
+
+    private static ContentValues change(String syncId, String name, int price, int quantity) {
+        ContentValues change = new ContentValues();
+        change.put(SyncEntry.COLUMN_SYNC_ID, syncId);
+        change.put(SyncEntry.COLUMN_DELETED, 0);
+        change.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        change.put(ProductEntry.COLUMN_PRODUCT_PRICE, price);
+        change.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        change.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME, "Office Supplies");
+        change.put(ProductEntry.COLUMN_PRODUCT_REORDER_POINT, 0);
+        change.put(ProductEntry.COLUMN_PRODUCT_REORDER_QUANTITY, 0);
+        change.put(ProductEntry.COLUMN_PRODUCT_UPDATED_AT, 1L);
+        return change;
+    }
+
+    private void pushFromOtherDevice(ContentValues change) throws Exception {
+        server.push(OTHER_DEVICE, new SyncBatch(Collections.singletonList(change), 0, false).encode());
+    }
+
+    /** Sell units of the product with the given name */
+    private void sell(String name, int amount) {
+        Cursor cursor = resolver.query(ProductEntry.CONTENT_URI, new String[] { ProductEntry._ID },
+                ProductEntry.COLUMN_PRODUCT_NAME + "=?", new String[] { name }, null);
+        assertNotNull(cursor);
+        long id;
+        try {
+            assertTrue(cursor.moveToFirst());
+            id = cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+        Bundle extras = new Bundle();
+        extras.putInt(ProductEntry.EXTRA_AMOUNT, amount);
+        Bundle result = resolver.call(ProductEntry.CONTENT_URI, ProductEntry.METHOD_SELL,
+                String.valueOf(id), extras);
+        assertNotNull(result);
+        assertTrue(result.containsKey(ProductEntry.EXTRA_QUANTITY));
+    }
+
+    /** Return the quantity of the product with the given name, or -1 if there is none */
+    private int quantityOf(String name) {
+        Cursor cursor = resolver.query(ProductEntry.CONTENT_URI,
+                new String[] { ProductEntry.COLUMN_PRODUCT_QUANTITY },
+                ProductEntry.COLUMN_PRODUCT_NAME + "=?", new String[] { name }, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.android.inventoryapp.data;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Minimal benchmark harness for the JVM: runs an operation a number of warmup times, then measures
+ * the latency and the bytes allocated by every timed run, and writes one JSON object per result
+ * so runs of different commits can be compared line by line.
+ */
+final class Benchmark {
+
+    /**
+     * An operation to measure. Setup work that must not be timed goes in {@link #prepare}.
+     */
+    abstract static class Operation {
+
+        /** Called before every run, outside of the measurement */
+        void prepare(int run) throws Exception {
+        }
+
+        /** The measured work */
+        abstract void run(int run) throws Exception;
+    }
+
+    /** Latency and allocation summary of one operation at one dataset size */
+    static final class Result {
+        final String name;
+        final int rows;
+        final int iterations;
+        final long p50Nanos;
+        final long p90Nanos;
+        final long p99Nanos;
+        final long maxNanos;
+        final double meanNanos;
+
+        /** Mean bytes allocated per run, -1 if the JVM can't count them */
+        final long allocatedBytes;
+
+        Result(String name, int rows, long[] nanos, long allocatedBytes) {
+            this.name = name;
+            this.rows = rows;
+            this.iterations = nanos.length;
+            Arrays.sort(nanos);
+            this.p50Nanos = percentile(nanos, 50);
+            this.p90Nanos = percentile(nanos, 90);
+            this.p99Nanos = percentile(nanos, 99);
+            this.maxNanos = nanos[nanos.length - 1];
+            long total = 0;
+            for (long n : nanos) {
+                total += n;
+            }
+            this.meanNanos = (double) total / nanos.length;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        private static long percentile(long[] sorted, int percent) {
+            int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+        }
+
+        String toJson(String commit) {
+            return String.format(Locale.US, "{\"commit\":\"%s\",\"benchmark\":\"%s\",\"rows\":%d,"
+                            + "\"iterations\":%d,\"p50_ns\":%d,\"p90_ns\":%d,\"p99_ns\":%d,"
+                            + "\"max_ns\":%d,\"mean_ns\":%.1f,\"alloc_bytes_per_op\":%d}",
+                    commit, name, rows, iterations, p50Nanos, p90Nanos, p99Nanos, maxNanos,
+                    meanNanos, allocatedBytes);
+        }
+    }
+
+    private final int warmup;
+    private final int iterations;
+    private final List<Result> results = new ArrayList<>();
+
+    Benchmark(int warmup, int iterations) {
+        this.warmup = warmup;
+        this.iterations = iterations;
+    }
+
+    /**
+     * Run the operation warmup + iterations times and record the timed runs.
+     */
+    Result measure(String name, int rows, Operation operation) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            operation.prepare(i);
+            operation.run(i);
+        }
+
+        long[] nanos = new long[iterations];
+        long allocated = 0;
+        boolean countsAllocations = true;
+        for (int i = 0; i < iterations; i++) {
+            int run = warmup + i;
+            operation.prepare(run);
+            long bytesBefore = allocatedBytes();
+            long start = System.nanoTime();
+            operation.run(run);
+            nanos[i] = System.nanoTime() - start;
+            long bytesAfter = allocatedBytes();
+            if (bytesBefore < 0 || bytesAfter < 0) {
+                countsAllocations = false;
+            } else {
+                allocated += bytesAfter - bytesBefore;
+            }
+        }
+
+        Result result = new Result(name, rows, nanos,
+                countsAllocations ? allocated / iterations : -1);
+        results.add(result);
+        return result;
+    }
+
+    /**
+     * Append every result to the given file as JSON lines.
+     */
+    void write(File file, String commit) throws IOException {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        Writer writer = new FileWriter(file, true);
+        try {
+            for (Result result : results) {
+                writer.write(result.toJson(commit));
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Return the bytes allocated so far by the current thread, or -1 if the JVM doesn't say.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,201 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks how {@link ProductCsv.RecordReader} reads quoted fields and line breaks, how it gets
+ * past malformed records, and that an exported catalog imports back unchanged.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class ProductCsvTest {
+
+    private ProductProvider provider;
+    private ContentResolver resolver;
+
+    @Before
+    public void setUp() {
+        provider = Robolectric.setupContentProvider(ProductProvider.class,
+                ProductContract.CONTENT_AUTHORITY);
+        resolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void readsQuotedFields() throws IOException {
+        ProductCsv.RecordReader records = reader("name,note,quantity\r\n"
+                + "\"Pencil, HB\",\"Say \"\"hi\"\"\r\nand\nbye\",3\r\n"
+                + "\"\",\"\"\"\",4\r\n"
+                + "Eraser,,1\r\n");
+
+        assertRecord(records, 1, "name", "note", "quantity");
+        assertRecord(records, 2, "Pencil, HB", "Say \"hi\"\r\nand\nbye", "3");
+        assertRecord(records, 5, "", "\"", "4");
+        assertRecord(records, 6, "Eraser", "", "1");
+        assertNull(records.next());
+    }
+
+    @Test
+    public void readsLineBreaksAndSkipsBlankLines() throws IOException {
+        ProductCsv.RecordReader records = reader("\r\na,b\r\n\r\n\r\nc,d\n\ne,\r\rf");
+
+        assertRecord(records, 2, "a", "b");
+        assertRecord(records, 5, "c", "d");
+        assertRecord(records, 7, "e", "");
+        // A lone carriage return ends the record without starting a new line
+        assertRecord(records, 7, "f");
+        assertNull(records.next());
+        assertNull(records.next());
+    }
+
+    @Test
+    public void resumesOnTheNextLineAfterAnUnterminatedQuote() throws IOException {
+        ProductCsv.RecordReader records = reader("a,1\n\"b,2\nc,3\r\nd,4\n");
+
+        assertRecord(records, 1, "a", "1");
+        // The quoted field runs to the end of the stream, which is read again from line 3
+        assertMalformed(records, 2);
+        assertRecord(records, 3, "c", "3");
+        assertRecord(records, 4, "d", "4");
+        assertNull(records.next());
+    }
+
+    @Test
+    public void resumesOnTheNextLineAfterAnOverlongField() throws IOException {
+        char[] field = new char[ProductCsv.MAX_FIELD_LENGTH + 1];
+        Arrays.fill(field, 'x');
+        char[] record = new char[ProductCsv.MAX_RECORD_LENGTH + 1];
+        Arrays.fill(record, ',');
+        ProductCsv.RecordReader records = reader("a,1\r\n" + new String(field) + ",2\r\n"
+                + "b,3\r\n" + new String(record) + "\r\n\r\nc,4");
+
+        assertRecord(records, 1, "a", "1");
+        assertMalformed(records, 2);
+        assertRecord(records, 3, "b", "3");
+        assertMalformed(records, 4);
+        assertRecord(records, 6, "c", "4");
+        assertNull(records.next());
+    }
+
+    @Test
+    public void importsAnExportedCatalogUnchanged() throws IOException {
+        insert("Pencil, HB", 2, 10, "Office \"Supplies\"", "555-0100", "PEN-1");
+        insert("Eraser\r\nwhite", 1, 0, "Office \"Supplies\"", "555-0100", null);
+        insert("\uD83D\uDE00 Stickers", 3, 7, "Acme", null, "ST,1");
+        insert("Stapler", 12, 1, "Acme", null, "STA-1");
+        String exported = export();
+
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+        ProductCsvImporter.Result result = new ProductCsvImporter(resolver)
+                .importCsv(new ByteArrayInputStream(exported.getBytes("UTF-8")), null);
+
+        assertEquals(4, result.rowsRead);
+        assertEquals(4, result.rowsImported);
+        assertEquals(0, result.rowsFailed);
+        assertEquals(exported, export());
+    }
+
+    @Test
+    public void importReportsMalformedRecordsByLine() throws IOException {
+        String csv = "name,price,supplier_name\r\n"
+                + "Pencil,2,Acme\r\n"
+                + "\"Eraser,1,Acme\r\n"
+                + "Stapler,x,Acme\r\n"
+                + "Ruler,3,Acme\r\n";
+
+        ProductCsvImporter.Result result = new ProductCsvImporter(resolver)
+                .importCsv(new ByteArrayInputStream(csv.getBytes("UTF-8")), null);
+
+        assertEquals(4, result.rowsRead);
+        assertEquals(2, result.rowsImported);
+        assertEquals(2, result.rowsFailed);
+        assertEquals(asList("Line 3: Unterminated quoted field", "Line 4: Invalid price \"x\""),
+                result.errors);
+    }
+
+    @Test
+    public void opensTheExportForReadingOnly() {
+        try {
+            provider.openFile(ProductEntry.EXPORT_URI, "w");
+            fail("The export was opened for writing");
+        } catch (FileNotFoundException expected) {
+            // The export can only be read
+        }
+        try {
+            provider.openFile(ProductEntry.CONTENT_URI, "r");
+            fail("The product table was opened as a file");
+        } catch (FileNotFoundException expected) {
+            // Only the export is a file
+        }
+    }
+
+    private static ProductCsv.RecordReader reader(String csv) {
+        return new ProductCsv.RecordReader(new StringReader(csv));
+    }
+
+    private static void assertRecord(ProductCsv.RecordReader records, int line, String... fields)
+            throws IOException {
+        List<String> record = records.next();
+        assertNotNull(record);
+        assertEquals(asList(fields), record);
+        assertEquals(line, records.getLineNumber());
+    }
+
+    private static void assertMalformed(ProductCsv.RecordReader records, int line)
+            throws IOException {
+        try {
+            fail("Read " + records.next());
+        } catch (ProductCsv.MalformedRecordException e) {
+            assertEquals(line, e.getLineNumber());
+        }
+    }
+
+    /**
+     * Return the catalog as the export writes it. The test runner has no pipes, so the export is
+     * written to memory rather than read through {@link ProductProvider#openFile}.
+     */
+    private String export() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        provider.exportProducts(out);
+        String exported = out.toString("UTF-8");
+        assertEquals(ProductCsv.COLUMNS, reader(exported).next());
+        return exported;
+    }
+
+    private void insert(String name, int price, int quantity, String supplier, String phone,
+                        String sku) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, price);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME, supplier);
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, phone);
+        values.put(ProductEntry.COLUMN_PRODUCT_REORDER_POINT, quantity / 2);
+        values.put(ProductEntry.COLUMN_PRODUCT_SKU, sku);
+        assertNotNull(resolver.insert(ProductEntry.CONTENT_URI, values));
+    }
+}
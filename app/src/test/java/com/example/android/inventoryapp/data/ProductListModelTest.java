@@ -0,0 +1,283 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.SupplierEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Pages through the products in every order, filter and supplier, once from the
+ * {@link ProductListModel} and once from SQLite, and checks that both give the same rows in the
+ * same order, also when the pages of one scroll come from both.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class ProductListModelTest {
+
+    /** Small, so pages end in the middle of runs of equal keys */
+    private static final int PAGE_SIZE = 3;
+
+    /** Longest wait for the model to load in the background */
+    private static final long TIMEOUT_MS = 5000;
+
+    private static final String[] SORTS = {
+            ProductEntry.SORT_NAME,
+            ProductEntry.SORT_QUANTITY,
+            ProductEntry.SORT_PRICE,
+            ProductEntry.SORT_SUPPLIER,
+            ProductEntry.SORT_RECENT};
+
+    private static final String[] FILTERS = {
+            null,
+            ProductEntry.FILTER_IN_STOCK,
+            ProductEntry.FILTER_LOW_STOCK};
+
+    /** Columns the model serves pages with */
+    private static final String[] MODEL_PROJECTION = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME,
+            ProductEntry.COLUMN_PRODUCT_UPDATED_AT};
+
+    /** The same columns and one the model doesn't keep, so the page is read from SQLite */
+    private static final String[] DATABASE_PROJECTION = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME,
+            ProductEntry.COLUMN_PRODUCT_UPDATED_AT,
+            ProductEntry.COLUMN_PRODUCT_REORDER_POINT};
+
+    /** Fullwidth A, which String order puts after the characters outside the BMP */
+    private static final String FULLWIDTH = "\uFF21";
+
+    /** Mathematical script A, U+1D49C, a surrogate pair */
+    private static final String SCRIPT = "\uD835\uDC9C";
+
+    /** Grinning face, U+1F600, a surrogate pair */
+    private static final String EMOJI = "\uD83D\uDE00";
+
+    private ProductProvider provider;
+    private ContentResolver resolver;
+
+    @Before
+    public void setUp() {
+        provider = Robolectric.setupContentProvider(ProductProvider.class,
+                ProductContract.CONTENT_AUTHORITY);
+        resolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void modelPagesMatchDatabasePagesThroughWrites() throws Exception {
+        // Equal names, quantities, prices and supplier names, and names that sort differently
+        // by UTF-16 unit than by code point
+        insert("Pencil", 2, 10, "Office Supplies");
+        insert("Pencil", 2, 0, "Office Supplies");
+        insert("Pencil", 3, 4, FULLWIDTH + "cme");
+        insert("pencil", 1, 5, SCRIPT + " Supplies");
+        insert(FULLWIDTH + "dapter", 7, 0, FULLWIDTH + "cme");
+        insert(SCRIPT + "pple", 7, 12, SCRIPT + " Supplies");
+        insert(EMOJI + " Stickers", 1, 5, "Office Supplies");
+        insert("\u00C9clair", 4, 3, FULLWIDTH + "cme");
+        insert("Zeta", 2, 10, "Office Supplies");
+        Uri eraser = insert("Eraser", 1, 6, SCRIPT + " Supplies");
+        Uri stapler = insert("Stapler", 12, 1, "Office Supplies");
+        checkAllPages();
+
+        // Single inserts, landing among equal keys
+        insert("Pencil", 2, 10, SCRIPT + " Supplies");
+        insert(SCRIPT + "pple", 0, 5, "Office Supplies");
+        checkAllPages();
+
+        // Updates moving rows within every order and in and out of the filters
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, FULLWIDTH + "raser");
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 0);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 2);
+        assertEquals(1, resolver.update(eraser, values, null, null));
+        values.clear();
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME, FULLWIDTH + "cme");
+        assertEquals(1, resolver.update(stapler, values, null, null));
+        checkAllPages();
+
+        // A sale, a delete and a bulk insert
+        Bundle extras = new Bundle();
+        extras.putInt(ProductEntry.EXTRA_AMOUNT, 4);
+        resolver.call(ProductEntry.CONTENT_URI, ProductEntry.METHOD_SELL,
+                String.valueOf(ContentUris.parseId(insert("Ruler", 3, 8, "Office Supplies"))),
+                extras);
+        assertEquals(1, resolver.delete(stapler, null, null));
+        assertEquals(4, provider.bulkInsert(ProductEntry.CONTENT_URI, new ContentValues[] {
+                product("Pencil", 2, 10, FULLWIDTH + "cme"),
+                product(EMOJI, 9, 2, "Office Supplies"),
+                product(FULLWIDTH, 9, 0, SCRIPT + " Supplies"),
+                product("Pencil", 2, 10, "Office Supplies")}));
+        checkAllPages();
+
+        // A supplier rename drops the model, which loads again
+        values.clear();
+        values.put(SupplierEntry.COLUMN_SUPPLIER_NAME, EMOJI + " Office");
+        assertEquals(1, resolver.update(ContentUris.withAppendedId(SupplierEntry.CONTENT_URI,
+                supplierId("Office Supplies")), values, null, null));
+        checkAllPages();
+    }
+
+    @Test
+    public void textKeysCompareByCodePoint() {
+        // String order puts the fullwidth A after the surrogate pair, SQLite before it
+        assertTrue(FULLWIDTH.compareTo(SCRIPT) > 0);
+        assertTrue(ProductEntry.compareTextKeys(FULLWIDTH, SCRIPT) < 0);
+        assertTrue(ProductEntry.compareTextKeys(SCRIPT, EMOJI) < 0);
+        assertTrue(ProductEntry.compareTextKeys("Pencil", "pencil") < 0);
+        assertTrue(ProductEntry.compareTextKeys("Pen", "Pencil") < 0);
+        assertEquals(0, ProductEntry.compareTextKeys(SCRIPT + "pple", SCRIPT + "pple"));
+    }
+
+    /**
+     * Page through every combination of sort, filter and supplier from the model, from SQLite,
+     * and switching between the two on every page, and check all three read the same rows.
+     */
+    private void checkAllPages() throws Exception {
+        List<Long> suppliers = new ArrayList<>();
+        suppliers.add(0L);
+        Cursor cursor = resolver.query(SupplierEntry.CONTENT_URI,
+                new String[] { SupplierEntry._ID }, null, null, SupplierEntry._ID);
+        assertNotNull(cursor);
+        try {
+            while (cursor.moveToNext()) {
+                suppliers.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        for (String sort : SORTS) {
+            for (String filter : FILTERS) {
+                for (long supplierId : suppliers) {
+                    String name = sort + "/" + filter + "/" + supplierId;
+                    List<String> database = readAll(sort, filter, supplierId, false, true);
+                    assertEquals(name, database, readAll(sort, filter, supplierId, true, true));
+                    assertEquals(name, database, readAll(sort, filter, supplierId, true, false));
+                    assertEquals(name, database, readAll(sort, filter, supplierId, false, false));
+                }
+            }
+        }
+    }
+
+    /**
+     * Read every page and return the rows, checking that no row comes twice.
+     *
+     * @param fromModel whether the first page comes from the model
+     * @param stay      whether the following pages come from the same source, rather than the
+     *                  other one every time
+     */
+    private List<String> readAll(String sort, String filter, long supplierId, boolean fromModel,
+                                 boolean stay) throws Exception {
+        String keyColumn = ProductEntry.getSortKeyColumn(sort);
+        List<String> rows = new ArrayList<>();
+        List<Long> ids = new ArrayList<>();
+        String afterKey = null;
+        long afterId = 0;
+        while (true) {
+            Cursor page = page(ProductEntry.buildPageUri(sort, filter, supplierId, PAGE_SIZE,
+                    afterKey, afterId), fromModel);
+            try {
+                assertTrue(page.getCount() <= PAGE_SIZE);
+                while (page.moveToNext()) {
+                    StringBuilder row = new StringBuilder();
+                    for (int i = 0; i < MODEL_PROJECTION.length; i++) {
+                        row.append(i == 0 ? "" : "|").append(page.getString(i));
+                    }
+                    rows.add(row.toString());
+                    long id = page.getLong(0);
+                    assertFalse("Product " + id + " read twice", ids.contains(id));
+                    ids.add(id);
+                    afterKey = page.getString(page.getColumnIndexOrThrow(keyColumn));
+                    afterId = id;
+                }
+                if (page.getCount() < PAGE_SIZE) {
+                    return rows;
+                }
+            } finally {
+                page.close();
+            }
+            if (!stay) {
+                fromModel = !fromModel;
+            }
+        }
+    }
+
+    /**
+     * Query a page from the model, waiting for it to load if needed, or from SQLite.
+     */
+    private Cursor page(Uri uri, boolean fromModel) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (true) {
+            Cursor cursor = provider.query(uri,
+                    fromModel ? MODEL_PROJECTION : DATABASE_PROJECTION, null, null, null);
+            assertNotNull(cursor);
+            if (!fromModel || cursor instanceof ProductListCursor) {
+                assertEquals(fromModel, cursor instanceof ProductListCursor);
+                return cursor;
+            }
+            cursor.close();
+            assertTrue("The list model didn't load", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static ContentValues product(String name, int price, int quantity, String supplier) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, price);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME, supplier);
+        return values;
+    }
+
+    private Uri insert(String name, int price, int quantity, String supplier) {
+        Uri uri = resolver.insert(ProductEntry.CONTENT_URI,
+                product(name, price, quantity, supplier));
+        assertNotNull(uri);
+        return uri;
+    }
+
+    private long supplierId(String name) {
+        Cursor cursor = resolver.query(SupplierEntry.CONTENT_URI,
+                new String[] { SupplierEntry._ID }, SupplierEntry.COLUMN_SUPPLIER_NAME + "=?",
+                new String[] { name }, null);
+        assertNotNull(cursor);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.inventoryapp.data.ProductContract.LocationEntry;
+import com.example.android.inventoryapp.data.ProductContract.MovementEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.ReorderEntry;
+import com.example.android.inventoryapp.data.ProductContract.StockEntry;
+import com.example.android.inventoryapp.data.ProductContract.SummaryEntry;
+import com.example.android.inventoryapp.data.ProductContract.SupplierEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Takes a version 1 database with products through every step of {@link ProductMigrations},
+ * checking after each one that the products, and the tables derived from them, are all still
+ * there, and that an upgraded database ends up with the same schema as a new one.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class ProductMigrationsTest {
+
+    /** The products table as version 1 of the app created it */
+    private static final String CREATE_VERSION_1 = "CREATE TABLE " + ProductEntry.TABLE_NAME + " ("
+            + ProductEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + ProductEntry.COLUMN_PRODUCT_NAME + " TEXT NOT NULL, "
+            + ProductEntry.COLUMN_PRODUCT_PRICE + " INTEGER NOT NULL, "
+            + ProductEntry.COLUMN_PRODUCT_QUANTITY + " INTEGER NOT NULL DEFAULT 0, "
+            + ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME + " TEXT NOT NULL,"
+            + ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER + " TEXT);";
+
+    /** ID, name, price and quantity of the products of the version 1 database */
+    private static final List<String> PRODUCTS = Arrays.asList(
+            "1|Pencil|2|10",
+            "2|Eraser|1|0",
+            "3|Stapler|12|3");
+
+    private static final long STAPLER_ID = 3;
+
+    @Test
+    public void keepsProductsThroughEveryStep() {
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        try {
+            createVersion1(db);
+
+            int version = 1;
+            for (Migration migration : ProductMigrations.ALL) {
+                assertEquals(version, migration.startVersion);
+                db.beginTransaction();
+                try {
+                    migration.migrate(db);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                version = migration.endVersion;
+
+                String step = "after version " + version;
+                assertEquals(step, PRODUCTS, rows(db, "SELECT " + ProductEntry._ID + ", "
+                        + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRODUCT_PRICE
+                        + ", " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " FROM "
+                        + ProductEntry.TABLE_NAME + " ORDER BY " + ProductEntry._ID));
+                if (version >= 4) {
+                    assertEquals(step, Collections.singletonList("3"), search(db, "stapl*"));
+                    assertEquals(step, Arrays.asList("1", "2"), search(db, "office"));
+                }
+                if (version >= 5) {
+                    assertLedgerMatchesQuantities(db);
+                }
+                if (version >= 6) {
+                    assertSummaryMatchesProducts(db);
+                }
+                if (version == 7) {
+                    // Below its reorder point before the products table is rebuilt
+                    db.execSQL("UPDATE " + ProductEntry.TABLE_NAME + " SET "
+                            + ProductEntry.COLUMN_PRODUCT_REORDER_POINT + " = 5 WHERE "
+                            + ProductEntry._ID + " = " + STAPLER_ID);
+                }
+                if (version >= 7) {
+                    assertEquals(step, Collections.singletonList("3"), reorderLines(db));
+                }
+                if (version >= 8) {
+                    assertEquals(step, Arrays.asList("Office Supplies|555-0100",
+                            "Office Supplies|555-0100", "Acme|555-0199"), rows(db, "SELECT "
+                            + ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME + ", "
+                            + ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER + " FROM "
+                            + ProductEntry.VIEW_NAME + " ORDER BY " + ProductEntry._ID));
+                }
+                if (version >= 11) {
+                    assertStockMatchesQuantities(db);
+                }
+            }
+            assertEquals(ProductDbHelper.DATABASE_VERSION, version);
+            assertEquals(Collections.singletonList("3|13|56|2"), summary(db));
+
+            assertTriggersStillRun(db);
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void upgradedSchemaMatchesNewDatabase() {
+        Context context = RuntimeEnvironment.application;
+        ProductDbHelper helper = new ProductDbHelper(context);
+        SQLiteDatabase old = context.openOrCreateDatabase(helper.getDatabaseName(),
+                Context.MODE_PRIVATE, null);
+        try {
+            createVersion1(old);
+            old.setVersion(1);
+        } finally {
+            old.close();
+        }
+
+        SQLiteDatabase fresh = SQLiteDatabase.create(null);
+        try {
+            SQLiteDatabase upgraded = helper.getWritableDatabase();
+            assertEquals(ProductDbHelper.DATABASE_VERSION, upgraded.getVersion());
+            helper.onCreate(fresh);
+            assertEquals(schema(fresh), schema(upgraded));
+            assertEquals(PRODUCTS.size(), rows(upgraded, "SELECT * FROM "
+                    + ProductEntry.TABLE_NAME).size());
+        } finally {
+            fresh.close();
+            helper.close();
+        }
+    }
+
+    /**
+     * Create the version 1 products table with the products of {@link #PRODUCTS}, and a product
+     * deleted after them, so the next ID is not the one after the last product.
+     */
+    private static void createVersion1(SQLiteDatabase db) {
+        db.execSQL(CREATE_VERSION_1);
+        String insert = "INSERT INTO " + ProductEntry.TABLE_NAME + " ("
+                + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+                + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", "
+                + ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME + ", "
+                + ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER + ") VALUES (?, ?, ?, ?, ?)";
+        db.execSQL(insert, new Object[] { "Pencil", 2, 10, "Office Supplies", "555-0100" });
+        db.execSQL(insert, new Object[] { "Eraser", 1, 0, "Office Supplies", null });
+        db.execSQL(insert, new Object[] { "Stapler", 12, 3, "Acme", "555-0199" });
+        db.execSQL(insert, new Object[] { "Ruler", 3, 7, "Acme", null });
+        db.execSQL("DELETE FROM " + ProductEntry.TABLE_NAME + " WHERE "
+                + ProductEntry.COLUMN_PRODUCT_NAME + " = 'Ruler'");
+    }
+
+    /**
+     * Write to the upgraded database the way the provider does, and check that the triggers of
+     * every step still keep the derived tables up to date.
+     */
+    private static void assertTriggersStillRun(SQLiteDatabase db) {
+        db.execSQL("INSERT INTO " + ProductEntry.TABLE_NAME + " ("
+                + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+                + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", "
+                + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + ") SELECT 'Glue', 4, 2, "
+                + SupplierEntry._ID + " FROM " + SupplierEntry.TABLE_NAME + " WHERE "
+                + SupplierEntry.COLUMN_SUPPLIER_NAME + " = 'Acme'");
+        // IDs of deleted products are not handed out again
+        assertEquals(Collections.singletonList("5"), search(db, "glue"));
+        assertEquals(Collections.singletonList("1"), rows(db, "SELECT COUNT(*) FROM "
+                + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + " = 5 AND "
+                + ProductEntry.COLUMN_PRODUCT_VERSION + " > 0 AND "
+                + ProductEntry.COLUMN_PRODUCT_SYNC_ID + " IS NOT NULL"));
+        assertEquals(Arrays.asList("3", "5"), search(db, "acme"));
+
+        // Stock brought back over the reorder point of the stapler takes it off the lines
+        db.execSQL("UPDATE " + StockEntry.TABLE_NAME + " SET " + StockEntry.COLUMN_STOCK_QUANTITY
+                + " = 6 WHERE " + StockEntry.COLUMN_STOCK_PRODUCT_ID + " = " + STAPLER_ID
+                + " AND " + StockEntry.COLUMN_STOCK_LOCATION_ID + " = "
+                + LocationEntry.SALES_LOCATION_ID);
+        assertEquals(Collections.<String>emptyList(), reorderLines(db));
+        assertStockMatchesQuantities(db);
+        assertSummaryMatchesProducts(db);
+
+        db.execSQL("UPDATE " + SupplierEntry.TABLE_NAME + " SET "
+                + SupplierEntry.COLUMN_SUPPLIER_NAME + " = 'Acme Office' WHERE "
+                + SupplierEntry.COLUMN_SUPPLIER_NAME + " = 'Acme'");
+        assertEquals(Arrays.asList("1", "2", "3", "5"), search(db, "office"));
+
+        db.execSQL("DELETE FROM " + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + " = "
+                + STAPLER_ID);
+        assertEquals(Collections.<String>emptyList(), search(db, "stapl*"));
+        assertSummaryMatchesProducts(db);
+    }
+
+    /** Check the summary against the totals of the products table */
+    private static void assertSummaryMatchesProducts(SQLiteDatabase db) {
+        String quantity = ProductEntry.COLUMN_PRODUCT_QUANTITY;
+        assertEquals(rows(db, "SELECT COUNT(*), IFNULL(SUM(" + quantity + "), 0), IFNULL(SUM("
+                + ProductEntry.COLUMN_PRODUCT_PRICE + " * " + quantity + "), 0), IFNULL(SUM("
+                + quantity + " <= " + SummaryEntry.LOW_STOCK_THRESHOLD + "), 0) FROM "
+                + ProductEntry.TABLE_NAME), summary(db));
+    }
+
+    private static List<String> summary(SQLiteDatabase db) {
+        return rows(db, "SELECT " + SummaryEntry.COLUMN_SUMMARY_PRODUCT_COUNT + ", "
+                + SummaryEntry.COLUMN_SUMMARY_TOTAL_UNITS + ", "
+                + SummaryEntry.COLUMN_SUMMARY_TOTAL_VALUE + ", "
+                + SummaryEntry.COLUMN_SUMMARY_LOW_STOCK_COUNT + " FROM " + SummaryEntry.TABLE_NAME);
+    }
+
+    /** Check that the movements of every product add up to its quantity */
+    private static void assertLedgerMatchesQuantities(SQLiteDatabase db) {
+        assertEquals(Collections.<String>emptyList(), rows(db, "SELECT p." + ProductEntry._ID
+                + " FROM " + ProductEntry.TABLE_NAME + " p WHERE p."
+                + ProductEntry.COLUMN_PRODUCT_QUANTITY + " != (SELECT IFNULL(SUM("
+                + MovementEntry.COLUMN_MOVEMENT_DELTA + "), 0) FROM " + MovementEntry.TABLE_NAME
+                + " WHERE " + MovementEntry.COLUMN_MOVEMENT_PRODUCT_ID + " = p." + ProductEntry._ID
+                + ")"));
+    }
+
+    /** Check that the stock of every product over the locations adds up to its quantity */
+    private static void assertStockMatchesQuantities(SQLiteDatabase db) {
+        assertEquals(Collections.<String>emptyList(), rows(db, "SELECT p." + ProductEntry._ID
+                + " FROM " + ProductEntry.TABLE_NAME + " p WHERE p."
+                + ProductEntry.COLUMN_PRODUCT_QUANTITY + " != (SELECT IFNULL(SUM("
+                + StockEntry.COLUMN_STOCK_QUANTITY + "), 0) FROM " + StockEntry.TABLE_NAME
+                + " WHERE " + StockEntry.COLUMN_STOCK_PRODUCT_ID + " = p." + ProductEntry._ID + ")"));
+    }
+
+    private static List<String> reorderLines(SQLiteDatabase db) {
+        return rows(db, "SELECT " + ReorderEntry.COLUMN_REORDER_PRODUCT_ID + " FROM "
+                + ReorderEntry.TABLE_NAME + " ORDER BY 1");
+    }
+
+    /** Return the IDs of the products whose full-text index matches the query */
+    private static List<String> search(SQLiteDatabase db, String query) {
+        return rows(db, "SELECT docid FROM products_fts WHERE products_fts MATCH ? ORDER BY docid",
+                query);
+    }
+
+    /** Return the tables, indexes, triggers and views of the database with their SQL, by name */
+    private static List<String> schema(SQLiteDatabase db) {
+        return rows(db, "SELECT type, name, tbl_name, sql FROM sqlite_master"
+                + " WHERE name NOT LIKE 'sqlite_%' ORDER BY name");
+    }
+
+    /** Return the rows of a query, each with its columns joined by '|' */
+    private static List<String> rows(SQLiteDatabase db, String sql, String... args) {
+        List<String> rows = new ArrayList<>();
+        Cursor cursor = db.rawQuery(sql, args);
+        try {
+            while (cursor.moveToNext()) {
+                StringBuilder row = new StringBuilder();
+                for (int i = 0; i < cursor.getColumnCount(); i++) {
+                    row.append(i == 0 ? "" : "|").append(cursor.getString(i));
+                }
+                rows.add(row.toString());
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+}
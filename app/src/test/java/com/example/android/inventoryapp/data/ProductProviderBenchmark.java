@@ -0,0 +1,261 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeFalse;
+
+/**
+ * Measures the operations of {@link ProductProvider} against tables of growing size, on the JVM
+ * through Robolectric. It only runs when dataset sizes are given, since the largest ones take
+ * minutes:
+ *
+ * ./gradlew testDebugUnitTest --tests '*ProductProviderBenchmark' -PbenchmarkSizes=1000,10000,100000,1000000
+ *
+ * Results are appended as JSON lines to app/build/benchmark/results.json, tagged with the
+ * -PbenchmarkCommit value so runs of different commits can be compared.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class ProductProviderBenchmark {
+
+    /** Runs of every operation before measuring starts */
+    private static final int WARMUP = 50;
+
+    /** Measured runs of every operation */
+    private static final int ITERATIONS = 200;
+
+    /** Rows per batch when filling the table, and rows of the measured bulk load */
+    private static final int BATCH_SIZE = 1000;
+
+    /** Rows read by the list query, as read by the product list */
+    private static final int PAGE_SIZE = 50;
+
+    private ProductProvider provider;
+    private final Random random = new Random(42);
+
+    @Before
+    public void setUp() {
+        provider = Robolectric.setupContentProvider(ProductProvider.class,
+                ProductContract.CONTENT_AUTHORITY);
+    }
+
+    @Test
+    public void benchmarkProvider() throws Exception {
+        String sizes = System.getProperty("benchmark.sizes", "");
+        assumeFalse("Pass -PbenchmarkSizes to run the benchmarks", sizes.trim().isEmpty());
+
+        Benchmark benchmark = new Benchmark(WARMUP, ITERATIONS);
+        for (String size : sizes.split(",")) {
+            runAtSize(benchmark, Integer.parseInt(size.trim()));
+        }
+
+        benchmark.write(new File(System.getProperty("benchmark.output",
+                "build/benchmark/results.json")), System.getProperty("benchmark.commit", ""));
+    }
+
+    /**
+     * Fill the table with the given number of rows and measure every operation against it.
+     */
+    private void runAtSize(Benchmark benchmark, final int rows) throws Exception {
+        provider.delete(ProductEntry.CONTENT_URI, null, null);
+        for (int inserted = 0; inserted < rows; inserted += BATCH_SIZE) {
+            provider.bulkInsert(ProductEntry.CONTENT_URI,
+                    products(Math.min(BATCH_SIZE, rows - inserted)));
+        }
+        final long lastId = maxId();
+        final long firstId = lastId - rows + 1;
+        assertEquals(rows, count());
+
+        benchmark.measure("insert", rows, new Benchmark.Operation() {
+            @Override
+            void run(int run) {
+                provider.insert(ProductEntry.CONTENT_URI, product());
+            }
+        });
+        deleteAfter(lastId);
+
+        benchmark.measure("bulk_load_" + BATCH_SIZE, rows, new Benchmark.Operation() {
+            ContentValues[] batch;
+
+            @Override
+            void prepare(int run) {
+                batch = products(BATCH_SIZE);
+            }
+
+            @Override
+            void run(int run) {
+                provider.bulkInsert(ProductEntry.CONTENT_URI, batch);
+            }
+        });
+        deleteAfter(lastId);
+
+        benchmark.measure("list_query_first_page", rows, new Benchmark.Operation() {
+            @Override
+            void run(int run) {
+                readAll(ProductEntry.buildPageUri(ProductEntry.SORT_NAME, PAGE_SIZE, null, 0));
+            }
+        });
+
+        benchmark.measure("list_query_keyset_page", rows, new Benchmark.Operation() {
+            Uri uri;
+
+            @Override
+            void prepare(int run) {
+                uri = ProductEntry.buildPageUri(ProductEntry.SORT_NAME, PAGE_SIZE,
+                        name(random.nextInt(Integer.MAX_VALUE)), random.nextInt(rows));
+            }
+
+            @Override
+            void run(int run) {
+                readAll(uri);
+            }
+        });
+
+        benchmark.measure("list_query_quantity_page", rows, new Benchmark.Operation() {
+            @Override
+            void run(int run) {
+                readAll(ProductEntry.buildPageUri(ProductEntry.SORT_QUANTITY, null, 0, PAGE_SIZE,
+                        null, 0));
+            }
+        });
+
+        benchmark.measure("list_query_supplier_page", rows, new Benchmark.Operation() {
+            @Override
+            void run(int run) {
+                readAll(ProductEntry.buildPageUri(ProductEntry.SORT_SUPPLIER, null, 0, PAGE_SIZE,
+                        null, 0));
+            }
+        });
+
+        benchmark.measure("single_row_query", rows, new Benchmark.Operation() {
+            Uri uri;
+
+            @Override
+            void prepare(int run) {
+                uri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, randomId(firstId, rows));
+            }
+
+            @Override
+            void run(int run) {
+                readAll(uri);
+            }
+        });
+
+        benchmark.measure("update", rows, new Benchmark.Operation() {
+            Uri uri;
+            final ContentValues values = new ContentValues();
+
+            @Override
+            void prepare(int run) {
+                uri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, randomId(firstId, rows));
+                values.put(ProductEntry.COLUMN_PRODUCT_PRICE, run);
+            }
+
+            @Override
+            void run(int run) {
+                provider.update(uri, values, null, null);
+            }
+        });
+
+        benchmark.measure("delete", rows, new Benchmark.Operation() {
+            Uri uri;
+
+            @Override
+            void prepare(int run) {
+                // Delete rows added for the purpose, so the table keeps its size
+                uri = provider.insert(ProductEntry.CONTENT_URI, product());
+            }
+
+            @Override
+            void run(int run) {
+                provider.delete(uri, null, null);
+            }
+        });
+    }
+
+    /** Delete the rows added by a benchmark, so the next one runs at the same size */
+    private void deleteAfter(long lastId) {
+        provider.delete(ProductEntry.CONTENT_URI, ProductEntry._ID + " > ?",
+                new String[] { String.valueOf(lastId) });
+    }
+
+    private long randomId(long firstId, int rows) {
+        return firstId + random.nextInt(rows);
+    }
+
+    /** Product names spread evenly over the name index */
+    private static String name(int i) {
+        return String.format("Product %08d", i);
+    }
+
+    private ContentValues product() {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name(random.nextInt(Integer.MAX_VALUE)));
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, random.nextInt(1000));
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, random.nextInt(100));
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME, "Supplier " + random.nextInt(500));
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, "0633744021");
+        return values;
+    }
+
+    private ContentValues[] products(int count) {
+        ContentValues[] values = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = product();
+        }
+        return values;
+    }
+
+    /** Read every column of every row, like a caller copying the cursor would */
+    private void readAll(Uri uri) {
+        Cursor cursor = provider.query(uri, null, null, null, null);
+        try {
+            int columns = cursor.getColumnCount();
+            while (cursor.moveToNext()) {
+                for (int i = 0; i < columns; i++) {
+                    cursor.getString(i);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long maxId() {
+        Cursor cursor = provider.query(ProductEntry.CONTENT_URI,
+                new String[] { "MAX(" + ProductEntry._ID + ")" }, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int count() {
+        Cursor cursor = provider.query(ProductEntry.CONTENT_URI,
+                new String[] { "COUNT(*)" }, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,689 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.inventoryapp.data.ProductContract.LocationEntry;
+import com.example.android.inventoryapp.data.ProductContract.MovementEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.StockEntry;
+import com.example.android.inventoryapp.data.ProductContract.SummaryEntry;
+import com.example.android.inventoryapp.data.ProductContract.SupplierEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Exercises the operations of {@link ProductProvider} through a content resolver.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class ProductProviderTest {
+
+    private static final String[] SORTS = {
+            ProductEntry.SORT_NAME,
+            ProductEntry.SORT_QUANTITY,
+            ProductEntry.SORT_PRICE,
+            ProductEntry.SORT_SUPPLIER,
+            ProductEntry.SORT_RECENT};
+
+    private ProductProvider provider;
+    private ContentResolver resolver;
+
+    @Before
+    public void setUp() {
+        provider = Robolectric.setupContentProvider(ProductProvider.class,
+                ProductContract.CONTENT_AUTHORITY);
+        resolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void sellReturnsTheQuantityLeft() {
+        Uri uri = insert("Pencil", 2, 10);
+
+        Bundle result = sell(uri, 3);
+        assertFalse(result.getBoolean(ProductEntry.EXTRA_SOLD_OUT));
+        assertEquals(7, result.getInt(ProductEntry.EXTRA_QUANTITY));
+        assertEquals(7, quantityOf(uri));
+    }
+
+    @Test
+    public void sellRefusesMoreThanTheStock() {
+        Uri uri = insert("Pencil", 2, 2);
+
+        Bundle result = sell(uri, 3);
+        assertTrue(result.getBoolean(ProductEntry.EXTRA_SOLD_OUT));
+        assertFalse(result.containsKey(ProductEntry.EXTRA_QUANTITY));
+        assertEquals(2, quantityOf(uri));
+
+        assertEquals(0, sell(uri, 2).getInt(ProductEntry.EXTRA_QUANTITY));
+        assertTrue(sell(uri, 1).getBoolean(ProductEntry.EXTRA_SOLD_OUT));
+    }
+
+    @Test
+    public void sellReportsAMissingProductAsSoldOut() {
+        Uri uri = insert("Pencil", 2, 10);
+        resolver.delete(uri, null, null);
+
+        assertTrue(sell(uri, 1).getBoolean(ProductEntry.EXTRA_SOLD_OUT));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sellRejectsAnAmountBelowOne() {
+        sell(insert("Pencil", 2, 10), 0);
+    }
+
+    @Test
+    public void concurrentSalesNeverSellMoreThanTheStock() throws Exception {
+        final Uri uri = insert("Pencil", 2, 12);
+        final AtomicInteger sold = new AtomicInteger();
+        final AtomicInteger soldOut = new AtomicInteger();
+
+        List<Thread> sellers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            sellers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int sale = 0; sale < 5; sale++) {
+                        if (sell(uri, 1).getBoolean(ProductEntry.EXTRA_SOLD_OUT)) {
+                            soldOut.incrementAndGet();
+                        } else {
+                            sold.incrementAndGet();
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread seller : sellers) {
+            seller.start();
+        }
+        for (Thread seller : sellers) {
+            seller.join();
+        }
+
+        assertEquals(12, sold.get());
+        assertEquals(8, soldOut.get());
+        assertEquals(0, quantityOf(uri));
+    }
+
+    @Test
+    public void bulkInsertWritesEveryRowWithItsLedger() {
+        int inserted = provider.bulkInsert(ProductEntry.CONTENT_URI, new ContentValues[] {
+                product("Pencil", 2, 10, "P-1"),
+                product("Eraser", 1, 0, null),
+                product("Stapler", 12, 3, "S-1")
+        });
+
+        assertEquals(3, inserted);
+        assertEquals(3, count(ProductEntry.CONTENT_URI));
+        // Only rows with stock get an initial movement, and the ledger adds up to the stock
+        assertEquals(2, count(MovementEntry.CONTENT_URI));
+        assertEquals(13, ledgerTotal());
+        assertEquals("3|13|56", summary());
+    }
+
+    @Test
+    public void bulkInsertRejectsTheWholeBatchForAnInvalidRow() {
+        ContentValues invalid = product("Eraser", 1, 0, null);
+        invalid.remove(ProductEntry.COLUMN_PRODUCT_NAME);
+
+        try {
+            provider.bulkInsert(ProductEntry.CONTENT_URI, new ContentValues[] {
+                    product("Pencil", 2, 10, null), invalid
+            });
+            fail("Bulk insert accepted a product without a name");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        assertEquals(0, count(ProductEntry.CONTENT_URI));
+        assertEquals(0, count(MovementEntry.CONTENT_URI));
+        assertEquals("0|0|0", summary());
+    }
+
+    @Test
+    public void bulkInsertSkipsRowsWithAUsedSku() {
+        insert("Pencil", 2, 10, "P-1");
+
+        Bundle extras = new Bundle();
+        extras.putParcelableArrayList(ProductEntry.EXTRA_ROWS, new ArrayList<>(Arrays.asList(
+                product("Pencil", 2, 5, " P-1 "),
+                product("Eraser", 1, 4, "E-1"),
+                product("Eraser", 1, 4, "E-1"),
+                product("Stapler", 12, 3, null))));
+        Bundle result = resolver.call(ProductEntry.CONTENT_URI, ProductEntry.METHOD_BULK_INSERT,
+                null, extras);
+
+        assertNotNull(result);
+        assertEquals(2, result.getInt(ProductEntry.EXTRA_INSERTED));
+        assertArrayEquals(new int[] { 0, 2 }, result.getIntArray(ProductEntry.EXTRA_SKIPPED));
+        assertEquals(3, count(ProductEntry.CONTENT_URI));
+        assertEquals(17, ledgerTotal());
+        assertEquals("3|17|60", summary());
+    }
+
+    @Test
+    public void repeatedLookupsComeFromTheRowCache() {
+        Uri uri = insert("Pencil", 2, 10);
+
+        assertEquals(10, quantityOf(uri));
+        assertEquals(10, quantityOf(uri));
+        assertEquals(10, quantityOf(uri));
+
+        Bundle stats = cacheStats();
+        assertEquals(1, stats.getInt(ProductEntry.EXTRA_CACHE_MISSES));
+        assertEquals(2, stats.getInt(ProductEntry.EXTRA_CACHE_HITS));
+        assertTrue(stats.getInt(ProductEntry.EXTRA_CACHE_BYTES) > 0);
+
+        // Lookups with a selection always go to the database
+        Cursor cursor = resolver.query(uri, null, ProductEntry.COLUMN_PRODUCT_QUANTITY + " > 0",
+                null, null);
+        assertNotNull(cursor);
+        cursor.close();
+        assertEquals(2, cacheStats().getInt(ProductEntry.EXTRA_CACHE_HITS));
+    }
+
+    @Test
+    public void writesDropCachedRows() {
+        Uri uri = insert("Pencil", 2, 10);
+        assertEquals(10, quantityOf(uri));
+
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 8);
+        assertEquals(1, resolver.update(uri, values, null, null));
+        assertEquals(8, quantityOf(uri));
+
+        sell(uri, 3);
+        assertEquals(5, quantityOf(uri));
+
+        // A supplier rename reaches every cached product of the supplier
+        long supplierId = Long.parseLong(valueOf(uri, ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID));
+        ContentValues supplier = new ContentValues();
+        supplier.put(SupplierEntry.COLUMN_SUPPLIER_NAME, "Stationery Ltd");
+        assertEquals(1, resolver.update(ContentUris.withAppendedId(SupplierEntry.CONTENT_URI,
+                supplierId), supplier, null, null));
+        assertEquals("Stationery Ltd", valueOf(uri, ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME));
+
+        resolver.delete(uri, null, null);
+        assertEquals(-1, quantityOf(uri));
+    }
+
+    @Test
+    public void transfersKeepTheTotalOfAProduct() {
+        Uri uri = insert("Pencil", 2, 10);
+        long backroom = insertLocation("Backroom");
+
+        assertFalse(transfer(uri, LocationEntry.SALES_LOCATION_ID, backroom, 4)
+                .getBoolean(StockEntry.EXTRA_SHORT));
+        assertEquals(Arrays.asList(LocationEntry.SALES_LOCATION_ID + "|6", backroom + "|4"),
+                stockOf(uri));
+        assertEquals(10, quantityOf(uri));
+        assertEquals("1|10|20", summary());
+
+        // A location can't give more than it holds
+        assertTrue(transfer(uri, backroom, LocationEntry.SALES_LOCATION_ID, 5)
+                .getBoolean(StockEntry.EXTRA_SHORT));
+        assertEquals(Arrays.asList(LocationEntry.SALES_LOCATION_ID + "|6", backroom + "|4"),
+                stockOf(uri));
+    }
+
+    @Test
+    public void salesOnlyTakeStockFromTheSalesLocation() {
+        Uri uri = insert("Pencil", 2, 10);
+        long backroom = insertLocation("Backroom");
+        transfer(uri, LocationEntry.SALES_LOCATION_ID, backroom, 4);
+
+        assertTrue(sell(uri, 7).getBoolean(ProductEntry.EXTRA_SOLD_OUT));
+        assertEquals(4, sell(uri, 6).getInt(ProductEntry.EXTRA_QUANTITY));
+        assertEquals(Arrays.asList(LocationEntry.SALES_LOCATION_ID + "|0", backroom + "|4"),
+                stockOf(uri));
+        assertTrue(sell(uri, 1).getBoolean(ProductEntry.EXTRA_SOLD_OUT));
+        assertEquals("1|4|8", summary());
+    }
+
+    @Test
+    public void newTotalsOnlyChangeTheSalesLocation() {
+        Uri uri = insert("Pencil", 2, 10);
+        long backroom = insertLocation("Backroom");
+        transfer(uri, LocationEntry.SALES_LOCATION_ID, backroom, 4);
+
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 5);
+        assertEquals(1, resolver.update(uri, values, null, null));
+        assertEquals(Arrays.asList(LocationEntry.SALES_LOCATION_ID + "|1", backroom + "|4"),
+                stockOf(uri));
+        assertEquals(5, quantityOf(uri));
+
+        // The backroom holds more than the new total
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 3);
+        try {
+            resolver.update(uri, values, null, null);
+            fail("Update set a total below the stock at other locations");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(Arrays.asList(LocationEntry.SALES_LOCATION_ID + "|1", backroom + "|4"),
+                stockOf(uri));
+        assertEquals(5, quantityOf(uri));
+    }
+
+    @Test
+    public void versionedUpdateWritesWhileTheVersionMatches() {
+        Uri uri = insert("Pencil", 2, 10);
+        long version = Long.parseLong(valueOf(uri, ProductEntry.COLUMN_PRODUCT_VERSION));
+
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 3);
+        Bundle result = updateVersioned(uri, values, version);
+
+        assertEquals(1, result.getInt(ProductEntry.EXTRA_UPDATED));
+        assertFalse(result.getBoolean(ProductEntry.EXTRA_CONFLICT));
+        assertEquals("3", valueOf(uri, ProductEntry.COLUMN_PRODUCT_PRICE));
+        assertTrue(Long.parseLong(valueOf(uri, ProductEntry.COLUMN_PRODUCT_VERSION)) > version);
+    }
+
+    @Test
+    public void versionedUpdateReportsAConflictWithTheCurrentRow() {
+        Uri uri = insert("Pencil", 2, 10);
+        long staleVersion = Long.parseLong(valueOf(uri, ProductEntry.COLUMN_PRODUCT_VERSION));
+        sell(uri, 4);
+        long version = Long.parseLong(valueOf(uri, ProductEntry.COLUMN_PRODUCT_VERSION));
+
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 3);
+        Bundle result = updateVersioned(uri, values, staleVersion);
+
+        assertEquals(0, result.getInt(ProductEntry.EXTRA_UPDATED));
+        assertTrue(result.getBoolean(ProductEntry.EXTRA_CONFLICT));
+        assertEquals(version, result.getLong(ProductEntry.EXTRA_VERSION));
+        ContentValues current = result.getParcelable(ProductEntry.EXTRA_CURRENT);
+        assertNotNull(current);
+        assertEquals(6, (int) current.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY));
+        assertEquals(version, (long) current.getAsLong(ProductEntry.COLUMN_PRODUCT_VERSION));
+        assertEquals("2", valueOf(uri, ProductEntry.COLUMN_PRODUCT_PRICE));
+
+        // A missing product is not a conflict
+        resolver.delete(uri, null, null);
+        result = updateVersioned(uri, values, version);
+        assertEquals(0, result.getInt(ProductEntry.EXTRA_UPDATED));
+        assertFalse(result.getBoolean(ProductEntry.EXTRA_CONFLICT));
+    }
+
+    @Test
+    public void pagesReadEveryProductOnceInSortOrder() throws InterruptedException {
+        // Few names, prices, quantities and suppliers, so runs of equal keys span pages
+        List<Uri> uris = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            ContentValues values = product(i % 4 == 0 ? "Eraser" : "Pencil", i % 3, i % 5, null);
+            values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME,
+                    i % 2 == 0 ? "Acme" : "Office Supplies");
+            Uri uri = resolver.insert(ProductEntry.CONTENT_URI, values);
+            assertNotNull(uri);
+            uris.add(uri);
+        }
+        // Later sales, so the most recent first order has runs of more than one time
+        Thread.sleep(5);
+        sell(uris.get(3), 1);
+        Thread.sleep(5);
+        sell(uris.get(8), 1);
+        sell(uris.get(13), 1);
+
+        for (String sort : SORTS) {
+            List<Long> expected = sortedIds(sort);
+            assertEquals(uris.size(), expected.size());
+            for (int pageSize : new int[] { 1, 4, 7 }) {
+                assertEquals(sort + "/" + pageSize, expected, readPages(sort, pageSize));
+            }
+        }
+    }
+
+    @Test
+    public void queriesAcceptEverySort() {
+        insert("Pencil", 2, 10);
+        insert("Eraser", 1, 0);
+
+        for (String sort : SORTS) {
+            assertEquals(sort, 2, count(ProductEntry.buildPageUri(sort, 10, null, 0)));
+            assertEquals(sort, 1, count(ProductEntry.buildPageUri(sort,
+                    ProductEntry.FILTER_IN_STOCK, 0, 10, null, 0)));
+            Cursor cursor = resolver.query(ProductEntry.CONTENT_URI, null, null, null, sort);
+            assertNotNull(cursor);
+            try {
+                assertEquals(sort, 2, cursor.getCount());
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void pagedQueriesRejectAnUnknownSort() {
+        count(ProductEntry.buildPageUri("name DESC", 10, null, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void pagedQueriesRejectAnUnknownFilter() {
+        count(ProductEntry.buildPageUri(ProductEntry.SORT_NAME, "price > 0", 0, 10, null, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void pagedQueriesRejectASelection() {
+        resolver.query(ProductEntry.buildPageUri(ProductEntry.SORT_NAME, 10, null, 0), null,
+                ProductEntry.COLUMN_PRODUCT_PRICE + " > ?", new String[] { "1" }, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void queriesRejectAFreeFormSortOrder() {
+        resolver.query(ProductEntry.CONTENT_URI, null, null, null,
+                ProductEntry.COLUMN_PRODUCT_PRICE + " DESC");
+    }
+
+    @Test
+    public void searchMatchesPrefixesOfNamesAndSupplierNames() {
+        insert("Red Pencil", "Office Supplies");
+        insert("Blue Pen", "Acme");
+        insert("Stapler", "Acme Office");
+
+        assertEquals(Arrays.asList("Blue Pen", "Red Pencil"), search("Pen"));
+        assertEquals(Arrays.asList("Red Pencil"), search("red pen"));
+        assertEquals(Arrays.asList("Blue Pen", "Stapler"), search("acm"));
+        assertEquals(Arrays.asList("Red Pencil", "Stapler"), search("offi"));
+        assertEquals(0, search("pencils").size());
+        assertEquals(0, search(" ,- ").size());
+    }
+
+    @Test
+    public void searchFollowsUpdatesAndDeletes() {
+        Uri uri = insert("Pencil", "Office Supplies");
+        insert("Eraser", "Office Supplies");
+
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Marker");
+        assertEquals(1, resolver.update(uri, values, null, null));
+        assertEquals(0, search("pen").size());
+        assertEquals(Arrays.asList("Marker"), search("mark"));
+
+        // A new supplier for the product, then a new name for the supplier
+        values.clear();
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME, "Acme");
+        assertEquals(1, resolver.update(uri, values, null, null));
+        assertEquals(Arrays.asList("Eraser"), search("office"));
+        assertEquals(Arrays.asList("Marker"), search("acme"));
+        values.clear();
+        values.put(SupplierEntry.COLUMN_SUPPLIER_NAME, "Zenith");
+        long supplierId = Long.parseLong(valueOf(uri, ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID));
+        assertEquals(1, resolver.update(ContentUris.withAppendedId(SupplierEntry.CONTENT_URI,
+                supplierId), values, null, null));
+        assertEquals(0, search("acme").size());
+        assertEquals(Arrays.asList("Marker"), search("zen"));
+
+        assertEquals(1, resolver.delete(uri, null, null));
+        assertEquals(0, search("mark").size());
+        assertEquals(0, search("zen").size());
+        assertEquals(Arrays.asList("Eraser"), search("eras"));
+    }
+
+    @Test
+    public void searchRejectsAPageSizeBelowOne() {
+        insert("Pencil", 2, 10);
+
+        for (int pageSize : new int[] { 0, -1 }) {
+            try {
+                count(ProductEntry.buildSearchUri("pen", pageSize));
+                fail("Search accepted a page size of " + pageSize);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        assertEquals(1, count(ProductEntry.buildSearchUri("pen", 1)));
+    }
+
+    private static ContentValues product(String name, int price, int quantity, String sku) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, price);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME, "Office Supplies");
+        if (sku != null) {
+            values.put(ProductEntry.COLUMN_PRODUCT_SKU, sku);
+        }
+        return values;
+    }
+
+    private Uri insert(String name, int price, int quantity) {
+        return insert(name, price, quantity, null);
+    }
+
+    private Uri insert(String name, int price, int quantity, String sku) {
+        Uri uri = resolver.insert(ProductEntry.CONTENT_URI, product(name, price, quantity, sku));
+        assertNotNull(uri);
+        return uri;
+    }
+
+    private Uri insert(String name, String supplier) {
+        ContentValues values = product(name, 2, 10, null);
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME, supplier);
+        Uri uri = resolver.insert(ProductEntry.CONTENT_URI, values);
+        assertNotNull(uri);
+        return uri;
+    }
+
+    private Bundle sell(Uri uri, int amount) {
+        Bundle extras = new Bundle();
+        extras.putInt(ProductEntry.EXTRA_AMOUNT, amount);
+        Bundle result = resolver.call(ProductEntry.CONTENT_URI, ProductEntry.METHOD_SELL,
+                String.valueOf(ContentUris.parseId(uri)), extras);
+        assertNotNull(result);
+        return result;
+    }
+
+    private Bundle updateVersioned(Uri uri, ContentValues values, long expectedVersion) {
+        Bundle extras = new Bundle();
+        extras.putParcelable(ProductEntry.EXTRA_VALUES, values);
+        extras.putLong(ProductEntry.EXTRA_EXPECTED_VERSION, expectedVersion);
+        Bundle result = resolver.call(ProductEntry.CONTENT_URI, ProductEntry.METHOD_UPDATE_VERSIONED,
+                String.valueOf(ContentUris.parseId(uri)), extras);
+        assertNotNull(result);
+        return result;
+    }
+
+    private long insertLocation(String name) {
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_NAME, name);
+        Uri uri = resolver.insert(LocationEntry.CONTENT_URI, values);
+        assertNotNull(uri);
+        return ContentUris.parseId(uri);
+    }
+
+    private Bundle transfer(Uri uri, long fromLocationId, long toLocationId, int amount) {
+        Bundle extras = new Bundle();
+        extras.putLong(StockEntry.EXTRA_FROM_LOCATION_ID, fromLocationId);
+        extras.putLong(StockEntry.EXTRA_TO_LOCATION_ID, toLocationId);
+        extras.putInt(StockEntry.EXTRA_AMOUNT, amount);
+        Bundle result = resolver.call(StockEntry.CONTENT_URI, StockEntry.METHOD_TRANSFER,
+                String.valueOf(ContentUris.parseId(uri)), extras);
+        assertNotNull(result);
+        return result;
+    }
+
+    /** Return the location ID and quantity of every stock row of a product */
+    private List<String> stockOf(Uri uri) {
+        Cursor cursor = resolver.query(StockEntry.buildProductUri(ContentUris.parseId(uri)),
+                new String[] { StockEntry.COLUMN_STOCK_LOCATION_ID, StockEntry.COLUMN_STOCK_QUANTITY },
+                null, null, StockEntry.COLUMN_STOCK_LOCATION_ID);
+        assertNotNull(cursor);
+        List<String> stock = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                stock.add(String.format(Locale.US, "%d|%d", cursor.getLong(0), cursor.getLong(1)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return stock;
+    }
+
+    /** Return the IDs of all products read with keyset paging, in the order of the pages */
+    private List<Long> readPages(String sort, int pageSize) {
+        String keyColumn = ProductEntry.getSortKeyColumn(sort);
+        List<Long> ids = new ArrayList<>();
+        String afterKey = null;
+        long afterId = 0;
+        while (true) {
+            Cursor cursor = resolver.query(ProductEntry.buildPageUri(sort, pageSize, afterKey,
+                    afterId), null, null, null, null);
+            assertNotNull(cursor);
+            try {
+                assertTrue(cursor.getCount() <= pageSize);
+                while (cursor.moveToNext()) {
+                    afterId = cursor.getLong(cursor.getColumnIndexOrThrow(ProductEntry._ID));
+                    afterKey = cursor.getString(cursor.getColumnIndexOrThrow(keyColumn));
+                    ids.add(afterId);
+                }
+                if (cursor.getCount() < pageSize) {
+                    return ids;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Return the IDs of all products in the order of a SORT_ value, sorted here rather than by
+     * SQLite: by the sort key and then by ID, both descending for the most recent first order.
+     */
+    private List<Long> sortedIds(String sort) {
+        final boolean text = ProductEntry.SORT_NAME.equals(sort)
+                || ProductEntry.SORT_SUPPLIER.equals(sort);
+        final int direction = ProductEntry.SORT_RECENT.equals(sort) ? -1 : 1;
+        List<String[]> rows = new ArrayList<>();
+        Cursor cursor = resolver.query(ProductEntry.CONTENT_URI, new String[] {
+                ProductEntry.getSortKeyColumn(sort), ProductEntry._ID }, null, null, null);
+        assertNotNull(cursor);
+        try {
+            while (cursor.moveToNext()) {
+                rows.add(new String[] { cursor.getString(0), cursor.getString(1) });
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Collections.sort(rows, new Comparator<String[]>() {
+            @Override
+            public int compare(String[] a, String[] b) {
+                int result = text ? a[0].compareTo(b[0])
+                        : Long.valueOf(a[0]).compareTo(Long.valueOf(b[0]));
+                if (result == 0) {
+                    result = Long.valueOf(a[1]).compareTo(Long.valueOf(b[1]));
+                }
+                return direction * result;
+            }
+        });
+        List<Long> ids = new ArrayList<>();
+        for (String[] row : rows) {
+            ids.add(Long.valueOf(row[1]));
+        }
+        return ids;
+    }
+
+    /** Return the names of the products found by a search, best match first */
+    private List<String> search(String text) {
+        Cursor cursor = resolver.query(ProductEntry.buildSearchUri(text, 10),
+                new String[] { ProductEntry.COLUMN_PRODUCT_NAME }, null, null, null);
+        assertNotNull(cursor);
+        List<String> names = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+
+    private Bundle cacheStats() {
+        Bundle stats = resolver.call(ProductEntry.CONTENT_URI, ProductEntry.METHOD_CACHE_STATS,
+                null, null);
+        assertNotNull(stats);
+        return stats;
+    }
+
+    /** Return the quantity of a product, or -1 if there is none */
+    private int quantityOf(Uri uri) {
+        String quantity = valueOf(uri, ProductEntry.COLUMN_PRODUCT_QUANTITY);
+        return quantity == null ? -1 : Integer.parseInt(quantity);
+    }
+
+    /** Return a column of a product, or null if there is no product */
+    private String valueOf(Uri uri, String column) {
+        Cursor cursor = resolver.query(uri, new String[] { column }, null, null, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int count(Uri uri) {
+        Cursor cursor = resolver.query(uri, null, null, null, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Return the sum of all stock movements */
+    private long ledgerTotal() {
+        Cursor cursor = resolver.query(MovementEntry.CONTENT_URI,
+                new String[] { "TOTAL(" + MovementEntry.COLUMN_MOVEMENT_DELTA + ")" },
+                null, null, null);
+        assertNotNull(cursor);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Return the product count, total units and total value of the summary row */
+    private String summary() {
+        Cursor cursor = resolver.query(SummaryEntry.CONTENT_URI, new String[] {
+                SummaryEntry.COLUMN_SUMMARY_PRODUCT_COUNT,
+                SummaryEntry.COLUMN_SUMMARY_TOTAL_UNITS,
+                SummaryEntry.COLUMN_SUMMARY_TOTAL_VALUE }, null, null, null);
+        assertNotNull(cursor);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0) + "|" + cursor.getLong(1) + "|" + cursor.getLong(2);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.inventoryapp.data.ProductContract.MovementEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Checks that compacting the stock ledger keeps the sum of the movements of every product.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class StockLedgerTest {
+
+    private ContentResolver resolver;
+    private ProductDbHelper dbHelper;
+    private StockLedger ledger;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(ProductProvider.class, ProductContract.CONTENT_AUTHORITY);
+        resolver = RuntimeEnvironment.application.getContentResolver();
+        dbHelper = new ProductDbHelper(RuntimeEnvironment.application);
+        ledger = new StockLedger(dbHelper, resolver, new ProviderMetrics());
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+    }
+
+    @Test
+    public void foldsOldMovementsIntoOneSnapshotPerProduct() {
+        long pencil = insert("Pencil", 10);
+        long eraser = insert("Eraser", 4);
+        long stapler = insert("Stapler", 0);
+        sell(pencil, 2);
+        sell(pencil, 3);
+
+        assertEquals(3, ledger.compact(System.currentTimeMillis() + 1));
+
+        assertEquals(singletonList(MovementEntry.REASON_SNAPSHOT + "|5"), movements(pencil));
+        // A single movement is already as small as it gets
+        assertEquals(singletonList(MovementEntry.REASON_INITIAL + "|4"), movements(eraser));
+        assertEquals(0, movements(stapler).size());
+        assertEquals(5, quantityOf(pencil));
+
+        // Compacting again finds nothing to fold
+        assertEquals(0, ledger.compact(System.currentTimeMillis() + 1));
+        assertEquals(singletonList(MovementEntry.REASON_SNAPSHOT + "|5"), movements(pencil));
+    }
+
+    @Test
+    public void keepsMovementsNewerThanTheCutoff() {
+        long pencil = insert("Pencil", 10);
+        sell(pencil, 2);
+        sell(pencil, 3);
+
+        assertEquals(0, ledger.compact(0));
+        assertEquals(asList(MovementEntry.REASON_INITIAL + "|10", MovementEntry.REASON_SALE + "|-2",
+                MovementEntry.REASON_SALE + "|-3"), movements(pencil));
+
+        // The provider only compacts movements older than the retention period
+        Bundle result = resolver.call(MovementEntry.CONTENT_URI, MovementEntry.METHOD_COMPACT,
+                null, null);
+        assertNotNull(result);
+        assertEquals(0, result.getInt(MovementEntry.EXTRA_FOLDED));
+        assertEquals(3, movements(pencil).size());
+    }
+
+    private long insert(String name, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 1);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME, "Office Supplies");
+        Uri uri = resolver.insert(ProductEntry.CONTENT_URI, values);
+        assertNotNull(uri);
+        return ContentUris.parseId(uri);
+    }
+
+    private void sell(long id, int amount) {
+        Bundle extras = new Bundle();
+        extras.putInt(ProductEntry.EXTRA_AMOUNT, amount);
+        resolver.call(ProductEntry.CONTENT_URI, ProductEntry.METHOD_SELL, String.valueOf(id),
+                extras);
+    }
+
+    /** Return the reason and delta of every movement of a product, oldest first */
+    private List<String> movements(long id) {
+        Cursor cursor = resolver.query(MovementEntry.CONTENT_URI, new String[] {
+                        MovementEntry.COLUMN_MOVEMENT_REASON, MovementEntry.COLUMN_MOVEMENT_DELTA },
+                MovementEntry.COLUMN_MOVEMENT_PRODUCT_ID + "=?", new String[] { String.valueOf(id) },
+                MovementEntry._ID);
+        assertNotNull(cursor);
+        List<String> movements = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                movements.add(cursor.getString(0) + "|" + cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return movements;
+    }
+
+    private int quantityOf(long id) {
+        Cursor cursor = resolver.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id),
+                new String[] { ProductEntry.COLUMN_PRODUCT_QUANTITY }, null, null, null);
+        assertNotNull(cursor);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}